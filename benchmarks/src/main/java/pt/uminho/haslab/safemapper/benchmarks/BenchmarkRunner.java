@@ -0,0 +1,41 @@
+package pt.uminho.haslab.safemapper.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner class.
+ * Runs the selected benchmarks once per thread count with the GC profiler enabled, so that allocation rates
+ * (gc.alloc.rate.norm) are reported next to the scores. Any regular JMH command line option is accepted; the thread
+ * counts are taken from -t if given, or from the threads system property otherwise.
+ * <p>
+ * Usage: java -Dthreads=1,4,16 -jar target/benchmarks.jar [JMH options] [benchmark regexp]
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String[] threads;
+        if (commandLine.getThreads().hasValue()) {
+            threads = new String[]{String.valueOf(commandLine.getThreads().get())};
+        } else {
+            threads = System.getProperty("threads", "1,4,16").split(",");
+        }
+
+        for (String t : threads) {
+            OptionsBuilder options = new OptionsBuilder();
+            options.parent(commandLine)
+                    .threads(Integer.parseInt(t.trim()))
+                    .addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+        }
+    }
+
+}
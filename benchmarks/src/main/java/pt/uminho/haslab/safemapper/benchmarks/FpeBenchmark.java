@@ -0,0 +1,59 @@
+package pt.uminho.haslab.safemapper.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.QualifierFPE;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FpeBenchmark class.
+ * Derivation of the FPE security parameters (key || tweak) of a column, for both FF1 and FF3 instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FpeBenchmark {
+
+    @Param({"FF1", "FF3"})
+    public String instance;
+
+    private QualifierFPE qualifier;
+    private byte[] key;
+    private byte[] parameters;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.qualifier = new QualifierFPE("q", DatabaseSchema.CryptoType.FPE, 16, false,
+                new HashMap<String, String>(), instance, 10, "12345678");
+        this.key = new byte[16];
+        this.parameters = new byte[32];
+    }
+
+    @Benchmark
+    public byte[] getSecurityParameters() throws UnsupportedEncodingException {
+        return qualifier.getSecurityParameters(key);
+    }
+
+    @Benchmark
+    public int writeSecurityParameters() throws UnsupportedEncodingException {
+        return qualifier.writeSecurityParameters(key, parameters, 0);
+    }
+
+}
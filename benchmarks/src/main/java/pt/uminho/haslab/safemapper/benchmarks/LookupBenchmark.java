@@ -0,0 +1,103 @@
+package pt.uminho.haslab.safemapper.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LookupBenchmark class.
+ * Column lookups on a single table, parameterized by the number of qualifiers in the family and by the fraction of
+ * requested columns that are declared in the schema.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+    //  Power of two, so that the cursor can wrap around with a mask
+    static final int REQUESTS = 1024;
+
+    @Param({"5", "500", "50000"})
+    public int familyWidth;
+
+    @Param({"1.0", "0.5", "0.0"})
+    public double hitRatio;
+
+    private TableSchema schema;
+    private byte[] family;
+    private String[] qualifiers;
+    private byte[][] qualifierBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File file = SchemaGenerator.write(1, familyWidth);
+        this.schema = new DatabaseSchema(file.getPath()).getSchema("table0");
+        this.family = SchemaGenerator.FAMILY.getBytes(Charset.forName("UTF-8"));
+
+        Random random = new Random(42);
+        this.qualifiers = new String[REQUESTS];
+        this.qualifierBytes = new byte[REQUESTS][];
+        for (int i = 0; i < REQUESTS; i++) {
+            if (random.nextDouble() < hitRatio) {
+                this.qualifiers[i] = "q" + random.nextInt(familyWidth);
+            } else {
+                this.qualifiers[i] = "undeclared" + i;
+            }
+            this.qualifierBytes[i] = this.qualifiers[i].getBytes(Charset.forName("UTF-8"));
+        }
+    }
+
+    @Benchmark
+    public boolean isProtectedColumn(Cursor cursor) {
+        return DatabaseSchema.isProtectedColumn(schema, family, qualifierBytes[cursor.next()]);
+    }
+
+    @Benchmark
+    public DatabaseSchema.CryptoType getCryptoTypeFromQualifier(Cursor cursor) {
+        return schema.getCryptoTypeFromQualifier(SchemaGenerator.FAMILY, qualifiers[cursor.next()]);
+    }
+
+    @Benchmark
+    public Boolean getColumnPadding(Cursor cursor) {
+        return schema.getColumnPadding(SchemaGenerator.FAMILY, qualifiers[cursor.next()]);
+    }
+
+    @Benchmark
+    public Integer getFormatSizeFromQualifier(Cursor cursor) {
+        return schema.getFormatSizeFromQualifier(SchemaGenerator.FAMILY, qualifiers[cursor.next()]);
+    }
+
+    /**
+     * Per-thread position in the request arrays.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next() {
+            position = (position + 1) & (REQUESTS - 1);
+            return position;
+        }
+    }
+
+}
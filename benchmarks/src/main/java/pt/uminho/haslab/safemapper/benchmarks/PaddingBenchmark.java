@@ -0,0 +1,76 @@
+package pt.uminho.haslab.safemapper.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.PaddingCodec;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PaddingBenchmark class.
+ * Padding and unpadding of a column value with the PaddingCodec of a table, into heap or direct buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaddingBenchmark {
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private PaddingCodec codec;
+    private int ordinal;
+    private ByteBuffer value;
+    private ByteBuffer padded;
+    private ByteBuffer unpadded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        File file = SchemaGenerator.write(1, 50);
+        TableSchema schema = new DatabaseSchema(file.getPath()).getSchema("table0");
+        this.codec = schema.getPaddingCodec();
+        //  Padded, with a format size of 8 + 30
+        this.ordinal = schema.getColumnOrdinal(SchemaGenerator.FAMILY, "q30");
+        boolean direct = buffer.equals("direct");
+        this.value = direct ? ByteBuffer.allocateDirect(8) : ByteBuffer.allocate(8);
+        this.padded = direct ? ByteBuffer.allocateDirect(64) : ByteBuffer.allocate(64);
+        this.unpadded = direct ? ByteBuffer.allocateDirect(64) : ByteBuffer.allocate(64);
+        this.value.putLong(0, 123456789L);
+    }
+
+    @Benchmark
+    public int padValue() {
+        this.value.clear();
+        this.padded.clear();
+        return this.codec.padValue(this.ordinal, this.value, this.padded);
+    }
+
+    @Benchmark
+    public int padAndUnpadValue() {
+        this.value.clear();
+        this.padded.clear();
+        this.unpadded.clear();
+        this.codec.padValue(this.ordinal, this.value, this.padded);
+        this.padded.flip();
+        return this.codec.unpadValue(this.ordinal, this.padded, this.unpadded);
+    }
+
+}
@@ -0,0 +1,62 @@
+package pt.uminho.haslab.safemapper.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParseBenchmark class.
+ * Construction of a DatabaseSchema from a schema file, parameterized by the number of tables, qualifiers per table and
+ * load mode. In LAZY mode only one table is parsed, as a proxy serving a single table would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10", "1000"})
+    public int tables;
+
+    @Param({"5", "500"})
+    public int familyWidth;
+
+    @Param({"EAGER", "PARALLEL", "LAZY"})
+    public DatabaseSchema.LoadMode mode;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.file = SchemaGenerator.write(tables, familyWidth);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public TableSchema parse() {
+        return new DatabaseSchema(file.getPath(), mode).getSchema("table0");
+    }
+
+}
@@ -0,0 +1,70 @@
+package pt.uminho.haslab.safemapper.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * SchemaGenerator class.
+ * Writes synthetic database schema files. Table i is named "table" + i and has a single family "f" with familyWidth
+ * qualifiers named "q0" ... "q" + (familyWidth - 1), cycling through the DET, OPE, SMPC, ISMPC, LSMPC and FPE
+ * techniques.
+ */
+public final class SchemaGenerator {
+
+    public static final String FAMILY = "f";
+
+    private static final String[] TECHNIQUES = {"DET", "OPE", "SMPC", "ISMPC", "LSMPC", "FPE"};
+
+    private SchemaGenerator() {
+    }
+
+    public static File write(int tables, int familyWidth) throws IOException {
+        File file = File.createTempFile("safemapper-bench", ".xml");
+        file.deleteOnExit();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("<schema>\n");
+            out.write("    <default>\n");
+            out.write("        <key>PLT</key>\n");
+            out.write("        <columns>PLT</columns>\n");
+            out.write("        <keypadding>false</keypadding>\n");
+            out.write("        <colpadding>false</colpadding>\n");
+            out.write("        <keyformatsize>10</keyformatsize>\n");
+            out.write("        <colformatsize>10</colformatsize>\n");
+            out.write("        <encryptionmode>enable</encryptionmode>\n");
+            out.write("    </default>\n");
+            for (int t = 0; t < tables; t++) {
+                out.write("    <table>\n");
+                out.write("        <name>table" + t + "</name>\n");
+                out.write("        <columns>\n");
+                out.write("            <family>\n");
+                out.write("                <name>" + FAMILY + "</name>\n");
+                for (int q = 0; q < familyWidth; q++) {
+                    String technique = TECHNIQUES[q % TECHNIQUES.length];
+                    out.write("                <qualifier>\n");
+                    out.write("                    <name>q" + q + "</name>\n");
+                    out.write("                    <cryptotechnique>" + technique + "</cryptotechnique>\n");
+                    out.write("                    <colformatsize>" + (8 + q % 32) + "</colformatsize>\n");
+                    out.write("                    <colpadding>" + (q % 2 == 0) + "</colpadding>\n");
+                    if (technique.equals("FPE")) {
+                        out.write("                    <instance>FF1</instance>\n");
+                        out.write("                    <radix>10</radix>\n");
+                        out.write("                    <tweak>tweak" + q + "</tweak>\n");
+                    }
+                    out.write("                </qualifier>\n");
+                }
+                out.write("            </family>\n");
+                out.write("        </columns>\n");
+                out.write("    </table>\n");
+            }
+            out.write("</schema>\n");
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+}
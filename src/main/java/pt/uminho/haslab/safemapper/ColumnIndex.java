@@ -0,0 +1,339 @@
+package pt.uminho.haslab.safemapper;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ColumnIndex class.
+ * Open-addressing index of the declared (family, qualifier) pairs of a table, keyed by the UTF-8 bytes of both names.
+ * Lookups accept byte[] slices (e.g., straight out of an HBase cell backing array) and do not allocate.
+ * Only the first family with a given name, and the first qualifier with a given name inside it, are indexed, which
+ * matches the resolution order of the linear scans in TableSchema.
+ * <p>
+ * A Bloom filter over the same keys answers most lookups of undeclared columns before the table is probed.
+ * <p>
+ * The qualifier patterns of each family (see Family.addQualifierPattern) follow the declared qualifiers as entries
+ * [exactSize, size). A qualifier that is not declared resolves to the entry of the first pattern of its family that
+ * matches it (see QualifierMatcher).
+ */
+final class ColumnIndex {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[][] families;
+    private final byte[][] qualifiers;
+    private final Qualifier[] columns;
+    private final Family[] columnFamilies;
+    private final int[] hashes;
+    //  slot -> entry index + 1 (0 marks an empty slot)
+    private final int[] slots;
+    private final int mask;
+    //  Bloom filter over the hashes of the declared columns, two bits per column
+    private final long[] filter;
+    private final int filterMask;
+    private final int exactSize;
+    private final int size;
+    //  Families with qualifier patterns: their names, matchers and the entry of their first pattern
+    private final String[] patternFamilyNames;
+    private final byte[][] patternFamilies;
+    private final QualifierMatcher[] matchers;
+    private final int[] patternBases;
+
+    ColumnIndex(List<Family> columnFamilies) {
+        int capacity = 0;
+        int patternFamilyCount = 0;
+        for (int i = 0; i < columnFamilies.size(); i++) {
+            Family f = columnFamilies.get(i);
+            capacity += f.getQualifierCount() + f.getQualifierPatternCount();
+            if (f.getQualifierPatternCount() > 0 && !isShadowed(columnFamilies, i)) {
+                patternFamilyCount++;
+            }
+        }
+
+        this.families = new byte[capacity][];
+        this.qualifiers = new byte[capacity][];
+        this.columns = new Qualifier[capacity];
+        this.columnFamilies = new Family[capacity];
+        this.hashes = new int[capacity];
+
+        int tableSize = 2;
+        while (tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+        this.slots = new int[tableSize];
+        this.mask = tableSize - 1;
+
+        //  About 8 bits per column, for a false positive rate of roughly 5%
+        int filterBits = 64;
+        while (filterBits < capacity * 8) {
+            filterBits <<= 1;
+        }
+        this.filter = new long[filterBits >>> 6];
+        this.filterMask = filterBits - 1;
+
+        int n = 0;
+        for (int i = 0; i < columnFamilies.size(); i++) {
+            Family f = columnFamilies.get(i);
+            if (isShadowed(columnFamilies, i)) {
+                continue;
+            }
+            byte[] fBytes = f.getFamilyName().getBytes(UTF8);
+            for (int j = 0; j < f.getQualifierCount(); j++) {
+                Qualifier q = f.getQualifier(j);
+                byte[] qBytes = q.getName().getBytes(UTF8);
+                int h = hash(fBytes, 0, fBytes.length, qBytes, 0, qBytes.length);
+                if (find(h, fBytes, 0, fBytes.length, qBytes, 0, qBytes.length, n) >= 0) {
+                    continue;
+                }
+                families[n] = fBytes;
+                qualifiers[n] = qBytes;
+                columns[n] = q;
+                this.columnFamilies[n] = f;
+                hashes[n] = h;
+                int slot = h & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = n + 1;
+                addToFilter(h);
+                n++;
+            }
+        }
+        this.exactSize = n;
+
+        this.patternFamilyNames = new String[patternFamilyCount];
+        this.patternFamilies = new byte[patternFamilyCount][];
+        this.matchers = new QualifierMatcher[patternFamilyCount];
+        this.patternBases = new int[patternFamilyCount];
+        int k = 0;
+        for (int i = 0; i < columnFamilies.size(); i++) {
+            Family f = columnFamilies.get(i);
+            if (f.getQualifierPatternCount() == 0 || isShadowed(columnFamilies, i)) {
+                continue;
+            }
+            List<String> patterns = new ArrayList<String>();
+            this.patternBases[k] = n;
+            for (int j = 0; j < f.getQualifierPatternCount(); j++) {
+                Qualifier rule = f.getQualifierPattern(j);
+                patterns.add(rule.getName());
+                columns[n] = rule;
+                this.columnFamilies[n] = f;
+                n++;
+            }
+            this.patternFamilyNames[k] = f.getFamilyName();
+            this.patternFamilies[k] = f.getFamilyName().getBytes(UTF8);
+            this.matchers[k] = new QualifierMatcher(patterns);
+            k++;
+        }
+        this.size = n;
+    }
+
+    private static boolean isShadowed(List<Family> columnFamilies, int index) {
+        String name = columnFamilies.get(index).getFamilyName();
+        for (int i = 0; i < index; i++) {
+            if (columnFamilies.get(i).getFamilyName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int hash(byte[] family, int fOffset, int fLength, byte[] qualifier, int qOffset, int qLength) {
+        int h = 0x811c9dc5;
+        for (int i = fOffset; i < fOffset + fLength; i++) {
+            h = (h ^ family[i]) * 0x01000193;
+        }
+        //  separator, so that ("ab","c") and ("a","bc") do not collide by construction
+        h = (h ^ 0xff) * 0x01000193;
+        for (int i = qOffset; i < qOffset + qLength; i++) {
+            h = (h ^ qualifier[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * hash(family : String, qualifier : String) method : hash(byte[], ...) of the UTF-8 encoding of the family and
+     * qualifier, computed without encoding them
+     */
+    static int hash(String family, String qualifier) {
+        int h = hash(0x811c9dc5, family);
+        h = (h ^ 0xff) * 0x01000193;
+        h = hash(h, qualifier);
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(int h, String s) {
+        for (int i = 0; i < s.length(); ) {
+            int c = codePoint(s, i);
+            i += Character.charCount(c);
+            int bytes = utf8(c);
+            for (int k = utf8Length(c); k > 0; k--) {
+                h = (h ^ (byte) bytes) * 0x01000193;
+                bytes >>>= 8;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * equal(a : byte[], s : String) method : compare bytes with the UTF-8 encoding of a string, without encoding it
+     */
+    static boolean equal(byte[] a, String s) {
+        int p = 0;
+        for (int i = 0; i < s.length(); ) {
+            int c = codePoint(s, i);
+            i += Character.charCount(c);
+            int bytes = utf8(c);
+            for (int k = utf8Length(c); k > 0; k--) {
+                if (p == a.length || a[p++] != (byte) bytes) {
+                    return false;
+                }
+                bytes >>>= 8;
+            }
+        }
+        return p == a.length;
+    }
+
+    /**
+     * @return the code point at index i of s. Unpaired surrogates are read as '?', as String.getBytes encodes them.
+     */
+    private static int codePoint(String s, int i) {
+        char c = s.charAt(i);
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return Character.toCodePoint(c, s.charAt(i + 1));
+        }
+        return '?';
+    }
+
+    /**
+     * @return the UTF-8 bytes of a code point, the first one in the low bits
+     */
+    private static int utf8(int c) {
+        if (c < 0x80) {
+            return c;
+        } else if (c < 0x800) {
+            return (0xc0 | c >>> 6) | (0x80 | c & 0x3f) << 8;
+        } else if (c < 0x10000) {
+            return (0xe0 | c >>> 12) | (0x80 | c >>> 6 & 0x3f) << 8 | (0x80 | c & 0x3f) << 16;
+        }
+        return (0xf0 | c >>> 18) | (0x80 | c >>> 12 & 0x3f) << 8 | (0x80 | c >>> 6 & 0x3f) << 16
+                | (0x80 | c & 0x3f) << 24;
+    }
+
+    private static int utf8Length(int c) {
+        return c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+    }
+
+    private void addToFilter(int h) {
+        int a = h & this.filterMask;
+        int b = secondHash(h) & this.filterMask;
+        this.filter[a >>> 6] |= 1L << a;
+        this.filter[b >>> 6] |= 1L << b;
+    }
+
+    /**
+     * @return false if no declared column has the hash h, true if one may have it
+     */
+    private boolean mightContain(int h) {
+        int a = h & this.filterMask;
+        int b = secondHash(h) & this.filterMask;
+        return (this.filter[a >>> 6] & (1L << a)) != 0 && (this.filter[b >>> 6] & (1L << b)) != 0;
+    }
+
+    private static int secondHash(int h) {
+        return Integer.rotateLeft(h * 0x9E3779B9, 16);
+    }
+
+    static boolean equal(byte[] a, byte[] b, int offset, int length) {
+        if (a.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int find(int h, byte[] family, int fOffset, int fLength, byte[] qualifier, int qOffset, int qLength, int limit) {
+        int slot = h & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            int i = entry - 1;
+            if (i < limit && hashes[i] == h
+                    && equal(families[i], family, fOffset, fLength)
+                    && equal(qualifiers[i], qualifier, qOffset, qLength)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * indexOf(...) method : resolve a (family, qualifier) byte slice pair to its entry in this index
+     *
+     * @return the entry index, or -1 if the column is not declared
+     */
+    int indexOf(byte[] family, int fOffset, int fLength, byte[] qualifier, int qOffset, int qLength) {
+        int h = hash(family, fOffset, fLength, qualifier, qOffset, qLength);
+        int i = mightContain(h) ? find(h, family, fOffset, fLength, qualifier, qOffset, qLength, exactSize) : -1;
+        if (i >= 0 || this.matchers.length == 0) {
+            return i;
+        }
+        for (int k = 0; k < this.matchers.length; k++) {
+            if (equal(this.patternFamilies[k], family, fOffset, fLength)) {
+                int rule = this.matchers[k].match(qualifier, qOffset, qLength);
+                return rule < 0 ? -1 : this.patternBases[k] + rule;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * matchPattern(family : String, qualifier : String) method : resolve an undeclared column to the entry of the
+     * qualifier pattern it matches
+     *
+     * @return the entry index, or -1 if no qualifier pattern of the family matches the qualifier
+     */
+    int matchPattern(String family, String qualifier) {
+        for (int k = 0; k < this.matchers.length; k++) {
+            if (this.patternFamilyNames[k].equals(family)) {
+                byte[] bytes = qualifier.getBytes(UTF8);
+                int rule = this.matchers[k].match(bytes, 0, bytes.length);
+                return rule < 0 ? -1 : this.patternBases[k] + rule;
+            }
+        }
+        return -1;
+    }
+
+    Qualifier get(byte[] family, int fOffset, int fLength, byte[] qualifier, int qOffset, int qLength) {
+        int i = indexOf(family, fOffset, fLength, qualifier, qOffset, qLength);
+        return i < 0 ? null : columns[i];
+    }
+
+    Qualifier qualifier(int index) {
+        return columns[index];
+    }
+
+    Family family(int index) {
+        return columnFamilies[index];
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of declared qualifiers, which come before the qualifier patterns
+     */
+    int exactSize() {
+        return this.exactSize;
+    }
+
+}
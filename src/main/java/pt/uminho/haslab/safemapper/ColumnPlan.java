@@ -0,0 +1,114 @@
+package pt.uminho.haslab.safemapper;
+
+/**
+ * ColumnPlan class.
+ * Resolution of every column of a request (e.g., the cells of a Put or the projection of a Scan) against one
+ * CompiledTableSchema: CryptoType, format size, padding and FPE parameters, in the order of the request columns.
+ * Columns are also grouped by CryptoType, like CryptoTypePartition does for a batch of cells.
+ * <p>
+ * Plans are immutable and shared between threads, see ColumnPlanCache.
+ */
+public final class ColumnPlan {
+
+    private final CompiledTableSchema schema;
+    private final DatabaseSchema.CryptoType[] cryptoTypes;
+    private final int[] formatSizes;
+    private final boolean[] paddings;
+    private final DatabaseSchema.FFX[] fpeInstances;
+    private final int[] radixes;
+    private final String[] tweaks;
+    private final CryptoTypePartition partition;
+
+    ColumnPlan(CompiledTableSchema schema, int size) {
+        this.schema = schema;
+        this.cryptoTypes = new DatabaseSchema.CryptoType[size];
+        this.formatSizes = new int[size];
+        this.paddings = new boolean[size];
+        this.fpeInstances = new DatabaseSchema.FFX[size];
+        this.radixes = new int[size];
+        this.tweaks = new String[size];
+        this.partition = new CryptoTypePartition(size);
+        this.partition.reset(size);
+    }
+
+    void set(int column, DatabaseSchema.CryptoType cType, int formatSize, boolean padding,
+             DatabaseSchema.FFX fpeInstance, int radix, String tweak) {
+        this.cryptoTypes[column] = cType;
+        this.formatSizes[column] = formatSize;
+        this.paddings[column] = padding;
+        this.fpeInstances[column] = fpeInstance;
+        this.radixes[column] = radix;
+        this.tweaks[column] = tweak;
+        this.partition.set(column, cType);
+    }
+
+    void group() {
+        this.partition.group();
+    }
+
+    /**
+     * @return the compiled schema this plan was resolved against
+     */
+    public CompiledTableSchema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * @return the number of columns in the plan
+     */
+    public int size() {
+        return this.cryptoTypes.length;
+    }
+
+    public DatabaseSchema.CryptoType getCryptoType(int column) {
+        return this.cryptoTypes[column];
+    }
+
+    /**
+     * @return the format size of the column, or 0 if the column is not declared
+     */
+    public int getFormatSize(int column) {
+        return this.formatSizes[column];
+    }
+
+    public boolean getColumnPadding(int column) {
+        return this.paddings[column];
+    }
+
+    /**
+     * @return the FPE instance of the column, or null if the column is not an FPE qualifier
+     */
+    public DatabaseSchema.FFX getFpeInstance(int column) {
+        return this.fpeInstances[column];
+    }
+
+    public int getRadix(int column) {
+        return this.radixes[column];
+    }
+
+    public String getTweak(int column) {
+        return this.tweaks[column];
+    }
+
+    /**
+     * @return the number of columns protected with cType
+     */
+    public int count(DatabaseSchema.CryptoType cType) {
+        return this.partition.count(cType);
+    }
+
+    /**
+     * @return the position in the request of the i-th column protected with cType
+     */
+    public int index(DatabaseSchema.CryptoType cType, int i) {
+        return this.partition.index(cType, i);
+    }
+
+    /**
+     * @return the position of the column inside the group of its CryptoType
+     */
+    public int rank(int column) {
+        return this.partition.rank(column);
+    }
+
+}
@@ -0,0 +1,188 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ColumnPlanCache class.
+ * Bounded LRU cache of ColumnPlans, keyed by the compiled snapshot of a TableSchema and the columns of a request.
+ * Requests with the same shape (e.g., the same Put for every row, the same Scan projection) reuse the plan instead of
+ * resolving each column again.
+ * <p>
+ * Entries are keyed by the CompiledTableSchema they were resolved against, so once a TableSchema is modified or
+ * replaced by a reload its old plans are never returned again and are evicted as the cache fills up. The cache is
+ * split in segments, each one an access ordered LinkedHashMap guarded by its own lock.
+ */
+public final class ColumnPlanCache {
+
+    private static final int DEFAULT_SEGMENTS = 16;
+    //  Minimum number of plans per segment, so small caches are not split into segments that evict too eagerly
+    private static final int MIN_SEGMENT_SIZE = 8;
+
+    private final Segment[] segments;
+
+    public ColumnPlanCache(int maximumSize) {
+        this(maximumSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param maximumSize maximum number of plans kept
+     * @param segments    maximum number of independently locked segments. The plans are spread over the segments, each
+     *                    one holding up to maximumSize / segments plans.
+     */
+    public ColumnPlanCache(int maximumSize, int segments) {
+        if (maximumSize <= 0 || segments <= 0) {
+            throw new IllegalArgumentException("Cache size and number of segments must be positive.");
+        }
+        int count = Math.max(1, Math.min(segments, maximumSize / MIN_SEGMENT_SIZE));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            //  Spread the remainder so the segments add up to maximumSize
+            this.segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * getPlan(schema : TableSchema, families : byte[][], qualifiers : byte[][]) method : get the plan of a request whose
+     * i-th column is families[i]:qualifiers[i], resolving and caching it on a miss. The arrays are not retained.
+     */
+    public ColumnPlan getPlan(TableSchema schema, byte[][] families, byte[][] qualifiers) {
+        if (families.length != qualifiers.length) {
+            throw new IllegalArgumentException("Families and qualifiers must have the same length.");
+        }
+        CompiledTableSchema compiled = schema.compile();
+        PlanKey key = new PlanKey(compiled, families, qualifiers);
+        Segment segment = this.segments[(key.hash & Integer.MAX_VALUE) % this.segments.length];
+
+        ColumnPlan plan;
+        synchronized (segment) {
+            plan = segment.get(key);
+        }
+        if (plan == null) {
+            //  Resolved outside the lock; concurrent misses on the same key resolve the same plan
+            plan = compiled.plan(families, qualifiers);
+            synchronized (segment) {
+                segment.put(key.copy(), plan);
+            }
+        }
+        return plan;
+    }
+
+    public ColumnPlan getPlan(TableSchema schema, String[] families, String[] qualifiers) {
+        if (families.length != qualifiers.length) {
+            throw new IllegalArgumentException("Families and qualifiers must have the same length.");
+        }
+        byte[][] f = new byte[families.length][];
+        byte[][] q = new byte[qualifiers.length][];
+        for (int i = 0; i < families.length; i++) {
+            f[i] = families[i].getBytes(ColumnIndex.UTF8);
+            q[i] = qualifiers[i].getBytes(ColumnIndex.UTF8);
+        }
+        return getPlan(schema, f, q);
+    }
+
+    /**
+     * @return the number of plans currently cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<PlanKey, ColumnPlan> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PlanKey, ColumnPlan> eldest) {
+            return size() > this.capacity;
+        }
+    }
+
+    private static final class PlanKey {
+        private final CompiledTableSchema schema;
+        private final byte[][] families;
+        private final byte[][] qualifiers;
+        private final int hash;
+
+        PlanKey(CompiledTableSchema schema, byte[][] families, byte[][] qualifiers) {
+            this.schema = schema;
+            this.families = families;
+            this.qualifiers = qualifiers;
+            int h = System.identityHashCode(schema);
+            for (int i = 0; i < families.length; i++) {
+                h = 31 * h + ColumnIndex.hash(families[i], 0, families[i].length,
+                        qualifiers[i], 0, qualifiers[i].length);
+            }
+            this.hash = h;
+        }
+
+        private PlanKey(PlanKey key, byte[][] families, byte[][] qualifiers) {
+            this.schema = key.schema;
+            this.families = families;
+            this.qualifiers = qualifiers;
+            this.hash = key.hash;
+        }
+
+        /**
+         * @return a key holding its own copy of the columns, safe to store in the cache
+         */
+        PlanKey copy() {
+            byte[][] f = new byte[this.families.length][];
+            byte[][] q = new byte[this.qualifiers.length][];
+            for (int i = 0; i < f.length; i++) {
+                f[i] = this.families[i].clone();
+                q[i] = this.qualifiers[i].clone();
+            }
+            return new PlanKey(this, f, q);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) o;
+            if (this.hash != other.hash || this.schema != other.schema
+                    || this.families.length != other.families.length) {
+                return false;
+            }
+            for (int i = 0; i < this.families.length; i++) {
+                if (!Arrays.equals(this.families[i], other.families[i])
+                        || !Arrays.equals(this.qualifiers[i], other.qualifiers[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
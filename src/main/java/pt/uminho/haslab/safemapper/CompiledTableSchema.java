@@ -0,0 +1,469 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CompiledTableSchema class.
+ * Read-only snapshot of a TableSchema with every column resolved up front. Columns are indexed by family and then by
+ * qualifier (or by their bytes, see ColumnIndex), so lookups do not depend on the number of declared qualifiers.
+ * Undeclared qualifiers are matched against the qualifier patterns of their family before falling back to defaults.
+ * Default fallbacks are applied at compile time and results are returned as primitives.
+ * <p>
+ * The snapshot also holds a routing table with the declared columns of each CryptoType (see getColumns(...)) and the
+ * CryptoTypes enabled in the table as a bitmask, bit cType.ordinal() (see getEnabledCryptoTypeMask()).
+ * <p>
+ * Every declared column has a dense ordinal in [0, getColumnCount()), assigned by its TableSchema (see
+ * TableSchema.getColumnOrdinal(...)), so per-column state can be kept in arrays indexed by ordinal.
+ * <p>
+ * Keys and values are padded to the format sizes of the snapshot with its PaddingCodec (see getPaddingCodec()).
+ * <p>
+ * A snapshot never changes after it is built. Use TableSchema.compile() to get the snapshot of the current state.
+ */
+public final class CompiledTableSchema {
+
+    private final String tablename;
+    private final DatabaseSchema.CryptoType defaultColumnsCryptoType;
+    private final boolean defaultColumnPadding;
+    private final boolean encryptionMode;
+
+    private final DatabaseSchema.CryptoType keyCryptoType;
+    private final int keyFormatSize;
+    private final boolean keyPadding;
+
+    private final Map<String, CompiledFamily> families;
+    private final ColumnIndex columnIndex;
+
+    //  Resolved column properties, indexed by the ColumnIndex entry of the column
+    private final DatabaseSchema.CryptoType[] cryptoTypes;
+    private final int[] formatSizes;
+    private final boolean[] paddings;
+    private final String[] generators;
+    private final boolean[] integerColumns;
+    //  FPE parameters, only set for FPE qualifiers
+    private final DatabaseSchema.FFX[] fpeInstances;
+    private final int[] radixes;
+    private final String[] tweaks;
+
+    //  ColumnIndex entry -> column ordinal (-1 for qualifier patterns), and ordinal -> column (null if not declared)
+    private final int[] ordinals;
+    private final SchemaColumn[] columns;
+    //  Ordinal -> ColumnIndex entry (-1 if not declared)
+    private final int[] entries;
+    //  Declared columns of each CryptoType, indexed by CryptoType ordinal
+    private final List<List<SchemaColumn>> routes;
+    private final long enabledCryptoTypes;
+    private final PaddingCodec paddingCodec;
+
+    CompiledTableSchema(TableSchema schema, List<Family> columnFamilies) {
+        this.tablename = schema.getTablename();
+        this.defaultColumnsCryptoType = schema.getDefaultColumnsCryptoType();
+        this.defaultColumnPadding = isTrue(schema.getDefaultColumnPadding());
+        this.encryptionMode = isTrue(schema.getEncryptionMode());
+
+        Key key = schema.getKey();
+        this.keyCryptoType = key.getCryptoType();
+        this.keyFormatSize = key.getFormatSize();
+        this.keyPadding = isTrue(key.getKeyPadding());
+
+        this.columnIndex = new ColumnIndex(columnFamilies);
+        int size = this.columnIndex.size();
+        this.cryptoTypes = new DatabaseSchema.CryptoType[size];
+        this.formatSizes = new int[size];
+        this.paddings = new boolean[size];
+        this.generators = new String[size];
+        this.integerColumns = new boolean[size];
+        this.fpeInstances = new DatabaseSchema.FFX[size];
+        this.radixes = new int[size];
+        this.tweaks = new String[size];
+
+        this.families = new HashMap<String, CompiledFamily>();
+        for (Family f : columnFamilies) {
+            if (!this.families.containsKey(f.getFamilyName())) {
+                Boolean padding = f.getColumnPadding();
+                this.families.put(f.getFamilyName(),
+                        new CompiledFamily(f, padding == null ? this.defaultColumnPadding : padding));
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            Qualifier q = this.columnIndex.qualifier(i);
+            DatabaseSchema.CryptoType cType = q.getCryptoType();
+            Boolean padding = q.getPadding();
+
+            this.cryptoTypes[i] = cType == null ? this.defaultColumnsCryptoType : cType;
+            this.formatSizes[i] = q.getFormatSize();
+            this.paddings[i] = padding == null ? this.defaultColumnPadding : padding;
+            this.generators[i] = q.getProperty("GENERATOR");
+            this.integerColumns[i] = "Integer".equals(q.getProperty("type"));
+            if (q instanceof QualifierFPE) {
+                QualifierFPE fpe = (QualifierFPE) q;
+                this.fpeInstances[i] = fpe.getFpeInstance();
+                this.radixes[i] = fpe.getRadix();
+                this.tweaks[i] = fpe.getTweak();
+            }
+            if (i < this.columnIndex.exactSize()) {
+                this.families.get(this.columnIndex.family(i).getFamilyName()).qualifiers.put(q.getName(), i);
+            }
+        }
+
+        this.ordinals = new int[size];
+        this.columns = new SchemaColumn[schema.assignOrdinals(this.columnIndex)];
+        this.entries = new int[this.columns.length];
+        Arrays.fill(this.ordinals, -1);
+        Arrays.fill(this.entries, -1);
+        for (int i = 0; i < this.columnIndex.exactSize(); i++) {
+            String family = this.columnIndex.family(i).getFamilyName();
+            Qualifier q = this.columnIndex.qualifier(i);
+            int ordinal = schema.ordinalOf(family, q.getName());
+            this.ordinals[i] = ordinal;
+            this.entries[ordinal] = i;
+            this.columns[ordinal] = new SchemaColumn(ordinal, family, q, this.cryptoTypes[i]);
+        }
+        this.routes = route();
+        this.enabledCryptoTypes = schema.getEnabledCryptoTypeMask();
+
+        int maxFormatSize = this.keyPadding ? this.keyFormatSize : 0;
+        for (int i = 0; i < size; i++) {
+            if (this.paddings[i]) {
+                maxFormatSize = Math.max(maxFormatSize, this.formatSizes[i]);
+            }
+        }
+        this.paddingCodec = new PaddingCodec(this, maxFormatSize);
+    }
+
+    private List<List<SchemaColumn>> route() {
+        DatabaseSchema.CryptoType[] types = DatabaseSchema.CryptoType.values();
+        List<List<SchemaColumn>> columns = new ArrayList<List<SchemaColumn>>(types.length);
+        for (int t = 0; t < types.length; t++) {
+            columns.add(new ArrayList<SchemaColumn>());
+        }
+        for (int i = 0; i < this.columnIndex.exactSize(); i++) {
+            columns.get(this.cryptoTypes[i].ordinal()).add(this.columns[this.ordinals[i]]);
+        }
+        for (int t = 0; t < types.length; t++) {
+            List<SchemaColumn> route = columns.get(t);
+            columns.set(t, route.isEmpty() ? Collections.<SchemaColumn>emptyList() : Collections.unmodifiableList(route));
+        }
+        return columns;
+    }
+
+    private static boolean isTrue(Boolean value) {
+        return value != null && value;
+    }
+
+    int indexOf(String family, String qualifier) {
+        CompiledFamily f = this.families.get(family);
+        if (f == null) {
+            return -1;
+        }
+        Integer i = f.qualifiers.get(qualifier);
+        if (i == null) {
+            return qualifier == null ? -1 : this.columnIndex.matchPattern(family, qualifier);
+        }
+        return i;
+    }
+
+    int indexOf(byte[] family, int familyOffset, int familyLength, byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return this.columnIndex.indexOf(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+    }
+
+    /**
+     * @return the ColumnIndex entry of the column with a given ordinal, or -1 if no column of this snapshot has it
+     * @throws IndexOutOfBoundsException if the ordinal is not in [0, getColumnCount())
+     */
+    int entryOf(int ordinal) {
+        if (ordinal < 0 || ordinal >= this.entries.length) {
+            throw new IndexOutOfBoundsException("Column ordinal " + ordinal + " is not in [0, " + this.entries.length + ").");
+        }
+        return this.entries[ordinal];
+    }
+
+    /**
+     * @return the format size of the column at a ColumnIndex entry, or 0 if the entry is negative (undeclared column)
+     */
+    int formatSize(int entry) {
+        return entry < 0 ? 0 : this.formatSizes[entry];
+    }
+
+    boolean padding(int entry) {
+        return entry >= 0 && this.paddings[entry];
+    }
+
+    ColumnIndex columnIndex() {
+        return this.columnIndex;
+    }
+
+    String generator(int entry) {
+        return this.generators[entry];
+    }
+
+    boolean integerColumn(int entry) {
+        return this.integerColumns[entry];
+    }
+
+    DatabaseSchema.FFX fpeInstance(int entry) {
+        return this.fpeInstances[entry];
+    }
+
+    int radix(int entry) {
+        return this.radixes[entry];
+    }
+
+    String tweak(int entry) {
+        return this.tweaks[entry];
+    }
+
+    public String getTablename() {
+        return this.tablename;
+    }
+
+    public boolean getEncryptionMode() {
+        return this.encryptionMode;
+    }
+
+    /**
+     * @return the codec that pads keys and values to the format sizes of this snapshot
+     */
+    public PaddingCodec getPaddingCodec() {
+        return this.paddingCodec;
+    }
+
+    public DatabaseSchema.CryptoType getKeyCryptoType() {
+        return this.keyCryptoType;
+    }
+
+    public int getKeyFormatSize() {
+        return this.keyFormatSize;
+    }
+
+    public boolean getKeyPadding() {
+        return this.keyPadding;
+    }
+
+    /**
+     * getColumns(cType : CryptoType) method : get the declared columns protected with a given CryptoType, in declaration
+     * order. Qualifier patterns are not included.
+     *
+     * @return a read-only list, shared by every caller
+     */
+    public List<SchemaColumn> getColumns(DatabaseSchema.CryptoType cType) {
+        return this.routes.get(cType.ordinal());
+    }
+
+    /**
+     * @return the bound of the column ordinals: every declared column has an ordinal in [0, getColumnCount())
+     */
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    /**
+     * getOrdinal(family : String, qualifier : String) method : get the ordinal of a declared column
+     *
+     * @return the ordinal, or -1 if the column is not declared (including qualifiers only matched by a pattern)
+     */
+    public int getOrdinal(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? -1 : this.ordinals[i];
+    }
+
+    public int getOrdinal(byte[] family, int familyOffset, int familyLength,
+                          byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        int i = indexOf(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return i < 0 ? -1 : this.ordinals[i];
+    }
+
+    /**
+     * getColumn(ordinal : int) method : get the column with a given ordinal
+     *
+     * @return the column, or null if no column of this snapshot has the ordinal (e.g., it belonged to a renamed column)
+     * @throws IndexOutOfBoundsException if the ordinal is not in [0, getColumnCount())
+     */
+    public SchemaColumn getColumn(int ordinal) {
+        if (ordinal < 0 || ordinal >= this.columns.length) {
+            throw new IndexOutOfBoundsException("Column ordinal " + ordinal + " is not in [0, " + this.columns.length + ").");
+        }
+        return this.columns[ordinal];
+    }
+
+    /**
+     * @return the CryptoTypes enabled in the table, with bit cType.ordinal() set for each enabled cType
+     */
+    public long getEnabledCryptoTypeMask() {
+        return this.enabledCryptoTypes;
+    }
+
+    public boolean isCryptoTypeEnabled(DatabaseSchema.CryptoType cType) {
+        return (this.enabledCryptoTypes & (1L << cType.ordinal())) != 0;
+    }
+
+    public boolean containsFamily(String family) {
+        return this.families.containsKey(family);
+    }
+
+    public boolean containsQualifier(String family, String qualifier) {
+        return indexOf(family, qualifier) >= 0;
+    }
+
+    Family getFamily(String family) {
+        CompiledFamily f = this.families.get(family);
+        return f == null ? null : f.family;
+    }
+
+    /**
+     * getCryptoType(family : String, qualifier : String) method : get the CryptoType of a given family:qualifier,
+     * falling back to the table default columns CryptoType
+     */
+    public DatabaseSchema.CryptoType getCryptoType(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? this.defaultColumnsCryptoType : this.cryptoTypes[i];
+    }
+
+    /**
+     * @return the CryptoType of the column at a ColumnIndex entry, or the table default columns CryptoType if the entry
+     * is negative (undeclared column)
+     */
+    DatabaseSchema.CryptoType getCryptoType(int entry) {
+        return entry < 0 ? this.defaultColumnsCryptoType : this.cryptoTypes[entry];
+    }
+
+    public DatabaseSchema.CryptoType getCryptoType(byte[] family, int familyOffset, int familyLength,
+                                                   byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        int i = indexOf(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return i < 0 ? this.defaultColumnsCryptoType : this.cryptoTypes[i];
+    }
+
+    /**
+     * classify(...) method : resolve the CryptoType of a batch of cells and group them by CryptoType. Cell i has the
+     * family families[i][familyOffsets[i] .. familyOffsets[i] + familyLengths[i]) and likewise for its qualifier.
+     *
+     * @param count     number of cells in the batch
+     * @param partition partition to fill, or null to allocate a new one
+     * @return the filled partition
+     */
+    public CryptoTypePartition classify(byte[][] families, int[] familyOffsets, int[] familyLengths,
+                                        byte[][] qualifiers, int[] qualifierOffsets, int[] qualifierLengths,
+                                        int count, CryptoTypePartition partition) {
+        CryptoTypePartition result = partition == null ? new CryptoTypePartition(count) : partition;
+        result.reset(count);
+        for (int i = 0; i < count; i++) {
+            result.set(i, getCryptoType(families[i], familyOffsets[i], familyLengths[i],
+                    qualifiers[i], qualifierOffsets[i], qualifierLengths[i]));
+        }
+        result.group();
+        return result;
+    }
+
+    public CryptoTypePartition classify(byte[][] families, byte[][] qualifiers, int count, CryptoTypePartition partition) {
+        CryptoTypePartition result = partition == null ? new CryptoTypePartition(count) : partition;
+        result.reset(count);
+        for (int i = 0; i < count; i++) {
+            result.set(i, getCryptoType(families[i], 0, families[i].length, qualifiers[i], 0, qualifiers[i].length));
+        }
+        result.group();
+        return result;
+    }
+
+    /**
+     * getFormatSize(family : String, qualifier : String) method : get the format size of a given family:qualifier, or
+     * 0 if the column is not declared
+     */
+    public int getFormatSize(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? 0 : this.formatSizes[i];
+    }
+
+    /**
+     * getColumnPadding(family : String, qualifier : String) method : get the padding of a given family:qualifier. An
+     * undeclared qualifier inherits the padding of its family, and an undeclared family the table default.
+     */
+    public boolean getColumnPadding(String family, String qualifier) {
+        CompiledFamily f = this.families.get(family);
+        if (f == null) {
+            return this.defaultColumnPadding;
+        }
+        int i = indexOf(family, qualifier);
+        return i < 0 ? f.padding : this.paddings[i];
+    }
+
+    public String getGeneratorType(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? null : this.generators[i];
+    }
+
+    /**
+     * getFpeInstance(family : String, qualifier : String) method : get the FPE instance of a given family:qualifier
+     *
+     * @return the FPE instance, or null if the column is not an FPE qualifier
+     */
+    public DatabaseSchema.FFX getFpeInstance(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? null : this.fpeInstances[i];
+    }
+
+    /**
+     * @return the FPE radix of a given family:qualifier, or 0 if the column is not an FPE qualifier
+     */
+    public int getRadix(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? 0 : this.radixes[i];
+    }
+
+    /**
+     * @return the FPE tweak of a given family:qualifier, or null if the column is not an FPE qualifier
+     */
+    public String getTweak(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i < 0 ? null : this.tweaks[i];
+    }
+
+    public boolean isIntegerColumn(String family, String qualifier) {
+        int i = indexOf(family, qualifier);
+        return i >= 0 && this.integerColumns[i];
+    }
+
+    public boolean isIntegerColumn(byte[] family, int familyOffset, int familyLength,
+                                   byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        int i = indexOf(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return i >= 0 && this.integerColumns[i];
+    }
+
+    /**
+     * plan(families : byte[][], qualifiers : byte[][]) method : resolve every column of a request at once, see
+     * ColumnPlanCache
+     */
+    ColumnPlan plan(byte[][] families, byte[][] qualifiers) {
+        int size = families.length;
+        ColumnPlan plan = new ColumnPlan(this, size);
+        for (int c = 0; c < size; c++) {
+            int i = indexOf(families[c], 0, families[c].length, qualifiers[c], 0, qualifiers[c].length);
+            if (i < 0) {
+                String family = new String(families[c], ColumnIndex.UTF8);
+                plan.set(c, this.defaultColumnsCryptoType, 0, getColumnPadding(family, null), null, 0, null);
+            } else {
+                plan.set(c, this.cryptoTypes[i], this.formatSizes[i], this.paddings[i],
+                        this.fpeInstances[i], this.radixes[i], this.tweaks[i]);
+            }
+        }
+        plan.group();
+        return plan;
+    }
+
+    private static final class CompiledFamily {
+        private final Family family;
+        private final boolean padding;
+        private final Map<String, Integer> qualifiers;
+
+        CompiledFamily(Family family, boolean padding) {
+            this.family = family;
+            this.padding = padding;
+            this.qualifiers = new HashMap<String, Integer>();
+        }
+    }
+
+}
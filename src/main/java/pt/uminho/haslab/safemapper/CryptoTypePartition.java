@@ -0,0 +1,132 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * CryptoTypePartition class.
+ * Result of classifying a batch of cells (e.g., every cell of a Put or Result) by CryptoType, see
+ * TableSchema.classify(...). Cells are identified by their position in the batch. For each CryptoType the partition
+ * holds the positions of the cells protected with it, in their original order (gather indices), and for each cell its
+ * rank inside the group of its CryptoType (scatter indices), so results computed per group can be written back in the
+ * original order.
+ * <p>
+ * A partition can be reused across batches to avoid allocating; its arrays only grow.
+ */
+public final class CryptoTypePartition {
+
+    private static final DatabaseSchema.CryptoType[] TYPES = DatabaseSchema.CryptoType.values();
+
+    private int size;
+    //  CryptoType of each cell
+    private DatabaseSchema.CryptoType[] types;
+    //  Cell positions grouped by CryptoType: the group of type t is order[start[t]] ... order[start[t + 1] - 1]
+    private int[] order;
+    private final int[] start;
+    //  Next insertion point of each group, used while grouping
+    private final int[] cursor;
+    //  Rank of each cell inside its group
+    private int[] rank;
+
+    public CryptoTypePartition() {
+        this(16);
+    }
+
+    public CryptoTypePartition(int capacity) {
+        this.types = new DatabaseSchema.CryptoType[capacity];
+        this.order = new int[capacity];
+        this.rank = new int[capacity];
+        this.start = new int[TYPES.length + 1];
+        this.cursor = new int[TYPES.length];
+    }
+
+    void reset(int size) {
+        if (this.types.length < size) {
+            this.types = new DatabaseSchema.CryptoType[size];
+            this.order = new int[size];
+            this.rank = new int[size];
+        }
+        this.size = size;
+    }
+
+    void set(int cell, DatabaseSchema.CryptoType cType) {
+        this.types[cell] = cType;
+    }
+
+    /**
+     * Groups the cells set with set(...) by CryptoType, with a stable counting sort.
+     */
+    void group() {
+        Arrays.fill(this.start, 0);
+        for (int i = 0; i < this.size; i++) {
+            this.start[this.types[i].ordinal() + 1]++;
+        }
+        for (int t = 0; t < TYPES.length; t++) {
+            this.start[t + 1] += this.start[t];
+        }
+        System.arraycopy(this.start, 0, this.cursor, 0, TYPES.length);
+        for (int i = 0; i < this.size; i++) {
+            int t = this.types[i].ordinal();
+            this.order[this.cursor[t]] = i;
+            this.rank[i] = this.cursor[t] - this.start[t];
+            this.cursor[t]++;
+        }
+    }
+
+    /**
+     * @return the number of cells in the batch
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public DatabaseSchema.CryptoType getCryptoType(int cell) {
+        return this.types[cell];
+    }
+
+    /**
+     * @return the number of cells protected with cType
+     */
+    public int count(DatabaseSchema.CryptoType cType) {
+        return this.start[cType.ordinal() + 1] - this.start[cType.ordinal()];
+    }
+
+    /**
+     * index(cType : CryptoType, i : int) method : gather index
+     *
+     * @return the position in the batch of the i-th cell protected with cType
+     */
+    public int index(DatabaseSchema.CryptoType cType, int i) {
+        return this.order[this.start[cType.ordinal()] + i];
+    }
+
+    /**
+     * rank(cell : int) method : scatter index
+     *
+     * @return the position of the cell inside the group of its CryptoType
+     */
+    public int rank(int cell) {
+        return this.rank[cell];
+    }
+
+    /**
+     * @return a new array with the positions of the cells protected with cType, in their original order
+     */
+    public int[] indices(DatabaseSchema.CryptoType cType) {
+        int[] result = new int[count(cType)];
+        System.arraycopy(this.order, this.start[cType.ordinal()], result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * @return a new BitSet with the positions of the cells protected with cType
+     */
+    public BitSet bitSet(DatabaseSchema.CryptoType cType) {
+        BitSet result = new BitSet(this.size);
+        for (int i = this.start[cType.ordinal()]; i < this.start[cType.ordinal() + 1]; i++) {
+            result.set(this.order[i]);
+        }
+        return result;
+    }
+
+}
@@ -2,17 +2,19 @@ package pt.uminho.haslab.safemapper;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
 import static pt.uminho.haslab.safemapper.DatabaseSchema.CryptoType.*;
 
@@ -23,7 +25,11 @@ import static pt.uminho.haslab.safemapper.DatabaseSchema.CryptoType.*;
 public class DatabaseSchema implements DatabaseSchemaInterface {
 
     static final Log LOG = LogFactory.getLog(DatabaseSchema.class.getName());
-    public Map<String, TableSchema> tableSchemas;
+    /*
+     * Replaced as a whole (never modified in place) when the schema is reloaded, so readers always see a complete set
+     * of fully built TableSchemas.
+     */
+    public volatile Map<String, TableSchema> tableSchemas;
     private DatabaseSchema.CryptoType defaultPropertiesKey;
     private DatabaseSchema.CryptoType defaultPropertiesColumns;
     private Boolean defaultPropertiesKeyPadding;
@@ -33,503 +39,533 @@ public class DatabaseSchema implements DatabaseSchemaInterface {
     private boolean hasDefaultDatabaseProperties;
     private Boolean defaultEncryptionMode;
     private String databaseSchemaFile;
+    private final LoadMode loadMode;
+    //  Digest of the <default> element and of each <table> element (by table name), used for incremental reloads
+    private String defaultsFingerprint;
+    private Map<String, String> tableFingerprints;
+    //  Parse and reload timings, and the column lookup counters of each table
+    private final SchemaMetrics metrics = new SchemaMetrics();
+    //  Notified with the changes of each reload, see addChangeListener
+    private final CopyOnWriteArrayList<SchemaChangeListener> listeners = new CopyOnWriteArrayList<SchemaChangeListener>();
+    //  Set once the schema is shared through a SchemaRegistry, see isShared()
+    private volatile boolean shared;
+
     public DatabaseSchema(String databaseSchemaFile) {
+        this(databaseSchemaFile, LoadMode.EAGER);
+    }
+
+    /**
+     * Loads the database schema file with the given LoadMode.
+     * <p>
+     * databaseSchemaFile may also name a directory, whose schema documents (*.xml files) are loaded as one schema, and a
+     * schema file may name other schema files with <include> elements. Such multi-file schemas are read and parsed in
+     * parallel on the common ForkJoinPool with either EAGER or PARALLEL, and cannot be loaded with LAZY. The database
+     * <default> element must be declared once (in the root file, or in one of the files of the directory) and a table
+     * can only be declared in one file, otherwise an IllegalStateException is thrown.
+     */
+    public DatabaseSchema(String databaseSchemaFile, LoadMode loadMode) {
+        this(databaseSchemaFile, loadMode, new SchemaParser(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param parser parser of the load, which may be cancelled (see loadAsync)
+     * @param pool   pool the tables are parsed on with LoadMode.PARALLEL and multi-file schemas
+     */
+    private DatabaseSchema(String databaseSchemaFile, LoadMode loadMode, SchemaParser parser, ForkJoinPool pool) {
         if (databaseSchemaFile == null) {
             throw new IllegalStateException("Schema file name cannot be null.");
         }
+        if (loadMode == null) {
+            throw new NullPointerException("Load mode cannot be null.");
+        }
         /*
          *Concurrent access to the tables should be possible but not concurrent updates.
          * The TableSchemas should be defined only once on this constructor.
          */
-        this.tableSchemas = new ConcurrentHashMap<String, TableSchema>();
-        this.hasDefaultDatabaseProperties = false;
         this.databaseSchemaFile = databaseSchemaFile;
+        this.loadMode = loadMode;
+        if (loadMode == LoadMode.LAZY) {
+            this.indexDatabaseTables(parser);
+        } else {
+            this.apply(parseDatabaseTables(parser, pool));
+        }
+    }
+
+    public static CompletableFuture<DatabaseSchema> loadAsync(String databaseSchemaFile, Executor executor) {
+        return loadAsync(databaseSchemaFile, LoadMode.EAGER, executor);
+    }
+
+    /**
+     * loadAsync(databaseSchemaFile : String, loadMode : LoadMode, executor : Executor) method : load a database schema
+     * file as new DatabaseSchema(databaseSchemaFile, loadMode) does, on the given executor instead of the calling
+     * thread. If the executor is a ForkJoinPool, the tables are also parsed on it with LoadMode.PARALLEL and
+     * multi-file schemas; otherwise they are parsed on the common ForkJoinPool.
+     * <p>
+     * Cancelling the future stops the load before its next table (or schema file) is parsed. Errors of the load
+     * complete the future exceptionally, with the exception the constructor would throw.
+     *
+     * @return a future completed with the loaded schema
+     */
+    public static CompletableFuture<DatabaseSchema> loadAsync(final String databaseSchemaFile, final LoadMode loadMode,
+                                                              Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("Executor cannot be null.");
+        }
+        final ForkJoinPool pool = executor instanceof ForkJoinPool ? (ForkJoinPool) executor : ForkJoinPool.commonPool();
+        final SchemaParser parser = new SchemaParser();
+        final CompletableFuture<DatabaseSchema> future = new CompletableFuture<DatabaseSchema>();
+        future.whenComplete(new BiConsumer<DatabaseSchema, Throwable>() {
+            @Override
+            public void accept(DatabaseSchema schema, Throwable error) {
+                if (future.isCancelled()) {
+                    parser.cancel();
+                }
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(new DatabaseSchema(databaseSchemaFile, loadMode, parser, pool));
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            //  e.g., RejectedExecutionException
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Creates a schema from an already parsed (or decoded) result. databaseSchemaFile may be null.
+     */
+    DatabaseSchema(String databaseSchemaFile, SchemaParser parsed) {
+        this.databaseSchemaFile = databaseSchemaFile;
+        this.loadMode = LoadMode.EAGER;
+        this.apply(parsed);
+    }
 
-        this.parseDatabaseTables();
+    /**
+     * Parses the database schema from a stream. The stream is read to the end but not closed. A schema created this
+     * way cannot be reloaded.
+     */
+    public DatabaseSchema(InputStream databaseSchema) {
+        if (databaseSchema == null) {
+            throw new IllegalStateException("Schema input stream cannot be null.");
+        }
+        this.loadMode = LoadMode.EAGER;
+        SchemaParser parser = new SchemaParser();
+        long start = System.nanoTime();
+        parser.parse(databaseSchema);
+        this.metrics.recordParse(System.nanoTime() - start);
+        this.apply(parser);
+    }
+
+    /**
+     * Parses the database schema from the remaining bytes of a buffer. The buffer position is not modified. A schema
+     * created this way cannot be reloaded.
+     */
+    public DatabaseSchema(ByteBuffer databaseSchema) {
+        this(databaseSchema == null ? null : SchemaParser.asInputStream(databaseSchema));
+    }
+
+    /**
+     * Same as isProtectedColumn(TableSchemaLookup, byte[], byte[]), kept for binary compatibility.
+     */
+    public static boolean isProtectedColumn(TableSchema schema, byte[] family, byte[] qualifier) {
+        return isProtectedColumn((TableSchemaLookup) schema, family, qualifier);
     }
 
     /**
      * Tests whether a column is protected with secret sharing or not. If a
      * column is protected with another technique it must return false for now.
      */
-    public static boolean isProtectedColumn(TableSchema schema, byte[] family, byte[] qualifier) {
-        String sFamily = new String(family);
-        String sQualifier = new String(qualifier);
+    public static boolean isProtectedColumn(TableSchemaLookup schema, byte[] family, byte[] qualifier) {
+        return isProtectedColumn(schema, family, 0, family.length, qualifier, 0, qualifier.length);
+    }
+
+    /**
+     * Same as isProtectedColumn(TableSchemaLookup, byte[], int, int, byte[], int, int), kept for binary compatibility.
+     */
+    public static boolean isProtectedColumn(TableSchema schema, byte[] family, int familyOffset, int familyLength,
+                                            byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return isProtectedColumn((TableSchemaLookup) schema, family, familyOffset, familyLength,
+                qualifier, qualifierOffset, qualifierLength);
+    }
 
+    /**
+     * Allocation-free variant of isProtectedColumn(TableSchemaLookup, byte[], byte[]). The family and qualifier are
+     * given as slices of (possibly larger) arrays, such as the backing array of an HBase cell.
+     */
+    public static boolean isProtectedColumn(TableSchemaLookup schema, byte[] family, int familyOffset, int familyLength,
+                                            byte[] qualifier, int qualifierOffset, int qualifierLength) {
         CryptoType type = schema.getCryptoTypeFromQualifier(
-                sFamily, sQualifier);
-        return type.equals(SMPC) || type.equals(ISMPC) || type.equals(LSMPC);
+                family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return type == SMPC || type == ISMPC || type == LSMPC;
     }
 
+    /**
+     * Same as isIntegerProtectedColumn(TableSchemaLookup, byte[], byte[]), kept for binary compatibility.
+     */
     public static boolean isIntegerProtectedColumn(TableSchema schema, byte[] family, byte[] qualifier) {
-        String sFamily = new String(family);
-        String sQualifier = new String(qualifier);
+        return isIntegerProtectedColumn((TableSchemaLookup) schema, family, qualifier);
+    }
 
-        CryptoType type = schema.getCryptoTypeFromQualifier(
-                sFamily, sQualifier);
-        return type.equals(ISMPC);
+    public static boolean isIntegerProtectedColumn(TableSchemaLookup schema, byte[] family, byte[] qualifier) {
+        return isIntegerProtectedColumn(schema, family, 0, family.length, qualifier, 0, qualifier.length);
     }
 
-    public static boolean isLongProtectedColumn(TableSchema schema, byte[] family, byte[] qualifier) {
-        String sFamily = new String(family);
-        String sQualifier = new String(qualifier);
+    /**
+     * Same as isIntegerProtectedColumn(TableSchemaLookup, byte[], int, int, byte[], int, int), kept for binary compatibility.
+     */
+    public static boolean isIntegerProtectedColumn(TableSchema schema, byte[] family, int familyOffset, int familyLength,
+                                                   byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return isIntegerProtectedColumn((TableSchemaLookup) schema, family, familyOffset, familyLength,
+                qualifier, qualifierOffset, qualifierLength);
+    }
 
+    public static boolean isIntegerProtectedColumn(TableSchemaLookup schema, byte[] family, int familyOffset, int familyLength,
+                                                   byte[] qualifier, int qualifierOffset, int qualifierLength) {
         CryptoType type = schema.getCryptoTypeFromQualifier(
-                sFamily, sQualifier);
-        return type.equals(LSMPC);
+                family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return type == ISMPC;
     }
 
-    public static boolean isIntegerType(TableSchema schema, byte[] family, byte[] qualifier) {
-        String sFamily = new String(family);
-        String sQualifier = new String(qualifier);
-
-        return schema.isIntegerColumn(sFamily, sQualifier);
+    /**
+     * Same as isLongProtectedColumn(TableSchemaLookup, byte[], byte[]), kept for binary compatibility.
+     */
+    public static boolean isLongProtectedColumn(TableSchema schema, byte[] family, byte[] qualifier) {
+        return isLongProtectedColumn((TableSchemaLookup) schema, family, qualifier);
     }
 
-    public Map<String, TableSchema> getSchemas() {
-        return this.tableSchemas;
+    public static boolean isLongProtectedColumn(TableSchemaLookup schema, byte[] family, byte[] qualifier) {
+        return isLongProtectedColumn(schema, family, 0, family.length, qualifier, 0, qualifier.length);
     }
 
-    public TableSchema getTableSchema(String tablename) {
-        if (this.tableSchemas.containsKey(tablename)) {
-            return this.tableSchemas.get(tablename);
-        } else {
-            return null;
-        }
+    /**
+     * Same as isLongProtectedColumn(TableSchemaLookup, byte[], int, int, byte[], int, int), kept for binary compatibility.
+     */
+    public static boolean isLongProtectedColumn(TableSchema schema, byte[] family, int familyOffset, int familyLength,
+                                                byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return isLongProtectedColumn((TableSchemaLookup) schema, family, familyOffset, familyLength,
+                qualifier, qualifierOffset, qualifierLength);
     }
 
-    public Map<String, Object> getDatabaseDefaultProperties() {
-        Map<String, Object> properties = new HashMap<String, Object>();
-        properties.put("defaultPropertiesKey", this.defaultPropertiesKey);
-        properties.put("defaultPropertiesColumns", this.defaultPropertiesColumns);
-        properties.put("defaultPropertiesKeyPadding", this.defaultPropertiesKeyPadding);
-        properties.put("defaultPropertiesColumnPadding", this.defaultPropertiesColumnPadding);
-        properties.put("defaultPropertiesKeyFormatSize", this.defaultPropertiesKeyFormatSize);
-        properties.put("defaultPropertiesColFormatSize", this.defaultPropertiesColFormatSize);
-        properties.put("defaultPropertiesEncryptionMode", this.defaultEncryptionMode);
-
-        return properties;
+    public static boolean isLongProtectedColumn(TableSchemaLookup schema, byte[] family, int familyOffset, int familyLength,
+                                                byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        CryptoType type = schema.getCryptoTypeFromQualifier(
+                family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return type == LSMPC;
     }
 
     /**
-     * parse(filename : String) method : parse the database schema file (<schema>.xml)
+     * Same as isIntegerType(TableSchemaLookup, byte[], byte[]), kept for binary compatibility.
      */
-    private void parseDatabaseTables() {
-        try {
-            // Read schema file
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Parsing databaseSchemaFile " + this.databaseSchemaFile);
-            }
-            File inputFile = new File(this.databaseSchemaFile);
-            SAXReader reader = new SAXReader();
-            Document document = reader.read(inputFile);
+    public static boolean isIntegerType(TableSchema schema, byte[] family, byte[] qualifier) {
+        return isIntegerType((TableSchemaLookup) schema, family, qualifier);
+    }
 
+    public static boolean isIntegerType(TableSchemaLookup schema, byte[] family, byte[] qualifier) {
+        return isIntegerType(schema, family, 0, family.length, qualifier, 0, qualifier.length);
+    }
 
-            //Map the schema file into an Element object
-            Element rootElement = document.getRootElement();
+    /**
+     * Same as isIntegerType(TableSchemaLookup, byte[], int, int, byte[], int, int), kept for binary compatibility.
+     */
+    public static boolean isIntegerType(TableSchema schema, byte[] family, int familyOffset, int familyLength,
+                                        byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return isIntegerType((TableSchemaLookup) schema, family, familyOffset, familyLength,
+                qualifier, qualifierOffset, qualifierLength);
+    }
 
-            parseDatabaseDefaultProperties(rootElement.element("default"));
+    public static boolean isIntegerType(TableSchemaLookup schema, byte[] family, int familyOffset, int familyLength,
+                                        byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return schema.isIntegerColumn(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+    }
 
-            List<Element> tables = rootElement.elements("table");
-            for (Element table_element : tables) {
-                TableSchema temp_schema = parseTable(table_element);
-                this.tableSchemas.put(temp_schema.getTablename(), temp_schema);
-            }
+    public Map<String, TableSchema> getSchemas() {
+        return this.tableSchemas;
+    }
 
+    public TableSchema getTableSchema(String tablename) {
+        return this.tableSchemas.get(tablename);
+    }
 
-        } catch (DocumentException e) {
-            LOG.error(e.getMessage());
-            throw new IllegalStateException(e);
-        }
+    public String getDatabaseSchemaFile() {
+        return this.databaseSchemaFile;
     }
 
-    private boolean strIsEmpty(String str) {
-        return str.length() <= 0;
+    public LoadMode getLoadMode() {
+        return this.loadMode;
     }
 
-    private void parseDatabaseDefaultProperties(Element rootElement) {
-        if (rootElement != null) {
-            String key = rootElement.elementText("key");
-            String cols = rootElement.elementText("columns");
-            String keyPadding = rootElement.elementText("keypadding");
-            String colPadding = rootElement.elementText("colpadding");
-            String keySize = rootElement.elementText("keyformatsize");
-            String colSize = rootElement.elementText("colformatsize");
-            String encryptionMode = rootElement.elementText("encryptionmode");
+    /**
+     * @return the metrics of this schema (see SchemaMetrics)
+     */
+    public SchemaMetrics getMetrics() {
+        return this.metrics;
+    }
 
-            if (key == null || strIsEmpty(key)) {
-                throw new NullPointerException("Default Row-Key Cryptographic Type cannot be null nor empty.");
-            }
-            if (cols == null || strIsEmpty(cols)) {
-                throw new NullPointerException("Default columns Cryptographic Type cannot be null nor empty.");
-            }
-            if (keyPadding == null || strIsEmpty(keyPadding)) {
-                throw new NullPointerException("Default key padding cannot be null nor empty.");
-            }
-            if (colPadding == null || strIsEmpty(colPadding)) {
-                throw new NullPointerException("Default columns padding cannot be null nor empty.");
-            }
-            if (keySize == null || strIsEmpty(keySize)) {
-                throw new NullPointerException("Default key format size cannot be null nor empty.");
-            }
-            if (colSize == null || strIsEmpty(colSize)) {
-                throw new NullPointerException("Default columns format size cannot be null nor empty.");
-            }
-            if (encryptionMode == null || strIsEmpty(encryptionMode)) {
-                throw new NullPointerException("Default encryption mode cannot be null nor empty.");
-            }
+    /**
+     * @return true if this schema is shared through a SchemaRegistry. A shared schema is read-only: reloading it,
+     * adding change listeners to it or changing any of its tables throws an IllegalStateException.
+     */
+    public boolean isShared() {
+        return this.shared;
+    }
 
-            this.defaultPropertiesKey = switchCryptoType(key);
-            this.defaultPropertiesColumns = switchCryptoType(cols);
-            this.defaultPropertiesKeyPadding = paddingBooleanConvertion(keyPadding);
-            this.defaultPropertiesColumnPadding = paddingBooleanConvertion(colPadding);
-            this.defaultPropertiesKeyFormatSize = formatSizeIntegerValue(keySize);
-            this.defaultPropertiesColFormatSize = formatSizeIntegerValue(colSize);
-            this.hasDefaultDatabaseProperties = true;
-            this.defaultEncryptionMode = modeConversion(encryptionMode);
+    /**
+     * share() method : make this schema and its tables (including those of LoadMode.LAZY parsed later) read-only
+     */
+    synchronized void share() {
+        this.shared = true;
+        Map<String, TableSchema> tables = this.tableSchemas;
+        if (tables instanceof LazyTableMap) {
+            ((LazyTableMap) tables).share();
         } else {
-            throw new NullPointerException("Default element cannot be null.");
+            for (TableSchema table : tables.values()) {
+                table.share();
+            }
         }
     }
 
-    private TableSchema parseTable(Element rootElement) {
-        TableSchema ts = new TableSchema();
-        parseTablename(rootElement, ts);
-        parseTableDefaultProperties(rootElement, ts);
-        parseKey(rootElement, ts);
-        parseColumns(rootElement, ts);
-
-        return ts;
+    private void checkNotShared(String operation) {
+        if (this.shared) {
+            throw new IllegalStateException("Schemas shared through a SchemaRegistry cannot " + operation + ".");
+        }
     }
 
     /**
-     * parseTablename(rootElement : Element) method : parse the table name
-     *
-     * @param rootElement main Element node
+     * getFootprint() method : estimate the heap retained by each table of this schema (see SchemaFootprint). Tables
+     * that are not loaded yet (see LoadMode.LAZY) are loaded first.
      */
-    private void parseTablename(Element rootElement, TableSchema tableSchema) {
-        Element nameElement = rootElement.element("name");
-        String name = nameElement.getText();
+    public SchemaFootprint getFootprint() {
+        return SchemaFootprint.measure(this.tableSchemas);
+    }
 
-        if (name == null || strIsEmpty(name)) {
-            throw new NullPointerException("Table name cannot be null nor empty.");
-        }
+    String getDefaultsFingerprint() {
+        return this.defaultsFingerprint;
+    }
 
-        tableSchema.setTablename(name);
+    Map<String, String> getTableFingerprints() {
+        return this.tableFingerprints;
     }
 
     /**
-     * parseDefault(rootElement : Element) method : parse the default database parameters
+     * reload() method : parse the database schema file again and atomically publish the resulting tables. Only the
+     * <table> elements whose content changed, and the tables modified in memory since they were parsed, are parsed again;
+     * the remaining TableSchema instances are reused. If the database <default> element changed, every table is parsed
+     * again.
+     * If the file is invalid an exception is thrown and the current tables are kept.
+     * <p>
+     * With LoadMode.LAZY the file is indexed again. Tables already parsed are reused if neither their <table> element
+     * nor the database <default> element changed, and any change of the file content counts as a modification.
      *
-     * @param rootElement main Element node
+     * @return true if any table was added, removed or modified. Otherwise false.
      */
-    private void parseTableDefaultProperties(Element rootElement, TableSchema tableSchema) {
-        Element defaultElement = rootElement.element("default");
-        if (defaultElement != null) {
-            String key = defaultElement.elementText("key");
-            String columns = defaultElement.elementText("columns");
-            String keyformatsize = defaultElement.elementText("keyformatsize");
-            String colformatsize = defaultElement.elementText("colformatsize");
-            String keypadding = defaultElement.elementText("keypadding");
-            String colpadding = defaultElement.elementText("colpadding");
-            String encryptionMode = defaultElement.elementText("encryptionmode");
-
-            if (key == null || strIsEmpty(key)) {
-                tableSchema.setDefaultKeyCryptoType(this.defaultPropertiesKey);
-            } else {
-                tableSchema.setDefaultKeyCryptoType(switchCryptoType(key));
-            }
-
-            if (columns == null || strIsEmpty(columns)) {
-                tableSchema.setDefaultColumnsCryptoType(this.defaultPropertiesColumns);
-            } else {
-                tableSchema.setDefaultColumnsCryptoType(switchCryptoType(columns));
-            }
-
-            if (keyformatsize == null || strIsEmpty(keyformatsize)) {
-                tableSchema.setDefaultKeyFormatSize(this.defaultPropertiesKeyFormatSize);
-            } else {
-                tableSchema.setDefaultKeyFormatSize(formatSizeIntegerValue(keyformatsize));
-            }
-
-            if (colformatsize == null || strIsEmpty(colformatsize)) {
-                tableSchema.setDefaultColumnFormatSize(this.defaultPropertiesColFormatSize);
-            } else {
-                tableSchema.setDefaultColumnFormatSize(formatSizeIntegerValue(colformatsize));
-            }
-
-            if (keypadding == null || strIsEmpty(keypadding)) {
-                tableSchema.setDefaultKeyPadding(this.defaultPropertiesKeyPadding);
-            } else {
-                tableSchema.setDefaultKeyPadding(paddingBooleanConvertion(keypadding));
-            }
-
-            if (colpadding == null || strIsEmpty(colpadding)) {
-                tableSchema.setDefaultColumnPadding(this.defaultPropertiesColumnPadding);
+    public synchronized boolean reload() {
+        if (this.databaseSchemaFile == null) {
+            throw new IllegalStateException("Only schemas parsed from a file can be reloaded.");
+        }
+        checkNotShared("be reloaded");
+        long start = System.nanoTime();
+        Map<String, TableSchema> previous = this.tableSchemas;
+        boolean changed;
+        try {
+            if (this.loadMode == LoadMode.LAZY) {
+                LazyTableMap lazy = (LazyTableMap) previous;
+                LazyTableMap tables = this.indexDatabaseTables(new SchemaParser());
+                changed = !lazy.getDigest().equals(tables.getDigest()) || lazy.hasModifiedTables();
             } else {
-                tableSchema.setDefaultColumnPadding(paddingBooleanConvertion(colpadding));
+                changed = this.reparseDatabaseTables();
             }
+        } catch (RuntimeException e) {
+            this.metrics.recordReload(System.nanoTime() - start, true);
+            throw e;
+        }
+        this.metrics.recordReload(System.nanoTime() - start, false);
 
-            if (encryptionMode == null || strIsEmpty(encryptionMode)) {
-                tableSchema.setEncryptionMode(this.defaultEncryptionMode);
-            } else {
-                tableSchema.setEncryptionMode(modeConversion(encryptionMode));
+        if (changed) {
+            LOG.info("Reloaded databaseSchemaFile " + this.databaseSchemaFile);
+            if (!this.listeners.isEmpty()) {
+                notifyListeners(SchemaDiff.compare(previous, this.tableSchemas));
             }
-        } else if (this.hasDefaultDatabaseProperties) {
-            tableSchema.setDefaultKeyCryptoType(this.defaultPropertiesKey);
-            tableSchema.setDefaultColumnsCryptoType(this.defaultPropertiesColumns);
-            tableSchema.setDefaultKeyFormatSize(this.defaultPropertiesKeyFormatSize);
-            tableSchema.setDefaultColumnFormatSize(this.defaultPropertiesColFormatSize);
-            tableSchema.setDefaultKeyPadding(this.defaultPropertiesKeyPadding);
-            tableSchema.setDefaultColumnPadding(this.defaultPropertiesColumnPadding);
-            tableSchema.setEncryptionMode(this.defaultEncryptionMode);
-        } else {
-            throw new NullPointerException("Default arguments specification cannot be null nor empty.");
         }
+        return changed;
     }
 
     /**
-     * parseKey(rootElement : Element) method : parse the key properties from the database schema
-     *
-     * @param rootElement main Element node
+     * addChangeListener(listener : SchemaChangeListener) method : notify a listener of the changes of every later
+     * reload that changes the schema. With LoadMode.LAZY, computing the changes parses every table.
      */
-    private void parseKey(Element rootElement, TableSchema tableSchema) {
-        Element keyElement = rootElement.element("key");
-        if (keyElement != null) {
-            String cryptoTechnique = keyElement.elementText("cryptotechnique");
-            String formatsize = keyElement.elementText("formatsize");
-            String keypadding = keyElement.elementText("keypadding");
-
-            String instance = keyElement.elementText("instance");
-            String radix = keyElement.elementText("radix");
-            String tweak = keyElement.elementText("tweak");
-
-            if (cryptoTechnique == null || strIsEmpty(cryptoTechnique)) {
-                cryptoTechnique = tableSchema.getDefaultKeyCryptoType().toString();
-            }
-
-            if (formatsize == null || strIsEmpty(formatsize)) {
-                formatsize = String.valueOf(tableSchema.getDefaultKeyFormatSize());
-            }
-
-            if (keypadding == null || strIsEmpty(keypadding)) {
-                keypadding = String.valueOf(tableSchema.getDefaultKeyPadding());
-            }
+    public void addChangeListener(SchemaChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener cannot be null.");
+        }
+        checkNotShared("have change listeners");
+        this.listeners.add(listener);
+    }
 
-            if (cryptoTechnique.equals("FPE")) {
-                validateFPEArguments(instance, radix, tweak);
-            }
+    public void removeChangeListener(SchemaChangeListener listener) {
+        this.listeners.remove(listener);
+    }
 
-            if (!cryptoTechnique.equals("FPE")) {
-                Key key = new Key(switchCryptoType(cryptoTechnique), formatSizeIntegerValue(formatsize), paddingBooleanConvertion(keypadding));
-                tableSchema.setKey(key);
-            } else {
-                Key key = new KeyFPE(
-                        switchCryptoType(cryptoTechnique),
-                        formatSizeIntegerValue(formatsize),
-                        paddingBooleanConvertion(keypadding),
-                        instance,
-                        radixIntegerValue(radix),
-                        tweak);
-                tableSchema.setKey(key);
+    private void notifyListeners(SchemaDiff diff) {
+        if (diff.isEmpty()) {
+            return;
+        }
+        for (SchemaChangeListener listener : this.listeners) {
+            try {
+                listener.schemaChanged(this, diff);
+            } catch (RuntimeException e) {
+                LOG.error("Schema change listener failed: " + e.getMessage(), e);
             }
         }
     }
 
     /**
-     * parseColumns(rootElement : Element) method : parse the column families and qualifiers properties from the database schema
+     * reparseDatabaseTables() method : parse the database schema file again, reusing the TableSchemas of unchanged
+     * tables, and publish the result
      *
-     * @param rootElement main Element node
+     * @return true if any table was added, removed or modified. Otherwise false.
      */
-    private void parseColumns(Element rootElement, TableSchema tableSchema) {
-        Element columnsElement = rootElement.element("columns");
-        if (columnsElement == null) {
-            throw new NoSuchElementException("Columns arguments cannot be null.");
-        }
-
-        List<Element> familiesElement = columnsElement.elements("family");
-        for (Element family : familiesElement) {
-            if (family != null) {
-                String familyName = family.elementText("name");
-                String familyCryptoTechnique = family.elementText("cryptotechnique");
-                String familyFormatSize = family.elementText("colformatsize");
-                String familyPadding = family.elementText("colpadding");
-
-                if (familyName == null || strIsEmpty(familyName)) {
-                    throw new NullPointerException("Column Family name cannot be null nor empty.");
-                }
-
-                if (familyCryptoTechnique == null || strIsEmpty(familyCryptoTechnique)) {
-                    familyCryptoTechnique = tableSchema.getDefaultColumnsCryptoType().toString();
-                }
-
-                if (familyFormatSize == null || strIsEmpty(familyFormatSize)) {
-                    familyFormatSize = String.valueOf(tableSchema.getDefaultColumnFormatSize());
-                }
-
-                if (familyPadding == null || strIsEmpty(familyPadding)) {
-                    familyPadding = String.valueOf(tableSchema.getDefaultColumnPadding());
-                }
-
-
-                Family f = new Family(
-                        familyName,
-                        switchCryptoType(familyCryptoTechnique),
-                        formatSizeIntegerValue(familyFormatSize),
-                        paddingBooleanConvertion(familyPadding));
-
-                tableSchema.addFamily(f);
-
-                List<Element> qualifiersElement = family.elements("qualifier");
-                for (Element qualifier : qualifiersElement) {
-                    String qualifierName = qualifier.elementText("name");
-                    String qualifierCryptoTechnique = qualifier.elementText("cryptotechnique");
-                    String qualifierFormatsize = qualifier.elementText("colformatsize");
-                    String qualifierPadding = qualifier.elementText("colpadding");
-
-                    String instance = qualifier.elementText("instance");
-                    String radix = qualifier.elementText("radix");
-                    String tweak = qualifier.elementText("tweak");
-
-                    List<Element> misc = qualifier.elements("misc");
-                    Map<String, String> properties = parseMiscellaneous(misc);
-
-                    if (qualifierName == null || strIsEmpty(qualifierName)) {
-                        throw new NullPointerException("Column qualifier name cannot be null nor empty.");
-                    }
-
-                    if (qualifierCryptoTechnique == null || strIsEmpty(qualifierCryptoTechnique)) {
-                        qualifierCryptoTechnique = familyCryptoTechnique;
-                    }
-
-                    if (qualifierFormatsize == null || strIsEmpty(qualifierFormatsize)) {
-                        qualifierFormatsize = familyFormatSize;
-                    }
-
-                    if (qualifierPadding == null || strIsEmpty(qualifierPadding)) {
-                        qualifierPadding = familyPadding;
-                    }
-
-                    if (qualifierCryptoTechnique.equals("FPE")) {
-                        validateFPEArguments(instance, radix, tweak);
-                    }
-
-                    Qualifier q;
-                    if (!qualifierCryptoTechnique.equals("FPE")) {
-                        q = new Qualifier(
-                                qualifierName,
-                                switchCryptoType(qualifierCryptoTechnique),
-                                formatSizeIntegerValue(qualifierFormatsize),
-                                paddingBooleanConvertion(qualifierPadding),
-                                properties);
-
-                    } else {
-                        q = new QualifierFPE(
-                                qualifierName,
-                                switchCryptoType(qualifierCryptoTechnique),
-                                formatSizeIntegerValue(qualifierFormatsize),
-                                paddingBooleanConvertion(qualifierPadding),
-                                properties,
-                                instance,
-                                radixIntegerValue(radix),
-                                tweak
-                        );
-                    }
-
-                    tableSchema.addQualifier(familyName, q);
-
-                    if (qualifierCryptoTechnique.equals("OPE")) {
-                        String stdQualifierName = qualifierName + "_STD";
-                        String stdCType = "STD";
-
-                        Qualifier std = new Qualifier(
-                                stdQualifierName,
-                                switchCryptoType(stdCType),
-                                formatSizeIntegerValue(qualifierFormatsize),
-                                paddingBooleanConvertion(qualifierPadding),
-                                properties
-                        );
-
-                        tableSchema.addQualifier(familyName, std);
-                    }
-
-                }
+    private boolean reparseDatabaseTables() {
+        SchemaParser parser = parseDatabaseTables(
+                new SchemaParser(this.tableSchemas, this.tableFingerprints, this.defaultsFingerprint),
+                ForkJoinPool.commonPool());
+
+        boolean changed = !parser.tableSchemas.keySet().equals(this.tableSchemas.keySet());
+        for (Map.Entry<String, TableSchema> entry : parser.tableSchemas.entrySet()) {
+            if (entry.getValue() != this.tableSchemas.get(entry.getKey())) {
+                changed = true;
+                break;
             }
         }
+
+        this.apply(parser);
+        return changed;
     }
 
     /**
-     * parseMiscellaneous(properties : List<Element>) method : parse random properties from the database schema
+     * indexDatabaseTables(parser : SchemaParser) method : index the database schema file (see LoadMode.LAZY) and publish the resulting
+     * tables, which are parsed on first access
      *
-     * @param properties list of Element nodes
-     * @return a mapper of the property and the type in Map<String,String> format
+     * @return the published tables
      */
-    private Map<String, String> parseMiscellaneous(List<Element> properties) {
-        Map<String, String> result = new HashMap<String, String>();
-        for (Element property : properties) {
-            result.put(property.elementText("property"), property.elementText("type"));
+    private LazyTableMap indexDatabaseTables(SchemaParser parser) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Indexing databaseSchemaFile " + this.databaseSchemaFile);
         }
-        return result;
-    }
-
-    private DatabaseSchema.CryptoType switchCryptoType(String cType) {
-        return cType == null ? null : valueOf(cType);
+        if (new File(this.databaseSchemaFile).isDirectory()) {
+            throw new IllegalStateException("Schema directories cannot be loaded lazily.");
+        }
+        long start = System.nanoTime();
+        SchemaIndex index = new SchemaIndex(ByteBuffer.wrap(Helpers.readFile(new File(this.databaseSchemaFile))));
+        if (!index.getIncludes().isEmpty()) {
+            throw new IllegalStateException("Schema files with include elements cannot be loaded lazily.");
+        }
+        parser.parseDefaults(index.getDefaults());
+        parser.checkCancelled();
+
+        LazyTableMap previous = this.tableSchemas instanceof LazyTableMap ? (LazyTableMap) this.tableSchemas : null;
+        LazyTableMap tables = new LazyTableMap(parser, index, this.metrics, previous);
+        this.metrics.recordParse(System.nanoTime() - start);
+        this.apply(parser, tables);
+        return tables;
     }
 
-    private int formatSizeIntegerValue(String formatSize) {
-        int value;
-        if (formatSize == null || strIsEmpty(formatSize))
-            value = 0;
-        else {
-            try {
-                value = Integer.parseInt(formatSize);
-            } catch (NumberFormatException e) {
-                LOG.error("DatabaseSchema:formatSizeIntegerValue:NumberFormatException:" + e.getMessage());
-                value = 0;
-            }
+    /**
+     * apply(parser : SchemaParser) method : publish the result of a parse. The tables are published last, with a
+     * single write.
+     */
+    private void apply(SchemaParser parser) {
+        for (Map.Entry<String, TableSchema> entry : parser.tableSchemas.entrySet()) {
+            entry.getValue().setMetrics(this.metrics.table(entry.getKey()));
         }
-        return value;
+        this.apply(parser, parser.tableSchemas);
     }
 
-    private Boolean paddingBooleanConvertion(String padding) {
-        Boolean value;
-        if (padding == null || strIsEmpty(padding)) {
-            throw new NullPointerException("DatabaseSchema:paddingBooleanConvertion:Boolean Value cannot be null nor empty.");
-        } else {
-            value = Boolean.valueOf(padding);
-        }
-        return value;
+    private void apply(SchemaParser parser, Map<String, TableSchema> tables) {
+        this.defaultPropertiesKey = parser.defaultPropertiesKey;
+        this.defaultPropertiesColumns = parser.defaultPropertiesColumns;
+        this.defaultPropertiesKeyPadding = parser.defaultPropertiesKeyPadding;
+        this.defaultPropertiesColumnPadding = parser.defaultPropertiesColumnPadding;
+        this.defaultPropertiesKeyFormatSize = parser.defaultPropertiesKeyFormatSize;
+        this.defaultPropertiesColFormatSize = parser.defaultPropertiesColFormatSize;
+        this.hasDefaultDatabaseProperties = parser.hasDefaultDatabaseProperties;
+        this.defaultEncryptionMode = parser.defaultEncryptionMode;
+        this.defaultsFingerprint = parser.defaultsFingerprint;
+        this.tableFingerprints = parser.tableFingerprints;
+        this.tableSchemas = tables;
     }
 
-    private int radixIntegerValue(String radix) {
-        if (radix == null || strIsEmpty(radix))
-            return 10;
-        else
-            return Integer.parseInt(radix);
+    public Map<String, Object> getDatabaseDefaultProperties() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("defaultPropertiesKey", this.defaultPropertiesKey);
+        properties.put("defaultPropertiesColumns", this.defaultPropertiesColumns);
+        properties.put("defaultPropertiesKeyPadding", this.defaultPropertiesKeyPadding);
+        properties.put("defaultPropertiesColumnPadding", this.defaultPropertiesColumnPadding);
+        properties.put("defaultPropertiesKeyFormatSize", this.defaultPropertiesKeyFormatSize);
+        properties.put("defaultPropertiesColFormatSize", this.defaultPropertiesColFormatSize);
+        properties.put("defaultPropertiesEncryptionMode", this.defaultEncryptionMode);
+
+        return properties;
     }
 
-    private void validateFPEArguments(String instance, String radix, String tweak) {
-        if (instance == null || strIsEmpty(instance)) {
-            throw new NullPointerException("Format-Preserving Encryption instance cannot be null nor empty.");
+    /**
+     * parse(filename : String) method : parse the database schema file (<schema>.xml)
+     *
+     * @param parser parser to use
+     * @param pool   pool the tables are parsed on with LoadMode.PARALLEL and multi-file schemas
+     * @return the parser, holding the parse result
+     */
+    private SchemaParser parseDatabaseTables(SchemaParser parser, ForkJoinPool pool) {
+        // Read schema file
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Parsing databaseSchemaFile " + this.databaseSchemaFile);
         }
-
-        if (radix == null || strIsEmpty(radix)) {
-            throw new NullPointerException("Format-Preserving Encryption radix cannot be null nor empty.");
+        File file = new File(this.databaseSchemaFile);
+        if (file.isDirectory()) {
+            long start = System.nanoTime();
+            parser.parse(file, pool);
+            this.metrics.recordParse(System.nanoTime() - start);
+            return parser;
         }
-
-        if (tweak == null) {
-            throw new NullPointerException("Format-Preserving Encryption tweak cannot be null.");
+        long start;
+        if (this.loadMode == LoadMode.PARALLEL) {
+            ByteBuffer document = ByteBuffer.wrap(Helpers.readFile(file));
+            start = System.nanoTime();
+            parser.parse(document, pool);
+        } else {
+            try {
+                InputStream input = new FileInputStream(file);
+                try {
+                    start = System.nanoTime();
+                    parser.parse(input);
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                LOG.error(e.getMessage());
+                throw new IllegalStateException(e);
+            }
         }
+        if (!parser.includes.isEmpty()) {
+            parser.parseIncludes(file, pool);
+        }
+        this.metrics.recordParse(System.nanoTime() - start);
+        return parser;
     }
 
     public Boolean modeConversion(String mode) {
-        if (mode.equals("enable") || mode.equals("ENABLE")) {
-            return true;
-        } else if (mode.equals("disable") || mode.equals("DISABLE")) {
-            return false;
-        } else {
-            throw new NullPointerException("DatabaseSchema - Invalid mode conversion");
-        }
+        return SchemaParser.modeConversion(mode);
     }
 
     public String printDatabaseSchemas() {
@@ -568,4 +604,16 @@ public class DatabaseSchema implements DatabaseSchemaInterface {
         FF1, FF3
     }
 
+    /**
+     * LoadMode: how the TableSchemas of a database schema file are built.
+     * EAGER parses every table when the file is loaded. PARALLEL does the same, parsing the tables in parallel on the
+     * common ForkJoinPool once the database defaults are parsed. LAZY only indexes the table names and the position of
+     * their definitions, and parses each table on its first getSchema/getTableSchema. The file is read in memory when it
+     * is indexed, so it may be rewritten in place and reloaded while its tables are in use. Only a copy of the <table>
+     * element of each table not parsed yet is retained, not the whole file.
+     */
+    public enum LoadMode {
+        EAGER, PARALLEL, LAZY
+    }
+
 }
@@ -1,6 +1,7 @@
 package pt.uminho.haslab.safemapper;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -16,13 +17,22 @@ public class Family {
     private DatabaseSchema.CryptoType cryptoType;
     private int formatSize;
     private List<Qualifier> qualifiers;
+    //  Read-only copy of qualifiers, returned by getQualifiers(). Dropped when a qualifier is added.
+    private volatile List<Qualifier> qualifiersView;
+    //  Qualifier rules whose name is a pattern (see QualifierMatcher), in declaration order
+    private List<Qualifier> qualifierPatterns;
+    //  Read-only copy of qualifierPatterns, returned by getQualifierPatterns(). Dropped when a pattern is added.
+    private volatile List<Qualifier> qualifierPatternsView;
     private Boolean columnPadding;
+    //  TableSchema this family was added to, notified when the set of qualifiers changes
+    private TableSchema owner;
 
     public Family() {
         this.familyName = "";
         this.cryptoType = DatabaseSchema.CryptoType.PLT;
         this.formatSize = 0;
         this.qualifiers = new ArrayList<Qualifier>();
+        this.qualifierPatterns = new ArrayList<Qualifier>();
         this.columnPadding = null;
     }
 
@@ -31,6 +41,7 @@ public class Family {
         this.cryptoType = cType;
         this.formatSize = formatSize;
         this.qualifiers = new ArrayList<Qualifier>();
+        this.qualifierPatterns = new ArrayList<Qualifier>();
         this.columnPadding = columnPadding;
     }
 
@@ -39,7 +50,11 @@ public class Family {
         this.cryptoType = cType;
         this.formatSize = formatSize;
         this.columnPadding = columnPadding;
-        this.qualifiers = quals;
+        this.qualifiers = new ArrayList<Qualifier>(quals);
+        this.qualifierPatterns = new ArrayList<Qualifier>();
+        for (Qualifier q : quals) {
+            q.setOwner(this);
+        }
     }
 
 
@@ -48,7 +63,11 @@ public class Family {
     }
 
     public void setFamilyName(String familyName) {
-        this.familyName = familyName;
+        synchronized (lock()) {
+            checkMutable();
+            this.familyName = familyName;
+            changed();
+        }
     }
 
     public DatabaseSchema.CryptoType getCryptoType() {
@@ -56,7 +75,11 @@ public class Family {
     }
 
     public void setCryptoType(DatabaseSchema.CryptoType cType) {
-        this.cryptoType = cType;
+        synchronized (lock()) {
+            checkMutable();
+            this.cryptoType = cType;
+            changed();
+        }
     }
 
     public int getFormatSize() {
@@ -64,7 +87,11 @@ public class Family {
     }
 
     public void setFormatSize(int formatSize) {
-        this.formatSize = formatSize;
+        synchronized (lock()) {
+            checkMutable();
+            this.formatSize = formatSize;
+            changed();
+        }
     }
 
     public Boolean getColumnPadding() {
@@ -72,18 +99,45 @@ public class Family {
     }
 
     public void setColumnPadding(Boolean columnPadding) {
-        this.columnPadding = columnPadding;
+        synchronized (lock()) {
+            checkMutable();
+            this.columnPadding = columnPadding;
+            changed();
+        }
     }
 
+    /**
+     * @return a read-only copy of the qualifiers, unaffected by qualifiers added later. Use addQualifier to add new ones.
+     */
     public List<Qualifier> getQualifiers() {
-        List<Qualifier> qualifiersTemp = new ArrayList<Qualifier>();
-        for (Qualifier q : this.qualifiers)
-            qualifiersTemp.add(q);
-        return qualifiersTemp;
+        List<Qualifier> view = this.qualifiersView;
+        if (view == null) {
+            synchronized (lock()) {
+                view = this.qualifiersView;
+                if (view == null) {
+                    view = Collections.unmodifiableList(new ArrayList<Qualifier>(this.qualifiers));
+                    this.qualifiersView = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * @return the number of qualifiers, for index based iteration with getQualifier(int)
+     */
+    public int getQualifierCount() {
+        return getQualifiers().size();
+    }
+
+    public Qualifier getQualifier(int index) {
+        return getQualifiers().get(index);
     }
 
     public Qualifier getQualifier(String qualifierName){
-        for(Qualifier q: this.qualifiers){
+        List<Qualifier> qualifiers = getQualifiers();
+        for (int i = 0; i < qualifiers.size(); i++) {
+            Qualifier q = qualifiers.get(i);
             if(q.getName().equals(qualifierName)){
                 return q;
             }
@@ -102,28 +156,35 @@ public class Family {
      * @param formatSize    size of qualifier
      */
     public void addQualifier(String qualifierName, DatabaseSchema.CryptoType cryptoType, int formatSize, Boolean columnPadding, Map<String, String> properties) {
-        DatabaseSchema.CryptoType cType;
-        int fSize = 0;
-        Boolean padding = false;
+        synchronized (lock()) {
+            checkMutable();
+            DatabaseSchema.CryptoType cType;
+            int fSize = 0;
+            Boolean padding = false;
+
+            if (cryptoType != null)
+                cType = cryptoType;
+            else
+                cType = this.cryptoType;
 
-        if (cryptoType != null)
-            cType = cryptoType;
-        else
-            cType = this.cryptoType;
+            if (formatSize > 0) {
+                fSize = formatSize;
+            } else {
+                fSize = this.formatSize;
+            }
 
-        if (formatSize > 0) {
-            fSize = formatSize;
-        } else {
-            fSize = this.formatSize;
-        }
+            if (columnPadding != null) {
+                padding = columnPadding;
+            } else {
+                padding = this.columnPadding;
+            }
 
-        if (columnPadding != null) {
-            padding = columnPadding;
-        } else {
-            padding = this.columnPadding;
+            Qualifier q = new Qualifier(qualifierName, cType, fSize, padding, properties);
+            q.setOwner(this);
+            this.qualifiers.add(q);
+            this.qualifiersView = null;
+            changed();
         }
-
-        this.qualifiers.add(new Qualifier(qualifierName, cType, fSize, padding, properties));
     }
 
     /**
@@ -133,6 +194,65 @@ public class Family {
      * @param qualifier Qualifier object
      */
     public void addQualifier(Qualifier qualifier) {
+        synchronized (lock()) {
+            checkMutable();
+            this.qualifiers.add(inherit(qualifier));
+            this.qualifiersView = null;
+            changed();
+        }
+    }
+
+    /**
+     * addQualifierPattern(rule : Qualifier) method : add a qualifier rule whose name is a pattern, such as "m_*" for the
+     * dynamic qualifiers m_20260101, m_20260102, ... of a time-series table. '*' matches any sequence of characters, '?'
+     * a single character and '\' escapes the next character. A qualifier that is not declared by addQualifier takes
+     * the properties of the first declared pattern it matches, and only falls back to the family and table defaults if
+     * none does. Undefined properties of the rule are inherited from the family, as in addQualifier(Qualifier).
+     *
+     * @param rule Qualifier object, whose name is the pattern
+     */
+    public void addQualifierPattern(Qualifier rule) {
+        if (rule.getName() == null || rule.getName().length() == 0) {
+            throw new IllegalArgumentException("Column qualifier pattern cannot be null nor empty.");
+        }
+        synchronized (lock()) {
+            checkMutable();
+            this.qualifierPatterns.add(inherit(rule));
+            this.qualifierPatternsView = null;
+            changed();
+        }
+    }
+
+    /**
+     * @return a read-only copy of the qualifier patterns, in declaration order
+     */
+    public List<Qualifier> getQualifierPatterns() {
+        List<Qualifier> view = this.qualifierPatternsView;
+        if (view == null) {
+            synchronized (lock()) {
+                view = this.qualifierPatternsView;
+                if (view == null) {
+                    view = Collections.unmodifiableList(new ArrayList<Qualifier>(this.qualifierPatterns));
+                    this.qualifierPatternsView = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    public int getQualifierPatternCount() {
+        return getQualifierPatterns().size();
+    }
+
+    public Qualifier getQualifierPattern(int index) {
+        return getQualifierPatterns().get(index);
+    }
+
+    /**
+     * inherit(qualifier : Qualifier) method : fill the undefined properties of a qualifier with those of this family and
+     * make this family its owner. FPE qualifiers are copied.
+     */
+    private Qualifier inherit(Qualifier qualifier) {
         if (qualifier instanceof QualifierFPE) {
             QualifierFPE q = new QualifierFPE();
             QualifierFPE qTemp = (QualifierFPE) qualifier;
@@ -166,7 +286,8 @@ public class Family {
             if (qTemp.getTweak() != null)
                 q.setTweak(qTemp.getTweak());
 
-            this.qualifiers.add(q);
+            q.setOwner(this);
+            return q;
         } else {
             if (qualifier.getCryptoType() == null)
                 qualifier.setCryptoType(this.cryptoType);
@@ -178,7 +299,41 @@ public class Family {
                 qualifier.setPadding(this.columnPadding);
             }
 
-            this.qualifiers.add(qualifier);
+            qualifier.setOwner(this);
+            return qualifier;
+        }
+    }
+
+    void setOwner(TableSchema owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * lock() method : the monitor guarding changes to this family. Changes to a family of a TableSchema are made under
+     * the TableSchema monitor, the one compile() holds, so a snapshot never sees a change half done.
+     */
+    Object lock() {
+        TableSchema ts = this.owner;
+        return ts != null ? ts : this;
+    }
+
+    /**
+     * checkMutable() method : fail a change to a family of a shared TableSchema, see TableSchema.checkMutable()
+     */
+    void checkMutable() {
+        TableSchema ts = this.owner;
+        if (ts != null) {
+            ts.checkMutable();
+        }
+    }
+
+    /**
+     * changed() method : invalidate the compiled snapshot of the owning TableSchema (if any)
+     */
+    void changed() {
+        TableSchema ts = this.owner;
+        if (ts != null) {
+            ts.invalidate();
         }
     }
 
@@ -191,8 +346,9 @@ public class Family {
      */
     public boolean containsQualifier(String qualifier) {
         boolean contains = false;
-        for (Qualifier q : this.qualifiers) {
-            if (q.getName().equals(qualifier)) {
+        List<Qualifier> qualifiers = getQualifiers();
+        for (int i = 0; i < qualifiers.size(); i++) {
+            if (qualifiers.get(i).getName().equals(qualifier)) {
                 contains = true;
                 break;
             }
@@ -207,9 +363,15 @@ public class Family {
         sb.append("Family FormatSize: ").append(formatSize).append("\n");
         sb.append("Family Padding: ").append(columnPadding).append("\n");
         sb.append("Column Qualifiers: \n");
-        for (Qualifier q : this.qualifiers) {
+        for (Qualifier q : getQualifiers()) {
             sb.append(q.toString());
         }
+        if (!getQualifierPatterns().isEmpty()) {
+            sb.append("Column Qualifier Patterns: \n");
+            for (Qualifier q : getQualifierPatterns()) {
+                sb.append(q.toString());
+            }
+        }
         return sb.toString();
     }
 
@@ -223,7 +385,8 @@ public class Family {
         if (formatSize != family.formatSize) return false;
         if (familyName != null ? !familyName.equals(family.familyName) : family.familyName != null) return false;
         if (cryptoType != family.cryptoType) return false;
-        if (qualifiers != null ? !qualifiers.equals(family.qualifiers) : family.qualifiers != null) return false;
+        if (!getQualifiers().equals(family.getQualifiers())) return false;
+        if (!getQualifierPatterns().equals(family.getQualifierPatterns())) return false;
         return columnPadding != null ? columnPadding.equals(family.columnPadding) : family.columnPadding == null;
     }
 
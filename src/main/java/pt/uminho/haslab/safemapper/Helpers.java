@@ -1,13 +1,25 @@
 package pt.uminho.haslab.safemapper;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class Helpers {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     public static DatabaseSchema.FFX whichFpeInstance(String instance) {
-        if (instance.equals("FF1")) {
+        if ("FF1".equals(instance)) {
             return DatabaseSchema.FFX.FF1;
-        } else if (instance.equals("FF3")) {
+        } else if ("FF3".equals(instance)) {
             return DatabaseSchema.FFX.FF3;
         }
         return null;
@@ -17,9 +29,9 @@ public class Helpers {
         byte[] temp = new byte[8];
         if (instance.equals("FF1")) {
 
-            temp = tweak.getBytes(Charset.forName("UTF-8").name());
+            temp = tweak.getBytes(UTF8);
         } else if (instance.equals("FF3")) {
-            byte[] temp_tweak = tweak.getBytes(Charset.forName("UTF-8").name());
+            byte[] temp_tweak = tweak.getBytes(UTF8);
             if (temp_tweak.length == 8) {
                 temp = temp_tweak;
             } else if (temp_tweak.length > 8) {
@@ -30,4 +42,151 @@ public class Helpers {
         }
         return temp;
     }
+
+    /*
+     * FPE security parameters (key || tweak), shared by KeyFPE and QualifierFPE. The tweak bytes are resolved once,
+     * when the instance or tweak is set; an invalid tweak (e.g., a short FF3 tweak) is not cached, so each use fails
+     * with the exception of getTweakBytes.
+     */
+
+    /**
+     * @return the tweak bytes of an FPE instance, or null if the instance or tweak is invalid
+     */
+    static byte[] resolveTweakBytes(String instance, String tweak) {
+        try {
+            return getTweakBytes(instance, tweak);
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the resolved tweak bytes, or the failing getTweakBytes call if they are null
+     */
+    static byte[] tweakBytes(byte[] resolved, String instance, String tweak) throws UnsupportedEncodingException {
+        return resolved != null ? resolved : getTweakBytes(instance, tweak);
+    }
+
+    /**
+     * @return a new array with key || tweak
+     */
+    static byte[] securityParameters(byte[] key, byte[] tweak) {
+        byte[] parameters = new byte[key.length + tweak.length];
+        System.arraycopy(key, 0, parameters, 0, key.length);
+        System.arraycopy(tweak, 0, parameters, key.length, tweak.length);
+        return parameters;
+    }
+
+    /**
+     * writeSecurityParameters(key : byte[], tweak : byte[], dst : byte[], offset : int) method : write key || tweak
+     * into dst, starting at offset
+     *
+     * @return the number of bytes written
+     */
+    static int writeSecurityParameters(byte[] key, byte[] tweak, byte[] dst, int offset) {
+        if (offset < 0 || dst.length - offset < key.length + tweak.length) {
+            throw new IndexOutOfBoundsException("Security parameters do not fit in the destination array.");
+        }
+        System.arraycopy(key, 0, dst, offset, key.length);
+        System.arraycopy(tweak, 0, dst, offset + key.length, tweak.length);
+        return key.length + tweak.length;
+    }
+
+    /**
+     * writeSecurityParameters(key : byte[], tweak : byte[], dst : ByteBuffer) method : put key || tweak at the position
+     * of dst, advancing it
+     */
+    static void writeSecurityParameters(byte[] key, byte[] tweak, ByteBuffer dst) {
+        if (dst.remaining() < key.length + tweak.length) {
+            throw new BufferOverflowException();
+        }
+        dst.put(key).put(tweak);
+    }
+
+    /**
+     * digest(content : String) method : SHA-256 digest of the UTF-8 encoding of a string, in hexadecimal format
+     */
+    public static String digest(String content) {
+        return digest(content.getBytes(UTF8));
+    }
+
+    public static String digest(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * listSchemaFiles(directory : File) method : the schema documents (*.xml files) of a directory, by file name
+     */
+    public static List<File> listSchemaFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IllegalStateException("Cannot list schema directory " + directory + ".");
+        }
+        List<File> schemas = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(".xml")) {
+                schemas.add(file);
+            }
+        }
+        Collections.sort(schemas);
+        return schemas;
+    }
+
+    /**
+     * listSchemaSources(source : File) method : the files a schema source is read from, the schema documents of a
+     * directory, or a schema file followed by the files named by its <include> elements
+     */
+    public static List<File> listSchemaSources(File source) {
+        if (source.isDirectory()) {
+            return listSchemaFiles(source);
+        }
+        List<File> files = new ArrayList<File>();
+        files.add(source);
+        files.addAll(SchemaParser.resolveIncludes(source, SchemaParser.readIncludes(ByteBuffer.wrap(readFile(source)))));
+        return files;
+    }
+
+    /**
+     * digestSchemaSource(source : File) method : digest of every document of a schema source (see listSchemaSources),
+     * which changes whenever the schema read from it may change. The digest of a schema file without <include>
+     * elements is the digest of its content.
+     */
+    public static String digestSchemaSource(File source) {
+        StringBuilder sb = new StringBuilder();
+        if (source.isDirectory()) {
+            for (File file : listSchemaFiles(source)) {
+                sb.append(file.getName()).append('=').append(digest(readFile(file))).append('\n');
+            }
+            return digest(sb.toString());
+        }
+        byte[] content = readFile(source);
+        List<File> includes = SchemaParser.resolveIncludes(source, SchemaParser.readIncludes(ByteBuffer.wrap(content)));
+        if (includes.isEmpty()) {
+            return digest(content);
+        }
+        sb.append(digest(content)).append('\n');
+        for (File file : includes) {
+            sb.append(file.getPath()).append('=').append(digest(readFile(file))).append('\n');
+        }
+        return digest(sb.toString());
+    }
+
+    public static byte[] readFile(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -9,6 +9,8 @@ public class Key {
     private DatabaseSchema.CryptoType cryptoType;
     private int formatSize;
     private Boolean keyPadding;
+    //  TableSchema this key belongs to, notified when the key changes
+    private TableSchema owner;
 
     public Key() {
         this.cryptoType = DatabaseSchema.CryptoType.PLT;
@@ -27,7 +29,11 @@ public class Key {
     }
 
     public void setCryptoType(DatabaseSchema.CryptoType cryptoType) {
-        this.cryptoType = cryptoType;
+        synchronized (lock()) {
+            checkMutable();
+            this.cryptoType = cryptoType;
+            changed();
+        }
     }
 
     public int getFormatSize() {
@@ -35,7 +41,11 @@ public class Key {
     }
 
     public void setFormatSize(int format) {
-        this.formatSize = format;
+        synchronized (lock()) {
+            checkMutable();
+            this.formatSize = format;
+            changed();
+        }
     }
 
     public Boolean getKeyPadding() {
@@ -43,7 +53,43 @@ public class Key {
     }
 
     public void setKeyPadding(Boolean padding) {
-        this.keyPadding = padding;
+        synchronized (lock()) {
+            checkMutable();
+            this.keyPadding = padding;
+            changed();
+        }
+    }
+
+    void setOwner(TableSchema owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * lock() method : the monitor guarding changes to this key, the one of its owning TableSchema (if any)
+     */
+    Object lock() {
+        TableSchema ts = this.owner;
+        return ts != null ? ts : this;
+    }
+
+    /**
+     * checkMutable() method : fail a change to the key of a shared TableSchema, see TableSchema.checkMutable()
+     */
+    void checkMutable() {
+        TableSchema ts = this.owner;
+        if (ts != null) {
+            ts.checkMutable();
+        }
+    }
+
+    /**
+     * changed() method : invalidate the compiled snapshot of the owning TableSchema (if any)
+     */
+    void changed() {
+        TableSchema ts = this.owner;
+        if (ts != null) {
+            ts.invalidate();
+        }
     }
 
     public String toString() {
@@ -2,8 +2,11 @@ package pt.uminho.haslab.safemapper;
 
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
-import static pt.uminho.haslab.safemapper.Helpers.getTweakBytes;
+import static pt.uminho.haslab.safemapper.Helpers.resolveTweakBytes;
+import static pt.uminho.haslab.safemapper.Helpers.securityParameters;
+import static pt.uminho.haslab.safemapper.Helpers.tweakBytes;
 import static pt.uminho.haslab.safemapper.Helpers.whichFpeInstance;
 
 
@@ -18,6 +21,8 @@ public class KeyFPE extends Key {
     private DatabaseSchema.FFX fpe_instance;
     private int radix;
     private String tweak;
+    //  Encoding of tweak for the instance, or null if the tweak is invalid (see Helpers.resolveTweakBytes)
+    private byte[] tweakBytes;
     private Boolean keyPadding;
 
     public KeyFPE() {
@@ -28,6 +33,7 @@ public class KeyFPE extends Key {
         this.radix = 10;
         this.tweak = "";
         this.keyPadding = null;
+        this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
     }
 
     public KeyFPE(DatabaseSchema.CryptoType cType, int formatSize, Boolean padding, String instance, int radix, String tweak) {
@@ -36,6 +42,7 @@ public class KeyFPE extends Key {
         this.fpe_instance = whichFpeInstance(instance);
         this.radix = radix;
         this.tweak = tweak;
+        this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
     }
 
 
@@ -44,7 +51,13 @@ public class KeyFPE extends Key {
     }
 
     public void setInstance(String instance) {
-        this.instance = instance;
+        synchronized (lock()) {
+            checkMutable();
+            this.instance = instance;
+            this.fpe_instance = whichFpeInstance(instance);
+            this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
+            changed();
+        }
     }
 
     public DatabaseSchema.FFX getFpeInstance() {
@@ -52,7 +65,11 @@ public class KeyFPE extends Key {
     }
 
     public void setFpeInstance(DatabaseSchema.FFX instance) {
-        this.fpe_instance = instance;
+        synchronized (lock()) {
+            checkMutable();
+            this.fpe_instance = instance;
+            changed();
+        }
     }
 
     public int getRadix() {
@@ -60,7 +77,11 @@ public class KeyFPE extends Key {
     }
 
     public void setRadix(int radix) {
-        this.radix = radix;
+        synchronized (lock()) {
+            checkMutable();
+            this.radix = radix;
+            changed();
+        }
     }
 
     public String getTweak() {
@@ -68,16 +89,44 @@ public class KeyFPE extends Key {
     }
 
     public void setTweak(String tweak) {
-        this.tweak = tweak;
+        synchronized (lock()) {
+            checkMutable();
+            this.tweak = tweak;
+            this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
+            changed();
+        }
     }
 
+    /**
+     * getTweakLength() method : length of the tweak bytes appended to the key in the security parameters
+     */
+    public int getTweakLength() throws UnsupportedEncodingException {
+        return tweakBytes(this.tweakBytes, this.instance, this.tweak).length;
+    }
 
+    /**
+     * getSecurityParameters(key : byte[]) method : key || tweak, in a new array
+     */
     public byte[] getSecurityParameters(byte[] key) throws UnsupportedEncodingException {
-        byte[] temp_tweak = getTweakBytes(this.instance, this.tweak);
-        byte[] security_parameters = new byte[key.length + temp_tweak.length];
-        System.arraycopy(key, 0, security_parameters, 0, key.length);
-        System.arraycopy(temp_tweak, 0, security_parameters, key.length, temp_tweak.length);
-        return security_parameters;
+        return securityParameters(key, tweakBytes(this.tweakBytes, this.instance, this.tweak));
+    }
+
+    /**
+     * writeSecurityParameters(key : byte[], dst : byte[], offset : int) method : allocation-free variant of
+     * getSecurityParameters(byte[]) that writes key || tweak into dst, starting at offset
+     *
+     * @return the number of bytes written, key.length + getTweakLength()
+     */
+    public int writeSecurityParameters(byte[] key, byte[] dst, int offset) throws UnsupportedEncodingException {
+        return Helpers.writeSecurityParameters(key, tweakBytes(this.tweakBytes, this.instance, this.tweak), dst, offset);
+    }
+
+    /**
+     * writeSecurityParameters(key : byte[], dst : ByteBuffer) method : allocation-free variant of
+     * getSecurityParameters(byte[]) that puts key || tweak at the position of dst, advancing it
+     */
+    public void writeSecurityParameters(byte[] key, ByteBuffer dst) throws UnsupportedEncodingException {
+        Helpers.writeSecurityParameters(key, tweakBytes(this.tweakBytes, this.instance, this.tweak), dst);
     }
 
     public String toString() {
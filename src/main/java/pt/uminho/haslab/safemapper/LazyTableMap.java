@@ -0,0 +1,191 @@
+package pt.uminho.haslab.safemapper;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LazyTableMap class.
+ * Read-only map of the tables of a schema document, see DatabaseSchema.LoadMode.LAZY. Only the table names and the
+ * byte ranges of their <table> elements are known up front (see SchemaIndex); each TableSchema is parsed on its first
+ * get(...), exactly once even under concurrent first access. Iterating over the entries or values parses every table.
+ * <p>
+ * An invalid table fails each get(...) of that table with the exception of its parse, like a load of the whole
+ * document would.
+ * <p>
+ * Each table keeps a copy of its own <table> element, and drops it once the table is parsed, so the document itself is
+ * not retained by the map.
+ */
+final class LazyTableMap extends AbstractMap<String, TableSchema> {
+
+    private final SchemaParser parser;
+    private final SchemaMetrics metrics;
+    private final Map<String, Holder> holders;
+    private final String digest;
+    //  Set by share(), tables parsed afterwards are shared as well
+    private volatile boolean shared;
+
+    /**
+     * @param parser   parser holding the database defaults of the document
+     * @param index    index of the document
+     * @param metrics  metrics whose table counters are given to each parsed TableSchema
+     * @param previous tables of a previous load of the same file, or null. Their parsed TableSchemas are reused for
+     *                 tables whose element did not change, provided that the database defaults did not change either
+     *                 and that the TableSchema was not modified since it was parsed.
+     */
+    LazyTableMap(SchemaParser parser, SchemaIndex index, SchemaMetrics metrics, LazyTableMap previous) {
+        this.parser = parser;
+        this.metrics = metrics;
+        this.digest = index.getDigest();
+        this.holders = new LinkedHashMap<String, Holder>();
+
+        boolean sameDefaults = previous != null
+                && parser.defaultsFingerprint.equals(previous.parser.defaultsFingerprint);
+        for (Map.Entry<String, ByteBuffer> entry : index.getTables().entrySet()) {
+            Holder holder = new Holder(entry.getKey(), entry.getValue());
+            if (sameDefaults) {
+                holder.reuse(previous.holders.get(entry.getKey()));
+            }
+            this.holders.put(entry.getKey(), holder);
+        }
+    }
+
+    /**
+     * @return the checksum of the document the tables were indexed from
+     */
+    String getDigest() {
+        return this.digest;
+    }
+
+    /**
+     * @return true if any of the tables parsed so far was modified since it was parsed
+     */
+    boolean hasModifiedTables() {
+        for (Holder holder : this.holders.values()) {
+            TableSchema ts = holder.table;
+            if (ts != null && ts.isModified()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * share() method : share every table, see DatabaseSchema.share()
+     */
+    void share() {
+        this.shared = true;
+        for (Holder holder : this.holders.values()) {
+            synchronized (holder) {
+                if (holder.table != null) {
+                    holder.table.share();
+                }
+            }
+        }
+    }
+
+    @Override
+    public TableSchema get(Object tablename) {
+        Holder holder = this.holders.get(tablename);
+        return holder == null ? null : holder.get();
+    }
+
+    @Override
+    public boolean containsKey(Object tablename) {
+        return this.holders.containsKey(tablename);
+    }
+
+    @Override
+    public int size() {
+        return this.holders.size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(this.holders.keySet());
+    }
+
+    @Override
+    public Set<Entry<String, TableSchema>> entrySet() {
+        return new AbstractSet<Entry<String, TableSchema>>() {
+            @Override
+            public Iterator<Entry<String, TableSchema>> iterator() {
+                final Iterator<Holder> it = LazyTableMap.this.holders.values().iterator();
+                return new Iterator<Entry<String, TableSchema>>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public Entry<String, TableSchema> next() {
+                        Holder holder = it.next();
+                        return new SimpleImmutableEntry<String, TableSchema>(holder.name, holder.get());
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LazyTableMap.this.holders.size();
+            }
+        };
+    }
+
+    private final class Holder {
+        private final String name;
+        //  Copy of the <table> element, until the table is parsed
+        private ByteBuffer element;
+        private volatile TableSchema table;
+        //  Digest of the element, set once the table is parsed
+        private String fingerprint;
+
+        Holder(String name, ByteBuffer element) {
+            this.name = name;
+            byte[] bytes = new byte[element.remaining()];
+            element.duplicate().get(bytes);
+            this.element = ByteBuffer.wrap(bytes);
+        }
+
+        TableSchema get() {
+            TableSchema ts = this.table;
+            if (ts == null) {
+                synchronized (this) {
+                    ts = this.table;
+                    if (ts == null) {
+                        ts = LazyTableMap.this.parser.parseTable(this.element.duplicate());
+                        ts.setMetrics(LazyTableMap.this.metrics.table(this.name));
+                        if (LazyTableMap.this.shared) {
+                            ts.share();
+                        }
+                        this.fingerprint = SchemaParser.digest(this.element);
+                        this.element = null;
+                        this.table = ts;
+                    }
+                }
+            }
+            return ts;
+        }
+
+        void reuse(Holder previous) {
+            if (previous == null || previous.table == null || previous.table.isModified()) {
+                return;
+            }
+            synchronized (previous) {
+                if (previous.fingerprint.equals(SchemaParser.digest(this.element))) {
+                    this.fingerprint = previous.fingerprint;
+                    this.element = null;
+                    this.table = previous.table;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,457 @@
+package pt.uminho.haslab.safemapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MappedSchema class.
+ * Read-only database schema queried in place in a memory-mapped file, so that the processes of a host that map the
+ * same file share a single physical copy of it and their garbage collectors never scan it. Only a small view per table
+ * lives on the heap (see TableSchemaLookup); families, qualifiers, qualifier patterns, keys and FPE parameters stay
+ * in the file.
+ * <p>
+ * The file holds every table fully resolved, as compiled by CompiledTableSchema: each table has an open-addressing
+ * table of its declared columns, keyed by the UTF-8 bytes of their family and qualifier (see ColumnIndex), and the
+ * qualifier patterns of each family in declaration order, which are matched against the mapped bytes.
+ * <p>
+ * Layout (big-endian): magic, format version, file length, digest of the source document, table count and the offsets
+ * of the table records. Records have fixed-size fields and refer to each other by absolute offsets. Strings are written
+ * once, as a length followed by their UTF-8 bytes, and referred to by offset, with -1 standing for null.
+ * <p>
+ * The mapping is released when the MappedSchema and its tables are garbage collected.
+ */
+public final class MappedSchema {
+
+    static final int MAGIC = 0x534D4D53;
+    static final int VERSION = 1;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //  Header
+    static final int H_MAGIC = 0;
+    static final int H_VERSION = 4;
+    static final int H_LENGTH = 8;
+    static final int H_DIGEST = 12;
+    static final int H_TABLE_COUNT = 16;
+    static final int H_TABLES = 20;
+    static final int HEADER = 24;
+
+    //  Table record
+    static final int T_NAME = 0;
+    static final int T_ENABLED = 4;
+    static final int T_KEY_FORMAT = 12;
+    static final int T_KEY_RADIX = 16;
+    static final int T_KEY_INSTANCE = 20;
+    static final int T_KEY_TWEAK = 24;
+    static final int T_DEFAULT_KEY_FORMAT = 28;
+    static final int T_DEFAULT_COLUMN_FORMAT = 32;
+    static final int T_FAMILY_COUNT = 36;
+    static final int T_FAMILIES = 40;
+    static final int T_SLOT_MASK = 44;
+    static final int T_SLOTS = 48;
+    static final int T_KEY_KIND = 52;
+    static final int T_KEY_TYPE = 53;
+    static final int T_KEY_PADDING = 54;
+    static final int T_DEFAULT_KEY_TYPE = 55;
+    static final int T_DEFAULT_COLUMNS_TYPE = 56;
+    static final int T_DEFAULT_KEY_PADDING = 57;
+    static final int T_DEFAULT_COLUMN_PADDING = 58;
+    static final int T_ENCRYPTION_MODE = 59;
+    //  Resolved default column padding, false if not set
+    static final int T_COLUMN_PADDING = 60;
+    static final int TABLE = 64;
+
+    //  Family record
+    static final int F_NAME = 0;
+    static final int F_PATTERN_COUNT = 4;
+    static final int F_PATTERNS = 8;
+    static final int F_PADDING = 12;
+    static final int FAMILY = 16;
+
+    //  Column record, for declared columns and qualifier patterns
+    static final int C_FAMILY = 0;
+    static final int C_NAME = 4;
+    static final int C_HASH = 8;
+    static final int C_FORMAT = 12;
+    static final int C_RADIX = 16;
+    static final int C_TWEAK = 20;
+    static final int C_GENERATOR = 24;
+    static final int C_TYPE = 28;
+    static final int C_PADDING = 29;
+    static final int C_INTEGER = 30;
+    static final int C_FPE = 31;
+    static final int COLUMN = 32;
+
+    static final byte PLAIN = 0;
+    static final byte FPE = 1;
+
+    private final ByteBuffer buffer;
+    private final String digest;
+    private final Map<String, TableSchemaLookup> tables;
+
+    private MappedSchema(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER || buffer.getInt(H_MAGIC) != MAGIC) {
+            throw new IllegalStateException("Not a mapped schema.");
+        }
+        int version = buffer.getInt(H_VERSION);
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported mapped schema version " + version + ".");
+        }
+        if (buffer.getInt(H_LENGTH) != buffer.capacity()) {
+            throw new IllegalStateException("Truncated mapped schema.");
+        }
+        this.buffer = buffer;
+        this.digest = readString(buffer, buffer.getInt(H_DIGEST));
+
+        int count = buffer.getInt(H_TABLE_COUNT);
+        int offsets = buffer.getInt(H_TABLES);
+        Map<String, TableSchemaLookup> views = new LinkedHashMap<String, TableSchemaLookup>();
+        for (int i = 0; i < count; i++) {
+            int record = buffer.getInt(offsets + 4 * i);
+            String name = readString(buffer, buffer.getInt(record + T_NAME));
+            views.put(name, new MappedTableSchema(buffer, record, name));
+        }
+        this.tables = Collections.unmodifiableMap(views);
+    }
+
+    /**
+     * load(schemaFile : String, mappedFile : String) method : map the schema of a schema file. If mappedFile holds the
+     * current content of schemaFile, it is mapped as it is, so that every process of a host maps the same file.
+     * Otherwise schemaFile is parsed and mappedFile is written (atomically) before it is mapped.
+     *
+     * @param schemaFile database schema file (<schema>.xml) or directory, see DatabaseSchema(String, LoadMode)
+     * @param mappedFile file to map, shared by the processes that load the same schema
+     * @return the mapped schema
+     */
+    public static MappedSchema load(String schemaFile, String mappedFile) {
+        if (schemaFile == null) {
+            throw new IllegalStateException("Schema file name cannot be null.");
+        }
+        String digest = Helpers.digestSchemaSource(new File(schemaFile));
+        File mapped = new File(mappedFile);
+        if (mapped.isFile()) {
+            try {
+                MappedSchema schema = open(mapped);
+                if (digest.equals(schema.getDigest())) {
+                    return schema;
+                }
+            } catch (RuntimeException e) {
+                SchemaSnapshot.LOG.warn("Ignoring unreadable mapped schema " + mappedFile + ": " + e.getMessage());
+            }
+        }
+        try {
+            write(new DatabaseSchema(schemaFile), digest, mapped);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write mapped schema " + mappedFile + ".", e);
+        }
+        return open(mapped);
+    }
+
+    /**
+     * open(mappedFile : File) method : map a file written by write(...)
+     */
+    public static MappedSchema open(File mappedFile) {
+        return new MappedSchema(SchemaSnapshot.map(mappedFile));
+    }
+
+    /**
+     * write(schema : DatabaseSchema, mappedFile : File) method : write the current tables of a schema to a file that
+     * can be mapped with open(...). The file is replaced atomically, so processes that map the previous file keep it.
+     */
+    public static void write(DatabaseSchema schema, File mappedFile) throws IOException {
+        String source = schema.getDatabaseSchemaFile();
+        String digest = source == null ? null : Helpers.digestSchemaSource(new File(source));
+        write(schema, digest, mappedFile);
+    }
+
+    private static void write(DatabaseSchema schema, String digest, File mappedFile) throws IOException {
+        ByteBuffer content = encode(schema, digest);
+        File directory = mappedFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(mappedFile.getName(), ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                FileChannel channel = out.getChannel();
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), mappedFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return the digest of the schema document the file was written from, or null if it is unknown
+     */
+    public String getDigest() {
+        return this.digest;
+    }
+
+    /**
+     * @return the number of mapped bytes
+     */
+    public int getSize() {
+        return this.buffer.capacity();
+    }
+
+    public boolean containsKey(String tableName) {
+        return this.tables.containsKey(tableName);
+    }
+
+    /**
+     * @return the table, or null if it is not declared
+     */
+    public TableSchemaLookup getSchema(String tableName) {
+        return this.tables.get(tableName);
+    }
+
+    /**
+     * @return a read-only set of the table names, in declaration order
+     */
+    public Set<String> getTableNames() {
+        return this.tables.keySet();
+    }
+
+    static String readString(ByteBuffer buffer, int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 4 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /*
+     * Encoding
+     */
+
+    private static ByteBuffer encode(DatabaseSchema schema, String digest) {
+        Output out = new Output();
+        out.reserve(HEADER);
+        out.putInt(H_MAGIC, MAGIC);
+        out.putInt(H_VERSION, VERSION);
+        out.putInt(H_DIGEST, out.string(digest));
+
+        Map<String, TableSchema> tables = schema.getSchemas();
+        int offsets = out.reserve(4 * tables.size());
+        out.putInt(H_TABLE_COUNT, tables.size());
+        out.putInt(H_TABLES, offsets);
+        int i = 0;
+        for (TableSchema table : tables.values()) {
+            out.putInt(offsets + 4 * i, encodeTable(table, out));
+            i++;
+        }
+        out.putInt(H_LENGTH, out.position());
+        return out.content();
+    }
+
+    private static int encodeTable(TableSchema table, Output out) {
+        CompiledTableSchema compiled = table.compile();
+        ColumnIndex index = compiled.columnIndex();
+
+        int record = out.reserve(TABLE);
+        out.putInt(record + T_NAME, out.string(table.getTablename()));
+        out.putLong(record + T_ENABLED, compiled.getEnabledCryptoTypeMask());
+        out.putInt(record + T_DEFAULT_KEY_FORMAT, table.getDefaultKeyFormatSize());
+        out.putInt(record + T_DEFAULT_COLUMN_FORMAT, table.getDefaultColumnFormatSize());
+        out.putByte(record + T_DEFAULT_KEY_TYPE, cryptoType(table.getDefaultKeyCryptoType()));
+        out.putByte(record + T_DEFAULT_COLUMNS_TYPE, cryptoType(table.getDefaultColumnsCryptoType()));
+        out.putByte(record + T_DEFAULT_KEY_PADDING, bool(table.getDefaultKeyPadding()));
+        out.putByte(record + T_DEFAULT_COLUMN_PADDING, bool(table.getDefaultColumnPadding()));
+        out.putByte(record + T_ENCRYPTION_MODE, bool(table.getEncryptionMode()));
+        out.putByte(record + T_COLUMN_PADDING, bool(compiled.getColumnPadding(null, null)));
+
+        Key key = table.getKey();
+        out.putByte(record + T_KEY_TYPE, cryptoType(key.getCryptoType()));
+        out.putInt(record + T_KEY_FORMAT, key.getFormatSize());
+        out.putByte(record + T_KEY_PADDING, bool(key.getKeyPadding()));
+        if (key instanceof KeyFPE) {
+            KeyFPE fpe = (KeyFPE) key;
+            out.putByte(record + T_KEY_KIND, FPE);
+            out.putInt(record + T_KEY_INSTANCE, out.string(fpe.getInstance()));
+            out.putInt(record + T_KEY_RADIX, fpe.getRadix());
+            out.putInt(record + T_KEY_TWEAK, out.string(fpe.getTweak()));
+        } else {
+            out.putByte(record + T_KEY_KIND, PLAIN);
+            out.putInt(record + T_KEY_INSTANCE, -1);
+            out.putInt(record + T_KEY_TWEAK, -1);
+        }
+
+        //  Declared columns, indexed by the hash of their names
+        int exactSize = index.exactSize();
+        int columns = out.reserve(COLUMN * exactSize);
+        int slotCount = 2;
+        while (slotCount < exactSize * 2) {
+            slotCount <<= 1;
+        }
+        int slots = out.reserve(4 * slotCount);
+        int mask = slotCount - 1;
+        for (int i = 0; i < exactSize; i++) {
+            int column = columns + COLUMN * i;
+            int h = encodeColumn(compiled, i, column, out);
+            int slot = h & mask;
+            while (out.getInt(slots + 4 * slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            out.putInt(slots + 4 * slot, column);
+        }
+        out.putInt(record + T_SLOT_MASK, mask);
+        out.putInt(record + T_SLOTS, slots);
+
+        //  Families, the first one of each name, with their qualifier patterns
+        List<String> names = new ArrayList<String>();
+        for (Family f : table.getColumnFamilies()) {
+            if (!names.contains(f.getFamilyName())) {
+                names.add(f.getFamilyName());
+            }
+        }
+        int families = out.reserve(FAMILY * names.size());
+        out.putInt(record + T_FAMILY_COUNT, names.size());
+        out.putInt(record + T_FAMILIES, families);
+        for (int k = 0; k < names.size(); k++) {
+            String name = names.get(k);
+            int family = families + FAMILY * k;
+            out.putInt(family + F_NAME, out.string(name));
+            out.putByte(family + F_PADDING, bool(compiled.getColumnPadding(name, null)));
+
+            List<Integer> rules = new ArrayList<Integer>();
+            for (int i = exactSize; i < index.size(); i++) {
+                if (index.family(i).getFamilyName().equals(name)) {
+                    rules.add(i);
+                }
+            }
+            int patterns = out.reserve(COLUMN * rules.size());
+            out.putInt(family + F_PATTERN_COUNT, rules.size());
+            out.putInt(family + F_PATTERNS, patterns);
+            for (int r = 0; r < rules.size(); r++) {
+                encodeColumn(compiled, rules.get(r), patterns + COLUMN * r, out);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return the hash of the column names, see ColumnIndex.hash(...)
+     */
+    private static int encodeColumn(CompiledTableSchema compiled, int entry, int column, Output out) {
+        ColumnIndex index = compiled.columnIndex();
+        String family = index.family(entry).getFamilyName();
+        String qualifier = index.qualifier(entry).getName();
+        byte[] f = family.getBytes(UTF8);
+        byte[] q = qualifier.getBytes(UTF8);
+        int h = ColumnIndex.hash(f, 0, f.length, q, 0, q.length);
+
+        out.putInt(column + C_FAMILY, out.string(family));
+        out.putInt(column + C_NAME, out.string(qualifier));
+        out.putInt(column + C_HASH, h);
+        out.putInt(column + C_FORMAT, compiled.formatSize(entry));
+        out.putInt(column + C_RADIX, compiled.radix(entry));
+        out.putInt(column + C_TWEAK, out.string(compiled.tweak(entry)));
+        out.putInt(column + C_GENERATOR, out.string(compiled.generator(entry)));
+        out.putByte(column + C_TYPE, cryptoType(compiled.getCryptoType(entry)));
+        out.putByte(column + C_PADDING, bool(compiled.padding(entry)));
+        out.putByte(column + C_INTEGER, bool(compiled.integerColumn(entry)));
+        DatabaseSchema.FFX fpe = compiled.fpeInstance(entry);
+        out.putByte(column + C_FPE, (byte) (fpe == null ? -1 : fpe.ordinal()));
+        return h;
+    }
+
+    private static byte cryptoType(DatabaseSchema.CryptoType cType) {
+        return (byte) (cType == null ? -1 : cType.ordinal());
+    }
+
+    private static byte bool(Boolean value) {
+        return (byte) (value == null ? -1 : (value ? 1 : 0));
+    }
+
+    /**
+     * Growable buffer the file is laid out in. Strings are written once and shared by every record that refers to them.
+     */
+    private static final class Output {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        int position() {
+            return this.buffer.position();
+        }
+
+        /**
+         * @return the offset of n zeroed bytes appended to the buffer
+         */
+        int reserve(int n) {
+            if (this.buffer.remaining() < n) {
+                int capacity = this.buffer.capacity();
+                while (capacity - this.buffer.position() < n) {
+                    capacity <<= 1;
+                }
+                ByteBuffer grown = ByteBuffer.allocate(capacity);
+                this.buffer.flip();
+                grown.put(this.buffer);
+                this.buffer = grown;
+            }
+            int offset = this.buffer.position();
+            this.buffer.position(offset + n);
+            return offset;
+        }
+
+        int string(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer offset = this.strings.get(value);
+            if (offset == null) {
+                byte[] bytes = value.getBytes(UTF8);
+                offset = reserve(4 + bytes.length);
+                this.buffer.putInt(offset, bytes.length);
+                for (int i = 0; i < bytes.length; i++) {
+                    this.buffer.put(offset + 4 + i, bytes[i]);
+                }
+                this.strings.put(value, offset);
+            }
+            return offset;
+        }
+
+        int getInt(int offset) {
+            return this.buffer.getInt(offset);
+        }
+
+        void putInt(int offset, int value) {
+            this.buffer.putInt(offset, value);
+        }
+
+        void putLong(int offset, long value) {
+            this.buffer.putLong(offset, value);
+        }
+
+        void putByte(int offset, byte value) {
+            this.buffer.put(offset, value);
+        }
+
+        ByteBuffer content() {
+            this.buffer.flip();
+            return this.buffer;
+        }
+    }
+
+}
@@ -0,0 +1,394 @@
+package pt.uminho.haslab.safemapper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static pt.uminho.haslab.safemapper.MappedSchema.*;
+
+/**
+ * MappedTableSchema class.
+ * View of a table of a MappedSchema. Lookups read the mapped file in place with absolute reads only, so a view is
+ * shared between threads. Lookups by byte[] slices do not allocate, and neither do lookups of declared columns by
+ * ASCII names. Returned strings and keys are decoded on every call.
+ */
+final class MappedTableSchema implements TableSchemaLookup {
+
+    private final ByteBuffer buffer;
+    private final int record;
+    private final String tablename;
+    private final List<DatabaseSchema.CryptoType> enabledCryptoTypes;
+
+    MappedTableSchema(ByteBuffer buffer, int record, String tablename) {
+        this.buffer = buffer;
+        this.record = record;
+        this.tablename = tablename;
+        long mask = getEnabledCryptoTypeMask();
+        List<DatabaseSchema.CryptoType> cTypes = new ArrayList<DatabaseSchema.CryptoType>();
+        for (DatabaseSchema.CryptoType cType : DatabaseSchema.CryptoType.values()) {
+            if ((mask & (1L << cType.ordinal())) != 0) {
+                cTypes.add(cType);
+            }
+        }
+        this.enabledCryptoTypes = Collections.unmodifiableList(cTypes);
+    }
+
+    public String getTablename() {
+        return this.tablename;
+    }
+
+    public DatabaseSchema.CryptoType getDefaultKeyCryptoType() {
+        return cryptoType(this.buffer.get(this.record + T_DEFAULT_KEY_TYPE));
+    }
+
+    public DatabaseSchema.CryptoType getDefaultColumnsCryptoType() {
+        return cryptoType(this.buffer.get(this.record + T_DEFAULT_COLUMNS_TYPE));
+    }
+
+    public int getDefaultKeyFormatSize() {
+        return this.buffer.getInt(this.record + T_DEFAULT_KEY_FORMAT);
+    }
+
+    public int getDefaultColumnFormatSize() {
+        return this.buffer.getInt(this.record + T_DEFAULT_COLUMN_FORMAT);
+    }
+
+    public Boolean getDefaultKeyPadding() {
+        return bool(this.buffer.get(this.record + T_DEFAULT_KEY_PADDING));
+    }
+
+    public Boolean getDefaultColumnPadding() {
+        return bool(this.buffer.get(this.record + T_DEFAULT_COLUMN_PADDING));
+    }
+
+    public Boolean getEncryptionMode() {
+        return bool(this.buffer.get(this.record + T_ENCRYPTION_MODE));
+    }
+
+    /**
+     * @return a new Key (or KeyFPE) decoded from the mapped file
+     */
+    public Key getKey() {
+        DatabaseSchema.CryptoType cType = cryptoType(this.buffer.get(this.record + T_KEY_TYPE));
+        int formatSize = this.buffer.getInt(this.record + T_KEY_FORMAT);
+        Boolean padding = getKeyPadding();
+        if (this.buffer.get(this.record + T_KEY_KIND) == FPE) {
+            String instance = readString(this.buffer, this.buffer.getInt(this.record + T_KEY_INSTANCE));
+            int radix = this.buffer.getInt(this.record + T_KEY_RADIX);
+            String tweak = readString(this.buffer, this.buffer.getInt(this.record + T_KEY_TWEAK));
+            return new KeyFPE(cType, formatSize, padding, instance, radix, tweak);
+        }
+        return new Key(cType, formatSize, padding);
+    }
+
+    public Integer getKeyFormatSize() {
+        return this.buffer.getInt(this.record + T_KEY_FORMAT);
+    }
+
+    public Boolean getKeyPadding() {
+        return bool(this.buffer.get(this.record + T_KEY_PADDING));
+    }
+
+    public boolean containsFamily(String family) {
+        return family(family) >= 0;
+    }
+
+    public boolean containsQualifier(String family, String qualifier) {
+        return column(family, qualifier) >= 0;
+    }
+
+    public DatabaseSchema.CryptoType getCryptoTypeFromQualifier(String family, String qualifier) {
+        int column = column(family, qualifier);
+        return column < 0 ? getDefaultColumnsCryptoType() : cryptoType(this.buffer.get(column + C_TYPE));
+    }
+
+    public DatabaseSchema.CryptoType getCryptoTypeFromQualifier(byte[] family, int familyOffset, int familyLength,
+                                                                byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        int column = column(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return column < 0 ? getDefaultColumnsCryptoType() : cryptoType(this.buffer.get(column + C_TYPE));
+    }
+
+    public boolean isIntegerColumn(String family, String qualifier) {
+        int column = column(family, qualifier);
+        return column >= 0 && this.buffer.get(column + C_INTEGER) == 1;
+    }
+
+    public boolean isIntegerColumn(byte[] family, int familyOffset, int familyLength,
+                                   byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        int column = column(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return column >= 0 && this.buffer.get(column + C_INTEGER) == 1;
+    }
+
+    public String getGeneratorTypeFromQualifier(String family, String qualifier) {
+        int column = column(family, qualifier);
+        return column < 0 ? null : readString(this.buffer, this.buffer.getInt(column + C_GENERATOR));
+    }
+
+    public Integer getFormatSizeFromQualifier(String family, String qualifier) {
+        int column = column(family, qualifier);
+        return column < 0 ? 0 : this.buffer.getInt(column + C_FORMAT);
+    }
+
+    /**
+     * An undeclared qualifier inherits the padding of its family, and an undeclared family the table default.
+     */
+    public Boolean getColumnPadding(String family, String qualifier) {
+        int f = family(family);
+        if (f < 0) {
+            return this.buffer.get(this.record + T_COLUMN_PADDING) == 1;
+        }
+        int column = column(family, qualifier);
+        return this.buffer.get(column < 0 ? f + F_PADDING : column + C_PADDING) == 1;
+    }
+
+    public DatabaseSchema.FFX getFpeInstanceFromQualifier(String family, String qualifier) {
+        int column = column(family, qualifier);
+        byte instance = column < 0 ? -1 : this.buffer.get(column + C_FPE);
+        return instance < 0 ? null : DatabaseSchema.FFX.values()[instance];
+    }
+
+    public int getRadixFromQualifier(String family, String qualifier) {
+        int column = column(family, qualifier);
+        return column < 0 ? 0 : this.buffer.getInt(column + C_RADIX);
+    }
+
+    public String getTweakFromQualifier(String family, String qualifier) {
+        int column = column(family, qualifier);
+        return column < 0 ? null : readString(this.buffer, this.buffer.getInt(column + C_TWEAK));
+    }
+
+    public long getEnabledCryptoTypeMask() {
+        return this.buffer.getLong(this.record + T_ENABLED);
+    }
+
+    public boolean isCryptoTypeEnabled(DatabaseSchema.CryptoType cType) {
+        return (getEnabledCryptoTypeMask() & (1L << cType.ordinal())) != 0;
+    }
+
+    public List<DatabaseSchema.CryptoType> getEnabledCryptoTypes() {
+        return this.enabledCryptoTypes;
+    }
+
+    public String toString() {
+        return "Mapped Table Schema\nTable Name: " + this.tablename + "\n";
+    }
+
+    /*
+     * Column resolution
+     */
+
+    /**
+     * @return the offset of the column record of a declared column, or of the qualifier pattern it matches, or -1
+     */
+    private int column(byte[] family, int fOffset, int fLength, byte[] qualifier, int qOffset, int qLength) {
+        int h = ColumnIndex.hash(family, fOffset, fLength, qualifier, qOffset, qLength);
+        int mask = this.buffer.getInt(this.record + T_SLOT_MASK);
+        int slots = this.buffer.getInt(this.record + T_SLOTS);
+        int slot = h & mask;
+        int column;
+        while ((column = this.buffer.getInt(slots + 4 * slot)) != 0) {
+            if (this.buffer.getInt(column + C_HASH) == h
+                    && equal(this.buffer.getInt(column + C_FAMILY), family, fOffset, fLength)
+                    && equal(this.buffer.getInt(column + C_NAME), qualifier, qOffset, qLength)) {
+                return column;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int f = family(family, fOffset, fLength);
+        return f < 0 ? -1 : matchPattern(f, qualifier, qOffset, qLength);
+    }
+
+    private int column(String family, String qualifier) {
+        if (family == null || qualifier == null) {
+            return -1;
+        }
+        if (!isAscii(family) || !isAscii(qualifier)) {
+            byte[] f = family.getBytes(UTF8);
+            byte[] q = qualifier.getBytes(UTF8);
+            return column(f, 0, f.length, q, 0, q.length);
+        }
+        //  ASCII names hash and compare as their UTF-8 bytes, without encoding them
+        int h = 0x811c9dc5;
+        for (int i = 0; i < family.length(); i++) {
+            h = (h ^ (byte) family.charAt(i)) * 0x01000193;
+        }
+        h = (h ^ 0xff) * 0x01000193;
+        for (int i = 0; i < qualifier.length(); i++) {
+            h = (h ^ (byte) qualifier.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+
+        int mask = this.buffer.getInt(this.record + T_SLOT_MASK);
+        int slots = this.buffer.getInt(this.record + T_SLOTS);
+        int slot = h & mask;
+        int column;
+        while ((column = this.buffer.getInt(slots + 4 * slot)) != 0) {
+            if (this.buffer.getInt(column + C_HASH) == h
+                    && equal(this.buffer.getInt(column + C_FAMILY), family)
+                    && equal(this.buffer.getInt(column + C_NAME), qualifier)) {
+                return column;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int f = family(family);
+        if (f < 0 || this.buffer.getInt(f + F_PATTERN_COUNT) == 0) {
+            return -1;
+        }
+        byte[] q = qualifier.getBytes(UTF8);
+        return matchPattern(f, q, 0, q.length);
+    }
+
+    /**
+     * @return the offset of the family record, or -1 if the family is not declared
+     */
+    private int family(byte[] family, int offset, int length) {
+        int count = this.buffer.getInt(this.record + T_FAMILY_COUNT);
+        int families = this.buffer.getInt(this.record + T_FAMILIES);
+        for (int k = 0; k < count; k++) {
+            int f = families + FAMILY * k;
+            if (equal(this.buffer.getInt(f + F_NAME), family, offset, length)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private int family(String family) {
+        if (family == null) {
+            return -1;
+        }
+        if (!isAscii(family)) {
+            byte[] bytes = family.getBytes(UTF8);
+            return family(bytes, 0, bytes.length);
+        }
+        int count = this.buffer.getInt(this.record + T_FAMILY_COUNT);
+        int families = this.buffer.getInt(this.record + T_FAMILIES);
+        for (int k = 0; k < count; k++) {
+            int f = families + FAMILY * k;
+            if (equal(this.buffer.getInt(f + F_NAME), family)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset of the first qualifier pattern of a family that matches the qualifier, or -1 if none does
+     */
+    private int matchPattern(int family, byte[] qualifier, int offset, int length) {
+        int count = this.buffer.getInt(family + F_PATTERN_COUNT);
+        int patterns = this.buffer.getInt(family + F_PATTERNS);
+        for (int r = 0; r < count; r++) {
+            int rule = patterns + COLUMN * r;
+            int name = this.buffer.getInt(rule + C_NAME);
+            int start = name + 4;
+            if (glob(start, start + this.buffer.getInt(name), qualifier, offset, offset + length)) {
+                return rule;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Match q[pos, end) against the pattern held in the mapped bytes [p, pEnd), with the syntax of QualifierMatcher.
+     * On a mismatch only the last star seen takes one more character, so the match takes time linear in the qualifier
+     * length times the pattern length.
+     */
+    private boolean glob(int p, int pEnd, byte[] q, int pos, int end) {
+        //  Pattern position after the last star seen, and the qualifier position it was last resumed from
+        int starP = -1;
+        int starPos = -1;
+        while (true) {
+            if (p < pEnd) {
+                byte b = this.buffer.get(p);
+                if (b == '*') {
+                    while (p < pEnd && this.buffer.get(p) == '*') {
+                        p++;
+                    }
+                    if (p == pEnd) {
+                        return true;
+                    }
+                    starP = p;
+                    starPos = pos;
+                    continue;
+                }
+                if (pos < end) {
+                    if (b == '?') {
+                        int n = pos + QualifierMatcher.charLength(q[pos]);
+                        if (n <= end) {
+                            pos = n;
+                            p++;
+                            continue;
+                        }
+                    } else {
+                        int literal = p;
+                        if (b == '\\' && p + 1 < pEnd) {
+                            b = this.buffer.get(++literal);
+                        }
+                        if (q[pos] == b) {
+                            pos++;
+                            p = literal + 1;
+                            continue;
+                        }
+                    }
+                }
+            } else if (pos == end) {
+                return true;
+            }
+            if (starP < 0 || starPos >= end) {
+                return false;
+            }
+            //  The star takes one more character, never part of one
+            starPos = Math.min(starPos + QualifierMatcher.charLength(q[starPos]), end);
+            pos = starPos;
+            p = starP;
+        }
+    }
+
+    private boolean equal(int string, byte[] bytes, int offset, int length) {
+        if (this.buffer.getInt(string) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.buffer.get(string + 4 + i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param ascii a String with ASCII characters only
+     */
+    private boolean equal(int string, String ascii) {
+        int length = ascii.length();
+        if (this.buffer.getInt(string) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.buffer.get(string + 4 + i) != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static DatabaseSchema.CryptoType cryptoType(byte ordinal) {
+        return ordinal < 0 ? null : DatabaseSchema.CryptoType.values()[ordinal];
+    }
+
+    private static Boolean bool(byte value) {
+        return value < 0 ? null : value == 1;
+    }
+
+}
@@ -0,0 +1,222 @@
+package pt.uminho.haslab.safemapper;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PaddingCodec class.
+ * Pads and unpads the keys and column values of a table according to the format size and padding resolved by a
+ * CompiledTableSchema, writing into caller-supplied heap or direct ByteBuffers.
+ * <p>
+ * A padded value is the value right-aligned in formatSize bytes, preceded by PAD bytes. Padding keeps the unsigned
+ * integer value of the bytes (which is what OPE encrypts), so the padded bytes alone do not tell where the value
+ * started. The unpad methods that take the unpadded length (e.g., kept next to the padded value) restore any value
+ * exactly. The ones without it strip every leading PAD byte, which restores numeric values (e.g., Integer columns), where
+ * leading zeros carry no value, but not values that start with a PAD byte. Values of columns without padding, or
+ * without a format size (e.g., undeclared columns), are copied as they are.
+ * <p>
+ * The PAD bytes are copied from a template built with the snapshot and sized to its largest format size, so padding
+ * and unpadding do not allocate. A codec never changes and is shared between threads, see
+ * CompiledTableSchema.getPaddingCodec().
+ */
+public final class PaddingCodec {
+
+    public static final byte PAD = 0;
+
+    //  Smallest template, larger format sizes given to pad(...) are filled in chunks
+    private static final int MIN_TEMPLATE = 16;
+
+    private final CompiledTableSchema schema;
+    private final byte[] template;
+
+    PaddingCodec(CompiledTableSchema schema, int maxFormatSize) {
+        this.schema = schema;
+        this.template = new byte[Math.max(maxFormatSize, MIN_TEMPLATE)];
+        Arrays.fill(this.template, PAD);
+    }
+
+    /**
+     * @return the compiled schema whose format sizes and paddings this codec applies
+     */
+    public CompiledTableSchema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * padKey(src : ByteBuffer, dst : ByteBuffer) method : pad the remaining bytes of src to the key format size of the
+     * table, see pad(...)
+     */
+    public int padKey(ByteBuffer src, ByteBuffer dst) {
+        return pad(this.schema.getKeyFormatSize(), this.schema.getKeyPadding(), src, dst);
+    }
+
+    public int padKey(byte[] key, int offset, int length, ByteBuffer dst) {
+        return pad(this.schema.getKeyFormatSize(), this.schema.getKeyPadding(), key, offset, length, dst);
+    }
+
+    public int unpadKey(ByteBuffer src, ByteBuffer dst) {
+        return unpad(this.schema.getKeyFormatSize(), this.schema.getKeyPadding(), src, dst);
+    }
+
+    public int unpadKey(int length, ByteBuffer src, ByteBuffer dst) {
+        return unpad(this.schema.getKeyFormatSize(), this.schema.getKeyPadding(), length, src, dst);
+    }
+
+    /**
+     * padValue(family : String, qualifier : String, src : ByteBuffer, dst : ByteBuffer) method : pad the remaining
+     * bytes of src to the format size of a given family:qualifier, see pad(...)
+     */
+    public int padValue(String family, String qualifier, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.indexOf(family, qualifier);
+        return pad(this.schema.formatSize(entry), this.schema.padding(entry), src, dst);
+    }
+
+    /**
+     * padValue(family, qualifier, src, dst) method : allocation-free variant of padValue(String, String, ...) that
+     * takes the family and qualifier as byte[] slices
+     */
+    public int padValue(byte[] family, int familyOffset, int familyLength,
+                        byte[] qualifier, int qualifierOffset, int qualifierLength, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.indexOf(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        return pad(this.schema.formatSize(entry), this.schema.padding(entry), src, dst);
+    }
+
+    /**
+     * padValue(ordinal : int, src : ByteBuffer, dst : ByteBuffer) method : pad the remaining bytes of src to the
+     * format size of the column with a given ordinal (see CompiledTableSchema.getOrdinal(...)). An ordinal that no
+     * column of the snapshot has is handled as an undeclared column.
+     *
+     * @throws IndexOutOfBoundsException if the ordinal is not in [0, getSchema().getColumnCount())
+     */
+    public int padValue(int ordinal, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.entryOf(ordinal);
+        return pad(this.schema.formatSize(entry), this.schema.padding(entry), src, dst);
+    }
+
+    public int unpadValue(String family, String qualifier, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.indexOf(family, qualifier);
+        return unpad(this.schema.formatSize(entry), this.schema.padding(entry), src, dst);
+    }
+
+    public int unpadValue(int ordinal, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.entryOf(ordinal);
+        return unpad(this.schema.formatSize(entry), this.schema.padding(entry), src, dst);
+    }
+
+    public int unpadValue(String family, String qualifier, int length, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.indexOf(family, qualifier);
+        return unpad(this.schema.formatSize(entry), this.schema.padding(entry), length, src, dst);
+    }
+
+    public int unpadValue(int ordinal, int length, ByteBuffer src, ByteBuffer dst) {
+        int entry = this.schema.entryOf(ordinal);
+        return unpad(this.schema.formatSize(entry), this.schema.padding(entry), length, src, dst);
+    }
+
+    /**
+     * pad(formatSize : int, padding : boolean, src : ByteBuffer, dst : ByteBuffer) method : write the remaining bytes
+     * of src to dst, preceded by PAD bytes up to formatSize if padding is enabled. Both buffers are advanced, and
+     * nothing is written if the value does not fit. Format sizes and paddings can be taken from a ColumnPlan.
+     *
+     * @return the number of bytes written to dst
+     * @throws IllegalArgumentException if padding is enabled and the value is longer than formatSize
+     * @throws BufferOverflowException  if dst has not enough space remaining
+     */
+    public int pad(int formatSize, boolean padding, ByteBuffer src, ByteBuffer dst) {
+        int length = src.remaining();
+        int padded = paddedLength(formatSize, padding, length);
+        if (dst.remaining() < padded) {
+            throw new BufferOverflowException();
+        }
+        fill(dst, padded - length);
+        dst.put(src);
+        return padded;
+    }
+
+    public int pad(int formatSize, boolean padding, byte[] value, int offset, int length, ByteBuffer dst) {
+        int padded = paddedLength(formatSize, padding, length);
+        if (dst.remaining() < padded) {
+            throw new BufferOverflowException();
+        }
+        fill(dst, padded - length);
+        dst.put(value, offset, length);
+        return padded;
+    }
+
+    /**
+     * unpad(formatSize : int, padding : boolean, src : ByteBuffer, dst : ByteBuffer) method : write the remaining bytes
+     * of src to dst without their leading PAD bytes if padding is enabled. Both buffers are advanced, and nothing is
+     * written if the value does not fit. Meant for numeric values, a value that starts with PAD bytes loses them too,
+     * see unpad(int, boolean, int, ByteBuffer, ByteBuffer).
+     *
+     * @return the number of bytes written to dst
+     * @throws BufferOverflowException if dst has not enough space remaining
+     */
+    public int unpad(int formatSize, boolean padding, ByteBuffer src, ByteBuffer dst) {
+        int start = src.position();
+        if (padding && formatSize > 0) {
+            int limit = src.limit();
+            while (start < limit && src.get(start) == PAD) {
+                start++;
+            }
+        }
+        int length = src.limit() - start;
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        src.position(start);
+        dst.put(src);
+        return length;
+    }
+
+    /**
+     * unpad(formatSize : int, padding : boolean, length : int, src : ByteBuffer, dst : ByteBuffer) method : write the
+     * value of a given unpadded length to dst, skipping the PAD bytes that precede it in src if padding is enabled, so
+     * that unpad(pad(value)) is the value itself. Both buffers are advanced, and nothing is written if the value does
+     * not fit.
+     *
+     * @param length the length of the value before it was padded
+     * @return the number of bytes written to dst, length
+     * @throws IllegalArgumentException if src does not hold a padded value of that length
+     * @throws BufferOverflowException  if dst has not enough space remaining
+     */
+    public int unpad(int formatSize, boolean padding, int length, ByteBuffer src, ByteBuffer dst) {
+        int start = src.position();
+        int skip = padding && formatSize > 0 ? src.remaining() - length : 0;
+        if (length < 0 || skip < 0 || src.remaining() - skip != length) {
+            throw new IllegalArgumentException("Value of " + src.remaining() + " bytes is not a padded value of "
+                    + length + " bytes.");
+        }
+        for (int i = 0; i < skip; i++) {
+            if (src.get(start + i) != PAD) {
+                throw new IllegalArgumentException("Value of " + length + " bytes is preceded by non-PAD bytes.");
+            }
+        }
+        if (dst.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        src.position(start + skip);
+        dst.put(src);
+        return length;
+    }
+
+    private static int paddedLength(int formatSize, boolean padding, int length) {
+        if (!padding || formatSize <= 0) {
+            return length;
+        }
+        if (length > formatSize) {
+            throw new IllegalArgumentException("Value of " + length + " bytes exceeds the format size " + formatSize + ".");
+        }
+        return formatSize;
+    }
+
+    private void fill(ByteBuffer dst, int count) {
+        while (count > 0) {
+            int chunk = Math.min(count, this.template.length);
+            dst.put(this.template, 0, chunk);
+            count -= chunk;
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package pt.uminho.haslab.safemapper;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,13 +15,17 @@ public class Qualifier {
     private int formatSize;
     private Boolean padding;
     private Map<String, String> properties;
+    //  Read-only view of properties, returned by getProperties()
+    private Map<String, String> propertiesView;
+    //  Family this qualifier belongs to, notified when the qualifier name changes
+    private Family owner;
 
     public Qualifier() {
         this.qualifierName = "";
         this.cryptoType = DatabaseSchema.CryptoType.PLT;
         this.formatSize = 0;
         this.padding = null;
-        this.properties = new HashMap<String, String>();
+        this.setPropertiesMap(new HashMap<String, String>());
     }
 
     public Qualifier(String name, DatabaseSchema.CryptoType cType, int format, Boolean padding, Map<String, String> properties) {
@@ -28,7 +33,7 @@ public class Qualifier {
         this.cryptoType = cType;
         this.formatSize = format;
         this.padding = padding;
-        this.properties = properties;
+        this.setPropertiesMap(properties);
     }
 
     public String getName() {
@@ -40,7 +45,11 @@ public class Qualifier {
     }
 
     public void setCryptoType(DatabaseSchema.CryptoType cryptoType) {
-        this.cryptoType = cryptoType;
+        synchronized (lock()) {
+            checkMutable();
+            this.cryptoType = cryptoType;
+            changed();
+        }
     }
 
     public int getFormatSize() {
@@ -48,7 +57,11 @@ public class Qualifier {
     }
 
     public void setFormatSize(int format) {
-        this.formatSize = format;
+        synchronized (lock()) {
+            checkMutable();
+            this.formatSize = format;
+            changed();
+        }
     }
 
     public Boolean getPadding() {
@@ -56,25 +69,105 @@ public class Qualifier {
     }
 
     public void setPadding(Boolean padding) {
-        this.padding = padding;
+        synchronized (lock()) {
+            checkMutable();
+            this.padding = padding;
+            changed();
+        }
     }
 
     public void setQualifierName(String name) {
-        this.qualifierName = name;
+        synchronized (lock()) {
+            checkMutable();
+            this.qualifierName = name;
+            changed();
+        }
     }
 
-    public Map<String, String> getProperties() {
-        Map<String, String> propertiesTemp = new HashMap<String, String>();
-        for (String s : this.properties.keySet()) {
-            propertiesTemp.put(s, this.properties.get(s));
+    void setOwner(Family owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * lock() method : the monitor guarding changes to this qualifier, the one of its owning Family (if any)
+     */
+    Object lock() {
+        Family f = this.owner;
+        return f != null ? f.lock() : this;
+    }
+
+    /**
+     * checkMutable() method : fail a change to a qualifier of a shared TableSchema, see TableSchema.checkMutable()
+     */
+    void checkMutable() {
+        Family f = this.owner;
+        if (f != null) {
+            f.checkMutable();
+        }
+    }
+
+    /**
+     * changed() method : notify the owning Family (if any) that this qualifier was modified
+     */
+    void changed() {
+        Family f = this.owner;
+        if (f != null) {
+            f.changed();
         }
-        return propertiesTemp;
+    }
+
+    /**
+     * @return a read-only view of the miscellaneous properties. Use setProperty or setProperties to modify them.
+     */
+    public Map<String, String> getProperties() {
+        return this.propertiesView;
+    }
+
+    /**
+     * getProperty(key : String) method : get a single miscellaneous property without copying the properties map
+     *
+     * @param key property name
+     * @return the property value, or null if undefined
+     */
+    public String getProperty(String key) {
+        return this.properties == null ? null : this.properties.get(key);
     }
 
     public void setProperties(Map<String, String> prop) {
-        this.properties = new HashMap<String, String>();
-        for (String s : prop.keySet()) {
-            this.properties.put(s, prop.get(s));
+        synchronized (lock()) {
+            checkMutable();
+            this.setPropertiesMap(new HashMap<String, String>(prop));
+            changed();
+        }
+    }
+
+    /**
+     * setProperty(key : String, value : String) method : set a single miscellaneous property. The properties map may be
+     * shared with other qualifiers (e.g., an OPE qualifier and its _STD companion), so it is copied before the change.
+     *
+     * @param key   property name
+     * @param value property value
+     */
+    public void setProperty(String key, String value) {
+        synchronized (lock()) {
+            checkMutable();
+            Map<String, String> prop = this.properties == null
+                    ? new HashMap<String, String>() : new HashMap<String, String>(this.properties);
+            prop.put(key, value);
+            this.setPropertiesMap(prop);
+            changed();
+        }
+    }
+
+    private void setPropertiesMap(Map<String, String> prop) {
+        this.properties = prop;
+        if (prop == null) {
+            this.propertiesView = Collections.<String, String>emptyMap();
+        } else if (prop instanceof SharedProperties) {
+            //  Already immutable, and shared with the qualifiers that have the same properties (see SchemaInterner)
+            this.propertiesView = prop;
+        } else {
+            this.propertiesView = Collections.unmodifiableMap(prop);
         }
     }
 
@@ -85,8 +178,8 @@ public class Qualifier {
         sb.append("Qualifier Format Size: ").append(formatSize).append("\n");
         sb.append("Qualifier Padding: ").append(padding).append("\n");
         sb.append("Qualifier Properties: \n");
-        for (String s : this.properties.keySet()) {
-            sb.append(s).append(": ").append(this.properties.get(s)).append("\n");
+        for (Map.Entry<String, String> property : this.propertiesView.entrySet()) {
+            sb.append(property.getKey()).append(": ").append(property.getValue()).append("\n");
         }
         return sb.toString();
     }
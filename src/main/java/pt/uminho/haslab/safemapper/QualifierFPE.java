@@ -1,10 +1,13 @@
 package pt.uminho.haslab.safemapper;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
-import static pt.uminho.haslab.safemapper.Helpers.getTweakBytes;
+import static pt.uminho.haslab.safemapper.Helpers.resolveTweakBytes;
+import static pt.uminho.haslab.safemapper.Helpers.securityParameters;
+import static pt.uminho.haslab.safemapper.Helpers.tweakBytes;
 import static pt.uminho.haslab.safemapper.Helpers.whichFpeInstance;
 
 /**
@@ -20,6 +23,8 @@ public class QualifierFPE extends Qualifier {
     private DatabaseSchema.FFX fpe_instance;
     private int radix;
     private String tweak;
+    //  Encoding of tweak for the instance, or null if the tweak is invalid (see Helpers.resolveTweakBytes)
+    private byte[] tweakBytes;
 
     public QualifierFPE() {
         this.qualifierName = "";
@@ -31,6 +36,7 @@ public class QualifierFPE extends Qualifier {
         this.fpe_instance = DatabaseSchema.FFX.FF1;
         this.radix = 10;
         this.tweak = "";
+        this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
     }
 
     public QualifierFPE(String qualifierName, DatabaseSchema.CryptoType cType, int formatSize, Boolean padding, Map<String, String> prop, String instance, int radix, String tweak) {
@@ -39,6 +45,7 @@ public class QualifierFPE extends Qualifier {
         this.fpe_instance = whichFpeInstance(instance);
         this.radix = radix;
         this.tweak = tweak;
+        this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
     }
 
     public String getInstance() {
@@ -46,7 +53,13 @@ public class QualifierFPE extends Qualifier {
     }
 
     public void setInstance(String instance) {
-        this.instance = instance;
+        synchronized (lock()) {
+            checkMutable();
+            this.instance = instance;
+            this.fpe_instance = whichFpeInstance(instance);
+            this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
+            changed();
+        }
     }
 
     public DatabaseSchema.FFX getFpeInstance() {
@@ -54,7 +67,11 @@ public class QualifierFPE extends Qualifier {
     }
 
     public void setFpeInstance(DatabaseSchema.FFX instance) {
-        this.fpe_instance = instance;
+        synchronized (lock()) {
+            checkMutable();
+            this.fpe_instance = instance;
+            changed();
+        }
     }
 
     public int getRadix() {
@@ -62,7 +79,11 @@ public class QualifierFPE extends Qualifier {
     }
 
     public void setRadix(int radix) {
-        this.radix = radix;
+        synchronized (lock()) {
+            checkMutable();
+            this.radix = radix;
+            changed();
+        }
     }
 
     public String getTweak() {
@@ -70,15 +91,44 @@ public class QualifierFPE extends Qualifier {
     }
 
     public void setTweak(String tweak) {
-        this.tweak = tweak;
+        synchronized (lock()) {
+            checkMutable();
+            this.tweak = tweak;
+            this.tweakBytes = resolveTweakBytes(this.instance, this.tweak);
+            changed();
+        }
+    }
+
+    /**
+     * getTweakLength() method : length of the tweak bytes appended to the key in the security parameters
+     */
+    public int getTweakLength() throws UnsupportedEncodingException {
+        return tweakBytes(this.tweakBytes, this.instance, this.tweak).length;
     }
 
+    /**
+     * getSecurityParameters(key : byte[]) method : key || tweak, in a new array
+     */
     public byte[] getSecurityParameters(byte[] key) throws UnsupportedEncodingException {
-        byte[] temp_tweak = getTweakBytes(this.instance, this.tweak);
-        byte[] security_parameters = new byte[key.length + temp_tweak.length];
-        System.arraycopy(key, 0, security_parameters, 0, key.length);
-        System.arraycopy(temp_tweak, 0, security_parameters, key.length, temp_tweak.length);
-        return security_parameters;
+        return securityParameters(key, tweakBytes(this.tweakBytes, this.instance, this.tweak));
+    }
+
+    /**
+     * writeSecurityParameters(key : byte[], dst : byte[], offset : int) method : allocation-free variant of
+     * getSecurityParameters(byte[]) that writes key || tweak into dst, starting at offset
+     *
+     * @return the number of bytes written, key.length + getTweakLength()
+     */
+    public int writeSecurityParameters(byte[] key, byte[] dst, int offset) throws UnsupportedEncodingException {
+        return Helpers.writeSecurityParameters(key, tweakBytes(this.tweakBytes, this.instance, this.tweak), dst, offset);
+    }
+
+    /**
+     * writeSecurityParameters(key : byte[], dst : ByteBuffer) method : allocation-free variant of
+     * getSecurityParameters(byte[]) that puts key || tweak at the position of dst, advancing it
+     */
+    public void writeSecurityParameters(byte[] key, ByteBuffer dst) throws UnsupportedEncodingException {
+        Helpers.writeSecurityParameters(key, tweakBytes(this.tweakBytes, this.instance, this.tweak), dst);
     }
 
     public String toString() {
@@ -0,0 +1,242 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * QualifierMatcher class.
+ * Matcher of the qualifier patterns of a family (see Family.addQualifierPattern), compiled into a trie over the UTF-8
+ * bytes of the patterns so that every pattern is matched in a single walk instead of one at a time. Literal bytes
+ * shared by several patterns (e.g., the "m_" of "m_*" and "m_*_STD") are compared once.
+ * <p>
+ * Pattern syntax: '*' matches any sequence of characters (including none), '?' matches exactly one character and '\'
+ * makes the next character literal. When several patterns match a qualifier, the one declared first wins.
+ * <p>
+ * The trie is run as an automaton over the set of nodes reachable so far, one qualifier character at a time, so a
+ * lookup takes time linear in the qualifier length times the number of nodes, whatever the stars of the patterns.
+ * Lookups accept byte[] slices and do not allocate, the state sets are kept per thread.
+ */
+final class QualifierMatcher {
+
+    private final Node root;
+    //  Nodes by id
+    private final Node[] nodes;
+    //  State sets of a lookup, two bit sets over the node ids
+    private final ThreadLocal<long[][]> states;
+
+    /**
+     * @param patterns the patterns, in declaration order
+     */
+    QualifierMatcher(List<String> patterns) {
+        this.root = new Node();
+        for (int i = 0; i < patterns.size(); i++) {
+            add(patterns.get(i), i);
+        }
+        List<Node> all = new ArrayList<Node>();
+        this.root.freeze(all);
+        this.nodes = all.toArray(new Node[all.size()]);
+        final int words = (this.nodes.length + 63) >>> 6;
+        this.states = new ThreadLocal<long[][]>() {
+            @Override
+            protected long[][] initialValue() {
+                return new long[2][words];
+            }
+        };
+    }
+
+    private void add(String pattern, int rule) {
+        byte[] bytes = pattern.getBytes(ColumnIndex.UTF8);
+        Node node = this.root;
+        for (int i = 0; i < bytes.length; i++) {
+            byte b = bytes[i];
+            if (b == '*') {
+                //  Consecutive stars are the same as a single one
+                if (!node.isStar) {
+                    if (node.star == null) {
+                        node.star = new Node();
+                        node.star.isStar = true;
+                    }
+                    node = node.star;
+                }
+            } else if (b == '?') {
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                node = node.any;
+            } else {
+                if (b == '\\' && i + 1 < bytes.length) {
+                    b = bytes[++i];
+                }
+                node = node.literal(b);
+            }
+        }
+        if (node.rule < 0) {
+            node.rule = rule;
+        }
+    }
+
+    /**
+     * match(qualifier : byte[], offset : int, length : int) method : match a qualifier against every pattern
+     *
+     * @return the index of the first declared pattern that matches the qualifier, or -1 if none does
+     */
+    int match(byte[] qualifier, int offset, int length) {
+        long[][] sets = this.states.get();
+        long[] current = sets[0];
+        long[] next = sets[1];
+        Arrays.fill(current, 0L);
+        int best = enter(current, this.root, -1);
+        int end = offset + length;
+        int pos = offset;
+        while (pos < end && best != 0) {
+            //  Stars and '?' consume whole characters, literals the bytes of the character one by one
+            int charLength = charLength(qualifier[pos]);
+            int step = Math.min(charLength, end - pos);
+            Arrays.fill(next, 0L);
+            boolean alive = false;
+            for (int w = 0; w < current.length; w++) {
+                long bits = current[w];
+                while (bits != 0) {
+                    Node node = this.nodes[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                    bits &= bits - 1;
+                    if (node.isStar) {
+                        best = enter(next, node, best);
+                        alive = true;
+                    }
+                    Node target = node;
+                    for (int k = 0; k < step && target != null; k++) {
+                        target = target.child(qualifier[pos + k]);
+                    }
+                    if (target != null) {
+                        best = enter(next, target, best);
+                        alive = true;
+                    }
+                    if (node.any != null && charLength == step) {
+                        best = enter(next, node.any, best);
+                        alive = true;
+                    }
+                }
+            }
+            if (!alive) {
+                return best;
+            }
+            long[] t = current;
+            current = next;
+            next = t;
+            pos += step;
+        }
+        for (int w = 0; w < current.length; w++) {
+            long bits = current[w];
+            while (bits != 0) {
+                Node node = this.nodes[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                bits &= bits - 1;
+                best = first(best, node.rule);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Add a node and the star that follows it (which matches the empty sequence) to a state set.
+     *
+     * @return best, or the rule of a star ending a pattern reached here, which matches any remaining suffix
+     */
+    private static int enter(long[] set, Node node, int best) {
+        set[node.id >>> 6] |= 1L << node.id;
+        Node star = node.star;
+        if (star != null) {
+            set[star.id >>> 6] |= 1L << star.id;
+            node = star;
+        }
+        if (node.isStar && node.isLeaf()) {
+            best = first(best, node.rule);
+        }
+        return best;
+    }
+
+    private static int first(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        return b < 0 ? a : Math.min(a, b);
+    }
+
+    /**
+     * @return the length of the UTF-8 sequence that starts with the given byte
+     */
+    static int charLength(byte lead) {
+        if ((lead & 0x80) == 0) {
+            return 1;
+        } else if ((lead & 0xE0) == 0xC0) {
+            return 2;
+        } else if ((lead & 0xF0) == 0xE0) {
+            return 3;
+        } else if ((lead & 0xF8) == 0xF0) {
+            return 4;
+        }
+        return 1;
+    }
+
+    private static final class Node {
+        //  Literal transitions, built as lists and then frozen into arrays
+        private List<Byte> labelList = new ArrayList<Byte>();
+        private List<Node> childList = new ArrayList<Node>();
+        private byte[] labels;
+        private Node[] children;
+        private Node any;
+        private Node star;
+        private boolean isStar;
+        //  Pattern ending at this node, or -1
+        private int rule = -1;
+        //  Index of this node in QualifierMatcher.nodes
+        private int id;
+
+        Node literal(byte b) {
+            int i = this.labelList.indexOf(b);
+            if (i >= 0) {
+                return this.childList.get(i);
+            }
+            Node node = new Node();
+            this.labelList.add(b);
+            this.childList.add(node);
+            return node;
+        }
+
+        Node child(byte b) {
+            byte[] l = this.labels;
+            for (int i = 0; i < l.length; i++) {
+                if (l[i] == b) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        boolean isLeaf() {
+            return this.labels.length == 0 && this.any == null && this.star == null;
+        }
+
+        void freeze(List<Node> nodes) {
+            this.id = nodes.size();
+            nodes.add(this);
+            this.labels = new byte[this.labelList.size()];
+            this.children = this.childList.toArray(new Node[this.childList.size()]);
+            for (int i = 0; i < this.labels.length; i++) {
+                this.labels[i] = this.labelList.get(i);
+            }
+            this.labelList = null;
+            this.childList = null;
+            for (Node child : this.children) {
+                child.freeze(nodes);
+            }
+            if (this.any != null) {
+                this.any.freeze(nodes);
+            }
+            if (this.star != null) {
+                this.star.freeze(nodes);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * SchemaChange class.
+ * A single difference between two versions of a database schema, see SchemaDiff. A change names the element that was
+ * added, removed or modified (a table, its key, a family, a qualifier or a qualifier pattern) and, for modifications,
+ * the properties that differ. The element itself is given as it was before and after the change (null when it was
+ * added or removed, respectively).
+ * <p>
+ * Changes are not reported below an element that was added or removed: the qualifiers of a new family are part of the
+ * family.
+ */
+public final class SchemaChange {
+
+    public enum Kind {
+        ADDED, REMOVED, MODIFIED
+    }
+
+    public enum Element {
+        //  Before and after are TableSchemas
+        TABLE,
+        //  Before and after are Keys
+        KEY,
+        //  Before and after are Families
+        FAMILY,
+        //  Before and after are Qualifiers
+        QUALIFIER,
+        //  Before and after are Qualifiers, whose names are patterns (see Family.addQualifierPattern)
+        QUALIFIER_PATTERN
+    }
+
+    public enum Property {
+        CRYPTO_TYPE, FORMAT_SIZE, PADDING, PROPERTIES, FPE_INSTANCE, RADIX, TWEAK,
+        //  Default CryptoTypes, format sizes or paddings of a table
+        DEFAULTS,
+        //  Encryption mode of a table
+        ENCRYPTION_MODE,
+        //  Declaration order of the qualifier patterns of a family, which decides the pattern a qualifier matches
+        PATTERN_ORDER
+    }
+
+    private final Kind kind;
+    private final Element element;
+    private final String table;
+    private final String family;
+    private final String qualifier;
+    private final Object before;
+    private final Object after;
+    private final Set<Property> properties;
+
+    SchemaChange(Kind kind, Element element, String table, String family, String qualifier, Object before,
+                 Object after, EnumSet<Property> properties) {
+        this.kind = kind;
+        this.element = element;
+        this.table = table;
+        this.family = family;
+        this.qualifier = qualifier;
+        this.before = before;
+        this.after = after;
+        this.properties = properties == null
+                ? Collections.<Property>emptySet() : Collections.unmodifiableSet(properties);
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    public Element getElement() {
+        return this.element;
+    }
+
+    public String getTable() {
+        return this.table;
+    }
+
+    /**
+     * @return the family name, or null for TABLE and KEY changes
+     */
+    public String getFamily() {
+        return this.family;
+    }
+
+    /**
+     * @return the qualifier name (or pattern), or null unless the change is a QUALIFIER or QUALIFIER_PATTERN change
+     */
+    public String getQualifier() {
+        return this.qualifier;
+    }
+
+    /**
+     * @return the element before the change (see Element), or null if it was added
+     */
+    public Object getBefore() {
+        return this.before;
+    }
+
+    /**
+     * @return the element after the change (see Element), or null if it was removed
+     */
+    public Object getAfter() {
+        return this.after;
+    }
+
+    /**
+     * @return the properties that differ, empty unless the change is a modification
+     */
+    public Set<Property> getChangedProperties() {
+        return this.properties;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.kind).append(' ').append(this.element).append(' ').append(this.table);
+        if (this.family != null) {
+            sb.append(':').append(this.family);
+        }
+        if (this.qualifier != null) {
+            sb.append(':').append(this.qualifier);
+        }
+        if (!this.properties.isEmpty()) {
+            sb.append(' ').append(this.properties);
+        }
+        return sb.toString();
+    }
+
+}
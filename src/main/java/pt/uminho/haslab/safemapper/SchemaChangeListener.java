@@ -0,0 +1,19 @@
+package pt.uminho.haslab.safemapper;
+
+/**
+ * SchemaChangeListener interface.
+ * Notified when a reload changes a DatabaseSchema, see DatabaseSchema.addChangeListener(...).
+ */
+public interface SchemaChangeListener {
+
+    /**
+     * schemaChanged(schema : DatabaseSchema, diff : SchemaDiff) method : called after the new tables are published, on
+     * the thread that reloaded the schema. Only called if the diff is not empty. Exceptions thrown by a listener are
+     * logged and do not fail the reload.
+     *
+     * @param schema the reloaded schema
+     * @param diff   the changes between the previous tables and the current ones
+     */
+    void schemaChanged(DatabaseSchema schema, SchemaDiff diff);
+
+}
@@ -0,0 +1,51 @@
+package pt.uminho.haslab.safemapper;
+
+/**
+ * SchemaColumn class.
+ * Declared column (family:qualifier) of a CompiledTableSchema, with its ordinal and its CryptoType resolved against the
+ * table defaults. Columns are grouped by CryptoType in the routing table of the snapshot, see
+ * CompiledTableSchema.getColumns(...), and can be looked up by ordinal, see CompiledTableSchema.getColumn(int).
+ */
+public final class SchemaColumn {
+
+    private final String family;
+    private final Qualifier qualifier;
+    private final DatabaseSchema.CryptoType cryptoType;
+    private final int ordinal;
+
+    SchemaColumn(int ordinal, String family, Qualifier qualifier, DatabaseSchema.CryptoType cryptoType) {
+        this.ordinal = ordinal;
+        this.family = family;
+        this.qualifier = qualifier;
+        this.cryptoType = cryptoType;
+    }
+
+    /**
+     * @return the ordinal of the column in its TableSchema, see TableSchema.getColumnOrdinal(...)
+     */
+    public int getOrdinal() {
+        return this.ordinal;
+    }
+
+    public String getFamily() {
+        return this.family;
+    }
+
+    public String getQualifierName() {
+        return this.qualifier.getName();
+    }
+
+    public Qualifier getQualifier() {
+        return this.qualifier;
+    }
+
+    public DatabaseSchema.CryptoType getCryptoType() {
+        return this.cryptoType;
+    }
+
+    @Override
+    public String toString() {
+        return this.family + ":" + this.qualifier.getName() + " (" + this.cryptoType + ")";
+    }
+
+}
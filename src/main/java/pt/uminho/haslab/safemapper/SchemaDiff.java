@@ -0,0 +1,340 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SchemaDiff class.
+ * Differences between two versions of a database schema, as a list of SchemaChanges: tables, keys, families, qualifiers
+ * and qualifier patterns that were added, removed or modified. Elements are matched by name; as in lookups, only the
+ * first family (or qualifier) with a given name is compared.
+ * <p>
+ * Tables that are the same TableSchema instance in both versions (e.g., tables kept by an incremental reload) are not
+ * compared, and neither are identical Family or Qualifier instances, so the cost of a diff is proportional to the size
+ * of the tables that were parsed again.
+ */
+public final class SchemaDiff {
+
+    private final List<SchemaChange> changes;
+    private final List<SchemaChange> changesView;
+    //  Changes of each table, in the order of changes
+    private final Map<String, List<SchemaChange>> tables;
+
+    private SchemaDiff(List<SchemaChange> changes) {
+        this.changes = changes;
+        this.changesView = Collections.unmodifiableList(changes);
+        this.tables = new HashMap<String, List<SchemaChange>>();
+        for (SchemaChange change : changes) {
+            List<SchemaChange> table = this.tables.get(change.getTable());
+            if (table == null) {
+                table = new ArrayList<SchemaChange>();
+                this.tables.put(change.getTable(), table);
+            }
+            table.add(change);
+        }
+    }
+
+    /**
+     * compare(before : DatabaseSchema, after : DatabaseSchema) method : get the changes from one schema to another.
+     * Tables of a schema loaded with LoadMode.LAZY are parsed to be compared.
+     */
+    public static SchemaDiff compare(DatabaseSchema before, DatabaseSchema after) {
+        return compare(before.getSchemas(), after.getSchemas());
+    }
+
+    static SchemaDiff compare(Map<String, TableSchema> before, Map<String, TableSchema> after) {
+        List<SchemaChange> changes = new ArrayList<SchemaChange>();
+        for (Map.Entry<String, TableSchema> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                changes.add(new SchemaChange(SchemaChange.Kind.REMOVED, SchemaChange.Element.TABLE, entry.getKey(),
+                        null, null, entry.getValue(), null, null));
+            }
+        }
+        for (Map.Entry<String, TableSchema> entry : after.entrySet()) {
+            String name = entry.getKey();
+            if (!before.containsKey(name)) {
+                changes.add(new SchemaChange(SchemaChange.Kind.ADDED, SchemaChange.Element.TABLE, name,
+                        null, null, null, entry.getValue(), null));
+            } else {
+                TableSchema previous = before.get(name);
+                if (previous != entry.getValue()) {
+                    compareTables(name, previous, entry.getValue(), changes);
+                }
+            }
+        }
+        return new SchemaDiff(changes);
+    }
+
+    /**
+     * @return the changes, removed tables first and then the changes of every other table in the order of the new schema
+     */
+    public List<SchemaChange> getChanges() {
+        return this.changesView;
+    }
+
+    /**
+     * @return the changes of a table, empty if the table did not change
+     */
+    public List<SchemaChange> getChanges(String table) {
+        List<SchemaChange> changes = this.tables.get(table);
+        return changes == null ? Collections.<SchemaChange>emptyList() : Collections.unmodifiableList(changes);
+    }
+
+    public boolean isEmpty() {
+        return this.changes.isEmpty();
+    }
+
+    /**
+     * isAffected(table : String, family : String, qualifier : String) method : check if the properties of a column may
+     * have changed. This is the case if the column, its family or its table was added, removed or modified, or if a
+     * qualifier pattern of its family changed (the column may match a different pattern). Changes of the key do not
+     * affect columns.
+     */
+    public boolean isAffected(String table, String family, String qualifier) {
+        List<SchemaChange> changes = this.tables.get(table);
+        if (changes == null) {
+            return false;
+        }
+        for (SchemaChange change : changes) {
+            switch (change.getElement()) {
+                case TABLE:
+                    return true;
+                case FAMILY:
+                case QUALIFIER_PATTERN:
+                    if (change.getFamily().equals(family)) {
+                        return true;
+                    }
+                    break;
+                case QUALIFIER:
+                    if (change.getFamily().equals(family) && change.getQualifier().equals(qualifier)) {
+                        return true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Schema Diff\n");
+        for (SchemaChange change : this.changes) {
+            sb.append("> ").append(change).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static void compareTables(String name, TableSchema before, TableSchema after, List<SchemaChange> changes) {
+        EnumSet<SchemaChange.Property> properties = EnumSet.noneOf(SchemaChange.Property.class);
+        if (before.getDefaultKeyCryptoType() != after.getDefaultKeyCryptoType()
+                || before.getDefaultColumnsCryptoType() != after.getDefaultColumnsCryptoType()
+                || before.getDefaultKeyFormatSize() != after.getDefaultKeyFormatSize()
+                || before.getDefaultColumnFormatSize() != after.getDefaultColumnFormatSize()
+                || !same(before.getDefaultKeyPadding(), after.getDefaultKeyPadding())
+                || !same(before.getDefaultColumnPadding(), after.getDefaultColumnPadding())) {
+            properties.add(SchemaChange.Property.DEFAULTS);
+        }
+        if (!same(before.getEncryptionMode(), after.getEncryptionMode())) {
+            properties.add(SchemaChange.Property.ENCRYPTION_MODE);
+        }
+        if (!properties.isEmpty()) {
+            changes.add(new SchemaChange(SchemaChange.Kind.MODIFIED, SchemaChange.Element.TABLE, name, null, null,
+                    before, after, properties));
+        }
+
+        compareKeys(name, before.getKey(), after.getKey(), changes);
+
+        Map<String, Family> previous = familiesByName(before);
+        Map<String, Family> current = familiesByName(after);
+        for (Map.Entry<String, Family> entry : previous.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                changes.add(new SchemaChange(SchemaChange.Kind.REMOVED, SchemaChange.Element.FAMILY, name,
+                        entry.getKey(), null, entry.getValue(), null, null));
+            }
+        }
+        for (Map.Entry<String, Family> entry : current.entrySet()) {
+            Family family = previous.get(entry.getKey());
+            if (family == null) {
+                changes.add(new SchemaChange(SchemaChange.Kind.ADDED, SchemaChange.Element.FAMILY, name,
+                        entry.getKey(), null, null, entry.getValue(), null));
+            } else if (family != entry.getValue()) {
+                compareFamilies(name, family, entry.getValue(), changes);
+            }
+        }
+    }
+
+    private static void compareKeys(String table, Key before, Key after, List<SchemaChange> changes) {
+        if (before == after) {
+            return;
+        }
+        EnumSet<SchemaChange.Property> properties = EnumSet.noneOf(SchemaChange.Property.class);
+        if (before.getCryptoType() != after.getCryptoType()) {
+            properties.add(SchemaChange.Property.CRYPTO_TYPE);
+        }
+        if (before.getFormatSize() != after.getFormatSize()) {
+            properties.add(SchemaChange.Property.FORMAT_SIZE);
+        }
+        if (!same(before.getKeyPadding(), after.getKeyPadding())) {
+            properties.add(SchemaChange.Property.PADDING);
+        }
+        KeyFPE fpeBefore = before instanceof KeyFPE ? (KeyFPE) before : null;
+        KeyFPE fpeAfter = after instanceof KeyFPE ? (KeyFPE) after : null;
+        if (fpeBefore != null || fpeAfter != null) {
+            compareFpe(fpeBefore == null ? null : fpeBefore.getFpeInstance(),
+                    fpeBefore == null ? 0 : fpeBefore.getRadix(),
+                    fpeBefore == null ? null : fpeBefore.getTweak(),
+                    fpeAfter == null ? null : fpeAfter.getFpeInstance(),
+                    fpeAfter == null ? 0 : fpeAfter.getRadix(),
+                    fpeAfter == null ? null : fpeAfter.getTweak(), properties);
+        }
+        if (!properties.isEmpty()) {
+            changes.add(new SchemaChange(SchemaChange.Kind.MODIFIED, SchemaChange.Element.KEY, table, null, null,
+                    before, after, properties));
+        }
+    }
+
+    private static void compareFamilies(String table, Family before, Family after, List<SchemaChange> changes) {
+        String name = after.getFamilyName();
+        EnumSet<SchemaChange.Property> properties = EnumSet.noneOf(SchemaChange.Property.class);
+        if (before.getCryptoType() != after.getCryptoType()) {
+            properties.add(SchemaChange.Property.CRYPTO_TYPE);
+        }
+        if (before.getFormatSize() != after.getFormatSize()) {
+            properties.add(SchemaChange.Property.FORMAT_SIZE);
+        }
+        if (!same(before.getColumnPadding(), after.getColumnPadding())) {
+            properties.add(SchemaChange.Property.PADDING);
+        }
+        if (!patternOrder(before, after).equals(patternOrder(after, before))) {
+            properties.add(SchemaChange.Property.PATTERN_ORDER);
+        }
+        if (!properties.isEmpty()) {
+            changes.add(new SchemaChange(SchemaChange.Kind.MODIFIED, SchemaChange.Element.FAMILY, table, name, null,
+                    before, after, properties));
+        }
+
+        compareQualifiers(table, name, SchemaChange.Element.QUALIFIER,
+                qualifiersByName(before.getQualifiers()), qualifiersByName(after.getQualifiers()), changes);
+        compareQualifiers(table, name, SchemaChange.Element.QUALIFIER_PATTERN,
+                qualifiersByName(before.getQualifierPatterns()), qualifiersByName(after.getQualifierPatterns()), changes);
+    }
+
+    private static void compareQualifiers(String table, String family, SchemaChange.Element element,
+                                          Map<String, Qualifier> before, Map<String, Qualifier> after,
+                                          List<SchemaChange> changes) {
+        for (Map.Entry<String, Qualifier> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                changes.add(new SchemaChange(SchemaChange.Kind.REMOVED, element, table, family, entry.getKey(),
+                        entry.getValue(), null, null));
+            }
+        }
+        for (Map.Entry<String, Qualifier> entry : after.entrySet()) {
+            Qualifier previous = before.get(entry.getKey());
+            Qualifier current = entry.getValue();
+            if (previous == null) {
+                changes.add(new SchemaChange(SchemaChange.Kind.ADDED, element, table, family, entry.getKey(),
+                        null, current, null));
+            } else if (previous != current) {
+                EnumSet<SchemaChange.Property> properties = compareQualifier(previous, current);
+                if (!properties.isEmpty()) {
+                    changes.add(new SchemaChange(SchemaChange.Kind.MODIFIED, element, table, family, entry.getKey(),
+                            previous, current, properties));
+                }
+            }
+        }
+    }
+
+    private static EnumSet<SchemaChange.Property> compareQualifier(Qualifier before, Qualifier after) {
+        EnumSet<SchemaChange.Property> properties = EnumSet.noneOf(SchemaChange.Property.class);
+        if (before.getCryptoType() != after.getCryptoType()) {
+            properties.add(SchemaChange.Property.CRYPTO_TYPE);
+        }
+        if (before.getFormatSize() != after.getFormatSize()) {
+            properties.add(SchemaChange.Property.FORMAT_SIZE);
+        }
+        if (!same(before.getPadding(), after.getPadding())) {
+            properties.add(SchemaChange.Property.PADDING);
+        }
+        //  Shared property maps (see SchemaInterner) are compared by identity first
+        if (before.getProperties() != after.getProperties() && !before.getProperties().equals(after.getProperties())) {
+            properties.add(SchemaChange.Property.PROPERTIES);
+        }
+        QualifierFPE fpeBefore = before instanceof QualifierFPE ? (QualifierFPE) before : null;
+        QualifierFPE fpeAfter = after instanceof QualifierFPE ? (QualifierFPE) after : null;
+        if (fpeBefore != null || fpeAfter != null) {
+            compareFpe(fpeBefore == null ? null : fpeBefore.getFpeInstance(),
+                    fpeBefore == null ? 0 : fpeBefore.getRadix(),
+                    fpeBefore == null ? null : fpeBefore.getTweak(),
+                    fpeAfter == null ? null : fpeAfter.getFpeInstance(),
+                    fpeAfter == null ? 0 : fpeAfter.getRadix(),
+                    fpeAfter == null ? null : fpeAfter.getTweak(), properties);
+        }
+        return properties;
+    }
+
+    private static void compareFpe(DatabaseSchema.FFX instanceBefore, int radixBefore, String tweakBefore,
+                                   DatabaseSchema.FFX instanceAfter, int radixAfter, String tweakAfter,
+                                   EnumSet<SchemaChange.Property> properties) {
+        if (instanceBefore != instanceAfter) {
+            properties.add(SchemaChange.Property.FPE_INSTANCE);
+        }
+        if (radixBefore != radixAfter) {
+            properties.add(SchemaChange.Property.RADIX);
+        }
+        if (!same(tweakBefore, tweakAfter)) {
+            properties.add(SchemaChange.Property.TWEAK);
+        }
+    }
+
+    private static boolean same(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return the families of a table by name, keeping the first family with each name
+     */
+    private static Map<String, Family> familiesByName(TableSchema table) {
+        Map<String, Family> families = new LinkedHashMap<String, Family>();
+        for (int i = 0; i < table.getFamilyCount(); i++) {
+            Family family = table.getFamily(i);
+            if (!families.containsKey(family.getFamilyName())) {
+                families.put(family.getFamilyName(), family);
+            }
+        }
+        return families;
+    }
+
+    private static Map<String, Qualifier> qualifiersByName(List<Qualifier> qualifiers) {
+        Map<String, Qualifier> byName = new LinkedHashMap<String, Qualifier>(qualifiers.size() * 4 / 3 + 1);
+        for (int i = 0; i < qualifiers.size(); i++) {
+            Qualifier q = qualifiers.get(i);
+            if (!byName.containsKey(q.getName())) {
+                byName.put(q.getName(), q);
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * @return the names of the qualifier patterns of a family that the other family also declares, in declaration order
+     */
+    private static List<String> patternOrder(Family family, Family other) {
+        Map<String, Qualifier> common = qualifiersByName(other.getQualifierPatterns());
+        List<String> names = new ArrayList<String>(family.getQualifierPatternCount());
+        for (int i = 0; i < family.getQualifierPatternCount(); i++) {
+            String name = family.getQualifierPattern(i).getName();
+            if (common.containsKey(name) && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+}
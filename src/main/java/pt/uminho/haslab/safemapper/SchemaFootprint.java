@@ -0,0 +1,308 @@
+package pt.uminho.haslab.safemapper;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SchemaFootprint class.
+ * Estimate of the heap retained by the tables of a DatabaseSchema, see DatabaseSchema.getFootprint(). The bytes of a
+ * table are those of every object reachable from its TableSchema (families, qualifiers, names, properties, compiled
+ * snapshot and metrics), each counted once. Objects shared between tables (e.g., interned names and properties, see
+ * SchemaInterner) are counted in every table that reaches them, and once in the total.
+ * <p>
+ * Sizes follow a 64-bit JVM with compressed references: 12 byte object headers, 16 byte array headers, 4 byte
+ * references and 8 byte alignment. Classes of this package are measured from their fields; JDK strings, collections and
+ * atomics are modelled from their size. Enum constants and other JVM-wide singletons are not counted.
+ */
+public final class SchemaFootprint {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int HASH_ENTRY = 32;
+    private static final String PACKAGE = SchemaFootprint.class.getPackage().getName();
+
+    //  Shallow sizes and reference fields of the classes of this package
+    private static final ConcurrentHashMap<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<Class<?>, Layout>();
+
+    private final Map<String, Long> tables;
+    private final Map<String, Long> tablesView;
+    private final long totalBytes;
+
+    private SchemaFootprint(Map<String, Long> tables, long totalBytes) {
+        this.tables = tables;
+        this.tablesView = Collections.unmodifiableMap(tables);
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * measure(tables : Map<String, TableSchema>) method : estimate the footprint of a set of tables. Each table is
+     * compiled first, so the estimate includes the snapshot it retains once it is used.
+     */
+    static SchemaFootprint measure(Map<String, TableSchema> tables) {
+        Map<String, Long> bytes = new LinkedHashMap<String, Long>();
+        Walker total = new Walker();
+        for (Map.Entry<String, TableSchema> entry : tables.entrySet()) {
+            TableSchema table = entry.getValue();
+            table.compile();
+            Walker walker = new Walker();
+            walker.walk(table);
+            total.walk(table);
+            bytes.put(entry.getKey(), walker.bytes);
+        }
+        return new SchemaFootprint(bytes, total.bytes);
+    }
+
+    /**
+     * @return the estimated bytes retained by a table
+     * @throws NoSuchElementException if the table was not measured
+     */
+    public long getTableBytes(String table) {
+        Long bytes = this.tables.get(table);
+        if (bytes == null) {
+            throw new NoSuchElementException("Table " + table + " is not declared.");
+        }
+        return bytes;
+    }
+
+    /**
+     * @return a read-only map of the estimated bytes retained by each table
+     */
+    public Map<String, Long> getTableBytes() {
+        return this.tablesView;
+    }
+
+    /**
+     * @return the estimated bytes retained by all the tables, counting shared objects once
+     */
+    public long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    /**
+     * @return the bytes saved by sharing objects between tables: the sum of the table footprints minus the total
+     */
+    public long getSharedBytes() {
+        long sum = 0;
+        for (Long bytes : this.tables.values()) {
+            sum += bytes;
+        }
+        return sum - this.totalBytes;
+    }
+
+    /**
+     * @return a report with one line per table, largest first
+     */
+    public String toString() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(this.tables.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append("Schema Footprint\n");
+        sb.append("Total bytes: ").append(this.totalBytes).append("\n");
+        sb.append("Shared bytes: ").append(getSharedBytes()).append("\n");
+        for (Map.Entry<String, Long> entry : entries) {
+            sb.append("> ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static long arraySize(int length, int elementSize) {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    /**
+     * @return the length of the bucket array of a hash table holding size entries with the default load factor
+     */
+    private static int buckets(int size) {
+        int n = 16;
+        while (n * 3 / 4 < size) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static Layout layout(Class<?> type) {
+        Layout layout = LAYOUTS.get(type);
+        if (layout == null) {
+            long size = OBJECT_HEADER;
+            List<Field> references = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    size += fieldSize(field.getType());
+                    //  Fields inherited from JDK classes (e.g., the cached views of AbstractMap) are not walked
+                    if (!field.getType().isPrimitive() && c.getName().startsWith(PACKAGE)) {
+                        field.setAccessible(true);
+                        references.add(field);
+                    }
+                }
+            }
+            layout = new Layout(align(size), references.toArray(new Field[references.size()]));
+            LAYOUTS.put(type, layout);
+        }
+        return layout;
+    }
+
+    private static final class Layout {
+        private final long size;
+        private final Field[] references;
+
+        Layout(long size, Field[] references) {
+            this.size = size;
+            this.references = references;
+        }
+    }
+
+    /**
+     * Depth-first walk of an object graph, adding up the size of every object reached once.
+     */
+    private static final class Walker {
+        private final Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+        private final Deque<Object> pending = new ArrayDeque<Object>();
+        private long bytes;
+
+        void walk(Object root) {
+            push(root);
+            while (!this.pending.isEmpty()) {
+                visit(this.pending.pop());
+            }
+        }
+
+        private void push(Object o) {
+            if (o == null || o instanceof Enum || o instanceof Class || o == Boolean.TRUE || o == Boolean.FALSE) {
+                return;
+            }
+            if (this.seen.put(o, Boolean.TRUE) == null) {
+                this.pending.push(o);
+            }
+        }
+
+        private void visit(Object o) {
+            Class<?> type = o.getClass();
+            if (type.getName().startsWith(PACKAGE)) {
+                Layout layout = layout(type);
+                this.bytes += layout.size;
+                for (Field field : layout.references) {
+                    try {
+                        push(field.get(o));
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            } else if (type.isArray()) {
+                int length = Array.getLength(o);
+                Class<?> component = type.getComponentType();
+                this.bytes += arraySize(length, fieldSize(component));
+                if (!component.isPrimitive()) {
+                    for (Object element : (Object[]) o) {
+                        push(element);
+                    }
+                }
+            } else if (o instanceof String) {
+                String s = (String) o;
+                boolean latin1 = true;
+                for (int i = 0; i < s.length() && latin1; i++) {
+                    latin1 = s.charAt(i) <= 0xFF;
+                }
+                this.bytes += align(OBJECT_HEADER + 12) + arraySize(s.length(), latin1 ? 1 : 2);
+            } else if (o instanceof Map) {
+                visitMap(type, (Map<?, ?>) o);
+            } else if (o instanceof Collection) {
+                visitCollection(type, (Collection<?>) o);
+            } else if (o instanceof AtomicReferenceArray) {
+                AtomicReferenceArray<?> array = (AtomicReferenceArray<?>) o;
+                this.bytes += align(OBJECT_HEADER + REFERENCE) + arraySize(array.length(), REFERENCE);
+                for (int i = 0; i < array.length(); i++) {
+                    push(array.get(i));
+                }
+            } else if (o instanceof LongAdder) {
+                //  Base value and cells array, as long as it is not contended
+                this.bytes += align(OBJECT_HEADER + 8 + REFERENCE + 4);
+            } else if (o instanceof AtomicLong) {
+                this.bytes += align(OBJECT_HEADER + 8);
+            } else if (o instanceof AtomicInteger || o instanceof Number || o instanceof Boolean) {
+                this.bytes += align(OBJECT_HEADER + 4);
+            } else {
+                //  Unknown JDK object, counted as an empty object and not walked
+                this.bytes += align(OBJECT_HEADER);
+            }
+        }
+
+        private void visitMap(Class<?> type, Map<?, ?> map) {
+            String name = type.getName();
+            if (name.startsWith("java.util.Collections$Empty")) {
+                return;
+            }
+            if (name.startsWith("java.util.Collections$")) {
+                //  Read-only or synchronized view, its backing map is reached from the field that holds it
+                this.bytes += align(OBJECT_HEADER + 4 * REFERENCE);
+            } else {
+                int entry = map instanceof LinkedHashMap ? HASH_ENTRY + 2 * REFERENCE : HASH_ENTRY;
+                this.bytes += align(OBJECT_HEADER + 6 * REFERENCE + 4 * 4)
+                        + arraySize(buckets(map.size()), REFERENCE) + (long) map.size() * entry;
+            }
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                push(e.getKey());
+                push(e.getValue());
+            }
+        }
+
+        private void visitCollection(Class<?> type, Collection<?> collection) {
+            String name = type.getName();
+            if (name.startsWith("java.util.Collections$Empty")) {
+                return;
+            }
+            if (name.startsWith("java.util.Collections$")) {
+                this.bytes += align(OBJECT_HEADER + 2 * REFERENCE);
+            } else {
+                //  Array-backed list, as ArrayList
+                this.bytes += align(OBJECT_HEADER + 4 + 4 + REFERENCE) + arraySize(collection.size(), REFERENCE);
+            }
+            for (Object element : collection) {
+                push(element);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package pt.uminho.haslab.safemapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * SchemaIndex class.
+ * Index of a database schema document built by scanning its bytes, without parsing the tables: the byte range of the
+ * database <default> element, of each <include> element and, by table name, of each <table> element. Comments, CDATA sections,
+ * processing instructions and the document type declaration are skipped.
+ * <p>
+ * The scan only tracks the element structure; the content of each element is checked when it is parsed. Documents in
+ * another encoding than UTF-8 (detected from their byte order mark or XML declaration, as an XML parser does) are
+ * transcoded to UTF-8 first, since the elements are parsed without the declaration of the document.
+ */
+final class SchemaIndex {
+
+    private static final Pattern ENCODING = Pattern.compile("\\sencoding\\s*=\\s*(['\"])([A-Za-z0-9._:-]+)\\1");
+
+    private final ByteBuffer document;
+    private ByteBuffer defaults;
+    //  Every <table> element and its name (null if it has none), in document order
+    private final List<ByteBuffer> elements;
+    private final List<String> names;
+    private final List<ByteBuffer> includes;
+    private final String digest;
+
+    //  Scan state
+    private int depth;
+    private int tableStart;
+    private int defaultsStart;
+    private int includeStart;
+    private int nameStart;
+    private int nameEnd;
+    private boolean complexName;
+
+    SchemaIndex(ByteBuffer document) {
+        this.document = utf8(document.duplicate());
+        this.elements = new ArrayList<ByteBuffer>();
+        this.names = new ArrayList<String>();
+        this.includes = new ArrayList<ByteBuffer>();
+        this.tableStart = -1;
+        this.defaultsStart = -1;
+        this.includeStart = -1;
+        scan();
+        this.digest = digest(this.document);
+    }
+
+    /**
+     * utf8(document : ByteBuffer) method : the document itself if it is encoded in UTF-8 (or US-ASCII), otherwise the
+     * document transcoded to UTF-8 without its XML declaration
+     */
+    static ByteBuffer utf8(ByteBuffer document) {
+        Charset charset = encoding(document);
+        if (charset == null) {
+            return document;
+        }
+        String text = charset.decode(document.duplicate()).toString();
+        if (text.startsWith("\uFEFF")) {
+            text = text.substring(1);
+        }
+        if (text.startsWith("<?xml")) {
+            int end = text.indexOf("?>");
+            if (end < 0) {
+                throw new IllegalStateException("Unterminated XML declaration in schema document.");
+            }
+            text = text.substring(end + 2);
+        }
+        return ByteBuffer.wrap(text.getBytes(ColumnIndex.UTF8));
+    }
+
+    /**
+     * @return the encoding of a document, from its byte order mark or XML declaration, or null if it is UTF-8
+     */
+    private static Charset encoding(ByteBuffer document) {
+        int p = document.position();
+        int n = document.remaining();
+        int b0 = n > 0 ? document.get(p) & 0xFF : -1;
+        int b1 = n > 1 ? document.get(p + 1) & 0xFF : -1;
+        int b2 = n > 2 ? document.get(p + 2) & 0xFF : -1;
+        int b3 = n > 3 ? document.get(p + 3) & 0xFF : -1;
+        if (b0 == 0x00 && b1 == 0x00 && (b2 == 0xFE && b3 == 0xFF || b2 == 0x00 && b3 == '<')) {
+            return Charset.forName("UTF-32BE");
+        } else if (b0 == 0xFF && b1 == 0xFE && b2 == 0x00 && b3 == 0x00
+                || b0 == '<' && b1 == 0x00 && b2 == 0x00 && b3 == 0x00) {
+            return Charset.forName("UTF-32LE");
+        } else if (b0 == 0xFE && b1 == 0xFF || b0 == 0x00 && b1 == '<') {
+            return Charset.forName("UTF-16BE");
+        } else if (b0 == 0xFF && b1 == 0xFE || b0 == '<' && b1 == 0x00) {
+            return Charset.forName("UTF-16LE");
+        }
+
+        //  ASCII compatible: the encoding is the one of the XML declaration, UTF-8 by default
+        int start = b0 == 0xEF && b1 == 0xBB && b2 == 0xBF ? p + 3 : p;
+        StringBuilder declaration = new StringBuilder();
+        if (start + 5 <= document.limit() && document.get(start) == '<' && document.get(start + 1) == '?') {
+            for (int i = start; i < document.limit() && declaration.length() < 256; i++) {
+                char c = (char) (document.get(i) & 0xFF);
+                declaration.append(c);
+                if (c == '>') {
+                    break;
+                }
+            }
+        }
+        Matcher m = ENCODING.matcher(declaration);
+        if (!declaration.toString().startsWith("<?xml") || !m.find()) {
+            return null;
+        }
+        String name = m.group(2);
+        if (name.equalsIgnoreCase("UTF-8") || name.equalsIgnoreCase("UTF8") || name.equalsIgnoreCase("US-ASCII")
+                || name.equalsIgnoreCase("ASCII")) {
+            return null;
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unsupported schema document encoding " + name + ".", e);
+        }
+    }
+
+    /**
+     * Checksum of the document, only used to tell whether the file changed between loads. The tables themselves are
+     * compared by the digest of their elements (see LazyTableMap).
+     */
+    private static String digest(ByteBuffer content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return content.remaining() + ":" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * @return the database <default> element, or null if the document has none
+     */
+    ByteBuffer getDefaults() {
+        return this.defaults == null ? null : this.defaults.duplicate();
+    }
+
+    /**
+     * @return the <table> elements by table name, in document order. A later table replaces an earlier one with the
+     * same name.
+     */
+    Map<String, ByteBuffer> getTables() {
+        Map<String, ByteBuffer> tables = new LinkedHashMap<String, ByteBuffer>();
+        for (int i = 0; i < this.elements.size(); i++) {
+            String name = this.names.get(i);
+            if (name == null || name.length() == 0) {
+                throw new NullPointerException("Table name cannot be null nor empty.");
+            }
+            tables.remove(name);
+            tables.put(name, this.elements.get(i));
+        }
+        return tables;
+    }
+
+    /**
+     * @return every <table> element, in document order
+     */
+    List<ByteBuffer> getElements() {
+        return Collections.unmodifiableList(this.elements);
+    }
+
+    /**
+     * @return the name of every <table> element (null if it has none), in document order
+     */
+    List<String> getNames() {
+        return Collections.unmodifiableList(this.names);
+    }
+
+    /**
+     * @return every <include> element, in document order
+     */
+    List<ByteBuffer> getIncludes() {
+        return Collections.unmodifiableList(this.includes);
+    }
+
+    /**
+     * @return the checksum of the whole document
+     */
+    String getDigest() {
+        return this.digest;
+    }
+
+    private ByteBuffer slice(int from, int to) {
+        ByteBuffer slice = this.document.duplicate();
+        slice.limit(to);
+        slice.position(from);
+        return slice.slice();
+    }
+
+    private void scan() {
+        ByteBuffer doc = this.document;
+        int i = doc.position();
+        int limit = doc.limit();
+        while (i < limit) {
+            byte b = doc.get(i);
+            if (b != '<') {
+                if (b == '&' || b == '\r') {
+                    //  References and line ends are normalized by the parser
+                    markComplexName();
+                }
+                i++;
+            } else if (startsWith(i, "<!--")) {
+                markComplexName();
+                i = indexOf(i + 4, "-->") + 3;
+            } else if (startsWith(i, "<![CDATA[")) {
+                markComplexName();
+                i = indexOf(i + 9, "]]>") + 3;
+            } else if (startsWith(i, "<?")) {
+                i = indexOf(i + 2, "?>") + 2;
+            } else if (startsWith(i, "<!")) {
+                i = skipDeclaration(i + 2);
+            } else if (i + 1 < limit && doc.get(i + 1) == '/') {
+                int end = tagEnd(i + 2);
+                endElement(i, end);
+                i = end;
+            } else {
+                int end = tagEnd(i + 1);
+                boolean empty = doc.get(end - 2) == '/';
+                startElement(localName(i + 1), i, end, empty);
+                i = end;
+            }
+        }
+        if (this.depth != 0) {
+            throw new IllegalStateException("Schema document ends inside an element.");
+        }
+    }
+
+    /*
+     * Depth 1 is the content of the root element, so tables and the database defaults start at depth 1 and the fields
+     * of a table (e.g., its name) at depth 2.
+     */
+
+    private void startElement(int name, int start, int end, boolean empty) {
+        if (this.tableStart >= 0 && this.depth > 2) {
+            markComplexName();
+        }
+        if (this.depth == 1 && isName(name, "table")) {
+            this.tableStart = start;
+            this.nameStart = -1;
+            this.nameEnd = -1;
+            this.complexName = false;
+            if (empty) {
+                addTable(start, end);
+            }
+        } else if (this.depth == 1 && this.defaults == null && this.defaultsStart < 0 && isName(name, "default")) {
+            this.defaultsStart = start;
+            if (empty) {
+                this.defaults = slice(start, end);
+            }
+        } else if (this.depth == 1 && isName(name, "include")) {
+            this.includeStart = start;
+            if (empty) {
+                this.includes.add(slice(start, end));
+                this.includeStart = -1;
+            }
+        } else if (this.depth == 2 && this.tableStart >= 0 && this.nameStart < 0 && isName(name, "name")) {
+            this.nameStart = end;
+            if (empty) {
+                this.nameEnd = end;
+            }
+        }
+        if (!empty) {
+            this.depth++;
+        }
+    }
+
+    private void endElement(int start, int end) {
+        this.depth--;
+        if (this.depth < 0) {
+            throw new IllegalStateException("Unexpected end tag in schema document.");
+        }
+        if (this.depth == 2 && this.tableStart >= 0 && this.nameStart >= 0 && this.nameEnd < 0) {
+            this.nameEnd = start;
+        } else if (this.depth == 1 && this.tableStart >= 0) {
+            addTable(this.tableStart, end);
+            this.tableStart = -1;
+        } else if (this.depth == 1 && this.defaultsStart >= 0 && this.defaults == null) {
+            this.defaults = slice(this.defaultsStart, end);
+        } else if (this.depth == 1 && this.includeStart >= 0) {
+            this.includes.add(slice(this.includeStart, end));
+            this.includeStart = -1;
+        }
+    }
+
+    private void markComplexName() {
+        if (this.nameStart >= 0 && this.nameEnd < 0) {
+            this.complexName = true;
+        }
+    }
+
+    private void addTable(int start, int end) {
+        ByteBuffer table = slice(start, end);
+        String name;
+        if (this.nameStart < 0) {
+            name = null;
+        } else if (this.complexName) {
+            //  A name with markup or references: let the parser read it
+            name = SchemaParser.readTablename(table.duplicate());
+        } else {
+            byte[] bytes = new byte[this.nameEnd - this.nameStart];
+            ByteBuffer content = this.document.duplicate();
+            content.position(this.nameStart);
+            content.get(bytes);
+            name = new String(bytes, ColumnIndex.UTF8);
+        }
+        this.elements.add(table);
+        this.names.add(name);
+    }
+
+    private boolean startsWith(int i, String prefix) {
+        if (i + prefix.length() > this.document.limit()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (this.document.get(i + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int from, String token) {
+        for (int i = from; i < this.document.limit(); i++) {
+            if (startsWith(i, token)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Unterminated markup in schema document, expected " + token + ".");
+    }
+
+    /**
+     * @return the position after the '>' that closes the tag starting at from, skipping quoted attribute values
+     */
+    private int tagEnd(int from) {
+        byte quote = 0;
+        for (int i = from; i < this.document.limit(); i++) {
+            byte b = this.document.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+        throw new IllegalStateException("Unterminated tag in schema document.");
+    }
+
+    /**
+     * Skip a <!DOCTYPE ...> declaration, including its internal subset.
+     */
+    private int skipDeclaration(int from) {
+        int brackets = 0;
+        byte quote = 0;
+        for (int i = from; i < this.document.limit(); i++) {
+            byte b = this.document.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets == 0) {
+                return i + 1;
+            }
+        }
+        throw new IllegalStateException("Unterminated declaration in schema document.");
+    }
+
+    /**
+     * @return the position of the local name (without prefix) of the tag whose name starts at from
+     */
+    private int localName(int from) {
+        int start = from;
+        for (int i = from; i < this.document.limit() && !isNameEnd(this.document.get(i)); i++) {
+            if (this.document.get(i) == ':') {
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    private static boolean isNameEnd(byte b) {
+        return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * @return true if the local name at position from is name
+     */
+    private boolean isName(int from, String name) {
+        int end = from + name.length();
+        return startsWith(from, name) && (end == this.document.limit() || isNameEnd(this.document.get(end)));
+    }
+
+}
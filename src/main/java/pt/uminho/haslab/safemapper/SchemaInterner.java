@@ -0,0 +1,52 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SchemaInterner class.
+ * Canonicalizes the names and qualifier properties of the tables built by one load, so that equal ones are a single
+ * object: a family or qualifier name repeated across tables is one String, and qualifiers with the same miscellaneous
+ * properties share one immutable SharedProperties map (instead of a HashMap and a read-only view each).
+ * <p>
+ * Safe to use from several threads (see LoadMode.PARALLEL).
+ */
+final class SchemaInterner {
+
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<Map<String, String>, SharedProperties> properties =
+            new ConcurrentHashMap<Map<String, String>, SharedProperties>();
+
+    /**
+     * @return the canonical String equal to name, or null if name is null
+     */
+    String name(String name) {
+        if (name == null) {
+            return null;
+        }
+        String canonical = this.names.putIfAbsent(name, name);
+        return canonical == null ? name : canonical;
+    }
+
+    /**
+     * @return the canonical immutable map equal to properties. The given map is not retained.
+     */
+    Map<String, String> properties(Map<String, String> properties) {
+        SharedProperties canonical = this.properties.get(properties);
+        if (canonical != null) {
+            return canonical;
+        }
+        String[] keys = new String[properties.size()];
+        String[] values = new String[keys.length];
+        int i = 0;
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            keys[i] = name(entry.getKey());
+            values[i] = name(entry.getValue());
+            i++;
+        }
+        SharedProperties created = new SharedProperties(keys, values);
+        canonical = this.properties.putIfAbsent(created, created);
+        return canonical == null ? created : canonical;
+    }
+
+}
@@ -0,0 +1,203 @@
+package pt.uminho.haslab.safemapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * SchemaMetrics class.
+ * Metrics of a DatabaseSchema: parse and reload timings, and the column lookup counters of each table (see
+ * TableMetrics). The counters of a table are kept by table name, so they survive reloads that replace its TableSchema.
+ * <p>
+ * Metrics can be read directly (pull) or through JMX, after registerMBeans(name).
+ */
+public final class SchemaMetrics implements SchemaMetricsMXBean {
+
+    static final String DOMAIN = "pt.uminho.haslab.safemapper";
+
+    private final ConcurrentHashMap<String, TableMetrics> tables = new ConcurrentHashMap<String, TableMetrics>();
+
+    private final LongAdder parseCount = new LongAdder();
+    private final LongAdder totalParseNanos = new LongAdder();
+    private volatile long lastParseNanos;
+    private final LongAdder reloadCount = new LongAdder();
+    private final LongAdder failedReloadCount = new LongAdder();
+    private final LongAdder totalReloadNanos = new LongAdder();
+    private volatile long lastReloadNanos;
+
+    //  Name under which the MBeans are registered, or null if they are not registered
+    private String registeredName;
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    /**
+     * table(tablename : String) method : get the counters of a table, creating them on first use
+     */
+    TableMetrics table(String tablename) {
+        TableMetrics metrics = this.tables.get(tablename);
+        if (metrics == null) {
+            TableMetrics created = new TableMetrics();
+            metrics = this.tables.putIfAbsent(tablename, created);
+            if (metrics == null) {
+                metrics = created;
+                registerTable(tablename, created);
+            }
+        }
+        return metrics;
+    }
+
+    void recordParse(long nanos) {
+        this.parseCount.increment();
+        this.totalParseNanos.add(nanos);
+        this.lastParseNanos = nanos;
+    }
+
+    void recordReload(long nanos, boolean failed) {
+        this.reloadCount.increment();
+        if (failed) {
+            this.failedReloadCount.increment();
+        }
+        this.totalReloadNanos.add(nanos);
+        this.lastReloadNanos = nanos;
+    }
+
+    /**
+     * @return the counters of a table, or null if no TableSchema with that name was ever published
+     */
+    public TableMetrics getTableMetrics(String tablename) {
+        return this.tables.get(tablename);
+    }
+
+    public Set<String> getTableNames() {
+        return Collections.unmodifiableSet(new TreeSet<String>(this.tables.keySet()));
+    }
+
+    /**
+     * @return the number of parses of the whole schema, including the initial one and those made by reloads
+     */
+    public long getParseCount() {
+        return this.parseCount.sum();
+    }
+
+    public long getLastParseNanos() {
+        return this.lastParseNanos;
+    }
+
+    public long getTotalParseNanos() {
+        return this.totalParseNanos.sum();
+    }
+
+    public long getReloadCount() {
+        return this.reloadCount.sum();
+    }
+
+    public long getFailedReloadCount() {
+        return this.failedReloadCount.sum();
+    }
+
+    public long getLastReloadNanos() {
+        return this.lastReloadNanos;
+    }
+
+    public long getTotalReloadNanos() {
+        return this.totalReloadNanos.sum();
+    }
+
+    /**
+     * @return the number of column lookups of all tables
+     */
+    public long getLookups() {
+        long sum = 0;
+        for (TableMetrics metrics : this.tables.values()) {
+            sum += metrics.getLookups();
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of default fallbacks of all tables
+     */
+    public long getDefaultFallbacks() {
+        long sum = 0;
+        for (TableMetrics metrics : this.tables.values()) {
+            sum += metrics.getDefaultFallbacks();
+        }
+        return sum;
+    }
+
+    /**
+     * registerMBeans(name : String) method : register these metrics, and those of every table, in the platform
+     * MBeanServer. Tables published later are registered as they appear.
+     *
+     * @param name name of the schema in the ObjectNames (e.g., the schema file name)
+     */
+    public synchronized void registerMBeans(String name) {
+        if (name == null) {
+            throw new NullPointerException("MBean name cannot be null.");
+        }
+        if (this.registeredName != null) {
+            throw new IllegalStateException("Metrics already registered as " + this.registeredName + ".");
+        }
+        this.registeredName = name;
+        register(objectName("type=DatabaseSchema,name=" + ObjectName.quote(name)), this);
+        for (Map.Entry<String, TableMetrics> entry : this.tables.entrySet()) {
+            register(tableObjectName(entry.getKey()), entry.getValue());
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName objectName : this.registered) {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            this.registered.clear();
+            this.registeredName = null;
+        }
+    }
+
+    private synchronized void registerTable(String tablename, TableMetrics metrics) {
+        if (this.registeredName != null) {
+            register(tableObjectName(tablename), metrics);
+        }
+    }
+
+    private ObjectName tableObjectName(String tablename) {
+        return objectName("type=TableSchema,schema=" + ObjectName.quote(this.registeredName)
+                + ",table=" + ObjectName.quote(tablename));
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void register(ObjectName objectName, Object mbean) {
+        if (this.registered.contains(objectName)) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            this.registered.add(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
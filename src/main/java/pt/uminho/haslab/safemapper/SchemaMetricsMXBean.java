@@ -0,0 +1,31 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.Set;
+
+/**
+ * SchemaMetricsMXBean interface.
+ * Management interface of the parse and reload timings of a DatabaseSchema, see SchemaMetrics.
+ */
+public interface SchemaMetricsMXBean {
+
+    long getParseCount();
+
+    long getLastParseNanos();
+
+    long getTotalParseNanos();
+
+    long getReloadCount();
+
+    long getFailedReloadCount();
+
+    long getLastReloadNanos();
+
+    long getTotalReloadNanos();
+
+    long getLookups();
+
+    long getDefaultFallbacks();
+
+    Set<String> getTableNames();
+
+}
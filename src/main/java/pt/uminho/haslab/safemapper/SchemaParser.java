@@ -0,0 +1,1275 @@
+package pt.uminho.haslab.safemapper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static pt.uminho.haslab.safemapper.DatabaseSchema.CryptoType.valueOf;
+
+/**
+ * SchemaParser class.
+ * Single-pass StAX parser of the database schema file (<schema>.xml). Each <table> element is read as it is streamed
+ * and mapped into its TableSchema as soon as it ends, so at most one table is held in memory besides the resulting
+ * TableSchemas. Each <table> and the database <default> element are fingerprinted while they are read, which allows
+ * the TableSchemas of a previous parse to be reused for unchanged tables (see DatabaseSchema.reload()).
+ */
+final class SchemaParser {
+
+    static final Log LOG = LogFactory.getLog(SchemaParser.class.getName());
+
+    //  XMLInputFactory is not required to be thread-safe, and tables may be parsed concurrently
+    private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return createFactory(true);
+        }
+    };
+
+    //  Elements sliced out of a document (see SchemaIndex) lose the namespace declarations of their root, so they are
+    //  read without namespace processing and their names are reduced to the local part (see LocalNameReader)
+    private static final ThreadLocal<XMLInputFactory> ELEMENT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return createFactory(false);
+        }
+    };
+
+    //  Minimum number of <table> elements parsed by each task of a parallel parse, and tasks per worker
+    private static final int PARALLEL_THRESHOLD = 8;
+    private static final int TASKS_PER_WORKER = 4;
+
+    //  Database default properties
+    DatabaseSchema.CryptoType defaultPropertiesKey;
+    DatabaseSchema.CryptoType defaultPropertiesColumns;
+    Boolean defaultPropertiesKeyPadding;
+    Boolean defaultPropertiesColumnPadding;
+    int defaultPropertiesKeyFormatSize;
+    int defaultPropertiesColFormatSize;
+    boolean hasDefaultDatabaseProperties;
+    Boolean defaultEncryptionMode;
+
+    //  Parse results
+    final Map<String, TableSchema> tableSchemas;
+    final Map<String, String> tableFingerprints;
+    String defaultsFingerprint;
+    //  Paths of the <include> elements of the document, see parseIncludes(File, ForkJoinPool)
+    final List<String> includes;
+
+    //  Shared names and qualifier properties of the tables of this parse
+    final SchemaInterner interner;
+    //  Set when the load this parse belongs to is cancelled, see DatabaseSchema.loadAsync(...)
+    private volatile boolean cancelled;
+
+    //  Previous parse, whose TableSchemas are reused for unchanged tables
+    private final Map<String, TableSchema> previousTables;
+    private final Map<String, String> previousFingerprints;
+    private final String previousDefaultsFingerprint;
+
+    SchemaParser() {
+        this(Collections.<String, TableSchema>emptyMap(), Collections.<String, String>emptyMap(), null);
+    }
+
+    SchemaParser(Map<String, TableSchema> previousTables, Map<String, String> previousFingerprints,
+                 String previousDefaultsFingerprint) {
+        this.tableSchemas = new ConcurrentHashMap<String, TableSchema>();
+        this.tableFingerprints = new HashMap<String, String>();
+        this.includes = new ArrayList<String>();
+        this.interner = new SchemaInterner();
+        this.previousTables = previousTables;
+        this.previousFingerprints = previousFingerprints;
+        this.previousDefaultsFingerprint = previousDefaultsFingerprint;
+        this.hasDefaultDatabaseProperties = false;
+    }
+
+    private static XMLInputFactory createFactory(boolean namespaceAware) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware);
+        return factory;
+    }
+
+    /**
+     * cancel() method : stop this parse before its next table (or schema file). The parse then fails with a
+     * CancellationException.
+     */
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    void checkCancelled() {
+        if (this.cancelled) {
+            throw new CancellationException("Schema load was cancelled.");
+        }
+    }
+
+    static InputStream asInputStream(ByteBuffer buffer) {
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * parse(input : InputStream) method : parse a database schema document. The stream is not closed.
+     *
+     * @param input the schema document
+     */
+    void parse(InputStream input) {
+        FingerprintReader reader = null;
+        try {
+            reader = new FingerprintReader(FACTORY.get().createXMLStreamReader(input));
+            parseDocument(reader);
+        } catch (XMLStreamException e) {
+            LOG.error(e.getMessage());
+            throw new IllegalStateException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOG.debug(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void parseDocument(FingerprintReader reader) throws XMLStreamException {
+        while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+            //  skip the prolog
+        }
+        if (!reader.isStartElement()) {
+            throw new IllegalStateException("Schema document has no root element.");
+        }
+
+        //  Tables read before the database <default> element are only mapped once the defaults are known
+        List<TableElement> pending = new ArrayList<TableElement>();
+        boolean hasDefault = false;
+
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if (name.equals("default") && !hasDefault) {
+                reader.beginFingerprint();
+                Map<String, String> defaults = readFields(reader);
+                this.defaultsFingerprint = reader.endFingerprint();
+                parseDatabaseDefaultProperties(defaults);
+                hasDefault = true;
+                for (TableElement table : pending) {
+                    addTable(table);
+                }
+                pending.clear();
+            } else if (name.equals("table")) {
+                reader.beginFingerprint();
+                TableElement table = readTable(reader);
+                table.fingerprint = reader.endFingerprint();
+                if (hasDefault) {
+                    addTable(table);
+                } else {
+                    pending.add(table);
+                }
+            } else if (name.equals("include")) {
+                this.includes.add(readText(reader).trim());
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        if (!hasDefault) {
+            parseDatabaseDefaultProperties(null);
+        }
+    }
+
+    /*
+     * Parsing of single elements of a document, see SchemaIndex and LazyTableMap. Each element is parsed as a document
+     * of its own.
+     */
+
+    /**
+     * parseDefaults(element : ByteBuffer) method : parse the database <default> element
+     *
+     * @param element the element, or null if the document has none
+     */
+    void parseDefaults(ByteBuffer element) {
+        if (element == null) {
+            parseDatabaseDefaultProperties(null);
+            return;
+        }
+        this.defaultsFingerprint = digest(element);
+        XMLStreamReader reader = openElement(element);
+        try {
+            parseDatabaseDefaultProperties(readFields(reader));
+        } catch (XMLStreamException e) {
+            LOG.error(e.getMessage());
+            throw new IllegalStateException(e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * parse(document : ByteBuffer, pool : ForkJoinPool) method : parse a database schema document, parsing its tables in
+     * parallel. The database defaults are parsed first and then every <table> element is parsed on the pool.
+     * <p>
+     * Errors are reported as by parse(InputStream): if several tables are invalid, the exception of the first one in
+     * document order is thrown. Errors in the structure of the document are found, and reported, before any table is
+     * parsed.
+     *
+     * @param document the schema document
+     * @param pool     pool the tables are parsed on
+     */
+    void parse(ByteBuffer document, ForkJoinPool pool) {
+        SchemaIndex index = new SchemaIndex(document);
+        parseDefaults(index.getDefaults());
+        for (ByteBuffer include : index.getIncludes()) {
+            this.includes.add(readInclude(include));
+        }
+        parseTables(index.getElements(), index.getNames(), pool);
+    }
+
+    /*
+     * Parsing of a database schema split in several documents (fragments): a directory of fragments, or a root document
+     * whose <include> elements name the fragments. The database <default> element is declared once, in the root document
+     * or in a single fragment of the directory, and applies to the tables of every document. A table name can only be
+     * declared in one document. The fragments are read and indexed in parallel, and their tables are then parsed in
+     * parallel as in parse(ByteBuffer, ForkJoinPool).
+     */
+
+    /**
+     * parse(directory : File, pool : ForkJoinPool) method : parse every schema document (*.xml file) of a directory, in
+     * file name order
+     */
+    void parse(File directory, ForkJoinPool pool) {
+        parseFragments(null, Helpers.listSchemaFiles(directory), pool);
+    }
+
+    /**
+     * parseIncludes(root : File, pool : ForkJoinPool) method : parse the documents named by the <include> elements of
+     * the root document, already parsed by this parser. Relative paths are resolved against the directory of the root.
+     */
+    void parseIncludes(File root, ForkJoinPool pool) {
+        parseFragments(root, resolveIncludes(root, this.includes), pool);
+    }
+
+    /**
+     * resolveIncludes(root : File, includes : List<String>) method : the files named by the <include> elements of a
+     * root document, with relative paths resolved against the directory of the root
+     *
+     * @throws IllegalStateException if a file is included more than once
+     */
+    static List<File> resolveIncludes(File root, List<String> includes) {
+        List<File> files = new ArrayList<File>();
+        Set<File> seen = new HashSet<File>();
+        seen.add(canonicalFile(root));
+        for (String include : includes) {
+            if (include.length() == 0) {
+                throw new NullPointerException("Included schema file cannot be null nor empty.");
+            }
+            File file = new File(include);
+            if (!file.isAbsolute()) {
+                file = new File(root.getAbsoluteFile().getParentFile(), include);
+            }
+            if (!seen.add(canonicalFile(file))) {
+                throw new IllegalStateException("Schema file " + file + " is included more than once.");
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * readIncludes(document : ByteBuffer) method : the paths named by the <include> elements of a schema document, as
+     * they are written
+     */
+    static List<String> readIncludes(ByteBuffer document) {
+        List<String> includes = new ArrayList<String>();
+        for (ByteBuffer include : new SchemaIndex(document).getIncludes()) {
+            includes.add(readInclude(include));
+        }
+        return includes;
+    }
+
+    private static File canonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param root  root document, whose defaults and tables were already parsed, or null for a directory
+     * @param files fragments
+     */
+    private void parseFragments(File root, final List<File> files, ForkJoinPool pool) {
+        final SchemaIndex[] indexes = new SchemaIndex[files.size()];
+        final RuntimeException[] errors = new RuntimeException[files.size()];
+        final List<RecursiveAction> reads = new ArrayList<RecursiveAction>();
+        for (int i = 0; i < files.size(); i++) {
+            final int k = i;
+            reads.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    if (SchemaParser.this.cancelled) {
+                        return;
+                    }
+                    try {
+                        indexes[k] = new SchemaIndex(ByteBuffer.wrap(Helpers.readFile(files.get(k))));
+                    } catch (RuntimeException e) {
+                        errors[k] = e;
+                    }
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(reads);
+            }
+        });
+        checkCancelled();
+        for (RuntimeException error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        ByteBuffer defaults = null;
+        File defaultsFile = root;
+        List<ByteBuffer> elements = new ArrayList<ByteBuffer>();
+        List<String> names = new ArrayList<String>();
+        Map<String, File> sources = new HashMap<String, File>();
+        for (String name : this.tableSchemas.keySet()) {
+            sources.put(name, root);
+        }
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            SchemaIndex index = indexes[i];
+            if (!index.getIncludes().isEmpty()) {
+                throw new IllegalStateException("Included schema file " + file + " cannot include other files.");
+            }
+            if (index.getDefaults() != null) {
+                if (defaultsFile != null) {
+                    throw new IllegalStateException(
+                            "Database defaults are declared in both " + defaultsFile + " and " + file + ".");
+                }
+                defaults = index.getDefaults();
+                defaultsFile = file;
+            }
+            for (int j = 0; j < index.getElements().size(); j++) {
+                String name = index.getNames().get(j);
+                File other = name == null ? null : sources.put(name, file);
+                if (other != null && !other.equals(file)) {
+                    throw new IllegalStateException("Table " + name + " is declared in both " + other + " and " + file + ".");
+                }
+                elements.add(index.getElements().get(j));
+                names.add(name);
+            }
+        }
+
+        if (root == null) {
+            parseDefaults(defaults);
+        }
+        parseTables(elements, names, pool);
+    }
+
+    /**
+     * parseTables(elements : List<ByteBuffer>, names : List<String>, pool : ForkJoinPool) method : parse <table> elements
+     * in parallel, with the database defaults of this parser
+     */
+    private void parseTables(List<ByteBuffer> elements, List<String> names, ForkJoinPool pool) {
+        ParallelParse parse = new ParallelParse(elements, names, pool.getParallelism());
+        pool.invoke(parse.task(0, parse.elements.size()));
+        checkCancelled();
+
+        for (int i = 0; i < parse.elements.size(); i++) {
+            if (parse.errors[i] != null) {
+                throw parse.errors[i];
+            }
+        }
+        for (int i = 0; i < parse.elements.size(); i++) {
+            this.tableSchemas.put(parse.tables[i].getTablename(), parse.tables[i]);
+            this.tableFingerprints.put(parse.tables[i].getTablename(), parse.fingerprints[i]);
+        }
+    }
+
+    /**
+     * parseTable(element : ByteBuffer) method : parse a <table> element with the database defaults of this parser
+     */
+    TableSchema parseTable(ByteBuffer element) {
+        return parseTable(readTable(element));
+    }
+
+    /**
+     * @return the name of a <table> element, or null if it has none
+     */
+    static String readTablename(ByteBuffer element) {
+        return readTable(element).fields.get("name");
+    }
+
+    /**
+     * @return the path named by an <include> element
+     */
+    private static String readInclude(ByteBuffer element) {
+        XMLStreamReader reader = openElement(element);
+        try {
+            return readText(reader).trim();
+        } catch (XMLStreamException e) {
+            LOG.error(e.getMessage());
+            throw new IllegalStateException(e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    static String digest(ByteBuffer element) {
+        byte[] bytes = new byte[element.remaining()];
+        element.duplicate().get(bytes);
+        return Helpers.digest(bytes);
+    }
+
+    private static TableElement readTable(ByteBuffer element) {
+        XMLStreamReader reader = openElement(element);
+        try {
+            return readTable(reader);
+        } catch (XMLStreamException e) {
+            LOG.error(e.getMessage());
+            throw new IllegalStateException(e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * @return a reader positioned at the start of the element
+     */
+    private static XMLStreamReader openElement(ByteBuffer element) {
+        try {
+            XMLStreamReader reader = new LocalNameReader(
+                    ELEMENT_FACTORY.get().createXMLStreamReader(asInputStream(element)));
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                //  skip anything before the element
+            }
+            return reader;
+        } catch (XMLStreamException e) {
+            LOG.error(e.getMessage());
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            LOG.debug(e.getMessage());
+        }
+    }
+
+    private void addTable(TableElement table) {
+        checkCancelled();
+        String name = table.fields.get("name");
+        TableSchema previous = this.defaultsFingerprint.equals(this.previousDefaultsFingerprint)
+                && table.fingerprint.equals(this.previousFingerprints.get(name)) ? this.previousTables.get(name) : null;
+
+        TableSchema ts = previous != null && !previous.isModified() ? previous : parseTable(table);
+        this.tableSchemas.put(ts.getTablename(), ts);
+        this.tableFingerprints.put(ts.getTablename(), table.fingerprint);
+    }
+
+    /*
+     * Streaming helpers. Element values follow the dom4j elementText semantics: the value of a child element is the
+     * concatenation of its own text, and only the first child with a given name is considered.
+     */
+
+    /**
+     * Advance to the next child element of the current element.
+     *
+     * @return true if positioned at the start of a child element, false if the current element ended
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+                sb.append(reader.getText());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void readField(XMLStreamReader reader, Map<String, String> fields) throws XMLStreamException {
+        String name = reader.getLocalName();
+        String text = readText(reader);
+        if (!fields.containsKey(name)) {
+            fields.put(name, text);
+        }
+    }
+
+    private static Map<String, String> readFields(XMLStreamReader reader) throws XMLStreamException {
+        Map<String, String> fields = new HashMap<String, String>();
+        while (nextChild(reader)) {
+            readField(reader, fields);
+        }
+        return fields;
+    }
+
+    private static TableElement readTable(XMLStreamReader reader) throws XMLStreamException {
+        TableElement table = new TableElement();
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if (name.equals("default") && table.defaults == null) {
+                table.defaults = readFields(reader);
+            } else if (name.equals("key") && table.key == null) {
+                table.key = readFields(reader);
+            } else if (name.equals("columns") && table.families == null) {
+                table.families = readFamilies(reader);
+            } else {
+                readField(reader, table.fields);
+            }
+        }
+        return table;
+    }
+
+    private static List<FamilyElement> readFamilies(XMLStreamReader reader) throws XMLStreamException {
+        List<FamilyElement> families = new ArrayList<FamilyElement>();
+        while (nextChild(reader)) {
+            if (reader.getLocalName().equals("family")) {
+                families.add(readFamily(reader));
+            } else {
+                skipElement(reader);
+            }
+        }
+        return families;
+    }
+
+    private static FamilyElement readFamily(XMLStreamReader reader) throws XMLStreamException {
+        FamilyElement family = new FamilyElement();
+        while (nextChild(reader)) {
+            if (reader.getLocalName().equals("qualifier")) {
+                family.qualifiers.add(readQualifier(reader));
+            } else if (reader.getLocalName().equals("qualifierpattern")) {
+                family.patterns.add(readQualifier(reader));
+            } else {
+                readField(reader, family.fields);
+            }
+        }
+        return family;
+    }
+
+    private static QualifierElement readQualifier(XMLStreamReader reader) throws XMLStreamException {
+        QualifierElement qualifier = new QualifierElement();
+        while (nextChild(reader)) {
+            if (reader.getLocalName().equals("misc")) {
+                qualifier.misc.add(readFields(reader));
+            } else {
+                readField(reader, qualifier.fields);
+            }
+        }
+        return qualifier;
+    }
+
+    /*
+     * Mapping of the elements into the TableSchema, Family and Qualifier objects.
+     */
+
+    private boolean strIsEmpty(String str) {
+        return str.length() <= 0;
+    }
+
+    private void parseDatabaseDefaultProperties(Map<String, String> rootElement) {
+        if (rootElement != null) {
+            String key = rootElement.get("key");
+            String cols = rootElement.get("columns");
+            String keyPadding = rootElement.get("keypadding");
+            String colPadding = rootElement.get("colpadding");
+            String keySize = rootElement.get("keyformatsize");
+            String colSize = rootElement.get("colformatsize");
+            String encryptionMode = rootElement.get("encryptionmode");
+
+            if (key == null || strIsEmpty(key)) {
+                throw new NullPointerException("Default Row-Key Cryptographic Type cannot be null nor empty.");
+            }
+            if (cols == null || strIsEmpty(cols)) {
+                throw new NullPointerException("Default columns Cryptographic Type cannot be null nor empty.");
+            }
+            if (keyPadding == null || strIsEmpty(keyPadding)) {
+                throw new NullPointerException("Default key padding cannot be null nor empty.");
+            }
+            if (colPadding == null || strIsEmpty(colPadding)) {
+                throw new NullPointerException("Default columns padding cannot be null nor empty.");
+            }
+            if (keySize == null || strIsEmpty(keySize)) {
+                throw new NullPointerException("Default key format size cannot be null nor empty.");
+            }
+            if (colSize == null || strIsEmpty(colSize)) {
+                throw new NullPointerException("Default columns format size cannot be null nor empty.");
+            }
+            if (encryptionMode == null || strIsEmpty(encryptionMode)) {
+                throw new NullPointerException("Default encryption mode cannot be null nor empty.");
+            }
+
+            this.defaultPropertiesKey = switchCryptoType(key);
+            this.defaultPropertiesColumns = switchCryptoType(cols);
+            this.defaultPropertiesKeyPadding = paddingBooleanConvertion(keyPadding);
+            this.defaultPropertiesColumnPadding = paddingBooleanConvertion(colPadding);
+            this.defaultPropertiesKeyFormatSize = formatSizeIntegerValue(keySize);
+            this.defaultPropertiesColFormatSize = formatSizeIntegerValue(colSize);
+            this.hasDefaultDatabaseProperties = true;
+            this.defaultEncryptionMode = modeConversion(encryptionMode);
+        } else {
+            throw new NullPointerException("Default element cannot be null.");
+        }
+    }
+
+    private TableSchema parseTable(TableElement rootElement) {
+        TableSchema ts = new TableSchema();
+        parseTablename(rootElement, ts);
+        parseTableDefaultProperties(rootElement, ts);
+        parseKey(rootElement, ts);
+        parseColumns(rootElement, ts);
+        ts.parsed();
+
+        return ts;
+    }
+
+    /**
+     * parseTablename(rootElement : TableElement) method : parse the table name
+     *
+     * @param rootElement table element
+     */
+    private void parseTablename(TableElement rootElement, TableSchema tableSchema) {
+        String name = rootElement.fields.get("name");
+
+        if (name == null || strIsEmpty(name)) {
+            throw new NullPointerException("Table name cannot be null nor empty.");
+        }
+
+        tableSchema.setTablename(name);
+    }
+
+    /**
+     * parseDefault(rootElement : TableElement) method : parse the default table parameters
+     *
+     * @param rootElement table element
+     */
+    private void parseTableDefaultProperties(TableElement rootElement, TableSchema tableSchema) {
+        Map<String, String> defaultElement = rootElement.defaults;
+        if (defaultElement != null) {
+            String key = defaultElement.get("key");
+            String columns = defaultElement.get("columns");
+            String keyformatsize = defaultElement.get("keyformatsize");
+            String colformatsize = defaultElement.get("colformatsize");
+            String keypadding = defaultElement.get("keypadding");
+            String colpadding = defaultElement.get("colpadding");
+            String encryptionMode = defaultElement.get("encryptionmode");
+
+            if (key == null || strIsEmpty(key)) {
+                tableSchema.setDefaultKeyCryptoType(this.defaultPropertiesKey);
+            } else {
+                tableSchema.setDefaultKeyCryptoType(switchCryptoType(key));
+            }
+
+            if (columns == null || strIsEmpty(columns)) {
+                tableSchema.setDefaultColumnsCryptoType(this.defaultPropertiesColumns);
+            } else {
+                tableSchema.setDefaultColumnsCryptoType(switchCryptoType(columns));
+            }
+
+            if (keyformatsize == null || strIsEmpty(keyformatsize)) {
+                tableSchema.setDefaultKeyFormatSize(this.defaultPropertiesKeyFormatSize);
+            } else {
+                tableSchema.setDefaultKeyFormatSize(formatSizeIntegerValue(keyformatsize));
+            }
+
+            if (colformatsize == null || strIsEmpty(colformatsize)) {
+                tableSchema.setDefaultColumnFormatSize(this.defaultPropertiesColFormatSize);
+            } else {
+                tableSchema.setDefaultColumnFormatSize(formatSizeIntegerValue(colformatsize));
+            }
+
+            if (keypadding == null || strIsEmpty(keypadding)) {
+                tableSchema.setDefaultKeyPadding(this.defaultPropertiesKeyPadding);
+            } else {
+                tableSchema.setDefaultKeyPadding(paddingBooleanConvertion(keypadding));
+            }
+
+            if (colpadding == null || strIsEmpty(colpadding)) {
+                tableSchema.setDefaultColumnPadding(this.defaultPropertiesColumnPadding);
+            } else {
+                tableSchema.setDefaultColumnPadding(paddingBooleanConvertion(colpadding));
+            }
+
+            if (encryptionMode == null || strIsEmpty(encryptionMode)) {
+                tableSchema.setEncryptionMode(this.defaultEncryptionMode);
+            } else {
+                tableSchema.setEncryptionMode(modeConversion(encryptionMode));
+            }
+        } else if (this.hasDefaultDatabaseProperties) {
+            tableSchema.setDefaultKeyCryptoType(this.defaultPropertiesKey);
+            tableSchema.setDefaultColumnsCryptoType(this.defaultPropertiesColumns);
+            tableSchema.setDefaultKeyFormatSize(this.defaultPropertiesKeyFormatSize);
+            tableSchema.setDefaultColumnFormatSize(this.defaultPropertiesColFormatSize);
+            tableSchema.setDefaultKeyPadding(this.defaultPropertiesKeyPadding);
+            tableSchema.setDefaultColumnPadding(this.defaultPropertiesColumnPadding);
+            tableSchema.setEncryptionMode(this.defaultEncryptionMode);
+        } else {
+            throw new NullPointerException("Default arguments specification cannot be null nor empty.");
+        }
+    }
+
+    /**
+     * parseKey(rootElement : TableElement) method : parse the key properties from the database schema
+     *
+     * @param rootElement table element
+     */
+    private void parseKey(TableElement rootElement, TableSchema tableSchema) {
+        Map<String, String> keyElement = rootElement.key;
+        if (keyElement != null) {
+            String cryptoTechnique = keyElement.get("cryptotechnique");
+            String formatsize = keyElement.get("formatsize");
+            String keypadding = keyElement.get("keypadding");
+
+            String instance = keyElement.get("instance");
+            String radix = keyElement.get("radix");
+            String tweak = keyElement.get("tweak");
+
+            if (cryptoTechnique == null || strIsEmpty(cryptoTechnique)) {
+                cryptoTechnique = tableSchema.getDefaultKeyCryptoType().toString();
+            }
+
+            if (formatsize == null || strIsEmpty(formatsize)) {
+                formatsize = String.valueOf(tableSchema.getDefaultKeyFormatSize());
+            }
+
+            if (keypadding == null || strIsEmpty(keypadding)) {
+                keypadding = String.valueOf(tableSchema.getDefaultKeyPadding());
+            }
+
+            if (cryptoTechnique.equals("FPE")) {
+                validateFPEArguments(instance, radix, tweak);
+            }
+
+            if (!cryptoTechnique.equals("FPE")) {
+                Key key = new Key(switchCryptoType(cryptoTechnique), formatSizeIntegerValue(formatsize), paddingBooleanConvertion(keypadding));
+                tableSchema.setKey(key);
+            } else {
+                Key key = new KeyFPE(
+                        switchCryptoType(cryptoTechnique),
+                        formatSizeIntegerValue(formatsize),
+                        paddingBooleanConvertion(keypadding),
+                        instance,
+                        radixIntegerValue(radix),
+                        tweak);
+                tableSchema.setKey(key);
+            }
+        }
+    }
+
+    /**
+     * parseColumns(rootElement : TableElement) method : parse the column families and qualifiers properties from the database schema
+     *
+     * @param rootElement table element
+     */
+    private void parseColumns(TableElement rootElement, TableSchema tableSchema) {
+        List<FamilyElement> familiesElement = rootElement.families;
+        if (familiesElement == null) {
+            throw new NoSuchElementException("Columns arguments cannot be null.");
+        }
+
+        for (FamilyElement family : familiesElement) {
+            String familyName = family.fields.get("name");
+            String familyCryptoTechnique = family.fields.get("cryptotechnique");
+            String familyFormatSize = family.fields.get("colformatsize");
+            String familyPadding = family.fields.get("colpadding");
+
+            if (familyName == null || strIsEmpty(familyName)) {
+                throw new NullPointerException("Column Family name cannot be null nor empty.");
+            }
+
+            if (familyCryptoTechnique == null || strIsEmpty(familyCryptoTechnique)) {
+                familyCryptoTechnique = tableSchema.getDefaultColumnsCryptoType().toString();
+            }
+
+            if (familyFormatSize == null || strIsEmpty(familyFormatSize)) {
+                familyFormatSize = String.valueOf(tableSchema.getDefaultColumnFormatSize());
+            }
+
+            if (familyPadding == null || strIsEmpty(familyPadding)) {
+                familyPadding = String.valueOf(tableSchema.getDefaultColumnPadding());
+            }
+
+
+            Family f = new Family(
+                    this.interner.name(familyName),
+                    switchCryptoType(familyCryptoTechnique),
+                    formatSizeIntegerValue(familyFormatSize),
+                    paddingBooleanConvertion(familyPadding));
+
+            tableSchema.addFamily(f);
+
+            for (QualifierElement qualifier : family.qualifiers) {
+                parseQualifier(qualifier, familyName, familyCryptoTechnique, familyFormatSize, familyPadding,
+                        tableSchema, false);
+            }
+            for (QualifierElement rule : family.patterns) {
+                parseQualifier(rule, familyName, familyCryptoTechnique, familyFormatSize, familyPadding,
+                        tableSchema, true);
+            }
+        }
+    }
+
+    /**
+     * parseQualifier(...) method : parse a <qualifier> element, or a <qualifierpattern> element whose name is a pattern
+     * (see Family.addQualifierPattern), and add it to its family. An OPE qualifier comes with an STD companion, named
+     * after it with the _STD suffix.
+     */
+    private void parseQualifier(QualifierElement qualifier, String familyName, String familyCryptoTechnique,
+                                String familyFormatSize, String familyPadding, TableSchema tableSchema,
+                                boolean pattern) {
+        String qualifierName = qualifier.fields.get("name");
+        String qualifierCryptoTechnique = qualifier.fields.get("cryptotechnique");
+        String qualifierFormatsize = qualifier.fields.get("colformatsize");
+        String qualifierPadding = qualifier.fields.get("colpadding");
+
+        String instance = qualifier.fields.get("instance");
+        String radix = qualifier.fields.get("radix");
+        String tweak = qualifier.fields.get("tweak");
+
+        Map<String, String> properties = this.interner.properties(parseMiscellaneous(qualifier.misc));
+
+        if (qualifierName == null || strIsEmpty(qualifierName)) {
+            throw new NullPointerException(pattern
+                    ? "Column qualifier pattern cannot be null nor empty."
+                    : "Column qualifier name cannot be null nor empty.");
+        }
+        qualifierName = this.interner.name(qualifierName);
+
+        if (qualifierCryptoTechnique == null || strIsEmpty(qualifierCryptoTechnique)) {
+            qualifierCryptoTechnique = familyCryptoTechnique;
+        }
+
+        if (qualifierFormatsize == null || strIsEmpty(qualifierFormatsize)) {
+            qualifierFormatsize = familyFormatSize;
+        }
+
+        if (qualifierPadding == null || strIsEmpty(qualifierPadding)) {
+            qualifierPadding = familyPadding;
+        }
+
+        if (qualifierCryptoTechnique.equals("FPE")) {
+            validateFPEArguments(instance, radix, tweak);
+        }
+
+        Qualifier q;
+        if (!qualifierCryptoTechnique.equals("FPE")) {
+            q = new Qualifier(
+                    qualifierName,
+                    switchCryptoType(qualifierCryptoTechnique),
+                    formatSizeIntegerValue(qualifierFormatsize),
+                    paddingBooleanConvertion(qualifierPadding),
+                    properties);
+
+        } else {
+            q = new QualifierFPE(
+                    qualifierName,
+                    switchCryptoType(qualifierCryptoTechnique),
+                    formatSizeIntegerValue(qualifierFormatsize),
+                    paddingBooleanConvertion(qualifierPadding),
+                    properties,
+                    instance,
+                    radixIntegerValue(radix),
+                    tweak
+            );
+        }
+
+        Qualifier std = null;
+        if (qualifierCryptoTechnique.equals("OPE")) {
+            String stdQualifierName = this.interner.name(qualifierName + "_STD");
+            String stdCType = "STD";
+
+            std = new Qualifier(
+                    stdQualifierName,
+                    switchCryptoType(stdCType),
+                    formatSizeIntegerValue(qualifierFormatsize),
+                    paddingBooleanConvertion(qualifierPadding),
+                    properties
+            );
+        }
+
+        if (!pattern) {
+            tableSchema.addQualifier(familyName, q);
+            if (std != null) {
+                tableSchema.addQualifier(familyName, std);
+            }
+        } else {
+            //  The first matching pattern wins and "m_*" also matches "m_1_STD", so the companion goes first
+            if (std != null) {
+                tableSchema.addQualifierPattern(familyName, std);
+            }
+            tableSchema.addQualifierPattern(familyName, q);
+        }
+    }
+
+    /**
+     * parseMiscellaneous(properties : List<Map<String,String>>) method : parse random properties from the database schema
+     *
+     * @param properties list of misc elements
+     * @return a mapper of the property and the type in Map<String,String> format
+     */
+    private Map<String, String> parseMiscellaneous(List<Map<String, String>> properties) {
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map<String, String> property : properties) {
+            result.put(property.get("property"), property.get("type"));
+        }
+        return result;
+    }
+
+    private DatabaseSchema.CryptoType switchCryptoType(String cType) {
+        return cType == null ? null : valueOf(cType);
+    }
+
+    private int formatSizeIntegerValue(String formatSize) {
+        int value;
+        if (formatSize == null || strIsEmpty(formatSize))
+            value = 0;
+        else {
+            try {
+                value = Integer.parseInt(formatSize);
+            } catch (NumberFormatException e) {
+                LOG.error("DatabaseSchema:formatSizeIntegerValue:NumberFormatException:" + e.getMessage());
+                value = 0;
+            }
+        }
+        return value;
+    }
+
+    private Boolean paddingBooleanConvertion(String padding) {
+        Boolean value;
+        if (padding == null || strIsEmpty(padding)) {
+            throw new NullPointerException("DatabaseSchema:paddingBooleanConvertion:Boolean Value cannot be null nor empty.");
+        } else {
+            value = Boolean.valueOf(padding);
+        }
+        return value;
+    }
+
+    private int radixIntegerValue(String radix) {
+        if (radix == null || strIsEmpty(radix))
+            return 10;
+        else
+            return Integer.parseInt(radix);
+    }
+
+    private void validateFPEArguments(String instance, String radix, String tweak) {
+        if (instance == null || strIsEmpty(instance)) {
+            throw new NullPointerException("Format-Preserving Encryption instance cannot be null nor empty.");
+        }
+
+        if (radix == null || strIsEmpty(radix)) {
+            throw new NullPointerException("Format-Preserving Encryption radix cannot be null nor empty.");
+        }
+
+        if (tweak == null) {
+            throw new NullPointerException("Format-Preserving Encryption tweak cannot be null.");
+        }
+    }
+
+    static Boolean modeConversion(String mode) {
+        if (mode.equals("enable") || mode.equals("ENABLE")) {
+            return true;
+        } else if (mode.equals("disable") || mode.equals("DISABLE")) {
+            return false;
+        } else {
+            throw new NullPointerException("DatabaseSchema - Invalid mode conversion");
+        }
+    }
+
+    /**
+     * Tables of a parallel parse. The tables are split in ranges and each range is parsed by one task, which stores the
+     * result or the error of each table at the position of the table in the document. The results are read once the
+     * root task completes.
+     */
+    private final class ParallelParse {
+        private final List<ByteBuffer> elements;
+        private final List<String> names;
+        private final TableSchema[] tables;
+        private final String[] fingerprints;
+        private final RuntimeException[] errors;
+        private final boolean sameDefaults;
+        private final int threshold;
+
+        ParallelParse(List<ByteBuffer> elements, List<String> names, int parallelism) {
+            this.elements = elements;
+            this.names = names;
+            this.tables = new TableSchema[elements.size()];
+            this.fingerprints = new String[elements.size()];
+            this.errors = new RuntimeException[elements.size()];
+            this.sameDefaults = SchemaParser.this.defaultsFingerprint.equals(SchemaParser.this.previousDefaultsFingerprint);
+            this.threshold = Math.max(PARALLEL_THRESHOLD, elements.size() / (parallelism * TASKS_PER_WORKER));
+        }
+
+        RecursiveAction task(final int from, final int to) {
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    if (to - from <= ParallelParse.this.threshold) {
+                        parse(from, to);
+                    } else {
+                        int middle = (from + to) >>> 1;
+                        invokeAll(task(from, middle), task(middle, to));
+                    }
+                }
+            };
+        }
+
+        /**
+         * Parse the tables in [from, to). The elements that are not reused are read with a single reader, as the
+         * children of a synthetic root element, which is much cheaper than creating a reader per table.
+         */
+        private void parse(int from, int to) {
+            List<Integer> parsed = new ArrayList<Integer>();
+            int length = 0;
+            if (SchemaParser.this.cancelled) {
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                ByteBuffer element = this.elements.get(i);
+                String name = this.names.get(i);
+                this.fingerprints[i] = digest(element);
+                TableSchema previous = this.sameDefaults
+                        && name != null
+                        && this.fingerprints[i].equals(SchemaParser.this.previousFingerprints.get(name))
+                        ? SchemaParser.this.previousTables.get(name) : null;
+                if (previous != null && !previous.isModified()) {
+                    this.tables[i] = previous;
+                } else {
+                    parsed.add(i);
+                    length += element.remaining();
+                }
+            }
+            if (parsed.isEmpty()) {
+                return;
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(length + 7);
+            chunk.put(ROOT_START);
+            for (int i : parsed) {
+                chunk.put(this.elements.get(i).duplicate());
+            }
+            chunk.put(ROOT_END);
+            chunk.flip();
+
+            XMLStreamReader reader = openElement(chunk);
+            int k = 0;
+            try {
+                for (; k < parsed.size() && !SchemaParser.this.cancelled; k++) {
+                    int i = parsed.get(k);
+                    try {
+                        if (!nextChild(reader)) {
+                            throw new IllegalStateException("Unexpected end of table element.");
+                        }
+                        this.tables[i] = parseTable(readTable(reader));
+                    } catch (RuntimeException e) {
+                        this.errors[i] = e;
+                    }
+                }
+            } catch (XMLStreamException e) {
+                //  The stream cannot be read past a malformed table
+                LOG.error(e.getMessage());
+                this.errors[parsed.get(k)] = new IllegalStateException(e);
+            } finally {
+                close(reader);
+            }
+        }
+    }
+
+    private static final byte[] ROOT_START = "<r>".getBytes(Charset.forName("UTF-8"));
+    private static final byte[] ROOT_END = "</r>".getBytes(Charset.forName("UTF-8"));
+
+    /*
+     * Elements read from the stream, kept only until their table is mapped.
+     */
+
+    private static final class TableElement {
+        private final Map<String, String> fields = new HashMap<String, String>();
+        private Map<String, String> defaults;
+        private Map<String, String> key;
+        private List<FamilyElement> families;
+        private String fingerprint;
+    }
+
+    private static final class FamilyElement {
+        private final Map<String, String> fields = new HashMap<String, String>();
+        private final List<QualifierElement> qualifiers = new ArrayList<QualifierElement>();
+        private final List<QualifierElement> patterns = new ArrayList<QualifierElement>();
+    }
+
+    private static final class QualifierElement {
+        private final Map<String, String> fields = new HashMap<String, String>();
+        private final List<Map<String, String>> misc = new ArrayList<Map<String, String>>();
+    }
+
+    /**
+     * XMLStreamReader that digests the elements, attributes and text it reads while a fingerprint is open. Every name
+     * and text is digested with a length prefix, so that moving characters between adjacent fields (or changing a
+     * whitespace-only value) changes the fingerprint.
+     */
+    private static final class FingerprintReader extends StreamReaderDelegate {
+        private static final Charset UTF8 = Charset.forName("UTF-8");
+        private MessageDigest digest;
+
+        FingerprintReader(XMLStreamReader reader) {
+            super(reader);
+        }
+
+        void beginFingerprint() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            startElement();
+        }
+
+        String endFingerprint() {
+            byte[] hash = this.digest.digest();
+            this.digest = null;
+            return Helpers.digest(hash);
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            int event = super.next();
+            if (this.digest != null) {
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    startElement();
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    update('E', getLocalName());
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                        || event == XMLStreamConstants.SPACE) {
+                    update('T', getText());
+                }
+            }
+            return event;
+        }
+
+        private void startElement() {
+            update('S', getLocalName());
+            int count = getAttributeCount();
+            for (int i = 0; i < count; i++) {
+                update('A', getAttributeLocalName(i));
+                update('V', getAttributeValue(i));
+            }
+        }
+
+        private void update(char kind, String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            this.digest.update((byte) kind);
+            this.digest.update((byte) (bytes.length >>> 24));
+            this.digest.update((byte) (bytes.length >>> 16));
+            this.digest.update((byte) (bytes.length >>> 8));
+            this.digest.update((byte) bytes.length);
+            this.digest.update(bytes);
+        }
+    }
+
+    /**
+     * XMLStreamReader without namespace processing that reports the names of elements without their prefix, as a
+     * namespace aware reader does.
+     */
+    private static final class LocalNameReader extends StreamReaderDelegate {
+
+        LocalNameReader(XMLStreamReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public String getLocalName() {
+            String name = super.getLocalName();
+            int colon = name.indexOf(':');
+            return colon < 0 ? name : name.substring(colon + 1);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+
+}
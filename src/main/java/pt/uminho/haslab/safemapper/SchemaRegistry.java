@@ -0,0 +1,157 @@
+package pt.uminho.haslab.safemapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * SchemaRegistry class.
+ * Shares DatabaseSchemas between the components of a process that load the same schema source, so that it is parsed
+ * and held once. A schema is keyed by the canonical path of its source, its LoadMode and the digest of its content
+ * (of every schema document, see Helpers.digestSchemaSource): components that acquire an unchanged source get the same
+ * instance, and a source that changed in between is loaded again as a new instance.
+ * <p>
+ * Instances are reference counted. Each acquire must be paired with a release, and a schema is dropped from the
+ * registry once its last reference is released.
+ * <p>
+ * A shared schema is used by every holder at once, so it is read-only (see DatabaseSchema.isShared()): reloading it,
+ * adding a change listener to it or changing its tables throws an IllegalStateException. A changed source is acquired
+ * again instead. The MBeans of a schema (see SchemaMetrics.registerMBeans) are unregistered once its last reference is
+ * released.
+ */
+public final class SchemaRegistry {
+
+    private static final SchemaRegistry SHARED = new SchemaRegistry();
+
+    //  Shared schemas by key, and the entry of each loaded instance
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<DatabaseSchema, Entry> instances = new IdentityHashMap<DatabaseSchema, Entry>();
+
+    /**
+     * @return the registry shared by the whole process
+     */
+    public static SchemaRegistry getShared() {
+        return SHARED;
+    }
+
+    /**
+     * acquire(databaseSchemaFile : String) method : acquire the schema of a source, loaded with LoadMode.EAGER
+     */
+    public DatabaseSchema acquire(String databaseSchemaFile) {
+        return acquire(databaseSchemaFile, DatabaseSchema.LoadMode.EAGER);
+    }
+
+    /**
+     * acquire(databaseSchemaFile : String, loadMode : LoadMode) method : get the shared schema of a source, loading it
+     * if no component holds it, and take a reference to it. Concurrent acquires of the same source wait for a single
+     * load. The content of the source is read and digested on every acquire.
+     *
+     * @param databaseSchemaFile schema file or directory, see DatabaseSchema(String, LoadMode)
+     * @param loadMode           how the tables are loaded
+     * @return the shared schema, to be released with release(schema)
+     */
+    public DatabaseSchema acquire(String databaseSchemaFile, DatabaseSchema.LoadMode loadMode) {
+        if (databaseSchemaFile == null) {
+            throw new NullPointerException("Schema file cannot be null.");
+        }
+        if (loadMode == null) {
+            throw new NullPointerException("Load mode cannot be null.");
+        }
+        File file = canonical(new File(databaseSchemaFile));
+        String key = file.getPath() + '\n' + loadMode + '\n' + Helpers.digestSchemaSource(file);
+
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                this.entries.put(key, entry);
+            }
+            entry.references++;
+        }
+        try {
+            return entry.load(this, file.getPath(), loadMode);
+        } catch (RuntimeException e) {
+            release(entry);
+            throw e;
+        }
+    }
+
+    /**
+     * release(schema : DatabaseSchema) method : release a reference taken by acquire. The schema must not be used by
+     * the releasing component afterwards.
+     *
+     * @return true if it was the last reference and the schema was dropped from the registry. Otherwise false.
+     * @throws IllegalStateException if the schema is not held in this registry
+     */
+    public synchronized boolean release(DatabaseSchema schema) {
+        Entry entry = this.instances.get(schema);
+        if (entry == null) {
+            throw new IllegalStateException("Schema is not held in this registry.");
+        }
+        return release(entry);
+    }
+
+    private synchronized boolean release(Entry entry) {
+        if (--entry.references > 0) {
+            return false;
+        }
+        this.entries.remove(entry.key);
+        if (entry.schema != null) {
+            this.instances.remove(entry.schema);
+            entry.schema.getMetrics().unregisterMBeans();
+        }
+        return true;
+    }
+
+    private synchronized void loaded(Entry entry) {
+        this.instances.put(entry.schema, entry);
+    }
+
+    /**
+     * @return the number of references held on a schema, or 0 if it is not held in this registry
+     */
+    public synchronized int getReferenceCount(DatabaseSchema schema) {
+        Entry entry = this.instances.get(schema);
+        return entry == null ? 0 : entry.references;
+    }
+
+    /**
+     * @return the number of schemas held in this registry
+     */
+    public synchronized int size() {
+        return this.instances.size();
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        //  Guarded by the registry
+        private int references;
+        private volatile DatabaseSchema schema;
+
+        Entry(String key) {
+            this.key = key;
+        }
+
+        synchronized DatabaseSchema load(SchemaRegistry registry, String file, DatabaseSchema.LoadMode loadMode) {
+            if (this.schema == null) {
+                DatabaseSchema schema = new DatabaseSchema(file, loadMode);
+                schema.share();
+                this.schema = schema;
+                registry.loaded(this);
+            }
+            return this.schema;
+        }
+    }
+
+}
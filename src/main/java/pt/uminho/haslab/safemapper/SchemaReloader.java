@@ -0,0 +1,87 @@
+package pt.uminho.haslab.safemapper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SchemaReloader class.
+ * Watches the database schema file of a DatabaseSchema and reloads it (see DatabaseSchema.reload()) whenever the content
+ * of any of its documents changes (see Helpers.digestSchemaSource): the schema file and the files it includes, or the
+ * schema documents of a directory. A reload that fails is logged and the previous tables are kept.
+ */
+public class SchemaReloader implements Closeable {
+
+    static final Log LOG = LogFactory.getLog(SchemaReloader.class.getName());
+
+    private final DatabaseSchema schema;
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+    //  Digest of the source at the last check
+    private String lastDigest;
+
+    public SchemaReloader(DatabaseSchema schema, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Reload period must be positive.");
+        }
+        this.schema = schema;
+        this.file = new File(schema.getDatabaseSchemaFile());
+        this.lastDigest = digest();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "safemapper-schema-reloader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * check() method : reload the schema if any of its documents changed since the last check
+     *
+     * @return true if the schema was reloaded. Otherwise false.
+     */
+    public synchronized boolean check() {
+        String digest = digest();
+        if (digest.equals(this.lastDigest)) {
+            return false;
+        }
+
+        //  A source that fails to parse is only retried once it changes again
+        this.lastDigest = digest;
+        try {
+            this.schema.reload();
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("Could not reload databaseSchemaFile " + this.file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return the digest of the source, or the error that prevents reading it (e.g., a missing included file)
+     */
+    private String digest() {
+        try {
+            return Helpers.digestSchemaSource(this.file);
+        } catch (RuntimeException e) {
+            return "unreadable: " + e;
+        }
+    }
+
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+}
@@ -0,0 +1,380 @@
+package pt.uminho.haslab.safemapper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SchemaSnapshot class.
+ * Compact binary format of a fully resolved DatabaseSchema: database defaults, every table with its defaults, key,
+ * families, qualifiers and qualifier patterns (including the OPE _STD companions and the FPE parameters), and the
+ * fingerprints used by incremental reloads. Decoding a snapshot does not involve any XML parsing.
+ * <p>
+ * Layout (big-endian): magic, format version, digest of the source documents, database defaults, table count and the
+ * tables. Strings are written as a length followed by their UTF-8 bytes, with -1 standing for null.
+ */
+public final class SchemaSnapshot {
+
+    static final Log LOG = LogFactory.getLog(SchemaSnapshot.class.getName());
+
+    static final int MAGIC = 0x534D5353;
+    static final int VERSION = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte PLAIN = 0;
+    private static final byte FPE = 1;
+
+    private SchemaSnapshot() {
+    }
+
+    /**
+     * load(schemaFile : String, snapshotFile : String) method : warm-start load of a schema file. If snapshotFile holds
+     * a snapshot of the current content of schemaFile, the schema is decoded from it. Otherwise schemaFile is parsed
+     * and a new snapshot is written to snapshotFile. Failing to write the snapshot is logged but is not an error.
+     * The content of a multi-file schema is that of all of its documents (see Helpers.digestSchemaSource).
+     *
+     * @param schemaFile   database schema file (<schema>.xml) or directory, see DatabaseSchema(String, LoadMode)
+     * @param snapshotFile cache file
+     * @return the DatabaseSchema of schemaFile, which can be reloaded as usual
+     */
+    public static DatabaseSchema load(String schemaFile, String snapshotFile) {
+        if (schemaFile == null) {
+            throw new IllegalStateException("Schema file name cannot be null.");
+        }
+        String digest = Helpers.digestSchemaSource(new File(schemaFile));
+
+        File snapshot = new File(snapshotFile);
+        if (snapshot.isFile()) {
+            try {
+                ByteBuffer buffer = map(snapshot);
+                if (digest.equals(readDigest(buffer))) {
+                    return new DatabaseSchema(schemaFile, decode(buffer));
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Ignoring unreadable schema snapshot " + snapshotFile + ": " + e.getMessage());
+            }
+        }
+
+        DatabaseSchema schema = new DatabaseSchema(schemaFile);
+
+        try {
+            File temp = new File(snapshot.getPath() + ".tmp");
+            write(schema, digest, temp);
+            if (!temp.renameTo(snapshot)) {
+                snapshot.delete();
+                if (!temp.renameTo(snapshot)) {
+                    throw new IOException("Could not rename " + temp + " to " + snapshot);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not write schema snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+        return schema;
+    }
+
+    /**
+     * read(snapshotFile : File) method : decode a snapshot file, which is memory-mapped
+     */
+    public static DatabaseSchema read(File snapshotFile) {
+        return read(map(snapshotFile));
+    }
+
+    /**
+     * read(snapshot : ByteBuffer) method : decode the snapshot held in the remaining bytes of a buffer. The buffer
+     * position is not modified.
+     */
+    public static DatabaseSchema read(ByteBuffer snapshot) {
+        ByteBuffer buffer = snapshot.duplicate();
+        readDigest(buffer);
+        return new DatabaseSchema(null, decode(buffer));
+    }
+
+    public static void write(DatabaseSchema schema, File snapshotFile) throws IOException {
+        String source = schema.getDatabaseSchemaFile();
+        String digest = source == null ? null : Helpers.digestSchemaSource(new File(source));
+        write(schema, digest, snapshotFile);
+    }
+
+    public static void write(DatabaseSchema schema, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        encode(schema, null, data);
+        data.flush();
+    }
+
+    private static void write(DatabaseSchema schema, String digest, File snapshotFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile)));
+        try {
+            encode(schema, digest, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    static ByteBuffer map(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Encoding
+     */
+
+    private static void encode(DatabaseSchema schema, String digest, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, digest);
+
+        Map<String, Object> defaults = schema.getDatabaseDefaultProperties();
+        writeCryptoType(out, (DatabaseSchema.CryptoType) defaults.get("defaultPropertiesKey"));
+        writeCryptoType(out, (DatabaseSchema.CryptoType) defaults.get("defaultPropertiesColumns"));
+        writeBoolean(out, (Boolean) defaults.get("defaultPropertiesKeyPadding"));
+        writeBoolean(out, (Boolean) defaults.get("defaultPropertiesColumnPadding"));
+        out.writeInt((Integer) defaults.get("defaultPropertiesKeyFormatSize"));
+        out.writeInt((Integer) defaults.get("defaultPropertiesColFormatSize"));
+        writeBoolean(out, (Boolean) defaults.get("defaultPropertiesEncryptionMode"));
+        writeString(out, schema.getDefaultsFingerprint());
+
+        Map<String, TableSchema> tables = schema.getSchemas();
+        Map<String, String> fingerprints = schema.getTableFingerprints();
+        out.writeInt(tables.size());
+        for (TableSchema table : tables.values()) {
+            writeString(out, fingerprints == null ? null : fingerprints.get(table.getTablename()));
+            encodeTable(table, out);
+        }
+    }
+
+    private static void encodeTable(TableSchema table, DataOutputStream out) throws IOException {
+        writeString(out, table.getTablename());
+        writeCryptoType(out, table.getDefaultKeyCryptoType());
+        writeCryptoType(out, table.getDefaultColumnsCryptoType());
+        out.writeInt(table.getDefaultKeyFormatSize());
+        out.writeInt(table.getDefaultColumnFormatSize());
+        writeBoolean(out, table.getDefaultKeyPadding());
+        writeBoolean(out, table.getDefaultColumnPadding());
+        writeBoolean(out, table.getEncryptionMode());
+
+        Key key = table.getKey();
+        if (key instanceof KeyFPE) {
+            KeyFPE fpe = (KeyFPE) key;
+            out.writeByte(FPE);
+            writeCryptoType(out, key.getCryptoType());
+            out.writeInt(key.getFormatSize());
+            writeBoolean(out, key.getKeyPadding());
+            writeString(out, fpe.getInstance());
+            out.writeInt(fpe.getRadix());
+            writeString(out, fpe.getTweak());
+        } else {
+            out.writeByte(PLAIN);
+            writeCryptoType(out, key.getCryptoType());
+            out.writeInt(key.getFormatSize());
+            writeBoolean(out, key.getKeyPadding());
+        }
+
+        List<Family> families = table.getColumnFamilies();
+        out.writeInt(families.size());
+        for (Family family : families) {
+            writeString(out, family.getFamilyName());
+            writeCryptoType(out, family.getCryptoType());
+            out.writeInt(family.getFormatSize());
+            writeBoolean(out, family.getColumnPadding());
+
+            List<Qualifier> qualifiers = family.getQualifiers();
+            out.writeInt(qualifiers.size());
+            for (Qualifier q : qualifiers) {
+                writeQualifier(out, q);
+            }
+            List<Qualifier> patterns = family.getQualifierPatterns();
+            out.writeInt(patterns.size());
+            for (Qualifier rule : patterns) {
+                writeQualifier(out, rule);
+            }
+        }
+
+        out.writeLong(table.getEnabledCryptoTypeMask());
+    }
+
+    private static void writeQualifier(DataOutputStream out, Qualifier q) throws IOException {
+        out.writeByte(q instanceof QualifierFPE ? FPE : PLAIN);
+        writeString(out, q.getName());
+        writeCryptoType(out, q.getCryptoType());
+        out.writeInt(q.getFormatSize());
+        writeBoolean(out, q.getPadding());
+        Map<String, String> properties = q.getProperties();
+        out.writeInt(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            writeString(out, property.getKey());
+            writeString(out, property.getValue());
+        }
+        if (q instanceof QualifierFPE) {
+            QualifierFPE fpe = (QualifierFPE) q;
+            writeString(out, fpe.getInstance());
+            out.writeInt(fpe.getRadix());
+            writeString(out, fpe.getTweak());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeCryptoType(DataOutputStream out, DatabaseSchema.CryptoType cType) throws IOException {
+        out.writeByte(cType == null ? -1 : cType.ordinal());
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : (value ? 1 : 0));
+    }
+
+    /*
+     * Decoding
+     */
+
+    private static String readDigest(ByteBuffer buffer) {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a schema snapshot.");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported schema snapshot version " + version + ".");
+        }
+        return readString(buffer);
+    }
+
+    private static SchemaParser decode(ByteBuffer in) {
+        SchemaParser result = new SchemaParser();
+        result.defaultPropertiesKey = readCryptoType(in);
+        result.defaultPropertiesColumns = readCryptoType(in);
+        result.defaultPropertiesKeyPadding = readBoolean(in);
+        result.defaultPropertiesColumnPadding = readBoolean(in);
+        result.defaultPropertiesKeyFormatSize = in.getInt();
+        result.defaultPropertiesColFormatSize = in.getInt();
+        result.defaultEncryptionMode = readBoolean(in);
+        result.hasDefaultDatabaseProperties = true;
+        result.defaultsFingerprint = readString(in);
+
+        int tables = in.getInt();
+        for (int i = 0; i < tables; i++) {
+            String fingerprint = readString(in);
+            TableSchema table = decodeTable(in, result.interner);
+            result.tableSchemas.put(table.getTablename(), table);
+            if (fingerprint != null) {
+                result.tableFingerprints.put(table.getTablename(), fingerprint);
+            }
+        }
+        return result;
+    }
+
+    private static TableSchema decodeTable(ByteBuffer in, SchemaInterner interner) {
+        TableSchema table = new TableSchema();
+        table.setTablename(readString(in));
+        table.setDefaultKeyCryptoType(readCryptoType(in));
+        table.setDefaultColumnsCryptoType(readCryptoType(in));
+        table.setDefaultKeyFormatSize(in.getInt());
+        table.setDefaultColumnFormatSize(in.getInt());
+        table.setDefaultKeyPadding(readBoolean(in));
+        table.setDefaultColumnPadding(readBoolean(in));
+        table.setEncryptionMode(readBoolean(in));
+
+        byte keyKind = in.get();
+        DatabaseSchema.CryptoType keyType = readCryptoType(in);
+        int keyFormatSize = in.getInt();
+        Boolean keyPadding = readBoolean(in);
+        if (keyKind == FPE) {
+            table.setKey(new KeyFPE(keyType, keyFormatSize, keyPadding, readString(in), in.getInt(), readString(in)));
+        } else {
+            table.setKey(new Key(keyType, keyFormatSize, keyPadding));
+        }
+
+        int families = in.getInt();
+        for (int i = 0; i < families; i++) {
+            String familyName = interner.name(readString(in));
+            Family family = new Family(familyName, readCryptoType(in), in.getInt(), readBoolean(in));
+            table.addFamily(family);
+
+            int qualifiers = in.getInt();
+            for (int j = 0; j < qualifiers; j++) {
+                family.addQualifier(readQualifier(in, interner));
+            }
+            int patterns = in.getInt();
+            for (int j = 0; j < patterns; j++) {
+                family.addQualifierPattern(readQualifier(in, interner));
+            }
+        }
+
+        long enabled = in.getLong();
+        for (DatabaseSchema.CryptoType cType : DatabaseSchema.CryptoType.values()) {
+            if ((enabled & (1L << cType.ordinal())) != 0) {
+                table.enableCryptoType(cType);
+            }
+        }
+        table.parsed();
+        return table;
+    }
+
+    private static Qualifier readQualifier(ByteBuffer in, SchemaInterner interner) {
+        byte kind = in.get();
+        String name = interner.name(readString(in));
+        DatabaseSchema.CryptoType cType = readCryptoType(in);
+        int formatSize = in.getInt();
+        Boolean padding = readBoolean(in);
+        int size = in.getInt();
+        Map<String, String> properties = new HashMap<String, String>();
+        for (int k = 0; k < size; k++) {
+            properties.put(readString(in), readString(in));
+        }
+        properties = interner.properties(properties);
+        if (kind == FPE) {
+            return new QualifierFPE(name, cType, formatSize, padding, properties, readString(in), in.getInt(), readString(in));
+        }
+        return new Qualifier(name, cType, formatSize, padding, properties);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static DatabaseSchema.CryptoType readCryptoType(ByteBuffer in) {
+        byte ordinal = in.get();
+        return ordinal < 0 ? null : DatabaseSchema.CryptoType.values()[ordinal];
+    }
+
+    private static Boolean readBoolean(ByteBuffer in) {
+        byte value = in.get();
+        return value < 0 ? null : value == 1;
+    }
+
+}
@@ -0,0 +1,99 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * SharedProperties class.
+ * Immutable map of miscellaneous qualifier properties, shared by every qualifier with the same properties (see
+ * SchemaInterner). Qualifiers hold at most a handful of properties, so keys and values are kept in two arrays and
+ * looked up linearly instead of in a hash table.
+ */
+final class SharedProperties extends AbstractMap<String, String> {
+
+    private final String[] keys;
+    private final String[] values;
+    private final int hash;
+
+    SharedProperties(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        int h = 0;
+        for (int i = 0; i < keys.length; i++) {
+            //  Same hash as Map.hashCode(), so that equal maps of any type hash alike
+            h += (keys[i] == null ? 0 : keys[i].hashCode()) ^ (values[i] == null ? 0 : values[i].hashCode());
+        }
+        this.hash = h;
+    }
+
+    private int find(Object key) {
+        for (int i = 0; i < this.keys.length; i++) {
+            if (key == null ? this.keys[i] == null : key.equals(this.keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = find(key);
+        return i < 0 ? null : this.values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.keys.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (this.next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = this.next++;
+                        return new AbstractMap.SimpleImmutableEntry<String, String>(keys[i], values[i]);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+}
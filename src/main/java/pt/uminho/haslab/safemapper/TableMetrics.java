@@ -0,0 +1,230 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TableMetrics class.
+ * Column lookup counters of a table: how many CryptoType lookups were made, how many found a declared column and how
+ * many fell back to the table default columns CryptoType, together with the undefined columns that caused them.
+ * <p>
+ * Counters are striped (LongAdder), so recording never contends between threads. Only the first MAX_TRACKED_COLUMNS
+ * distinct undefined columns are tracked by name; fallbacks on further columns are counted as other undefined columns.
+ * Tracked columns are kept in a fixed open-addressing table keyed by their UTF-8 bytes, so recording a fallback, given as
+ * byte[] slices or as Strings, does not allocate once the column is tracked (or tracking is full).
+ */
+public final class TableMetrics implements TableMetricsMXBean {
+
+    static final int MAX_TRACKED_COLUMNS = 64;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder otherUndefined = new LongAdder();
+    //  Tracked undefined columns, in a table twice as large as MAX_TRACKED_COLUMNS so that probes always end
+    private final AtomicReferenceArray<TrackedColumn> undefinedColumns =
+            new AtomicReferenceArray<TrackedColumn>(MAX_TRACKED_COLUMNS * 2);
+    private final AtomicInteger trackedColumns = new AtomicInteger();
+
+    void recordHit() {
+        this.lookups.increment();
+        this.hits.increment();
+    }
+
+    void recordFallback(String family, String qualifier) {
+        this.lookups.increment();
+        this.fallbacks.increment();
+        int h = ColumnIndex.hash(family, qualifier);
+        int mask = this.undefinedColumns.length() - 1;
+        int slot = h & mask;
+        while (true) {
+            TrackedColumn column = this.undefinedColumns.get(slot);
+            if (column == null) {
+                if (!reserve()) {
+                    return;
+                }
+                if (insert(slot, new TrackedColumn(h, family.getBytes(ColumnIndex.UTF8),
+                        qualifier.getBytes(ColumnIndex.UTF8)))) {
+                    return;
+                }
+                continue;
+            }
+            if (column.matches(h, family, qualifier)) {
+                column.count.increment();
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void recordFallback(byte[] family, int familyOffset, int familyLength,
+                        byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        this.lookups.increment();
+        this.fallbacks.increment();
+        int h = ColumnIndex.hash(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        int mask = this.undefinedColumns.length() - 1;
+        int slot = h & mask;
+        while (true) {
+            TrackedColumn column = this.undefinedColumns.get(slot);
+            if (column == null) {
+                if (!reserve()) {
+                    return;
+                }
+                if (insert(slot, new TrackedColumn(h,
+                        Arrays.copyOfRange(family, familyOffset, familyOffset + familyLength),
+                        Arrays.copyOfRange(qualifier, qualifierOffset, qualifierOffset + qualifierLength)))) {
+                    return;
+                }
+                continue;
+            }
+            if (column.matches(h, family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength)) {
+                column.count.increment();
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * reserve() method : reserve a place for a new tracked column, so that at most MAX_TRACKED_COLUMNS columns are
+     * tracked. A fallback that finds no place is counted as an other undefined column.
+     *
+     * @return true if a place was reserved
+     */
+    private boolean reserve() {
+        //  Once tracking is full, further columns are counted without touching the shared counter
+        if (this.trackedColumns.get() >= MAX_TRACKED_COLUMNS) {
+            this.otherUndefined.increment();
+            return false;
+        }
+        if (this.trackedColumns.getAndIncrement() >= MAX_TRACKED_COLUMNS) {
+            this.trackedColumns.decrementAndGet();
+            this.otherUndefined.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * insert(slot : int, column : TrackedColumn) method : insert a new column, with its first fallback, in a free slot
+     * reserved by reserve()
+     *
+     * @return false if the slot was taken by another column meanwhile, in which case the reservation is released
+     */
+    private boolean insert(int slot, TrackedColumn column) {
+        if (this.undefinedColumns.compareAndSet(slot, null, column)) {
+            column.count.increment();
+            return true;
+        }
+        this.trackedColumns.decrementAndGet();
+        return false;
+    }
+
+    public long getLookups() {
+        return this.lookups.sum();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getDefaultFallbacks() {
+        return this.fallbacks.sum();
+    }
+
+    /**
+     * @return the tracked undefined columns ("family:qualifier") and their fallback counts, most frequent first
+     */
+    public Map<String, Long> getUndefinedColumns() {
+        return getTopUndefinedColumns(MAX_TRACKED_COLUMNS);
+    }
+
+    /**
+     * getTopUndefinedColumns(limit : int) method : get the undefined columns that fell back to the default CryptoType
+     * most often
+     *
+     * @param limit maximum number of columns returned
+     * @return the columns ("family:qualifier") and their fallback counts, most frequent first
+     */
+    public Map<String, Long> getTopUndefinedColumns(int limit) {
+        List<Map.Entry<String, Long>> columns = new ArrayList<Map.Entry<String, Long>>();
+        for (int i = 0; i < this.undefinedColumns.length(); i++) {
+            TrackedColumn column = this.undefinedColumns.get(i);
+            if (column != null) {
+                columns.add(new AbstractMap.SimpleImmutableEntry<String, Long>(column.name(), column.count.sum()));
+            }
+        }
+        Collections.sort(columns, new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < columns.size() && i < limit; i++) {
+            result.put(columns.get(i).getKey(), columns.get(i).getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of fallbacks on undefined columns that are not tracked by name
+     */
+    public long getOtherUndefinedColumns() {
+        return this.otherUndefined.sum();
+    }
+
+    public void reset() {
+        this.lookups.reset();
+        this.hits.reset();
+        this.fallbacks.reset();
+        this.otherUndefined.reset();
+        for (int i = 0; i < this.undefinedColumns.length(); i++) {
+            this.undefinedColumns.set(i, null);
+        }
+        this.trackedColumns.set(0);
+    }
+
+    private static final class TrackedColumn {
+        private final int hash;
+        private final byte[] family;
+        private final byte[] qualifier;
+        private final LongAdder count = new LongAdder();
+
+        TrackedColumn(int hash, byte[] family, byte[] qualifier) {
+            this.hash = hash;
+            this.family = family;
+            this.qualifier = qualifier;
+        }
+
+        boolean matches(int h, byte[] family, int familyOffset, int familyLength,
+                        byte[] qualifier, int qualifierOffset, int qualifierLength) {
+            return this.hash == h
+                    && ColumnIndex.equal(this.family, family, familyOffset, familyLength)
+                    && ColumnIndex.equal(this.qualifier, qualifier, qualifierOffset, qualifierLength);
+        }
+
+        boolean matches(int h, String family, String qualifier) {
+            return this.hash == h
+                    && ColumnIndex.equal(this.family, family)
+                    && ColumnIndex.equal(this.qualifier, qualifier);
+        }
+
+        /**
+         * @return the column as "family:qualifier"
+         */
+        String name() {
+            return new String(this.family, ColumnIndex.UTF8) + ":" + new String(this.qualifier, ColumnIndex.UTF8);
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.Map;
+
+/**
+ * TableMetricsMXBean interface.
+ * Management interface of the column lookup counters of a table, see TableMetrics.
+ */
+public interface TableMetricsMXBean {
+
+    long getLookups();
+
+    long getHits();
+
+    long getDefaultFallbacks();
+
+    Map<String, Long> getUndefinedColumns();
+
+    long getOtherUndefinedColumns();
+
+    void reset();
+
+}
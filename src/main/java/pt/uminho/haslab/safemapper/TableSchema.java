@@ -5,10 +5,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.NoSuchElementException;
 
 import static pt.uminho.haslab.safemapper.Helpers.whichFpeInstance;
 
@@ -17,7 +18,7 @@ import static pt.uminho.haslab.safemapper.Helpers.whichFpeInstance;
  * TableSchema class.
  * Mapper of the database schema provided by the user.
  */
-public class TableSchema {
+public class TableSchema implements TableSchemaLookup {
     static final Log LOG = LogFactory.getLog(TableSchema.class.getName());
 
     private String tablename;
@@ -41,8 +42,25 @@ public class TableSchema {
     private Key key;
     //  Collection of the database column families (and qualifiers)
     private List<Family> columnFamilies;
-
-    private Map<DatabaseSchema.CryptoType, Boolean> enabledCryptoTypes;
+    //  Read-only copy of columnFamilies, returned by getColumnFamilies(). Dropped when a family is added.
+    private volatile List<Family> columnFamiliesView;
+
+    //  Enabled CryptoTypes, bit cType.ordinal() set for each enabled cType
+    private volatile long enabledCryptoTypes;
+    //  Read-only list of the enabled CryptoTypes, returned by getEnabledCryptoTypes(). Dropped when a type is enabled.
+    private volatile List<DatabaseSchema.CryptoType> enabledCryptoTypesView;
+
+    //  Column ordinals, family -> qualifier -> ordinal. Assigned when a column is first compiled and never reassigned.
+    private final Map<String, Map<String, Integer>> ordinals = new HashMap<String, Map<String, Integer>>();
+
+    //  Compiled snapshot of this schema. Lazily built and dropped whenever the schema changes.
+    private volatile CompiledTableSchema compiled;
+    //  Set whenever the schema changes after it was parsed, see isModified()
+    private volatile boolean modified;
+    //  Column lookup counters. Replaced by those of the DatabaseSchema when the table is published.
+    private volatile TableMetrics metrics;
+    //  Set once the table is shared through a SchemaRegistry, see checkMutable()
+    private volatile boolean shared;
 
     public TableSchema() {
         this.tablename = "";
@@ -53,10 +71,11 @@ public class TableSchema {
         this.defaultKeyPadding = false;
         this.defaultColumnPadding = false;
         this.key = new Key();
+        this.key.setOwner(this);
         this.columnFamilies = new ArrayList<Family>();
         this.defaultEncryptionMode = false;
 
-        this.enabledCryptoTypes = initializeEnabledCryptoTypes();
+        this.metrics = new TableMetrics();
     }
 
 
@@ -64,27 +83,33 @@ public class TableSchema {
         return this.tablename;
     }
 
-    public void setTablename(String tablename) {
+    public synchronized void setTablename(String tablename) {
+        checkMutable();
         this.tablename = tablename;
+        invalidate();
     }
 
     public DatabaseSchema.CryptoType getDefaultKeyCryptoType() {
         return this.defaultKeyCryptoType;
     }
 
-    public void setDefaultKeyCryptoType(DatabaseSchema.CryptoType cType) {
+    public synchronized void setDefaultKeyCryptoType(DatabaseSchema.CryptoType cType) {
+        checkMutable();
         defaultKeyCryptoType = cType;
         key.setCryptoType(cType);
         this.enableCryptoType(cType);
+        invalidate();
     }
 
     public DatabaseSchema.CryptoType getDefaultColumnsCryptoType() {
         return this.defaultColumnsCryptoType;
     }
 
-    public void setDefaultColumnsCryptoType(DatabaseSchema.CryptoType cType) {
+    public synchronized void setDefaultColumnsCryptoType(DatabaseSchema.CryptoType cType) {
+        checkMutable();
         defaultColumnsCryptoType = cType;
         enableCryptoType(cType);
+        invalidate();
     }
 
     public int getDefaultKeyFormatSize() {
@@ -92,49 +117,60 @@ public class TableSchema {
 
     }
 
-    public void setDefaultKeyFormatSize(int formatSize) {
+    public synchronized void setDefaultKeyFormatSize(int formatSize) {
+        checkMutable();
         defaultKeyFormatSize = formatSize;
         key.setFormatSize(formatSize);
+        invalidate();
     }
 
     public int getDefaultColumnFormatSize() {
         return this.defaultColumnFormatSize;
     }
 
-    public void setDefaultColumnFormatSize(int formatSize) {
+    public synchronized void setDefaultColumnFormatSize(int formatSize) {
+        checkMutable();
         this.defaultColumnFormatSize = formatSize;
+        invalidate();
     }
 
     public Boolean getDefaultKeyPadding() {
         return this.defaultKeyPadding;
     }
 
-    public void setDefaultKeyPadding(Boolean padding) {
+    public synchronized void setDefaultKeyPadding(Boolean padding) {
+        checkMutable();
         defaultKeyPadding = padding;
         key.setKeyPadding(padding);
+        invalidate();
     }
 
     public Boolean getDefaultColumnPadding() {
         return this.defaultColumnPadding;
     }
 
-    public void setDefaultColumnPadding(Boolean padding) {
+    public synchronized void setDefaultColumnPadding(Boolean padding) {
+        checkMutable();
         this.defaultColumnPadding = padding;
+        invalidate();
     }
 
     public Boolean getEncryptionMode() {
         return this.defaultEncryptionMode;
     }
 
-    public void setEncryptionMode(Boolean mode) {
+    public synchronized void setEncryptionMode(Boolean mode) {
+        checkMutable();
         this.defaultEncryptionMode = mode;
+        invalidate();
     }
 
     public Key getKey() {
         return this.key;
     }
 
-    public void setKey(Key key) {
+    public synchronized void setKey(Key key) {
+        checkMutable();
         if (key instanceof KeyFPE) {
             KeyFPE temp = new KeyFPE();
             if (key.getCryptoType() == null) {
@@ -169,6 +205,7 @@ public class TableSchema {
                 temp.setTweak(((KeyFPE) key).getTweak());
             }
 
+            temp.setOwner(this);
             this.key = temp;
         } else {
             if (key.getCryptoType() == null) {
@@ -190,20 +227,47 @@ public class TableSchema {
                 this.key.setKeyPadding(key.getKeyPadding());
             }
         }
+        invalidate();
     }
 
+    /**
+     * @return a read-only copy of the column families, unaffected by families added later. Use addFamily and
+     * addQualifier to modify them.
+     */
     public List<Family> getColumnFamilies() {
-        List<Family> tempFamilies = new ArrayList<Family>();
+        List<Family> view = this.columnFamiliesView;
+        if (view == null) {
+            synchronized (this) {
+                view = this.columnFamiliesView;
+                if (view == null) {
+                    view = Collections.unmodifiableList(new ArrayList<Family>(this.columnFamilies));
+                    this.columnFamiliesView = view;
+                }
+            }
+        }
+        return view;
+    }
 
-        for (Family family : this.columnFamilies)
-            tempFamilies.add(family);
+    /**
+     * @return the number of column families, for index based iteration with getFamily(int)
+     */
+    public int getFamilyCount() {
+        return getColumnFamilies().size();
+    }
 
-        return tempFamilies;
+    public Family getFamily(int index) {
+        return getColumnFamilies().get(index);
     }
 
-    public void setColumnFamilies(List<Family> families) {
+    public synchronized void setColumnFamilies(List<Family> families) {
+        checkMutable();
         this.columnFamilies = new ArrayList<Family>();
         this.columnFamilies.addAll(families);
+        this.columnFamiliesView = null;
+        for (Family f : families) {
+            f.setOwner(this);
+        }
+        invalidate();
     }
 
     /**
@@ -215,7 +279,8 @@ public class TableSchema {
      * @param formatSize column family default size
      * @param qualifiers set of column qualifiers
      */
-    public void addFamily(String familyName, DatabaseSchema.CryptoType cType, int formatSize, Boolean padding, List<Qualifier> qualifiers) {
+    public synchronized void addFamily(String familyName, DatabaseSchema.CryptoType cType, int formatSize, Boolean padding, List<Qualifier> qualifiers) {
+        checkMutable();
         Family family = new Family();
         family.setFamilyName(familyName);
 
@@ -242,7 +307,10 @@ public class TableSchema {
             family.addQualifier(q);
         }
 
+        family.setOwner(this);
         this.columnFamilies.add(family);
+        this.columnFamiliesView = null;
+        invalidate();
     }
 
     /**
@@ -251,7 +319,8 @@ public class TableSchema {
      *
      * @param fam Family object
      */
-    public void addFamily(Family fam) {
+    public synchronized void addFamily(Family fam) {
+        checkMutable();
         if (fam.getCryptoType() == null) {
             fam.setCryptoType(defaultColumnsCryptoType);
         }
@@ -268,34 +337,22 @@ public class TableSchema {
         for (Qualifier qual : qualifiers) {
             enableCryptoType(qual.getCryptoType());
         }
+        for (Qualifier rule : fam.getQualifierPatterns()) {
+            enableCryptoType(rule.getCryptoType());
+        }
         enableCryptoType(fam.getCryptoType());
+        fam.setOwner(this);
         this.columnFamilies.add(fam);
+        this.columnFamiliesView = null;
+        invalidate();
     }
 
     public Family getFamily(String familyName) {
-        Family wantedFamily = null;
-        boolean hasFamily = false;
-        Iterator<Family> family_iterator = this.columnFamilies.iterator();
-        while (family_iterator.hasNext() && !hasFamily) {
-            Family temp_family = family_iterator.next();
-            if (temp_family.getFamilyName().equals(familyName)) {
-                wantedFamily = temp_family;
-                hasFamily = true;
-            }
-        }
-
-        return wantedFamily;
+        return compile().getFamily(familyName);
     }
 
     public boolean containsFamily(String family) {
-        boolean contains = false;
-        for (Family f : this.columnFamilies) {
-            if (f.getFamilyName().equals(family)) {
-                contains = true;
-                break;
-            }
-        }
-        return contains;
+        return compile().containsFamily(family);
     }
 
     /**
@@ -304,7 +361,8 @@ public class TableSchema {
      * @param familyName column family name
      * @param qualifier  Qualifier object.
      */
-    public void addQualifier(String familyName, Qualifier qualifier) {
+    public synchronized void addQualifier(String familyName, Qualifier qualifier) {
+        checkMutable();
         int index = 0;
 
         for (Family f : this.columnFamilies) {
@@ -318,6 +376,7 @@ public class TableSchema {
             Family f = this.columnFamilies.get(index);
             f.addQualifier(qualifier);
             this.columnFamilies.set(index, f);
+            invalidate();
             this.enableCryptoType(qualifier.getCryptoType());
             if (qualifier.getCryptoType().equals(DatabaseSchema.CryptoType.OPE)) {
                 this.enableCryptoType(DatabaseSchema.CryptoType.STD);
@@ -325,15 +384,35 @@ public class TableSchema {
         }
     }
 
-    public boolean containsQualifier(String family, String qualifier) {
-        boolean contains = false;
-        if (containsFamily(family)) {
-            if (getFamily(family).containsQualifier(qualifier)) {
-                contains = true;
+    /**
+     * addQualifierPattern(familyName : String, rule : Qualifier) method : add a qualifier rule whose name is a pattern
+     * to the respective family (see Family.addQualifierPattern)
+     *
+     * @param familyName column family name
+     * @param rule       Qualifier object, whose name is the pattern
+     */
+    public synchronized void addQualifierPattern(String familyName, Qualifier rule) {
+        checkMutable();
+        for (int i = 0; i < this.columnFamilies.size(); i++) {
+            Family f = this.columnFamilies.get(i);
+            if (f.getFamilyName().equals(familyName)) {
+                f.addQualifierPattern(rule);
+                this.enableCryptoType(rule.getCryptoType());
+                if (rule.getCryptoType() == DatabaseSchema.CryptoType.OPE) {
+                    this.enableCryptoType(DatabaseSchema.CryptoType.STD);
+                }
+                return;
             }
         }
+        throw new NoSuchElementException("Column family " + familyName + " is not declared.");
+    }
 
-        return contains;
+    /**
+     * containsQualifier(family : String, qualifier : String) method : true if the qualifier is declared, or matches one
+     * of the qualifier patterns of the family
+     */
+    public boolean containsQualifier(String family, String qualifier) {
+        return compile().containsQualifier(family, qualifier);
     }
 
     /**
@@ -343,67 +422,221 @@ public class TableSchema {
      * @param qualifier column qualifier
      * @return the respective CryptoType
      */
-//	TODO: profile
     public DatabaseSchema.CryptoType getCryptoTypeFromQualifier(String family, String qualifier) {
-        DatabaseSchema.CryptoType cType = null;
-        for (Family f : this.columnFamilies) {
-            if (f.getFamilyName().equals(family)) {
-                for (Qualifier q : f.getQualifiers()) {
-                    if (q.getName().equals(qualifier)) {
-                        cType = q.getCryptoType();
-                        break;
-                    }
-                }
-                break;
-            }
+        CompiledTableSchema snapshot = compile();
+        int entry = snapshot.indexOf(family, qualifier);
+        if (entry < 0) {
+            this.metrics.recordFallback(family, qualifier);
+        } else {
+            this.metrics.recordHit();
         }
+        return snapshot.getCryptoType(entry);
+    }
 
-        if (cType == null) {
-//			LOG.info("Exception:TableSchema:getCryptoTypeFromQualifier:The specified qualifier ("+family+","+qualifier+") does not exists.");
-            cType = defaultColumnsCryptoType;
+    /**
+     * getCryptoTypeFromQualifier(family, qualifier) method : allocation-free variant of
+     * getCryptoTypeFromQualifier(String, String) that takes the family and qualifier as byte[] slices
+     *
+     * @param family          array holding the column family
+     * @param familyOffset    offset of the column family in the array
+     * @param familyLength    length of the column family
+     * @param qualifier       array holding the column qualifier
+     * @param qualifierOffset offset of the column qualifier in the array
+     * @param qualifierLength length of the column qualifier
+     * @return the respective CryptoType
+     */
+    public DatabaseSchema.CryptoType getCryptoTypeFromQualifier(byte[] family, int familyOffset, int familyLength,
+                                                                byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        CompiledTableSchema snapshot = compile();
+        int entry = snapshot.indexOf(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        if (entry < 0) {
+            this.metrics.recordFallback(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+        } else {
+            this.metrics.recordHit();
         }
+        return snapshot.getCryptoType(entry);
+    }
 
-        return cType;
+    /**
+     * isIntegerColumn(family, qualifier) method : allocation-free variant of isIntegerColumn(String, String) that takes
+     * the family and qualifier as byte[] slices
+     *
+     * @return true if the column is declared with the Integer type property. Otherwise false.
+     */
+    public boolean isIntegerColumn(byte[] family, int familyOffset, int familyLength,
+                                   byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return compile().isIntegerColumn(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+    }
 
+    /**
+     * classify(families : byte[][], qualifiers : byte[][]) method : group a batch of (family, qualifier) pairs, such as
+     * the cells of a Put or Result, by CryptoType (see CryptoTypePartition)
+     *
+     * @param families   column family of each cell
+     * @param qualifiers column qualifier of each cell
+     * @return the cells grouped by CryptoType
+     */
+    public CryptoTypePartition classify(byte[][] families, byte[][] qualifiers) {
+        return compile().classify(families, qualifiers, families.length, null);
     }
 
-    public void setColumnProperty(String family, String qualifier, String key, String value) {
-        for (Family f : this.getColumnFamilies()) {
-            if (f.getFamilyName().equals(family)) {
-                for (Qualifier q : f.getQualifiers()) {
-                    if (q.getName().equals(qualifier)) {
-                        q.getProperties().put(key, value);
-                        break;
-                    }
+    /**
+     * Slice-based variant of classify(byte[][], byte[][]) that fills (and returns) a reusable partition.
+     */
+    public CryptoTypePartition classify(byte[][] families, int[] familyOffsets, int[] familyLengths,
+                                       byte[][] qualifiers, int[] qualifierOffsets, int[] qualifierLengths,
+                                       int count, CryptoTypePartition partition) {
+        return compile().classify(families, familyOffsets, familyLengths, qualifiers, qualifierOffsets, qualifierLengths,
+                count, partition);
+    }
+
+    /**
+     * compile() method : get the compiled, read-only snapshot of the current state of this schema. The snapshot is
+     * built on first use and reused until the schema is modified.
+     *
+     * @return the CompiledTableSchema of this schema
+     */
+    public CompiledTableSchema compile() {
+        CompiledTableSchema snapshot = this.compiled;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = this.compiled;
+                if (snapshot == null) {
+                    snapshot = new CompiledTableSchema(this, this.columnFamilies);
+                    this.compiled = snapshot;
                 }
-                break;
             }
         }
+        return snapshot;
     }
 
-    public boolean isIntegerColumn(String family, String qualifier) {
-        String type = null;
-        for (Family f : this.columnFamilies) {
-            if (f.getFamilyName().equals(family)) {
-                for (Qualifier q : f.getQualifiers()) {
-                    if (q.getName().equals(qualifier)) {
-                        type = q.getProperties().get("type");
-                        break;
-                    }
+    /**
+     * @return the column lookup counters of this table (see TableMetrics)
+     */
+    public TableMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    void setMetrics(TableMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void share() {
+        this.shared = true;
+    }
 
+    /**
+     * checkMutable() method : fail any change to a table shared through a SchemaRegistry (see
+     * DatabaseSchema.isShared()), which every holder of the schema reads at once
+     *
+     * @throws IllegalStateException if the table is shared
+     */
+    void checkMutable() {
+        if (this.shared) {
+            throw new IllegalStateException("Table " + this.tablename + " is shared and cannot be modified.");
+        }
+    }
+
+    /**
+     * assignOrdinals(index : ColumnIndex) method : give an ordinal to every declared column of the index that has none yet
+     *
+     * @return the bound of the ordinals assigned so far
+     */
+    synchronized int assignOrdinals(ColumnIndex index) {
+        int count = 0;
+        for (Map<String, Integer> family : this.ordinals.values()) {
+            count += family.size();
+        }
+        for (int i = 0; i < index.exactSize(); i++) {
+            String familyName = index.family(i).getFamilyName();
+            Map<String, Integer> family = this.ordinals.get(familyName);
+            if (family == null) {
+                family = new HashMap<String, Integer>();
+                this.ordinals.put(familyName, family);
+            }
+            String qualifier = index.qualifier(i).getName();
+            if (!family.containsKey(qualifier)) {
+                family.put(qualifier, count++);
+            }
+        }
+        return count;
+    }
+
+    synchronized int ordinalOf(String family, String qualifier) {
+        return this.ordinals.get(family).get(qualifier);
+    }
+
+    /**
+     * getColumnOrdinal(family : String, qualifier : String) method : get the ordinal of a declared column. Every
+     * declared column of a TableSchema has a dense ordinal in [0, getColumnCount()), assigned in declaration order, that
+     * does not change as the schema is modified. Callers can keep per-column state in arrays indexed by ordinal.
+     * Ordinals are not reused: a column that is renamed gets a new one.
+     *
+     * @return the ordinal, or -1 if the column is not declared (including qualifiers only matched by a pattern)
+     */
+    public int getColumnOrdinal(String family, String qualifier) {
+        return compile().getOrdinal(family, qualifier);
+    }
+
+    public int getColumnOrdinal(byte[] family, int familyOffset, int familyLength,
+                                byte[] qualifier, int qualifierOffset, int qualifierLength) {
+        return compile().getOrdinal(family, familyOffset, familyLength, qualifier, qualifierOffset, qualifierLength);
+    }
+
+    /**
+     * @return the bound of the column ordinals, see getColumnOrdinal(...)
+     */
+    public int getColumnCount() {
+        return compile().getColumnCount();
+    }
+
+    /**
+     * getColumn(ordinal : int) method : get the column with a given ordinal (reverse of getColumnOrdinal(...))
+     *
+     * @return the column, or null if the ordinal belonged to a column that was renamed
+     */
+    public SchemaColumn getColumn(int ordinal) {
+        return compile().getColumn(ordinal);
+    }
+
+    void invalidate() {
+        synchronized (this) {
+            this.compiled = null;
+            this.modified = true;
+        }
+    }
+
+    /**
+     * parsed() method : mark this schema as matching the <table> element it was just parsed from
+     */
+    void parsed() {
+        this.modified = false;
+    }
+
+    /**
+     * @return true if this schema was modified since it was parsed, so that a reload cannot reuse it even if its
+     * <table> element did not change
+     */
+    boolean isModified() {
+        return this.modified;
+    }
+
+    public synchronized void setColumnProperty(String family, String qualifier, String key, String value) {
+        checkMutable();
+        for (int i = 0; i < this.columnFamilies.size(); i++) {
+            Family f = this.columnFamilies.get(i);
+            if (f.getFamilyName().equals(family)) {
+                Qualifier q = f.getQualifier(qualifier);
+                if (q != null) {
+                    q.setProperty(key, value);
                 }
                 break;
             }
         }
+    }
 
-        if (type != null) {
-            LOG.debug("Found column with type " + type);
-            System.out.println("Found column with type " + type);
-            return type.equals("Integer");
-        }
-        LOG.debug("Column " + family + ":" + qualifier + "  was not found");
-        System.out.println("Found column with type " + type);
-        return false;
+    public boolean isIntegerColumn(String family, String qualifier) {
+        return compile().isIntegerColumn(family, qualifier);
     }
 
 
@@ -415,19 +648,7 @@ public class TableSchema {
      * @return the respective Generator in string format
      */
     public String getGeneratorTypeFromQualifier(String family, String qualifier) {
-        String gen = null;
-        for (Family f : this.columnFamilies) {
-            if (f.getFamilyName().equals(family)) {
-                for (Qualifier q : f.getQualifiers()) {
-                    if (q.getName().equals(qualifier)) {
-                        gen = q.getProperties().get("GENERATOR");
-                        break;
-                    }
-                }
-                break;
-            }
-        }
-        return gen;
+        return compile().getGeneratorType(family, qualifier);
     }
 
     /**
@@ -437,21 +658,20 @@ public class TableSchema {
      * @param qualifier column qualifier
      * @return the respective format size in Integer format
      */
-//	TODO: profile
     public Integer getFormatSizeFromQualifier(String family, String qualifier) {
-        int formatSize = 0;
-        for (Family f : this.columnFamilies) {
-            if (f.getFamilyName().equals(family)) {
-                for (Qualifier q : f.getQualifiers()) {
-                    if (q.getName().equals(qualifier)) {
-                        formatSize = q.getFormatSize();
-                        break;
-                    }
-                }
-                break;
-            }
-        }
-        return formatSize;
+        return compile().getFormatSize(family, qualifier);
+    }
+
+    public DatabaseSchema.FFX getFpeInstanceFromQualifier(String family, String qualifier) {
+        return compile().getFpeInstance(family, qualifier);
+    }
+
+    public int getRadixFromQualifier(String family, String qualifier) {
+        return compile().getRadix(family, qualifier);
+    }
+
+    public String getTweakFromQualifier(String family, String qualifier) {
+        return compile().getTweak(family, qualifier);
     }
 
     public Integer getKeyFormatSize() {
@@ -462,52 +682,73 @@ public class TableSchema {
         return this.key.getKeyPadding();
     }
 
-    //	TODO: profile
     public Boolean getColumnPadding(String family, String qualifier) {
-        Boolean columnPadding = null;
-        for (Family f : this.columnFamilies) {
-            if (f.getFamilyName().equals(family)) {
-                columnPadding = f.getColumnPadding();
-                for (Qualifier q : f.getQualifiers()) {
-                    if (q.getName().equals(qualifier)) {
-                        columnPadding = q.getPadding();
-                        break;
-                    }
-                }
-                break;
-            }
-        }
-        if (columnPadding == null) {
-            columnPadding = this.defaultColumnPadding;
-        }
-        return columnPadding;
+        return compile().getColumnPadding(family, qualifier);
     }
 
-    //TODO : CHECK if ConccurrentHashMap is the correct type for the var. Are locks needed for correct behavior.
-    private Map<DatabaseSchema.CryptoType, Boolean> initializeEnabledCryptoTypes() {
-        Map<DatabaseSchema.CryptoType, Boolean> cTypes = new ConcurrentHashMap<DatabaseSchema.CryptoType, Boolean>();
-        for (DatabaseSchema.CryptoType ct : DatabaseSchema.CryptoType.values()) {
-            cTypes.put(ct, false);
+    synchronized void enableCryptoType(DatabaseSchema.CryptoType cType) {
+        long bit = 1L << cType.ordinal();
+        if ((this.enabledCryptoTypes & bit) == 0) {
+            this.enabledCryptoTypes |= bit;
+            this.enabledCryptoTypesView = null;
+            invalidate();
         }
-        return cTypes;
     }
 
-    private void enableCryptoType(DatabaseSchema.CryptoType cType) {
-        this.enabledCryptoTypes.put(cType, true);
+    /**
+     * @return the CryptoTypes enabled in the table, with bit cType.ordinal() set for each enabled cType
+     */
+    public long getEnabledCryptoTypeMask() {
+        return this.enabledCryptoTypes;
+    }
+
+    public boolean isCryptoTypeEnabled(DatabaseSchema.CryptoType cType) {
+        return (this.enabledCryptoTypes & (1L << cType.ordinal())) != 0;
     }
 
+    /**
+     * @return a read-only list of the enabled CryptoTypes, in declaration order of DatabaseSchema.CryptoType
+     */
     public List<DatabaseSchema.CryptoType> getEnabledCryptoTypes() {
-        List<DatabaseSchema.CryptoType> cTypes = new ArrayList<DatabaseSchema.CryptoType>(this.enabledCryptoTypes.size());
-        for (DatabaseSchema.CryptoType ct : this.enabledCryptoTypes.keySet()) {
-            if (enabledCryptoTypes.get(ct).equals(true)) {
-                cTypes.add(ct);
+        List<DatabaseSchema.CryptoType> view = this.enabledCryptoTypesView;
+        if (view == null) {
+            //  Built under the monitor of enableCryptoType, so a view of an older mask is never cached
+            synchronized (this) {
+                view = this.enabledCryptoTypesView;
+                if (view == null) {
+                    long mask = this.enabledCryptoTypes;
+                    List<DatabaseSchema.CryptoType> cTypes = new ArrayList<DatabaseSchema.CryptoType>(Long.bitCount(mask));
+                    for (DatabaseSchema.CryptoType ct : DatabaseSchema.CryptoType.values()) {
+                        if ((mask & (1L << ct.ordinal())) != 0) {
+                            cTypes.add(ct);
+                        }
+                    }
+                    view = Collections.unmodifiableList(cTypes);
+                    this.enabledCryptoTypesView = view;
+                }
             }
         }
-        return cTypes;
+        return view;
+    }
+
+    /**
+     * getColumnsByCryptoType(cType : CryptoType) method : get the declared columns protected with a given CryptoType,
+     * see CompiledTableSchema.getColumns(...)
+     */
+    public List<SchemaColumn> getColumnsByCryptoType(DatabaseSchema.CryptoType cType) {
+        return compile().getColumns(cType);
+    }
+
+    /**
+     * getPaddingCodec() method : get the codec that pads keys and values to the format sizes of the current snapshot,
+     * see PaddingCodec. The codec keeps the settings of the snapshot it was taken from.
+     */
+    public PaddingCodec getPaddingCodec() {
+        return compile().getPaddingCodec();
     }
 
     public void printEnabledCryptoTypes() {
-        System.out.println(this.enabledCryptoTypes.toString());
+        System.out.println(getEnabledCryptoTypes());
     }
 
 
@@ -523,7 +764,7 @@ public class TableSchema {
         sb.append("> Default Encryption Mode: ").append(defaultEncryptionMode).append("\n");
         sb.append("Key CryptoType: ").append(this.key.toString()).append("\n");
         sb.append("Columns: \n");
-        for (Family family : this.columnFamilies) {
+        for (Family family : getColumnFamilies()) {
             sb.append("> Family: ").append(family.toString()).append("\n");
         }
 
@@ -549,9 +790,8 @@ public class TableSchema {
         if (defaultEncryptionMode != null ? !defaultEncryptionMode.equals(that.defaultEncryptionMode) : that.defaultEncryptionMode != null)
             return false;
         if (key != null ? !key.equals(that.key) : that.key != null) return false;
-        if (columnFamilies != null ? !columnFamilies.equals(that.columnFamilies) : that.columnFamilies != null)
-            return false;
-        return enabledCryptoTypes != null ? enabledCryptoTypes.equals(that.enabledCryptoTypes) : that.enabledCryptoTypes == null;
+        if (!getColumnFamilies().equals(that.getColumnFamilies())) return false;
+        return enabledCryptoTypes == that.enabledCryptoTypes;
     }
 
 
@@ -0,0 +1,88 @@
+package pt.uminho.haslab.safemapper;
+
+import java.util.List;
+
+/**
+ * TableSchemaLookup interface.
+ * Read-only lookups of the resolved settings of a table: defaults, key and, for each family:qualifier, its CryptoType,
+ * format size, padding and FPE parameters. Undeclared qualifiers are matched against the qualifier patterns of their
+ * family before falling back to defaults.
+ * <p>
+ * Implemented by TableSchema, on the heap, and by the tables of a MappedSchema, which are queried in place in a
+ * memory-mapped file.
+ */
+public interface TableSchemaLookup {
+
+    String getTablename();
+
+    DatabaseSchema.CryptoType getDefaultKeyCryptoType();
+
+    DatabaseSchema.CryptoType getDefaultColumnsCryptoType();
+
+    int getDefaultKeyFormatSize();
+
+    int getDefaultColumnFormatSize();
+
+    Boolean getDefaultKeyPadding();
+
+    Boolean getDefaultColumnPadding();
+
+    Boolean getEncryptionMode();
+
+    /**
+     * @return the row key settings, a KeyFPE for FPE keys
+     */
+    Key getKey();
+
+    Integer getKeyFormatSize();
+
+    Boolean getKeyPadding();
+
+    boolean containsFamily(String family);
+
+    boolean containsQualifier(String family, String qualifier);
+
+    DatabaseSchema.CryptoType getCryptoTypeFromQualifier(String family, String qualifier);
+
+    DatabaseSchema.CryptoType getCryptoTypeFromQualifier(byte[] family, int familyOffset, int familyLength,
+                                                         byte[] qualifier, int qualifierOffset, int qualifierLength);
+
+    boolean isIntegerColumn(String family, String qualifier);
+
+    boolean isIntegerColumn(byte[] family, int familyOffset, int familyLength,
+                            byte[] qualifier, int qualifierOffset, int qualifierLength);
+
+    String getGeneratorTypeFromQualifier(String family, String qualifier);
+
+    Integer getFormatSizeFromQualifier(String family, String qualifier);
+
+    Boolean getColumnPadding(String family, String qualifier);
+
+    /**
+     * @return the FPE instance of a given family:qualifier, or null if the column is not an FPE qualifier
+     */
+    DatabaseSchema.FFX getFpeInstanceFromQualifier(String family, String qualifier);
+
+    /**
+     * @return the FPE radix of a given family:qualifier, or 0 if the column is not an FPE qualifier
+     */
+    int getRadixFromQualifier(String family, String qualifier);
+
+    /**
+     * @return the FPE tweak of a given family:qualifier, or null if the column is not an FPE qualifier
+     */
+    String getTweakFromQualifier(String family, String qualifier);
+
+    /**
+     * @return the CryptoTypes enabled in the table, with bit cType.ordinal() set for each enabled cType
+     */
+    long getEnabledCryptoTypeMask();
+
+    boolean isCryptoTypeEnabled(DatabaseSchema.CryptoType cType);
+
+    /**
+     * @return a read-only list of the CryptoTypes enabled in the table, in declaration order of CryptoType
+     */
+    List<DatabaseSchema.CryptoType> getEnabledCryptoTypes();
+
+}
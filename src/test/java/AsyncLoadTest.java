@@ -0,0 +1,131 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncLoadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(int tables) throws IOException {
+        StringBuilder xml = new StringBuilder("<schema>" + SchemaFixtures.DEFAULTS);
+        for (int i = 0; i < tables; i++) {
+            xml.append("<table><name>t").append(i).append("</name><columns><family><name>f</name>")
+                    .append("<qualifier><name>q</name><cryptotechnique>OPE</cryptotechnique></qualifier>")
+                    .append("</family></columns></table>");
+        }
+        return SchemaFixtures.write(folder.newFile(), xml.append("</schema>").toString());
+    }
+
+    /**
+     * Executor that runs its tasks only when asked to.
+     */
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            this.tasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : this.tasks) {
+                task.run();
+            }
+        }
+    }
+
+    @Test
+    public void schemasAreLoadedOnTheExecutor() throws Exception {
+        File file = write(50);
+        ManualExecutor executor = new ManualExecutor();
+        CompletableFuture<DatabaseSchema> future = DatabaseSchema.loadAsync(file.getPath(), executor);
+        assertFalse(future.isDone());
+
+        executor.runAll();
+        assertEquals(new DatabaseSchema(file.getPath()).getSchemas(), future.get().getSchemas());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (DatabaseSchema.LoadMode mode : DatabaseSchema.LoadMode.values()) {
+                DatabaseSchema schema = DatabaseSchema.loadAsync(file.getPath(), mode, pool).get();
+                assertEquals(mode, schema.getLoadMode());
+                assertEquals(50, schema.getSchemas().size());
+                assertTrue(schema.getSchema("t7").getEnabledCryptoTypes().contains(DatabaseSchema.CryptoType.OPE));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void errorsCompleteTheFutureExceptionally() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        CompletableFuture<DatabaseSchema> future =
+                DatabaseSchema.loadAsync(new File(folder.getRoot(), "missing.xml").getPath(), executor);
+        executor.runAll();
+        try {
+            future.get();
+            fail("A missing schema file must fail the load.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        future = DatabaseSchema.loadAsync(write(1).getPath(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledLoadsDoNotStart() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        CompletableFuture<DatabaseSchema> future =
+                DatabaseSchema.loadAsync(new File(folder.getRoot(), "missing.xml").getPath(), executor);
+        assertTrue(future.cancel(true));
+        executor.runAll();
+        future.get();
+    }
+
+    @Test
+    public void cancelledLoadsStopBetweenTables() throws Exception {
+        File file = write(20000);
+        for (final DatabaseSchema.LoadMode mode : new DatabaseSchema.LoadMode[]{
+                DatabaseSchema.LoadMode.EAGER, DatabaseSchema.LoadMode.PARALLEL}) {
+            final List<Thread> threads = new ArrayList<Thread>();
+            CompletableFuture<DatabaseSchema> future = DatabaseSchema.loadAsync(file.getPath(), mode, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    Thread thread = new Thread(command);
+                    threads.add(thread);
+                    thread.start();
+                }
+            });
+            future.cancel(true);
+            threads.get(0).join(60000);
+            assertFalse(threads.get(0).isAlive());
+            assertTrue(future.isCancelled());
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.CompiledTableSchema;
+import pt.uminho.haslab.safemapper.CryptoTypePartition;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Key;
+import pt.uminho.haslab.safemapper.KeyFPE;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnLookupTest {
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("lookup");
+        schema.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.PLT);
+
+        Family fam = new Family("cf", DatabaseSchema.CryptoType.DET, 10, false);
+        schema.addFamily(fam);
+
+        HashMap<String, String> integer = new HashMap<String, String>();
+        integer.put("type", "Integer");
+        schema.addQualifier("cf", new Qualifier("age", DatabaseSchema.CryptoType.ISMPC, 4, false, integer));
+        schema.addQualifier("cf", new Qualifier("balance", DatabaseSchema.CryptoType.LSMPC, 8, false, new HashMap<String, String>()));
+        schema.addQualifier("cf", new Qualifier("name", DatabaseSchema.CryptoType.DET, 32, true, new HashMap<String, String>()));
+        return schema;
+    }
+
+    @Test
+    public void sliceLookupMatchesStringLookup() {
+        TableSchema schema = defineTable();
+        byte[] cell = "xxcfagebalancenamemissing".getBytes();
+
+        assertEquals(DatabaseSchema.CryptoType.ISMPC, schema.getCryptoTypeFromQualifier(cell, 2, 2, cell, 4, 3));
+        assertEquals(DatabaseSchema.CryptoType.LSMPC, schema.getCryptoTypeFromQualifier(cell, 2, 2, cell, 7, 7));
+        assertEquals(DatabaseSchema.CryptoType.DET, schema.getCryptoTypeFromQualifier(cell, 2, 2, cell, 14, 4));
+        assertEquals(schema.getCryptoTypeFromQualifier("cf", "missing"),
+                schema.getCryptoTypeFromQualifier(cell, 2, 2, cell, 18, 7));
+
+        assertTrue(DatabaseSchema.isProtectedColumn(schema, cell, 2, 2, cell, 4, 3));
+        assertTrue(DatabaseSchema.isIntegerProtectedColumn(schema, cell, 2, 2, cell, 4, 3));
+        assertTrue(DatabaseSchema.isLongProtectedColumn(schema, cell, 2, 2, cell, 7, 7));
+        assertTrue(DatabaseSchema.isIntegerType(schema, cell, 2, 2, cell, 4, 3));
+        assertFalse(DatabaseSchema.isProtectedColumn(schema, cell, 2, 2, cell, 14, 4));
+        assertFalse(DatabaseSchema.isIntegerType(schema, cell, 2, 2, cell, 7, 7));
+    }
+
+    @Test
+    public void sliceLookupSeesLaterMutations() {
+        TableSchema schema = defineTable();
+        byte[] family = "cf".getBytes();
+        byte[] qualifier = "added".getBytes();
+
+        assertFalse(DatabaseSchema.isProtectedColumn(schema, family, qualifier));
+        schema.addQualifier("cf", new Qualifier("added", DatabaseSchema.CryptoType.SMPC, 4, false, new HashMap<String, String>()));
+        assertTrue(DatabaseSchema.isProtectedColumn(schema, family, qualifier));
+    }
+
+    @Test
+    public void compiledSnapshotAppliesDefaults() {
+        TableSchema schema = defineTable();
+        schema.setDefaultColumnPadding(true);
+        CompiledTableSchema compiled = schema.compile();
+
+        assertSame(compiled, schema.compile());
+        assertEquals(DatabaseSchema.CryptoType.ISMPC, compiled.getCryptoType("cf", "age"));
+        assertEquals(DatabaseSchema.CryptoType.PLT, compiled.getCryptoType("cf", "missing"));
+        assertEquals(DatabaseSchema.CryptoType.PLT, compiled.getCryptoType("other", "age"));
+        assertEquals(32, compiled.getFormatSize("cf", "name"));
+        assertEquals(0, compiled.getFormatSize("cf", "missing"));
+        assertTrue(compiled.getColumnPadding("cf", "name"));
+        assertFalse(compiled.getColumnPadding("cf", "missing"));
+        assertTrue(compiled.getColumnPadding("other", "missing"));
+        assertTrue(compiled.isIntegerColumn("cf", "age"));
+
+        schema.getFamily("cf").getQualifier("name").setFormatSize(64);
+        assertNotSame(compiled, schema.compile());
+        assertEquals(32, compiled.getFormatSize("cf", "name"));
+        assertEquals(Integer.valueOf(64), schema.getFormatSizeFromQualifier("cf", "name"));
+    }
+
+    @Test
+    public void keyChangesInvalidateTheSnapshot() {
+        TableSchema schema = defineTable();
+        schema.setKey(new Key(DatabaseSchema.CryptoType.PLT, 10, false));
+        CompiledTableSchema compiled = schema.compile();
+        assertEquals(10, compiled.getKeyFormatSize());
+
+        schema.getKey().setFormatSize(17);
+        schema.getKey().setCryptoType(DatabaseSchema.CryptoType.OPE);
+        schema.getKey().setKeyPadding(true);
+        assertNotSame(compiled, schema.compile());
+        assertEquals(17, schema.compile().getKeyFormatSize());
+        assertEquals(DatabaseSchema.CryptoType.OPE, schema.compile().getKeyCryptoType());
+        assertTrue(schema.compile().getKeyPadding());
+
+        schema.setKey(new KeyFPE(DatabaseSchema.CryptoType.FPE, 12, false, "FF1", 10, ""));
+        compiled = schema.compile();
+        ((KeyFPE) schema.getKey()).setRadix(16);
+        assertNotSame(compiled, schema.compile());
+    }
+
+    @Test
+    public void classifyGroupsCellsByCryptoType() {
+        TableSchema schema = defineTable();
+        byte[] cf = "cf".getBytes();
+        byte[][] families = {cf, cf, cf, cf, cf};
+        byte[][] qualifiers = {"name".getBytes(), "age".getBytes(), "missing".getBytes(), "name".getBytes(), "age".getBytes()};
+
+        CryptoTypePartition partition = schema.classify(families, qualifiers);
+
+        assertEquals(5, partition.size());
+        assertArrayEquals(new int[]{0, 3}, partition.indices(DatabaseSchema.CryptoType.DET));
+        assertArrayEquals(new int[]{1, 4}, partition.indices(DatabaseSchema.CryptoType.ISMPC));
+        assertArrayEquals(new int[]{2}, partition.indices(DatabaseSchema.CryptoType.PLT));
+        assertEquals(0, partition.count(DatabaseSchema.CryptoType.OPE));
+        assertEquals(1, partition.rank(3));
+        assertEquals(3, partition.index(DatabaseSchema.CryptoType.DET, partition.rank(3)));
+        assertTrue(partition.bitSet(DatabaseSchema.CryptoType.ISMPC).get(4));
+    }
+
+    @Test
+    public void wideFamiliesResolveEveryDeclaredColumn() {
+        TableSchema schema = defineTable();
+        for (int i = 0; i < 5000; i++) {
+            schema.addQualifier("cf", new Qualifier("q" + i, DatabaseSchema.CryptoType.OPE, 4, false,
+                    new HashMap<String, String>()));
+        }
+        byte[] family = "cf".getBytes();
+        for (int i = 0; i < 5000; i++) {
+            byte[] declared = ("q" + i).getBytes();
+            byte[] missing = ("m" + i).getBytes();
+            assertEquals(DatabaseSchema.CryptoType.OPE,
+                    schema.getCryptoTypeFromQualifier(family, 0, 2, declared, 0, declared.length));
+            assertEquals(DatabaseSchema.CryptoType.PLT,
+                    schema.getCryptoTypeFromQualifier(family, 0, 2, missing, 0, missing.length));
+        }
+        assertEquals(5000, schema.getMetrics().getHits());
+        assertEquals(5000, schema.getMetrics().getDefaultFallbacks());
+    }
+
+}
@@ -0,0 +1,80 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.SchemaColumn;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ColumnOrdinalTest {
+
+    private Qualifier column(String name) {
+        return new Qualifier(name, DatabaseSchema.CryptoType.OPE, 4, false, new HashMap<String, String>());
+    }
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("ordinals");
+        schema.addFamily(new Family("a", DatabaseSchema.CryptoType.DET, 0, false));
+        schema.addFamily(new Family("b", DatabaseSchema.CryptoType.DET, 0, false));
+        schema.addQualifier("a", column("x"));
+        schema.addQualifier("b", column("y"));
+        schema.addQualifierPattern("b", column("p_*"));
+        return schema;
+    }
+
+    private int ordinal(TableSchema schema, String family, String qualifier) {
+        byte[] f = ("__" + family).getBytes();
+        byte[] q = (qualifier + "__").getBytes();
+        int ordinal = schema.getColumnOrdinal(f, 2, f.length - 2, q, 0, q.length - 2);
+        assertEquals(ordinal, schema.getColumnOrdinal(family, qualifier));
+        return ordinal;
+    }
+
+    @Test
+    public void ordinalsAreDenseAndReversible() {
+        TableSchema schema = defineTable();
+        assertEquals(2, schema.getColumnCount());
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            SchemaColumn column = schema.getColumn(i);
+            assertEquals(i, column.getOrdinal());
+            assertEquals(i, ordinal(schema, column.getFamily(), column.getQualifierName()));
+        }
+        assertSame(schema.getFamily("b").getQualifier("y"), schema.getColumn(ordinal(schema, "b", "y")).getQualifier());
+        assertEquals(-1, ordinal(schema, "b", "p_1"));
+        assertEquals(-1, ordinal(schema, "b", "missing"));
+        assertEquals(-1, ordinal(schema, "missing", "x"));
+    }
+
+    @Test
+    public void ordinalsAreStableAcrossChanges() {
+        TableSchema schema = defineTable();
+        int x = ordinal(schema, "a", "x");
+        int y = ordinal(schema, "b", "y");
+
+        schema.addQualifier("a", column("z"));
+        schema.getFamily("a").getQualifier("x").setCryptoType(DatabaseSchema.CryptoType.STD);
+        assertEquals(x, ordinal(schema, "a", "x"));
+        assertEquals(y, ordinal(schema, "b", "y"));
+        assertEquals(2, ordinal(schema, "a", "z"));
+        assertEquals(3, schema.getColumnCount());
+        assertEquals(DatabaseSchema.CryptoType.STD, schema.getColumn(x).getCryptoType());
+
+        schema.getFamily("b").getQualifier("y").setQualifierName("w");
+        assertEquals(3, ordinal(schema, "b", "w"));
+        assertEquals(4, schema.getColumnCount());
+        assertNull(schema.getColumn(y));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void ordinalsAreBounded() {
+        TableSchema schema = defineTable();
+        schema.getColumn(schema.getColumnCount());
+    }
+
+}
@@ -0,0 +1,107 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.ColumnPlan;
+import pt.uminho.haslab.safemapper.ColumnPlanCache;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.QualifierFPE;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnPlanCacheTest {
+
+    private static final String[] FAMILIES = {"cf", "cf", "cf", "other"};
+    private static final String[] QUALIFIERS = {"age", "card", "missing", "x"};
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("plans");
+        schema.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.PLT);
+        schema.setDefaultColumnPadding(false);
+
+        schema.addFamily(new Family("cf", DatabaseSchema.CryptoType.DET, 10, true));
+        schema.addQualifier("cf", new Qualifier("age", DatabaseSchema.CryptoType.ISMPC, 4, false, new HashMap<String, String>()));
+        schema.addQualifier("cf", new QualifierFPE("card", DatabaseSchema.CryptoType.FPE, 16, false,
+                new HashMap<String, String>(), "FF3", 10, "tweak"));
+        return schema;
+    }
+
+    @Test
+    public void planResolvesEveryColumn() {
+        TableSchema schema = defineTable();
+        ColumnPlan plan = new ColumnPlanCache(8).getPlan(schema, FAMILIES, QUALIFIERS);
+
+        assertEquals(4, plan.size());
+        assertEquals(DatabaseSchema.CryptoType.ISMPC, plan.getCryptoType(0));
+        assertEquals(4, plan.getFormatSize(0));
+        assertNull(plan.getFpeInstance(0));
+
+        assertEquals(DatabaseSchema.CryptoType.FPE, plan.getCryptoType(1));
+        assertEquals(DatabaseSchema.FFX.FF3, plan.getFpeInstance(1));
+        assertEquals(10, plan.getRadix(1));
+        assertEquals("tweak", plan.getTweak(1));
+
+        for (int i = 0; i < FAMILIES.length; i++) {
+            assertEquals(schema.getCryptoTypeFromQualifier(FAMILIES[i], QUALIFIERS[i]), plan.getCryptoType(i));
+            assertEquals(schema.getColumnPadding(FAMILIES[i], QUALIFIERS[i]).booleanValue(), plan.getColumnPadding(i));
+        }
+
+        assertEquals(2, plan.count(DatabaseSchema.CryptoType.PLT));
+        assertEquals(2, plan.index(DatabaseSchema.CryptoType.PLT, 0));
+        assertEquals(3, plan.index(DatabaseSchema.CryptoType.PLT, 1));
+        assertEquals(1, plan.rank(3));
+    }
+
+    @Test
+    public void repeatedShapeReusesPlan() {
+        TableSchema schema = defineTable();
+        ColumnPlanCache cache = new ColumnPlanCache(8);
+
+        ColumnPlan plan = cache.getPlan(schema, FAMILIES, QUALIFIERS);
+        assertSame(plan, cache.getPlan(schema, FAMILIES.clone(), QUALIFIERS.clone()));
+        assertNotSame(plan, cache.getPlan(schema, new String[]{"cf"}, new String[]{"age"}));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void schemaChangesInvalidatePlans() {
+        TableSchema schema = defineTable();
+        ColumnPlanCache cache = new ColumnPlanCache(8);
+
+        ColumnPlan plan = cache.getPlan(schema, FAMILIES, QUALIFIERS);
+        schema.addQualifier("cf", new Qualifier("missing", DatabaseSchema.CryptoType.OPE, 8, false, new HashMap<String, String>()));
+        ColumnPlan updated = cache.getPlan(schema, FAMILIES, QUALIFIERS);
+        assertNotSame(plan, updated);
+        assertEquals(DatabaseSchema.CryptoType.OPE, updated.getCryptoType(2));
+
+        ((QualifierFPE) schema.getFamily("cf").getQualifiers().get(1)).setRadix(16);
+        assertEquals(16, cache.getPlan(schema, FAMILIES, QUALIFIERS).getRadix(1));
+    }
+
+    @Test
+    public void leastRecentlyUsedPlansAreEvicted() {
+        TableSchema schema = defineTable();
+        ColumnPlanCache cache = new ColumnPlanCache(2, 1);
+
+        ColumnPlan first = cache.getPlan(schema, new String[]{"cf"}, new String[]{"a"});
+        ColumnPlan second = cache.getPlan(schema, new String[]{"cf"}, new String[]{"b"});
+        assertSame(first, cache.getPlan(schema, new String[]{"cf"}, new String[]{"a"}));
+        cache.getPlan(schema, new String[]{"cf"}, new String[]{"c"});
+
+        assertEquals(2, cache.size());
+        assertSame(first, cache.getPlan(schema, new String[]{"cf"}, new String[]{"a"}));
+        assertNotSame(second, cache.getPlan(schema, new String[]{"cf"}, new String[]{"b"}));
+        assertTrue(cache.size() <= 2);
+        cache.clear();
+        assertFalse(cache.size() > 0);
+    }
+
+}
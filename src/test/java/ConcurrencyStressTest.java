@@ -0,0 +1,376 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.CompiledTableSchema;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Key;
+import pt.uminho.haslab.safemapper.KeyFPE;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.QualifierFPE;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lookups from many threads racing with schema mutations and reloads. Every reader checks that what it observes is a
+ * state the schema actually went through (no torn reads, no stale snapshot after a mutation returned) and any exception
+ * thrown by a reader or a writer (e.g., a ConcurrentModificationException) fails the test.
+ */
+public class ConcurrencyStressTest {
+
+    private static final int READERS = 64;
+    private static final byte[] FAMILY = "f".getBytes(SchemaFixtures.UTF8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Runs a writer and READERS readers until the writer returns, and fails with the first error of any thread.
+     */
+    private static final class Race {
+        private final Queue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicInteger reads = new AtomicInteger();
+
+        /**
+         * step() method : called by the writer between mutations, waits (briefly) for the readers to make progress so
+         * that mutations interleave with reads even on a single CPU
+         */
+        void step() {
+            int seen = this.reads.get();
+            long deadline = System.nanoTime() + 10000000L;
+            while (this.reads.get() == seen && this.errors.isEmpty() && System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+        }
+
+        interface Reader {
+            void read() throws Exception;
+        }
+
+        interface Writer {
+            void write() throws Exception;
+        }
+
+        void run(final Reader reader, final Writer writer) throws InterruptedException {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < READERS; i++) {
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            while (!done.get() && errors.isEmpty()) {
+                                reader.read();
+                                reads.incrementAndGet();
+                            }
+                        } catch (Throwable t) {
+                            errors.add(t);
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            start.countDown();
+            try {
+                writer.write();
+            } catch (Throwable t) {
+                errors.add(t);
+            } finally {
+                done.set(true);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            if (!errors.isEmpty()) {
+                Throwable first = errors.peek();
+                AssertionError error = new AssertionError(errors.size() + " thread(s) failed: " + first);
+                error.initCause(first);
+                throw error;
+            }
+            assertTrue(reads.get() > 0);
+        }
+    }
+
+    private static Qualifier column(String name, DatabaseSchema.CryptoType cType) {
+        return new Qualifier(name, cType, 4, false, new HashMap<String, String>());
+    }
+
+    @Test
+    public void lookupsSeeEveryCompletedMutation() throws InterruptedException {
+        final int columns = 300;
+        final TableSchema table = new TableSchema();
+        table.setTablename("t");
+        table.addFamily(new Family("f", DatabaseSchema.CryptoType.PLT, 4, false));
+        final AtomicInteger published = new AtomicInteger();
+
+        final Race race = new Race();
+        race.run(new Race.Reader() {
+            @Override
+            public void read() {
+                //  Every column added before published was set must be visible, with its CryptoType enabled
+                int n = published.get();
+                for (int i = Math.max(0, n - 8); i < n; i++) {
+                    String name = "c" + i;
+                    byte[] bytes = name.getBytes(SchemaFixtures.UTF8);
+                    DatabaseSchema.CryptoType expected = i % 2 == 0 ? DatabaseSchema.CryptoType.SMPC : DatabaseSchema.CryptoType.DET;
+                    assertEquals(name, expected, table.getCryptoTypeFromQualifier("f", name));
+                    assertEquals(name, expected, table.getCryptoTypeFromQualifier(FAMILY, 0, 1, bytes, 0, bytes.length));
+                    assertEquals(name, i % 2 == 0, DatabaseSchema.isProtectedColumn(table, FAMILY, bytes));
+                    assertTrue(name, table.getEnabledCryptoTypes().contains(expected));
+                    assertEquals(name, i % 3 == 0, table.isIntegerColumn("f", name));
+                }
+                assertEquals(DatabaseSchema.CryptoType.PLT, table.getCryptoTypeFromQualifier("f", "c" + columns));
+                assertTrue(table.getColumnCount() >= n);
+            }
+        }, new Race.Writer() {
+            @Override
+            public void write() {
+                for (int i = 0; i < columns; i++) {
+                    String name = "c" + i;
+                    table.addQualifier("f", column(name, i % 2 == 0 ? DatabaseSchema.CryptoType.SMPC : DatabaseSchema.CryptoType.DET));
+                    if (i % 3 == 0) {
+                        table.setColumnProperty("f", name, "type", "Integer");
+                    }
+                    published.set(i + 1);
+                    race.step();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void cryptoTypesAreEnabledBeforeTheirColumnsAreVisible() throws InterruptedException {
+        final DatabaseSchema.CryptoType[] types = DatabaseSchema.CryptoType.values();
+        final AtomicReference<TableSchema> current = new AtomicReference<TableSchema>();
+        final AtomicReference<String> column = new AtomicReference<String>("c");
+
+        final Race race = new Race();
+        race.run(new Race.Reader() {
+            @Override
+            public void read() {
+                TableSchema table = current.get();
+                if (table == null) {
+                    return;
+                }
+                DatabaseSchema.CryptoType cType = table.getCryptoTypeFromQualifier("f", column.get());
+                assertTrue(cType + " is not enabled", table.isCryptoTypeEnabled(cType));
+                assertTrue(cType + " is not listed", table.getEnabledCryptoTypes().contains(cType));
+                assertTrue(cType + " is not compiled", table.compile().isCryptoTypeEnabled(cType));
+            }
+        }, new Race.Writer() {
+            @Override
+            public void write() {
+                for (int round = 0; round < 16; round++) {
+                    TableSchema table = new TableSchema();
+                    table.setTablename("t" + round);
+                    Family family = new Family("f", DatabaseSchema.CryptoType.PLT, 4, false);
+                    table.addFamily(family);
+                    current.set(table);
+                    for (DatabaseSchema.CryptoType cType : types) {
+                        String name = "c" + cType.ordinal();
+                        column.set(name);
+                        table.addQualifier("f", column(name, cType));
+                        table.addQualifierPattern("f", column(name + "_*", cType));
+                        race.step();
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void familyAndQualifierSettersDoNotTearSnapshots() throws InterruptedException {
+        final TableSchema table = new TableSchema();
+        table.setTablename("t");
+        final Family family = new Family("f", DatabaseSchema.CryptoType.PLT, 4, false);
+        table.addFamily(family);
+        for (int i = 0; i < 64; i++) {
+            table.addQualifier("f", column("c" + i, DatabaseSchema.CryptoType.DET));
+        }
+        final QualifierFPE fpe = new QualifierFPE("fpe", DatabaseSchema.CryptoType.FPE, 8, false,
+                new HashMap<String, String>(), "FF1", 10, "t");
+        table.addQualifier("f", fpe);
+
+        final Race race = new Race();
+        race.run(new Race.Reader() {
+            @Override
+            public void read() {
+                int count = 0;
+                for (int i = 0; i < 64; i++) {
+                    if (table.containsQualifier("f", "c" + i)) {
+                        count++;
+                    }
+                    DatabaseSchema.CryptoType cType = table.getCryptoTypeFromQualifier("f", "c" + i);
+                    assertTrue(cType == DatabaseSchema.CryptoType.DET || cType == DatabaseSchema.CryptoType.OPE);
+                }
+                assertEquals(64, count);
+                assertTrue(table.getFormatSizeFromQualifier("f", "c0") >= 4);
+                assertTrue(table.getRadixFromQualifier("f", "fpe") >= 10);
+                assertTrue(table.getTweakFromQualifier("f", "fpe").startsWith("t"));
+            }
+        }, new Race.Writer() {
+            @Override
+            public void write() {
+                for (int i = 0; i < 150; i++) {
+                    Qualifier q = family.getQualifier("c" + (i % 64));
+                    q.setCryptoType(i % 2 == 0 ? DatabaseSchema.CryptoType.OPE : DatabaseSchema.CryptoType.DET);
+                    q.setFormatSize(4 + i % 8);
+                    q.setProperty("k" + (i % 100), "v" + i);
+                    fpe.setRadix(10 + i);
+                    fpe.setTweak("t" + i);
+                    family.addQualifier(column("extra" + i, DatabaseSchema.CryptoType.XOR));
+                    family.addQualifierPattern(column("p" + i + "_*", DatabaseSchema.CryptoType.XOR));
+                    race.step();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void keySettersDoNotTearSnapshots() throws InterruptedException {
+        final TableSchema table = new TableSchema();
+        table.setTablename("t");
+        table.setKey(new Key(DatabaseSchema.CryptoType.OPE, 8, true));
+        final Key key = table.getKey();
+        final TableSchema fpeTable = new TableSchema();
+        fpeTable.setTablename("u");
+        fpeTable.setKey(new KeyFPE(DatabaseSchema.CryptoType.FPE, 8, true, "FF1", 10, "t"));
+        final KeyFPE fpe = (KeyFPE) fpeTable.getKey();
+        final AtomicInteger published = new AtomicInteger(8);
+
+        final Race race = new Race();
+        race.run(new Race.Reader() {
+            @Override
+            public void read() {
+                //  A format size set before published was updated must be seen by the table and its snapshots
+                int n = published.get();
+                assertTrue(table.getKeyFormatSize() >= n);
+                CompiledTableSchema compiled = table.compile();
+                assertTrue(compiled.getKeyFormatSize() >= n);
+                int padded = compiled.getPaddingCodec().padKey(new byte[]{1, 2, 3}, 0, 3, ByteBuffer.allocate(512));
+                assertTrue(padded >= n);
+                KeyFPE current = (KeyFPE) fpeTable.getKey();
+                assertTrue(current.getRadix() >= 10);
+                assertTrue(current.getTweak().startsWith("t"));
+                assertTrue(fpeTable.compile().getKeyFormatSize() >= 8);
+            }
+        }, new Race.Writer() {
+            @Override
+            public void write() {
+                for (int i = 1; i <= 150; i++) {
+                    key.setFormatSize(8 + i);
+                    fpe.setRadix(10 + i);
+                    fpe.setTweak("t" + i);
+                    fpe.setFormatSize(8 + i);
+                    published.set(8 + i);
+                    race.step();
+                }
+            }
+        });
+    }
+
+    private static String version(DatabaseSchema.CryptoType a, DatabaseSchema.CryptoType b) {
+        return "<schema>" + SchemaFixtures.PLAIN_DEFAULTS + "<table><name>t</name><columns><family><name>f</name>"
+                + "<qualifier><name>a</name><cryptotechnique>" + a + "</cryptotechnique></qualifier>"
+                + "<qualifier><name>b</name><cryptotechnique>" + b + "</cryptotechnique></qualifier>"
+                + "</family></columns></table></schema>";
+    }
+
+    private void reloadRace(DatabaseSchema.LoadMode mode) throws IOException, InterruptedException {
+        final File file = SchemaFixtures.write(folder.newFile("schema-" + mode + ".xml"), 
+                version(DatabaseSchema.CryptoType.SMPC, DatabaseSchema.CryptoType.DET));
+        final DatabaseSchema schema = new DatabaseSchema(file.getPath(), mode);
+        final byte[] a = "a".getBytes(SchemaFixtures.UTF8);
+
+        final Race race = new Race();
+        race.run(new Race.Reader() {
+            @Override
+            public void read() {
+                //  A table is never modified once published: both columns come from the same version
+                TableSchema table = schema.getTableSchema("t");
+                DatabaseSchema.CryptoType first = table.getCryptoTypeFromQualifier("f", "a");
+                DatabaseSchema.CryptoType second = table.getCryptoTypeFromQualifier("f", "b");
+                if (first == DatabaseSchema.CryptoType.SMPC) {
+                    assertEquals(DatabaseSchema.CryptoType.DET, second);
+                    assertTrue(DatabaseSchema.isProtectedColumn(table, FAMILY, a));
+                } else {
+                    assertEquals(DatabaseSchema.CryptoType.OPE, first);
+                    assertEquals(DatabaseSchema.CryptoType.LSMPC, second);
+                    assertTrue(!DatabaseSchema.isProtectedColumn(table, FAMILY, a));
+                }
+                assertTrue(table.getEnabledCryptoTypes().contains(first));
+                assertTrue(table.getEnabledCryptoTypes().contains(second));
+            }
+        }, new Race.Writer() {
+            @Override
+            public void write() throws IOException {
+                for (int i = 0; i < 40; i++) {
+                    SchemaFixtures.write(file, i % 2 == 0
+                            ? version(DatabaseSchema.CryptoType.OPE, DatabaseSchema.CryptoType.LSMPC)
+                            : version(DatabaseSchema.CryptoType.SMPC, DatabaseSchema.CryptoType.DET));
+                    assertTrue(schema.reload());
+                    race.step();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void lookupsRaceWithEagerReloads() throws IOException, InterruptedException {
+        reloadRace(DatabaseSchema.LoadMode.EAGER);
+    }
+
+    @Test
+    public void lookupsRaceWithLazyReloads() throws IOException, InterruptedException {
+        reloadRace(DatabaseSchema.LoadMode.LAZY);
+    }
+
+    @Test
+    public void firstCompileRacesWithLookups() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            final TableSchema table = new TableSchema();
+            table.setTablename("t");
+            table.addFamily(new Family("f", DatabaseSchema.CryptoType.PLT, 4, false));
+            for (int i = 0; i < 100; i++) {
+                table.addQualifier("f", column("c" + i, DatabaseSchema.CryptoType.ISMPC));
+            }
+            final AtomicInteger checked = new AtomicInteger();
+            final Race race = new Race();
+            race.run(new Race.Reader() {
+                @Override
+                public void read() {
+                    int i = checked.incrementAndGet() % 100;
+                    assertEquals(DatabaseSchema.CryptoType.ISMPC, table.getCryptoTypeFromQualifier("f", "c" + i));
+                    assertEquals(i, table.getColumnOrdinal("f", "c" + i));
+                }
+            }, new Race.Writer() {
+                @Override
+                public void write() throws InterruptedException {
+                    while (checked.get() < 2000) {
+                        Thread.sleep(1);
+                    }
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.CompiledTableSchema;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.SchemaColumn;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CryptoTypeRoutingTest {
+
+    private Qualifier column(String name, DatabaseSchema.CryptoType cType) {
+        return new Qualifier(name, cType, 4, false, new HashMap<String, String>());
+    }
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("routing");
+        schema.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.PLT);
+        schema.addFamily(new Family("a", DatabaseSchema.CryptoType.DET, 0, false));
+        schema.addFamily(new Family("b", DatabaseSchema.CryptoType.DET, 0, false));
+        schema.addQualifier("a", column("x", DatabaseSchema.CryptoType.OPE));
+        schema.addQualifier("a", column("y", DatabaseSchema.CryptoType.STD));
+        schema.addQualifier("b", column("z", DatabaseSchema.CryptoType.OPE));
+        schema.addQualifierPattern("b", column("p_*", DatabaseSchema.CryptoType.OPE));
+        return schema;
+    }
+
+    private String names(List<SchemaColumn> columns) {
+        StringBuilder sb = new StringBuilder();
+        for (SchemaColumn c : columns) {
+            sb.append(c.getFamily()).append(':').append(c.getQualifierName()).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void columnsAreRoutedByCryptoType() {
+        TableSchema schema = defineTable();
+        CompiledTableSchema compiled = schema.compile();
+
+        assertEquals("a:x b:z", names(compiled.getColumns(DatabaseSchema.CryptoType.OPE)));
+        assertEquals("a:y", names(compiled.getColumns(DatabaseSchema.CryptoType.STD)));
+        assertTrue(compiled.getColumns(DatabaseSchema.CryptoType.FPE).isEmpty());
+        assertSame(compiled.getColumns(DatabaseSchema.CryptoType.OPE), schema.getColumnsByCryptoType(DatabaseSchema.CryptoType.OPE));
+        try {
+            compiled.getColumns(DatabaseSchema.CryptoType.OPE).clear();
+            fail("Routes must be read-only.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        schema.addQualifier("b", column("w", DatabaseSchema.CryptoType.OPE));
+        assertEquals("a:x b:z b:w", names(schema.getColumnsByCryptoType(DatabaseSchema.CryptoType.OPE)));
+    }
+
+    @Test
+    public void enabledCryptoTypesAreABitmask() {
+        TableSchema schema = defineTable();
+        long expected = 0;
+        for (DatabaseSchema.CryptoType cType : Arrays.asList(DatabaseSchema.CryptoType.PLT,
+                DatabaseSchema.CryptoType.STD, DatabaseSchema.CryptoType.DET, DatabaseSchema.CryptoType.OPE)) {
+            expected |= 1L << cType.ordinal();
+        }
+        assertEquals(expected, schema.getEnabledCryptoTypeMask());
+        assertEquals(expected, schema.compile().getEnabledCryptoTypeMask());
+        assertEquals(Arrays.asList(DatabaseSchema.CryptoType.PLT, DatabaseSchema.CryptoType.STD,
+                DatabaseSchema.CryptoType.DET, DatabaseSchema.CryptoType.OPE), schema.getEnabledCryptoTypes());
+        assertSame(schema.getEnabledCryptoTypes(), schema.getEnabledCryptoTypes());
+        assertFalse(schema.isCryptoTypeEnabled(DatabaseSchema.CryptoType.FPE));
+
+        CompiledTableSchema before = schema.compile();
+        schema.addQualifier("a", column("f", DatabaseSchema.CryptoType.XOR));
+        assertTrue(schema.isCryptoTypeEnabled(DatabaseSchema.CryptoType.XOR));
+        assertTrue(schema.compile().isCryptoTypeEnabled(DatabaseSchema.CryptoType.XOR));
+        assertFalse(before.isCryptoTypeEnabled(DatabaseSchema.CryptoType.XOR));
+        assertTrue(schema.getEnabledCryptoTypes().contains(DatabaseSchema.CryptoType.XOR));
+    }
+
+    @Test
+    public void enabledCryptoTypesTakePartInEquals() {
+        TableSchema a = defineTable();
+        TableSchema b = defineTable();
+        assertEquals(a, b);
+        b.setDefaultKeyCryptoType(DatabaseSchema.CryptoType.PLT);
+        assertEquals(a, b);
+        b.setDefaultKeyCryptoType(DatabaseSchema.CryptoType.SMPC);
+        b.setDefaultKeyCryptoType(DatabaseSchema.CryptoType.PLT);
+        assertNotEquals(a, b);
+    }
+
+}
@@ -0,0 +1,107 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.KeyFPE;
+import pt.uminho.haslab.safemapper.QualifierFPE;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class FpeParametersTest {
+
+    private static final byte[] KEY = {1, 2, 3, 4};
+
+    private QualifierFPE qualifier(String instance, String tweak) {
+        return new QualifierFPE("q", DatabaseSchema.CryptoType.FPE, 16, false,
+                new HashMap<String, String>(), instance, 10, tweak);
+    }
+
+    @Test
+    public void parametersAreKeyAndTweak() throws UnsupportedEncodingException {
+        QualifierFPE ff1 = qualifier("FF1", "tweak");
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 't', 'w', 'e', 'a', 'k'}, ff1.getSecurityParameters(KEY));
+        assertEquals(5, ff1.getTweakLength());
+
+        QualifierFPE ff3 = qualifier("FF3", "0123456789");
+        assertArrayEquals(new byte[]{1, 2, 3, 4, '0', '1', '2', '3', '4', '5', '6', '7'}, ff3.getSecurityParameters(KEY));
+
+        KeyFPE key = new KeyFPE(DatabaseSchema.CryptoType.FPE, 10, false, "FF3", 10, "01234567");
+        assertEquals(DatabaseSchema.FFX.FF3, key.getFpeInstance());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, '0', '1', '2', '3', '4', '5', '6', '7'}, key.getSecurityParameters(KEY));
+    }
+
+    @Test
+    public void writeMatchesGet() throws UnsupportedEncodingException {
+        QualifierFPE ff3 = qualifier("FF3", "01234567");
+        byte[] expected = ff3.getSecurityParameters(KEY);
+
+        byte[] dst = new byte[20];
+        assertEquals(expected.length, ff3.writeSecurityParameters(KEY, dst, 3));
+        assertArrayEquals(expected, Arrays.copyOfRange(dst, 3, 3 + expected.length));
+
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        buffer.position(2);
+        ff3.writeSecurityParameters(KEY, buffer);
+        assertEquals(2 + expected.length, buffer.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 2, 2 + expected.length));
+
+        try {
+            ff3.writeSecurityParameters(KEY, new byte[20], 10);
+            fail("The parameters do not fit.");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        ByteBuffer small = ByteBuffer.allocate(8);
+        try {
+            ff3.writeSecurityParameters(KEY, small);
+            fail("The parameters do not fit.");
+        } catch (BufferOverflowException e) {
+            assertEquals(0, small.position());
+        }
+    }
+
+    @Test
+    public void settersRefreshTheTweak() throws UnsupportedEncodingException {
+        QualifierFPE q = qualifier("FF1", "abc");
+        q.setTweak("xyz");
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 'x', 'y', 'z'}, q.getSecurityParameters(KEY));
+
+        q.setInstance("FF3");
+        assertEquals(DatabaseSchema.FFX.FF3, q.getFpeInstance());
+        try {
+            q.getSecurityParameters(KEY);
+            fail("An FF3 tweak must have 64 bits.");
+        } catch (IllegalArgumentException e) {
+            // expected, the tweak is too short
+        }
+
+        q.setTweak("abcdefgh");
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'}, q.getSecurityParameters(KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTweakFailsOnUse() throws UnsupportedEncodingException {
+        KeyFPE key = new KeyFPE(DatabaseSchema.CryptoType.FPE, 10, false, "FF3", 10, "short");
+        key.writeSecurityParameters(KEY, ByteBuffer.allocate(16));
+    }
+
+    @Test
+    public void instanceCanBeCleared() {
+        KeyFPE key = new KeyFPE(DatabaseSchema.CryptoType.FPE, 10, false, "FF1", 10, "tweak");
+        key.setInstance(null);
+        assertNull(key.getFpeInstance());
+
+        QualifierFPE q = qualifier("FF1", "tweak");
+        q.setInstance(null);
+        assertNull(q.getFpeInstance());
+        assertNull(q.getInstance());
+    }
+
+}
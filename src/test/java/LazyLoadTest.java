@@ -0,0 +1,154 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyLoadTest {
+
+    private static final String PATIENT = "R-maxdata-CLINIDATA_NEW-DTW_PATIENT";
+    private static final String RESULT = "R-maxdata-CLINIDATA_NEW-DTW_TEST_RESULT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tablesAreParsedOnFirstAccess() throws IOException {
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", SchemaFixtures.readSchema());
+        DatabaseSchema eager = new DatabaseSchema(file.getPath());
+        DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+
+        assertEquals(eager.getSchemas().keySet(), lazy.getSchemas().keySet());
+        assertTrue(lazy.containsKey(PATIENT));
+        assertTrue(lazy.getMetrics().getTableNames().isEmpty());
+        assertEquals(eager.getDatabaseDefaultProperties(), lazy.getDatabaseDefaultProperties());
+
+        TableSchema patient = lazy.getSchema(PATIENT);
+        assertEquals(eager.getSchema(PATIENT), patient);
+        assertSame(patient, lazy.getTableSchema(PATIENT));
+        assertEquals(Collections.singleton(PATIENT), lazy.getMetrics().getTableNames());
+        assertNull(lazy.getSchema("missing"));
+
+        assertEquals(eager.getSchemas(), lazy.getSchemas());
+    }
+
+    @Test
+    public void concurrentFirstAccessParsesOnce() throws Exception {
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", SchemaFixtures.readSchema());
+        final DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<TableSchema>> results = new ArrayList<Future<TableSchema>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(pool.submit(new Callable<TableSchema>() {
+                    public TableSchema call() {
+                        return lazy.getSchema(RESULT);
+                    }
+                }));
+            }
+            TableSchema first = results.get(0).get();
+            for (Future<TableSchema> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void invalidTableFailsOnAccess() throws IOException {
+        String xml = SchemaFixtures.readSchema().replace("<name>DQE</name>", "<name></name>");
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", xml);
+        DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+
+        assertTrue(lazy.containsKey(PATIENT));
+        try {
+            lazy.getSchema(PATIENT);
+            fail("An empty family name must be rejected.");
+        } catch (NullPointerException e) {
+            // expected, the family name is empty
+        }
+    }
+
+    @Test
+    public void namesWithMarkupAreRead() throws IOException {
+        String xml = SchemaFixtures.readSchema()
+                .replace("<name>" + PATIENT + "</name>", "<name><!-- patients -->" + PATIENT + "</name>")
+                .replace("<name>" + RESULT + "</name>", "<name><![CDATA[" + RESULT + "]]></name>");
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", "<!-- <table><name>commented</name></table> -->\n" + xml);
+        DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+
+        assertFalse(lazy.containsKey("commented"));
+        assertEquals(PATIENT, lazy.getSchema(PATIENT).getTablename());
+        assertEquals(RESULT, lazy.getSchema(RESULT).getTablename());
+    }
+
+    @Test
+    public void reloadKeepsUnchangedParsedTables() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", xml);
+        DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+        TableSchema patient = lazy.getSchema(PATIENT);
+        TableSchema result = lazy.getSchema(RESULT);
+
+        assertFalse(lazy.reload());
+
+        File next = SchemaFixtures.write(folder.getRoot(), "next.xml", xml.replace("<colformatsize>4000</colformatsize>", "<colformatsize>2000</colformatsize>"));
+        assertTrue(next.renameTo(file));
+        assertTrue(lazy.reload());
+        assertSame(patient, lazy.getSchema(PATIENT));
+        assertNotSame(result, lazy.getSchema(RESULT));
+        assertEquals(Integer.valueOf(2000), lazy.getSchema(RESULT).getFormatSizeFromQualifier("DQE", "3"));
+    }
+
+    @Test
+    public void tablesChangedInMemoryAreParsedAgain() throws IOException {
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", SchemaFixtures.readSchema());
+        DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+        TableSchema patient = lazy.getSchema(PATIENT);
+        TableSchema result = lazy.getSchema(RESULT);
+        patient.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.OPE);
+
+        assertTrue(lazy.reload());
+        assertNotSame(patient, lazy.getSchema(PATIENT));
+        assertEquals(DatabaseSchema.CryptoType.PLT, lazy.getSchema(PATIENT).getDefaultColumnsCryptoType());
+        assertSame(result, lazy.getSchema(RESULT));
+        assertFalse(lazy.reload());
+    }
+
+    @Test
+    public void tablesAreParsedFromTheIndexedContent() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", xml);
+        DatabaseSchema lazy = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+        TableSchema patient = lazy.getSchema(PATIENT);
+
+        //  Rewritten in place: tables not parsed yet keep the content they were indexed from
+        SchemaFixtures.write(folder.getRoot(), "schema.xml", xml.replace("<colformatsize>4000</colformatsize>", "<colformatsize>2000</colformatsize>"));
+        assertEquals(Integer.valueOf(4000), lazy.getSchema(RESULT).getFormatSizeFromQualifier("DQE", "3"));
+        assertSame(patient, lazy.getSchema(PATIENT));
+
+        assertTrue(lazy.reload());
+        assertEquals(Integer.valueOf(2000), lazy.getSchema(RESULT).getFormatSizeFromQualifier("DQE", "3"));
+    }
+
+}
@@ -0,0 +1,218 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Key;
+import pt.uminho.haslab.safemapper.KeyFPE;
+import pt.uminho.haslab.safemapper.MappedSchema;
+import pt.uminho.haslab.safemapper.TableSchema;
+import pt.uminho.haslab.safemapper.TableSchemaLookup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedSchemaTest {
+
+    private static final String ORDERS = "<table><name>orders</name>"
+            + "<key><cryptotechnique>FPE</cryptotechnique><instance>FF3</instance><radix>10</radix>"
+            + "<tweak>01234567</tweak><keypadding>true</keypadding></key><columns>"
+            + "<family><name>f</name><cryptotechnique>STD</cryptotechnique><colpadding>false</colpadding>"
+            + "<qualifier><name>price</name><cryptotechnique>OPE</cryptotechnique><colformatsize>16</colformatsize></qualifier>"
+            + "<qualifier><name>count</name><cryptotechnique>ISMPC</cryptotechnique>"
+            + "<misc><property>type</property><type>Integer</type></misc></qualifier>"
+            + "<qualifier><name>born</name><misc><property>GENERATOR</property><GENERATOR>Date</GENERATOR></misc></qualifier>"
+            + "<qualifier><name>card</name><cryptotechnique>FPE</cryptotechnique><instance>FF1</instance>"
+            + "<radix>10</radix><tweak>tweak</tweak></qualifier>"
+            + "<qualifier><name>caf\u00e9</name><cryptotechnique>XOR</cryptotechnique></qualifier>"
+            + "<qualifierpattern><name>m_?</name><cryptotechnique>SMPC</cryptotechnique></qualifierpattern>"
+            + "<qualifierpattern><name>m_*</name><cryptotechnique>LSMPC</cryptotechnique><colpadding>true</colpadding>"
+            + "</qualifierpattern>"
+            + "<qualifierpattern><name>lit\\*</name><cryptotechnique>DET</cryptotechnique></qualifierpattern>"
+            + "</family>"
+            + "<family><name>g</name><qualifier><name>z</name><colformatsize>3</colformatsize></qualifier></family>"
+            + "<family><name>f</name><qualifier><name>shadowed</name></qualifier></family>"
+            + "</columns></table>";
+
+    private static final String USERS = "<table><name>users</name><default><columns>PLT</columns>"
+            + "<encryptionmode>disable</encryptionmode></default><columns><family><name>u</name>"
+            + "<qualifier><name>name</name></qualifier></family></columns></table>";
+
+    private static final String[][] COLUMNS = {
+            {"f", "price"}, {"f", "price_STD"}, {"f", "count"}, {"f", "born"}, {"f", "card"}, {"f", "caf\u00e9"},
+            {"f", "m_1"}, {"f", "m_\u00e9"}, {"f", "m_12"}, {"f", "m_"}, {"f", "lit*"}, {"f", "litx"},
+            {"f", "undeclared"}, {"f", "shadowed"}, {"g", "z"}, {"g", "m_1"}, {"u", "name"}, {"missing", "x"},
+            {"", ""}
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void assertKeysEqual(Key expected, Key actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getCryptoType(), actual.getCryptoType());
+        assertEquals(expected.getFormatSize(), actual.getFormatSize());
+        assertEquals(expected.getKeyPadding(), actual.getKeyPadding());
+        if (expected instanceof KeyFPE) {
+            assertEquals(((KeyFPE) expected).getFpeInstance(), ((KeyFPE) actual).getFpeInstance());
+            assertEquals(((KeyFPE) expected).getRadix(), ((KeyFPE) actual).getRadix());
+            assertEquals(((KeyFPE) expected).getTweak(), ((KeyFPE) actual).getTweak());
+        }
+    }
+
+    private void assertLookupsEqual(TableSchema expected, TableSchemaLookup actual) {
+        assertEquals(expected.getTablename(), actual.getTablename());
+        assertEquals(expected.getDefaultKeyCryptoType(), actual.getDefaultKeyCryptoType());
+        assertEquals(expected.getDefaultColumnsCryptoType(), actual.getDefaultColumnsCryptoType());
+        assertEquals(expected.getDefaultKeyFormatSize(), actual.getDefaultKeyFormatSize());
+        assertEquals(expected.getDefaultColumnFormatSize(), actual.getDefaultColumnFormatSize());
+        assertEquals(expected.getDefaultKeyPadding(), actual.getDefaultKeyPadding());
+        assertEquals(expected.getDefaultColumnPadding(), actual.getDefaultColumnPadding());
+        assertEquals(expected.getEncryptionMode(), actual.getEncryptionMode());
+        assertKeysEqual(expected.getKey(), actual.getKey());
+        assertEquals(expected.getKeyFormatSize(), actual.getKeyFormatSize());
+        assertEquals(expected.getKeyPadding(), actual.getKeyPadding());
+        assertEquals(expected.getEnabledCryptoTypeMask(), actual.getEnabledCryptoTypeMask());
+        assertEquals(expected.getEnabledCryptoTypes(), actual.getEnabledCryptoTypes());
+        for (DatabaseSchema.CryptoType cType : DatabaseSchema.CryptoType.values()) {
+            assertEquals(expected.isCryptoTypeEnabled(cType), actual.isCryptoTypeEnabled(cType));
+        }
+
+        for (String[] column : COLUMNS) {
+            String f = column[0];
+            String q = column[1];
+            String message = f + ":" + q;
+            assertEquals(message, expected.containsFamily(f), actual.containsFamily(f));
+            assertEquals(message, expected.containsQualifier(f, q), actual.containsQualifier(f, q));
+            assertEquals(message, expected.getCryptoTypeFromQualifier(f, q), actual.getCryptoTypeFromQualifier(f, q));
+            assertEquals(message, expected.getGeneratorTypeFromQualifier(f, q), actual.getGeneratorTypeFromQualifier(f, q));
+            assertEquals(message, expected.getFormatSizeFromQualifier(f, q), actual.getFormatSizeFromQualifier(f, q));
+            assertEquals(message, expected.getColumnPadding(f, q), actual.getColumnPadding(f, q));
+            assertEquals(message, expected.getFpeInstanceFromQualifier(f, q), actual.getFpeInstanceFromQualifier(f, q));
+            assertEquals(message, expected.getRadixFromQualifier(f, q), actual.getRadixFromQualifier(f, q));
+            assertEquals(message, expected.getTweakFromQualifier(f, q), actual.getTweakFromQualifier(f, q));
+            if (f != null && q != null) {
+                byte[] fBytes = ("_" + f).getBytes(SchemaFixtures.UTF8);
+                byte[] qBytes = (q + "__").getBytes(SchemaFixtures.UTF8);
+                assertEquals(message, expected.getCryptoTypeFromQualifier(fBytes, 1, fBytes.length - 1, qBytes, 0, qBytes.length - 2),
+                        actual.getCryptoTypeFromQualifier(fBytes, 1, fBytes.length - 1, qBytes, 0, qBytes.length - 2));
+                assertEquals(message, expected.isIntegerColumn(fBytes, 1, fBytes.length - 1, qBytes, 0, qBytes.length - 2),
+                        actual.isIntegerColumn(fBytes, 1, fBytes.length - 1, qBytes, 0, qBytes.length - 2));
+                assertEquals(message, expected.compile().isIntegerColumn(f, q), actual.isIntegerColumn(f, q));
+            }
+        }
+    }
+
+    @Test
+    public void lookupsMatchTheHeapSchema() throws IOException {
+        File source = SchemaFixtures.write(folder.newFile("schema.xml"), SchemaFixtures.schema(ORDERS + USERS));
+        DatabaseSchema schema = new DatabaseSchema(source.getPath());
+        File file = folder.newFile("schema.map");
+        MappedSchema.write(schema, file);
+        MappedSchema mapped = MappedSchema.open(file);
+
+        assertEquals(Arrays.asList("orders", "users"), Arrays.asList(mapped.getTableNames().toArray()));
+        assertEquals(file.length(), mapped.getSize());
+        assertTrue(mapped.containsKey("orders"));
+        assertFalse(mapped.containsKey("missing"));
+        assertNull(mapped.getSchema("missing"));
+        for (String table : mapped.getTableNames()) {
+            assertLookupsEqual(schema.getTableSchema(table), mapped.getSchema(table));
+        }
+
+        TableSchemaLookup orders = mapped.getSchema("orders");
+        assertEquals(DatabaseSchema.CryptoType.SMPC, orders.getCryptoTypeFromQualifier("f", "m_1"));
+        assertEquals(DatabaseSchema.CryptoType.LSMPC, orders.getCryptoTypeFromQualifier("f", "m_12"));
+        assertEquals(DatabaseSchema.FFX.FF1, orders.getFpeInstanceFromQualifier("f", "card"));
+        byte[] family = "f".getBytes(SchemaFixtures.UTF8);
+        byte[] count = "count".getBytes(SchemaFixtures.UTF8);
+        assertTrue(DatabaseSchema.isIntegerProtectedColumn(orders, family, count));
+        assertTrue(DatabaseSchema.isIntegerType(orders, family, count));
+    }
+
+    @Test
+    public void lookupsMatchTheClinidataSchema() throws IOException {
+        DatabaseSchema schema = new DatabaseSchema(getClass().getResource("q_engine.xml").getPath());
+        File file = folder.newFile("q_engine.map");
+        MappedSchema.write(schema, file);
+        MappedSchema mapped = MappedSchema.open(file);
+        assertEquals(schema.getSchemas().keySet(), mapped.getTableNames());
+        for (String table : mapped.getTableNames()) {
+            assertLookupsEqual(schema.getTableSchema(table), mapped.getSchema(table));
+        }
+    }
+
+    @Test
+    public void loadReusesTheMappedFileOfTheSameContent() throws IOException {
+        File source = SchemaFixtures.write(folder.newFile("schema.xml"), SchemaFixtures.schema(ORDERS));
+        File file = new File(folder.getRoot(), "schema.map");
+
+        MappedSchema first = MappedSchema.load(source.getPath(), file.getPath());
+        assertTrue(file.isFile());
+        assertTrue(file.setLastModified(1000));
+        MappedSchema second = MappedSchema.load(source.getPath(), file.getPath());
+        assertEquals(1000, file.lastModified());
+        assertEquals(first.getDigest(), second.getDigest());
+
+        //  A new content writes a new file, the previous mapping stays readable
+        SchemaFixtures.write(source, SchemaFixtures.schema(ORDERS + USERS));
+        MappedSchema third = MappedSchema.load(source.getPath(), file.getPath());
+        assertTrue(third.containsKey("users"));
+        assertFalse(first.containsKey("users"));
+        assertEquals(DatabaseSchema.CryptoType.OPE, first.getSchema("orders").getCryptoTypeFromQualifier("f", "price"));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = SchemaFixtures.write(folder.newFile("schema.xml"), SchemaFixtures.schema(ORDERS));
+        try {
+            MappedSchema.open(file);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Not a mapped schema.", e.getMessage());
+        }
+
+        //  An unreadable file is replaced
+        File mapped = folder.newFile("schema.map");
+        MappedSchema schema = MappedSchema.load(file.getPath(), mapped.getPath());
+        assertTrue(schema.containsKey("orders"));
+    }
+
+    @Test(timeout = 5000)
+    public void patternsMatchLikeTheHeapSchema() throws IOException {
+        StringBuilder stars = new StringBuilder();
+        StringBuilder as = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            stars.append("*a");
+        }
+        for (int i = 0; i < 200; i++) {
+            as.append('a');
+        }
+        File source = SchemaFixtures.write(folder.newFile("patterns.xml"),
+                SchemaFixtures.schema("<table><name>p</name><columns><family><name>f</name>"
+                + "<qualifierpattern><name>" + stars + "*b</name><cryptotechnique>OPE</cryptotechnique></qualifierpattern>"
+                + "<qualifierpattern><name>*??</name><cryptotechnique>SMPC</cryptotechnique></qualifierpattern>"
+                + "<qualifierpattern><name>*?</name><cryptotechnique>XOR</cryptotechnique></qualifierpattern>"
+                + "</family></columns></table>"));
+        DatabaseSchema schema = new DatabaseSchema(source.getPath());
+        File file = folder.newFile("patterns.map");
+        MappedSchema.write(schema, file);
+        TableSchemaLookup mapped = MappedSchema.open(file).getSchema("p");
+        TableSchema heap = schema.getTableSchema("p");
+
+        String[] qualifiers = {as.toString(), as + "b", "\u20ac", "\u20ac\u20ac", "a\u20ac", "x", ""};
+        for (String q : qualifiers) {
+            assertEquals(q, heap.getCryptoTypeFromQualifier("f", q), mapped.getCryptoTypeFromQualifier("f", q));
+        }
+        assertEquals(DatabaseSchema.CryptoType.XOR, mapped.getCryptoTypeFromQualifier("f", "\u20ac"));
+        assertEquals(DatabaseSchema.CryptoType.OPE, mapped.getCryptoTypeFromQualifier("f", as + "b"));
+        assertEquals(DatabaseSchema.CryptoType.SMPC, mapped.getCryptoTypeFromQualifier("f", as.toString()));
+    }
+
+}
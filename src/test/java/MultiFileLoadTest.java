@@ -0,0 +1,203 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.MappedSchema;
+import pt.uminho.haslab.safemapper.SchemaRegistry;
+import pt.uminho.haslab.safemapper.SchemaReloader;
+import pt.uminho.haslab.safemapper.SchemaSnapshot;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiFileLoadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String table(String name, String technique) {
+        return "<table><name>" + name + "</name><columns><family><name>f</name>"
+                + "<qualifier><name>q</name><cryptotechnique>" + technique + "</cryptotechnique></qualifier>"
+                + "</family></columns></table>";
+    }
+
+    private String tables(String prefix, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(table(prefix + i, "OPE"));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void directoryMatchesSingleFile() throws IOException {
+        File directory = folder.newFolder("schema");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + tables("a", 20) + "</schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + SchemaFixtures.DEFAULTS + tables("b", 30) + "</schema>");
+        SchemaFixtures.write(directory, "c.xml", "<schema>" + tables("c", 5) + "</schema>");
+        SchemaFixtures.write(directory, "notes.txt", "not a schema");
+        File single = SchemaFixtures.write(folder.getRoot(), "single.xml",
+                "<schema>" + SchemaFixtures.DEFAULTS + tables("a", 20) + tables("b", 30) + tables("c", 5) + "</schema>");
+
+        DatabaseSchema expected = new DatabaseSchema(single.getPath());
+        for (DatabaseSchema.LoadMode mode : new DatabaseSchema.LoadMode[]{DatabaseSchema.LoadMode.EAGER, DatabaseSchema.LoadMode.PARALLEL}) {
+            DatabaseSchema schema = new DatabaseSchema(directory.getPath(), mode);
+            assertEquals(55, schema.getSchemas().size());
+            assertEquals(expected.getSchemas(), schema.getSchemas());
+            assertEquals(expected.getDatabaseDefaultProperties(), schema.getDatabaseDefaultProperties());
+        }
+    }
+
+    @Test
+    public void includesAreResolvedAgainstTheRoot() throws IOException {
+        File directory = folder.newFolder("teams");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + tables("a", 10) + "</schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + tables("b", 10) + "</schema>");
+        File root = SchemaFixtures.write(folder.getRoot(), "root.xml", "<schema>" + SchemaFixtures.DEFAULTS + "<include>teams/a.xml</include>"
+                + table("root", "STD") + "<include>teams/b.xml</include></schema>");
+
+        for (DatabaseSchema.LoadMode mode : new DatabaseSchema.LoadMode[]{DatabaseSchema.LoadMode.EAGER, DatabaseSchema.LoadMode.PARALLEL}) {
+            DatabaseSchema schema = new DatabaseSchema(root.getPath(), mode);
+            assertEquals(21, schema.getSchemas().size());
+            assertEquals(DatabaseSchema.CryptoType.STD, schema.getSchema("root").getCryptoTypeFromQualifier("f", "q"));
+            assertEquals(Integer.valueOf(12), schema.getSchema("b3").getFormatSizeFromQualifier("f", "q"));
+        }
+    }
+
+    @Test
+    public void duplicateTablesAreRejected() throws IOException {
+        File directory = folder.newFolder("schema");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + SchemaFixtures.DEFAULTS + tables("t", 3) + "</schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + table("t1", "DET") + "</schema>");
+        try {
+            new DatabaseSchema(directory.getPath());
+            fail("A table declared in two files must be rejected.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Table t1 is declared in both"));
+        }
+
+        File root = SchemaFixtures.write(folder.getRoot(), "root.xml",
+                "<schema>" + SchemaFixtures.DEFAULTS + table("t0", "STD") + "<include>schema/b.xml</include></schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + table("t0", "DET") + "</schema>");
+        try {
+            new DatabaseSchema(root.getPath());
+            fail("A table declared in the root and in an included file must be rejected.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Table t0 is declared in both"));
+        }
+    }
+
+    @Test
+    public void defaultsAreDeclaredOnce() throws IOException {
+        File directory = folder.newFolder("schema");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + SchemaFixtures.DEFAULTS + tables("a", 3) + "</schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + SchemaFixtures.DEFAULTS + tables("b", 3) + "</schema>");
+        try {
+            new DatabaseSchema(directory.getPath());
+            fail("Defaults declared in two files must be rejected.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Database defaults are declared in both"));
+        }
+
+        File root = SchemaFixtures.write(folder.getRoot(), "root.xml", "<schema>" + SchemaFixtures.DEFAULTS + "<include>schema/a.xml</include></schema>");
+        try {
+            new DatabaseSchema(root.getPath());
+            fail("Defaults declared in an included file must be rejected.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Database defaults are declared in both"));
+        }
+
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + tables("b", 3) + "</schema>");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + tables("a", 3) + "</schema>");
+        try {
+            new DatabaseSchema(directory.getPath());
+            fail("A schema without defaults must be rejected.");
+        } catch (NullPointerException e) {
+            assertEquals("Default element cannot be null.", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void directoriesCannotBeLoadedLazily() throws IOException {
+        File directory = folder.newFolder("schema");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + SchemaFixtures.DEFAULTS + tables("a", 3) + "</schema>");
+        new DatabaseSchema(directory.getPath(), DatabaseSchema.LoadMode.LAZY);
+    }
+
+    @Test
+    public void reloadPicksUpChangedFragments() throws IOException {
+        File directory = folder.newFolder("schema");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + SchemaFixtures.DEFAULTS + tables("a", 3) + "</schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + tables("b", 3) + "</schema>");
+        DatabaseSchema schema = new DatabaseSchema(directory.getPath());
+        TableSchema a0 = schema.getSchema("a0");
+        TableSchema b0 = schema.getSchema("b0");
+
+        assertFalse(schema.reload());
+        assertSame(a0, schema.getSchema("a0"));
+
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + table("b0", "DET") + "</schema>");
+        SchemaFixtures.write(directory, "c.xml", "<schema>" + tables("c", 2) + "</schema>");
+        assertTrue(schema.reload());
+        assertSame(a0, schema.getSchema("a0"));
+        assertNotSame(b0, schema.getSchema("b0"));
+        assertEquals(DatabaseSchema.CryptoType.DET, schema.getSchema("b0").getCryptoTypeFromQualifier("f", "q"));
+        assertFalse(schema.containsKey("b1"));
+        assertTrue(schema.containsKey("c1"));
+    }
+
+    @Test
+    public void cachesAndWatchersFollowEveryDocument() throws IOException {
+        File teams = folder.newFolder("teams");
+        SchemaFixtures.write(teams, "a.xml", "<schema>" + table("a", "OPE") + "</schema>");
+        File root = SchemaFixtures.write(folder.getRoot(), "root.xml",
+                "<schema>" + SchemaFixtures.DEFAULTS + "<include>teams/a.xml</include>" + table("root", "STD") + "</schema>");
+        File directory = folder.newFolder("directory");
+        SchemaFixtures.write(directory, "a.xml", "<schema>" + SchemaFixtures.DEFAULTS + table("a", "OPE") + "</schema>");
+        SchemaFixtures.write(directory, "b.xml", "<schema>" + table("b", "OPE") + "</schema>");
+
+        for (File source : new File[]{root, directory}) {
+            String path = source.getPath();
+            File snapshot = new File(folder.getRoot(), source.getName() + ".bin");
+            File mapped = new File(folder.getRoot(), source.getName() + ".map");
+            DatabaseSchema schema = new DatabaseSchema(path);
+            SchemaReloader reloader = new SchemaReloader(schema, 3600000);
+            SchemaRegistry registry = new SchemaRegistry();
+            try {
+                DatabaseSchema cold = SchemaSnapshot.load(path, snapshot.getPath());
+                assertEquals(schema.getSchemas(), cold.getSchemas());
+                assertEquals(schema.getSchemas(), SchemaSnapshot.load(path, snapshot.getPath()).getSchemas());
+                assertTrue(MappedSchema.load(path, mapped.getPath()).containsKey("a"));
+                DatabaseSchema shared = registry.acquire(path);
+                assertFalse(reloader.check());
+
+                //  Only a fragment changes, the root file or the other fragments do not
+                File fragment = source == root ? new File(teams, "a.xml") : new File(directory, "a.xml");
+                String defaults = source == root ? "" : SchemaFixtures.DEFAULTS;
+                SchemaFixtures.write(fragment.getParentFile(), fragment.getName(), "<schema>" + defaults + table("a", "DET") + "</schema>");
+
+                assertTrue(reloader.check());
+                assertEquals(DatabaseSchema.CryptoType.DET, schema.getSchema("a").getCryptoTypeFromQualifier("f", "q"));
+                assertFalse(reloader.check());
+                assertEquals(DatabaseSchema.CryptoType.DET,
+                        SchemaSnapshot.load(path, snapshot.getPath()).getSchema("a").getCryptoTypeFromQualifier("f", "q"));
+                assertEquals(DatabaseSchema.CryptoType.DET,
+                        SchemaSnapshot.read(snapshot).getSchema("a").getCryptoTypeFromQualifier("f", "q"));
+                assertEquals(DatabaseSchema.CryptoType.DET, MappedSchema.load(path, mapped.getPath())
+                        .getSchema("a").getCryptoTypeFromQualifier("f", "q"));
+                assertNotSame(shared, registry.acquire(path));
+            } finally {
+                reloader.close();
+            }
+        }
+    }
+
+}
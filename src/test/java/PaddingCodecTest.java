@@ -0,0 +1,256 @@
+import org.junit.Assume;
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.PaddingCodec;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PaddingCodecTest {
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("padding");
+        schema.setDefaultKeyFormatSize(8);
+        schema.setDefaultKeyPadding(true);
+        schema.setDefaultColumnPadding(true);
+        schema.addFamily(new Family("f", DatabaseSchema.CryptoType.DET, 6, true));
+        schema.addQualifier("f", new Qualifier("ope", DatabaseSchema.CryptoType.OPE, 4, true, new HashMap<String, String>()));
+        schema.addQualifier("f", new Qualifier("plain", DatabaseSchema.CryptoType.DET, 4, false, new HashMap<String, String>()));
+        schema.addQualifierPattern("f", new Qualifier("wide_*", DatabaseSchema.CryptoType.OPE, 40, true, new HashMap<String, String>()));
+        return schema;
+    }
+
+    private byte[] written(ByteBuffer dst) {
+        dst.flip();
+        byte[] bytes = new byte[dst.remaining()];
+        dst.get(bytes);
+        return bytes;
+    }
+
+    private void checkPadding(ByteBuffer dst) {
+        PaddingCodec codec = defineTable().getPaddingCodec();
+
+        assertEquals(4, codec.padValue("f", "ope", ByteBuffer.wrap(new byte[]{7, 8}), dst));
+        assertArrayEquals(new byte[]{0, 0, 7, 8}, written(dst));
+
+        dst.clear();
+        assertEquals(2, codec.padValue("f", "plain", ByteBuffer.wrap(new byte[]{7, 8}), dst));
+        assertArrayEquals(new byte[]{7, 8}, written(dst));
+
+        dst.clear();
+        byte[] key = {9, 1, 2, 3, 9};
+        assertEquals(8, codec.padKey(key, 1, 3, dst));
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 0, 1, 2, 3}, written(dst));
+
+        dst.clear();
+        byte[] f = "xf".getBytes();
+        byte[] q = "wide_1".getBytes();
+        assertEquals(40, codec.padValue(f, 1, 1, q, 0, q.length, ByteBuffer.wrap(new byte[]{5}), dst));
+        byte[] wide = new byte[40];
+        wide[39] = 5;
+        assertArrayEquals(wide, written(dst));
+
+        //  Undeclared columns have no format size
+        dst.clear();
+        assertEquals(3, codec.padValue("f", "other", ByteBuffer.wrap(new byte[]{1, 2, 3}), dst));
+        assertArrayEquals(new byte[]{1, 2, 3}, written(dst));
+    }
+
+    @Test
+    public void padsIntoHeapBuffers() {
+        checkPadding(ByteBuffer.allocate(64));
+    }
+
+    @Test
+    public void padsIntoDirectBuffers() {
+        checkPadding(ByteBuffer.allocateDirect(64));
+    }
+
+    @Test
+    public void unpadsWhatWasPadded() {
+        TableSchema schema = defineTable();
+        PaddingCodec codec = schema.getPaddingCodec();
+        int ordinal = schema.getColumnOrdinal("f", "ope");
+        ByteBuffer padded = ByteBuffer.allocateDirect(16);
+        ByteBuffer value = ByteBuffer.allocate(16);
+
+        codec.padValue(ordinal, ByteBuffer.wrap("ab".getBytes()), padded);
+        padded.flip();
+        assertEquals(2, codec.unpadValue(ordinal, padded, value));
+        assertEquals(0, padded.remaining());
+        assertArrayEquals("ab".getBytes(), written(value));
+
+        padded.clear();
+        value.clear();
+        codec.padKey(ByteBuffer.wrap("key".getBytes()), padded);
+        padded.flip();
+        assertEquals(3, codec.unpadKey(padded, value));
+        assertArrayEquals("key".getBytes(), written(value));
+
+        //  Without padding, leading zeros belong to the value
+        padded.clear();
+        value.clear();
+        padded.put(new byte[]{0, 1}).flip();
+        assertEquals(2, codec.unpadValue("f", "plain", padded, value));
+        assertArrayEquals(new byte[]{0, 1}, written(value));
+    }
+
+    @Test
+    public void valuesWithLeadingZerosRoundTripWithTheirLength() {
+        TableSchema schema = defineTable();
+        PaddingCodec codec = schema.getPaddingCodec();
+        int ordinal = schema.getColumnOrdinal("f", "ope");
+        ByteBuffer padded = ByteBuffer.allocate(64);
+        ByteBuffer value = ByteBuffer.allocate(64);
+
+        byte[][] values = {{0}, {0, 0}, {0, 1}, {0, 0, 7, 0}, {}};
+        for (byte[] v : values) {
+            padded.clear();
+            value.clear();
+            codec.padValue(ordinal, ByteBuffer.wrap(v), padded);
+            padded.flip();
+            assertEquals(v.length, codec.unpadValue(ordinal, v.length, padded, value));
+            assertEquals(0, padded.remaining());
+            assertArrayEquals(v, written(value));
+
+            padded.clear();
+            value.clear();
+            codec.padKey(ByteBuffer.wrap(v), padded);
+            padded.flip();
+            assertEquals(v.length, codec.unpadKey(v.length, padded, value));
+            assertArrayEquals(v, written(value));
+
+            padded.clear();
+            value.clear();
+            codec.padValue("f", "wide_1", ByteBuffer.wrap(v), padded);
+            padded.flip();
+            assertEquals(v.length, codec.unpadValue("f", "wide_1", v.length, padded, value));
+            assertArrayEquals(v, written(value));
+        }
+
+        //  Without the length, leading zeros are stripped as from a number
+        padded.clear();
+        value.clear();
+        codec.padValue(ordinal, ByteBuffer.wrap(new byte[]{0, 1}), padded);
+        padded.flip();
+        assertEquals(1, codec.unpadValue(ordinal, padded, value));
+        assertArrayEquals(new byte[]{1}, written(value));
+    }
+
+    @Test
+    public void unpaddingToALengthChecksThePadding() {
+        PaddingCodec codec = defineTable().getPaddingCodec();
+        ByteBuffer padded = ByteBuffer.wrap(new byte[]{0, 3, 1, 2});
+        ByteBuffer value = ByteBuffer.allocate(8);
+        try {
+            codec.unpadValue("f", "ope", 2, padded, value);
+            fail("The value is preceded by a non-PAD byte.");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, padded.position());
+        }
+        try {
+            codec.unpadValue("f", "ope", 5, padded, value);
+            fail("The value is longer than the padded bytes.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            codec.unpadValue("f", "plain", 2, padded, value);
+            fail("Values without padding are kept whole.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(3, codec.unpadValue("f", "ope", 3, padded, value));
+        assertArrayEquals(new byte[]{3, 1, 2}, written(value));
+    }
+
+    @Test
+    public void rejectsValuesThatDoNotFit() {
+        PaddingCodec codec = defineTable().getPaddingCodec();
+        ByteBuffer dst = ByteBuffer.allocate(3);
+        try {
+            codec.padValue("f", "ope", ByteBuffer.wrap(new byte[5]), ByteBuffer.allocate(16));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Value of 5 bytes exceeds the format size 4.", e.getMessage());
+        }
+        ByteBuffer src = ByteBuffer.wrap(new byte[]{1});
+        try {
+            codec.padValue("f", "ope", src, dst);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, dst.position());
+            assertEquals(1, src.remaining());
+        }
+        try {
+            codec.padValue(5, src, dst);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals("Column ordinal 5 is not in [0, 2).", e.getMessage());
+        }
+    }
+
+    @Test
+    public void paddingLargerThanTheTemplate() {
+        PaddingCodec codec = defineTable().getPaddingCodec();
+        ByteBuffer dst = ByteBuffer.allocate(1000);
+        assertEquals(1000, codec.pad(1000, true, new byte[]{1}, 0, 1, dst));
+        byte[] expected = new byte[1000];
+        expected[999] = 1;
+        assertTrue(Arrays.equals(expected, written(dst)));
+    }
+
+    @Test
+    public void codecFollowsTheSnapshot() {
+        TableSchema schema = defineTable();
+        PaddingCodec codec = schema.getPaddingCodec();
+        assertSame(codec, schema.getPaddingCodec());
+        schema.getFamily("f").getQualifier("ope").setFormatSize(6);
+        assertNotSame(codec, schema.getPaddingCodec());
+
+        ByteBuffer dst = ByteBuffer.allocate(16);
+        assertEquals(4, codec.padValue("f", "ope", ByteBuffer.wrap(new byte[]{1}), dst));
+        dst.clear();
+        assertEquals(6, schema.getPaddingCodec().padValue("f", "ope", ByteBuffer.wrap(new byte[]{1}), dst));
+    }
+
+    @Test
+    public void paddingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        TableSchema schema = defineTable();
+        PaddingCodec codec = schema.getPaddingCodec();
+        int ordinal = schema.getColumnOrdinal("f", "ope");
+        ByteBuffer src = ByteBuffer.allocateDirect(4);
+        ByteBuffer dst = ByteBuffer.allocateDirect(4);
+        long thread = Thread.currentThread().getId();
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; i++) {
+            src.clear();
+            src.put((byte) i).flip();
+            dst.clear();
+            codec.padValue(ordinal, src, dst);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue("Padding allocated " + allocated + " bytes.", allocated < 16 * 1024);
+    }
+
+}
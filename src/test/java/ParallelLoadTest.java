@@ -0,0 +1,142 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelLoadTest {
+
+    private static final String PATIENT = "R-maxdata-CLINIDATA_NEW-DTW_PATIENT";
+    private static final String RESULT = "R-maxdata-CLINIDATA_NEW-DTW_TEST_RESULT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String table(int i) {
+        return "<table><name>t" + i + "</name><columns><family><name>f</name>"
+                + "<qualifier><name>q</name><cryptotechnique>OPE</cryptotechnique></qualifier>"
+                + "</family></columns></table>";
+    }
+
+    @Test
+    public void parallelLoadMatchesEagerLoad() throws IOException {
+        StringBuilder xml = new StringBuilder("<schema>");
+        for (int i = 0; i < 200; i++) {
+            xml.append(table(i));
+            if (i == 50) {
+                xml.append(SchemaFixtures.DEFAULTS);
+            }
+        }
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", xml.append("</schema>").toString());
+
+        DatabaseSchema eager = new DatabaseSchema(file.getPath());
+        DatabaseSchema parallel = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.PARALLEL);
+        assertEquals(200, parallel.getSchemas().size());
+        assertEquals(eager.getSchemas(), parallel.getSchemas());
+        assertEquals(eager.getDatabaseDefaultProperties(), parallel.getDatabaseDefaultProperties());
+
+        File clinidata = SchemaFixtures.write(folder.getRoot(), "schema.xml", SchemaFixtures.readSchema());
+        assertEquals(new DatabaseSchema(clinidata.getPath()).getSchemas(),
+                new DatabaseSchema(clinidata.getPath(), DatabaseSchema.LoadMode.PARALLEL).getSchemas());
+    }
+
+    @Test
+    public void firstInvalidTableFailsTheLoad() throws IOException {
+        StringBuilder xml = new StringBuilder("<schema>" + SchemaFixtures.DEFAULTS);
+        for (int i = 0; i < 100; i++) {
+            if (i == 30) {
+                xml.append("<table><name>t30</name></table>");
+            } else if (i == 60) {
+                xml.append("<table><columns/></table>");
+            } else {
+                xml.append(table(i));
+            }
+        }
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", xml.append("</schema>").toString());
+
+        try {
+            new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.PARALLEL);
+            fail("A table without columns must be rejected.");
+        } catch (NoSuchElementException e) {
+            assertEquals("Columns arguments cannot be null.", e.getMessage());
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void missingDefaultsAreRejected() throws IOException {
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", "<schema>" + table(0) + "</schema>");
+        new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.PARALLEL);
+    }
+
+    @Test
+    public void reloadKeepsUnchangedTables() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", xml);
+        DatabaseSchema schema = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.PARALLEL);
+        TableSchema patient = schema.getSchema(PATIENT);
+        TableSchema result = schema.getSchema(RESULT);
+
+        assertFalse(schema.reload());
+        assertSame(patient, schema.getSchema(PATIENT));
+
+        SchemaFixtures.write(folder.getRoot(), "schema.xml", xml.replace("<colformatsize>4000</colformatsize>", "<colformatsize>2000</colformatsize>"));
+        assertTrue(schema.reload());
+        assertSame(patient, schema.getSchema(PATIENT));
+        assertNotSame(result, schema.getSchema(RESULT));
+    }
+
+    @Test
+    public void tablesChangedInMemoryAreParsedAgain() throws IOException {
+        File file = SchemaFixtures.write(folder.getRoot(), "schema.xml", SchemaFixtures.readSchema());
+        DatabaseSchema schema = new DatabaseSchema(file.getPath(), DatabaseSchema.LoadMode.PARALLEL);
+        TableSchema patient = schema.getSchema(PATIENT);
+        TableSchema result = schema.getSchema(RESULT);
+        patient.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.OPE);
+
+        assertTrue(schema.reload());
+        assertNotSame(patient, schema.getSchema(PATIENT));
+        assertEquals(DatabaseSchema.CryptoType.PLT, schema.getSchema(PATIENT).getDefaultColumnsCryptoType());
+        assertSame(result, schema.getSchema(RESULT));
+        assertFalse(schema.reload());
+    }
+
+    @Test
+    public void documentEncodingAndNamespacesAreKept() throws IOException {
+        String body = SchemaFixtures.DEFAULTS + "<table><name>caf\u00e9</name><columns><family><name>f</name>"
+                + "<qualifier><name>cr\u00e8me</name><cryptotechnique>OPE</cryptotechnique></qualifier>"
+                + "</family></columns></table>";
+        String[][] documents = {
+                {"ISO-8859-1", "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><schema>" + body + "</schema>"},
+                {"UTF-16", "<?xml version=\"1.0\" encoding=\"UTF-16\"?><schema>" + body + "</schema>"},
+                {"UTF-16LE", "<?xml version=\"1.0\" encoding=\"UTF-16LE\"?><schema>" + body + "</schema>"},
+                {"UTF-8", "<s:schema xmlns:s=\"urn:safemapper\">" + body.replace("<", "<s:").replace("<s:/", "</s:")
+                        + "</s:schema>"}
+        };
+        for (String[] document : documents) {
+            File file = SchemaFixtures.write(new File(folder.getRoot(), "schema.xml"), document[1], Charset.forName(document[0]));
+            DatabaseSchema eager = new DatabaseSchema(file.getPath());
+            assertEquals(document[0], DatabaseSchema.CryptoType.OPE,
+                    eager.getSchema("caf\u00e9").getCryptoTypeFromQualifier("f", "cr\u00e8me"));
+            for (DatabaseSchema.LoadMode mode : new DatabaseSchema.LoadMode[]{DatabaseSchema.LoadMode.PARALLEL,
+                    DatabaseSchema.LoadMode.LAZY}) {
+                DatabaseSchema other = new DatabaseSchema(file.getPath(), mode);
+                assertEquals(document[0] + " " + mode, eager.getSchemas(), other.getSchemas());
+                assertEquals(document[0] + " " + mode, eager.getDatabaseDefaultProperties(),
+                        other.getDatabaseDefaultProperties());
+            }
+        }
+    }
+
+}
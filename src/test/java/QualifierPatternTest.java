@@ -0,0 +1,174 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.SchemaSnapshot;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QualifierPatternTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String SCHEMA = "<schema><default><key>PLT</key><columns>PLT</columns>"
+            + "<keypadding>false</keypadding><colpadding>false</colpadding><keyformatsize>8</keyformatsize>"
+            + "<colformatsize>12</colformatsize><encryptionmode>enable</encryptionmode></default>"
+            + "<table><name>series</name><columns><family><name>m</name><cryptotechnique>DET</cryptotechnique>"
+            + "<qualifier><name>m_total</name><cryptotechnique>STD</cryptotechnique></qualifier>"
+            + "<qualifierpattern><name>m_*</name><cryptotechnique>OPE</cryptotechnique>"
+            + "<colformatsize>20</colformatsize></qualifierpattern>"
+            + "</family></columns></table></schema>";
+
+    private Qualifier rule(String pattern, DatabaseSchema.CryptoType cType, int formatSize) {
+        return new Qualifier(pattern, cType, formatSize, null, new HashMap<String, String>());
+    }
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("series");
+        schema.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.PLT);
+        schema.setDefaultColumnPadding(false);
+        schema.addFamily(new Family("cf", DatabaseSchema.CryptoType.DET, 10, true));
+        schema.addQualifier("cf", rule("m_total", DatabaseSchema.CryptoType.STD, 4));
+        schema.addQualifierPattern("cf", rule("m_2026????", DatabaseSchema.CryptoType.OPE, 8));
+        schema.addQualifierPattern("cf", rule("m_*", DatabaseSchema.CryptoType.ISMPC, 6));
+        schema.addQualifierPattern("cf", rule("*_id", DatabaseSchema.CryptoType.FPE, 0));
+        schema.addQualifierPattern("cf", rule("lit\\*", DatabaseSchema.CryptoType.XOR, 0));
+        schema.addQualifierPattern("cf", rule("?\u00e9", DatabaseSchema.CryptoType.SMPC, 0));
+        return schema;
+    }
+
+    private DatabaseSchema.CryptoType bytesLookup(TableSchema schema, String family, String qualifier) {
+        byte[] f = ("xx" + family).getBytes(UTF8);
+        byte[] q = ("yyy" + qualifier + "z").getBytes(UTF8);
+        return schema.getCryptoTypeFromQualifier(f, 2, f.length - 2, q, 3, q.length - 4);
+    }
+
+    @Test
+    public void declaredQualifiersWinOverPatterns() {
+        TableSchema schema = defineTable();
+        String[][] expected = {
+                {"m_total", "STD"},
+                {"m_20260101", "OPE"},
+                {"m_2026010", "ISMPC"},
+                {"m_", "ISMPC"},
+                {"m_x_id", "ISMPC"},
+                {"user_id", "FPE"},
+                {"_id", "FPE"},
+                {"lit*", "XOR"},
+                {"litx", "PLT"},
+                {"a\u00e9", "SMPC"},
+                {"\u00e9\u00e9\u00e9", "PLT"},
+                {"other", "PLT"},
+        };
+        for (String[] column : expected) {
+            DatabaseSchema.CryptoType type = DatabaseSchema.CryptoType.valueOf(column[1]);
+            assertEquals(column[0], type, schema.getCryptoTypeFromQualifier("cf", column[0]));
+            assertEquals(column[0], type, bytesLookup(schema, "cf", column[0]));
+        }
+        assertEquals(DatabaseSchema.CryptoType.PLT, schema.getCryptoTypeFromQualifier("other", "m_1"));
+        assertEquals(DatabaseSchema.CryptoType.PLT, bytesLookup(schema, "other", "m_1"));
+
+        assertEquals(Integer.valueOf(8), schema.getFormatSizeFromQualifier("cf", "m_20260101"));
+        assertEquals(Integer.valueOf(10), schema.getFormatSizeFromQualifier("cf", "user_id"));
+        assertTrue(schema.getColumnPadding("cf", "m_1"));
+        assertTrue(schema.containsQualifier("cf", "m_1"));
+        assertFalse(schema.containsQualifier("cf", "other"));
+    }
+
+    @Test
+    public void patternsInvalidateTheSnapshot() {
+        TableSchema schema = defineTable();
+        assertEquals(DatabaseSchema.CryptoType.PLT, schema.getCryptoTypeFromQualifier("cf", "n_1"));
+        schema.addQualifierPattern("cf", rule("n_*", DatabaseSchema.CryptoType.DET, 0));
+        assertEquals(DatabaseSchema.CryptoType.DET, schema.getCryptoTypeFromQualifier("cf", "n_1"));
+
+        schema.getFamily("cf").getQualifierPattern(0).setCryptoType(DatabaseSchema.CryptoType.LSMPC);
+        assertEquals(DatabaseSchema.CryptoType.LSMPC, schema.getCryptoTypeFromQualifier("cf", "m_20260101"));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void patternsNeedADeclaredFamily() {
+        defineTable().addQualifierPattern("missing", rule("m_*", DatabaseSchema.CryptoType.DET, 0));
+    }
+
+    @Test
+    public void patternsAreParsedAndSnapshotted() throws IOException {
+        DatabaseSchema schema = new DatabaseSchema(new ByteArrayInputStream(SCHEMA.getBytes(UTF8)));
+        TableSchema series = schema.getSchema("series");
+
+        assertEquals(DatabaseSchema.CryptoType.STD, series.getCryptoTypeFromQualifier("m", "m_total"));
+        assertEquals(DatabaseSchema.CryptoType.OPE, series.getCryptoTypeFromQualifier("m", "m_20260101"));
+        assertEquals(DatabaseSchema.CryptoType.STD, series.getCryptoTypeFromQualifier("m", "m_20260101_STD"));
+        assertEquals(Integer.valueOf(20), series.getFormatSizeFromQualifier("m", "m_20260101"));
+        assertEquals(DatabaseSchema.CryptoType.PLT, series.getCryptoTypeFromQualifier("m", "x"));
+        assertTrue(series.getEnabledCryptoTypes().contains(DatabaseSchema.CryptoType.STD));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SchemaSnapshot.write(schema, out);
+        DatabaseSchema decoded = SchemaSnapshot.read(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(schema.getSchemas(), decoded.getSchemas());
+        assertEquals(DatabaseSchema.CryptoType.OPE, decoded.getSchema("series").getCryptoTypeFromQualifier("m", "m_1"));
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    @Test(timeout = 5000)
+    public void starsDoNotBacktrack() {
+        TableSchema schema = defineTable();
+        schema.addQualifierPattern("cf", rule(repeat("*a", 10) + "*b", DatabaseSchema.CryptoType.DET, 0));
+        schema.addQualifierPattern("cf", rule(repeat("*?", 10) + "*c", DatabaseSchema.CryptoType.OPE, 0));
+        String qualifier = repeat("a", 200);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(DatabaseSchema.CryptoType.PLT, schema.getCryptoTypeFromQualifier("cf", qualifier));
+            assertEquals(DatabaseSchema.CryptoType.PLT, bytesLookup(schema, "cf", qualifier));
+        }
+        assertEquals(DatabaseSchema.CryptoType.DET, schema.getCryptoTypeFromQualifier("cf", qualifier + "b"));
+        assertEquals(DatabaseSchema.CryptoType.OPE, schema.getCryptoTypeFromQualifier("cf", qualifier + "c"));
+    }
+
+    @Test
+    public void starsConsumeWholeCharacters() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("chars");
+        schema.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.PLT);
+        schema.addFamily(new Family("cf", DatabaseSchema.CryptoType.DET, 10, true));
+        schema.addQualifierPattern("cf", rule("*??", DatabaseSchema.CryptoType.OPE, 0));
+        schema.addQualifierPattern("cf", rule("*?", DatabaseSchema.CryptoType.XOR, 0));
+        String[][] expected = {
+                //  The 3 bytes of a euro sign are one character, not the 3 of "*??"
+                {"\u20ac", "XOR"},
+                {"\u20ac\u20ac", "OPE"},
+                {"a\u20ac", "OPE"},
+                {"\u00e9\u20ac", "OPE"},
+                {"", "PLT"},
+        };
+        for (String[] column : expected) {
+            DatabaseSchema.CryptoType type = DatabaseSchema.CryptoType.valueOf(column[1]);
+            assertEquals(column[0], type, schema.getCryptoTypeFromQualifier("cf", column[0]));
+            assertEquals(column[0], type, bytesLookup(schema, "cf", column[0]));
+        }
+        schema.addFamily(new Family("g", DatabaseSchema.CryptoType.DET, 10, true));
+        schema.addQualifierPattern("g", rule("x*\u00e9", DatabaseSchema.CryptoType.STD, 0));
+        assertEquals(DatabaseSchema.CryptoType.STD, schema.getCryptoTypeFromQualifier("g", "x\u20ac\u00e9"));
+        assertEquals(DatabaseSchema.CryptoType.PLT, schema.getCryptoTypeFromQualifier("g", "x\u20ac"));
+    }
+
+}
@@ -0,0 +1,165 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.SchemaChange;
+import pt.uminho.haslab.safemapper.SchemaChangeListener;
+import pt.uminho.haslab.safemapper.SchemaDiff;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaDiffTest {
+
+    private static final String ORDERS = "<table><name>orders</name><key><cryptotechnique>FPE</cryptotechnique>"
+            + "<instance>FF1</instance><radix>10</radix><tweak>t</tweak></key><columns>"
+            + "<family><name>f</name><cryptotechnique>STD</cryptotechnique>"
+            + "<qualifier><name>a</name><cryptotechnique>OPE</cryptotechnique></qualifier>"
+            + "<qualifier><name>b</name><colformatsize>4</colformatsize></qualifier>"
+            + "<qualifier><name>c</name><cryptotechnique>FPE</cryptotechnique><instance>FF1</instance>"
+            + "<radix>10</radix><tweak>x</tweak></qualifier>"
+            + "<qualifierpattern><name>m_*</name><cryptotechnique>DET</cryptotechnique></qualifierpattern>"
+            + "<qualifierpattern><name>n_*</name><cryptotechnique>XOR</cryptotechnique></qualifierpattern>"
+            + "</family><family><name>g</name><qualifier><name>z</name></qualifier></family>"
+            + "</columns></table>";
+
+    private static final String USERS = "<table><name>users</name><columns><family><name>u</name>"
+            + "<qualifier><name>name</name></qualifier></family></columns></table>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DatabaseSchema parse(String tables) {
+        return new DatabaseSchema(new ByteArrayInputStream(SchemaFixtures.schema(tables).getBytes(SchemaFixtures.UTF8)));
+    }
+
+    private String describe(SchemaDiff diff) {
+        StringBuilder sb = new StringBuilder();
+        for (SchemaChange change : diff.getChanges()) {
+            sb.append(change).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void identicalSchemasHaveNoChanges() {
+        assertTrue(SchemaDiff.compare(parse(ORDERS + USERS), parse(ORDERS + USERS)).isEmpty());
+    }
+
+    @Test
+    public void changesAreReportedPerElement() {
+        String modified = ORDERS
+                .replace("<radix>10</radix><tweak>t</tweak>", "<radix>16</radix><tweak>t</tweak>")
+                .replace("<name>a</name><cryptotechnique>OPE", "<name>a</name><cryptotechnique>DET")
+                .replace("<colformatsize>4</colformatsize>", "<colformatsize>8</colformatsize>")
+                .replace("<tweak>x</tweak>", "<tweak>y</tweak>")
+                .replace("<qualifierpattern><name>m_*</name><cryptotechnique>DET</cryptotechnique></qualifierpattern>"
+                        + "<qualifierpattern><name>n_*</name><cryptotechnique>XOR</cryptotechnique></qualifierpattern>",
+                        "<qualifierpattern><name>n_*</name><cryptotechnique>XOR</cryptotechnique></qualifierpattern>"
+                        + "<qualifierpattern><name>m_*</name><cryptotechnique>DET</cryptotechnique></qualifierpattern>")
+                .replace("<family><name>g</name><qualifier><name>z</name></qualifier></family>",
+                        "<family><name>h</name></family>");
+        SchemaDiff diff = SchemaDiff.compare(parse(ORDERS + USERS), parse(modified));
+
+        assertEquals("REMOVED TABLE users\n"
+                + "MODIFIED KEY orders [RADIX]\n"
+                + "REMOVED FAMILY orders:g\n"
+                + "MODIFIED FAMILY orders:f [PATTERN_ORDER]\n"
+                + "REMOVED QUALIFIER orders:f:a_STD\n"
+                + "MODIFIED QUALIFIER orders:f:a [CRYPTO_TYPE]\n"
+                + "MODIFIED QUALIFIER orders:f:b [FORMAT_SIZE]\n"
+                + "MODIFIED QUALIFIER orders:f:c [TWEAK]\n"
+                + "ADDED FAMILY orders:h\n", describe(diff));
+
+        SchemaChange a = diff.getChanges("orders").get(4);
+        assertEquals(DatabaseSchema.CryptoType.OPE, ((pt.uminho.haslab.safemapper.Qualifier) a.getBefore()).getCryptoType());
+        assertEquals(EnumSet.of(SchemaChange.Property.CRYPTO_TYPE), a.getChangedProperties());
+        SchemaChange removed = diff.getChanges("users").get(0);
+        assertNull(removed.getAfter());
+
+        assertTrue(diff.isAffected("orders", "f", "a"));
+        assertTrue(diff.isAffected("orders", "f", "m_1"));
+        assertTrue(diff.isAffected("users", "u", "name"));
+        assertTrue(diff.isAffected("orders", "h", "x"));
+        assertFalse(diff.isAffected("missing", "f", "a"));
+    }
+
+    @Test
+    public void defaultsAndNewTablesAreReported() {
+        SchemaDiff diff = SchemaDiff.compare(parse(ORDERS),
+                parse(ORDERS.replace("<name>orders</name>", "<name>orders</name><default><columns>XOR</columns></default>")
+                        + USERS));
+        assertEquals("MODIFIED TABLE orders [DEFAULTS]\n"
+                + "MODIFIED FAMILY orders:g [CRYPTO_TYPE]\n"
+                + "MODIFIED QUALIFIER orders:g:z [CRYPTO_TYPE]\n"
+                + "ADDED TABLE users\n", describe(diff));
+        assertTrue(diff.isAffected("orders", "g", "z"));
+        assertTrue(diff.isAffected("users", "u", "name"));
+    }
+
+    @Test
+    public void listenersReceiveTheChangesOfAReload() throws IOException {
+        File file = SchemaFixtures.write(folder.newFile("schema.xml"), SchemaFixtures.schema(ORDERS + USERS));
+        DatabaseSchema schema = new DatabaseSchema(file.getPath());
+        final List<SchemaDiff> diffs = new ArrayList<SchemaDiff>();
+        SchemaChangeListener listener = new SchemaChangeListener() {
+            @Override
+            public void schemaChanged(DatabaseSchema schema, SchemaDiff diff) {
+                diffs.add(diff);
+            }
+        };
+        schema.addChangeListener(listener);
+        schema.addChangeListener(new SchemaChangeListener() {
+            @Override
+            public void schemaChanged(DatabaseSchema schema, SchemaDiff diff) {
+                throw new IllegalStateException("Failing listeners must not fail the reload.");
+            }
+        });
+
+        assertFalse(schema.reload());
+        SchemaFixtures.write(file, SchemaFixtures.schema(ORDERS + USERS.replace("<qualifier><name>name</name></qualifier>",
+                "<qualifier><name>name</name></qualifier><qualifier><name>age</name></qualifier>")));
+        assertTrue(schema.reload());
+        assertEquals(1, diffs.size());
+        assertEquals("ADDED QUALIFIER users:u:age\n", describe(diffs.get(0)));
+
+        //  Whitespace changes parse the table again but do not change it
+        SchemaFixtures.write(file, SchemaFixtures.schema(ORDERS + USERS.replace("<qualifier><name>age</name></qualifier>",
+                "<qualifier><name>age</name></qualifier> ").replace("<qualifier><name>name</name></qualifier>",
+                "<qualifier><name>name</name></qualifier><qualifier><name>age</name></qualifier>")));
+        schema.reload();
+        assertEquals(1, diffs.size());
+
+        schema.removeChangeListener(listener);
+        SchemaFixtures.write(file, SchemaFixtures.schema(ORDERS));
+        assertTrue(schema.reload());
+        assertEquals(1, diffs.size());
+    }
+
+    @Test
+    public void largeTablesAreComparedByName() {
+        StringBuilder before = new StringBuilder("<table><name>wide</name><columns><family><name>f</name>");
+        for (int i = 0; i < 100000; i++) {
+            before.append("<qualifier><name>q").append(i).append("</name></qualifier>");
+        }
+        String table = before.append("</family></columns></table>").toString();
+        DatabaseSchema a = parse(table);
+        DatabaseSchema b = parse(table.replace("<name>q99999</name>", "<name>q99999</name><colformatsize>3</colformatsize>"));
+        Family family = b.getSchema("wide").getFamily("f");
+        assertEquals(100000, family.getQualifierCount());
+
+        SchemaDiff diff = SchemaDiff.compare(a, b);
+        assertEquals("MODIFIED QUALIFIER wide:f:q99999 [FORMAT_SIZE]\n", describe(diff));
+    }
+
+}
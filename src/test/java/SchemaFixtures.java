@@ -0,0 +1,79 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Scanner;
+
+/**
+ * SchemaFixtures class.
+ * Schema documents and schema file helpers shared by the tests.
+ */
+final class SchemaFixtures {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    //  Database defaults of the generated schemas: DET columns, padded
+    static final String DEFAULTS = "<default><key>PLT</key><columns>DET</columns><keypadding>false</keypadding>"
+            + "<colpadding>true</colpadding><keyformatsize>8</keyformatsize><colformatsize>12</colformatsize>"
+            + "<encryptionmode>enable</encryptionmode></default>";
+
+    //  Database defaults with PLT columns, not padded
+    static final String PLAIN_DEFAULTS = "<default><key>PLT</key><columns>PLT</columns><keypadding>false</keypadding>"
+            + "<colpadding>false</colpadding><keyformatsize>8</keyformatsize><colformatsize>12</colformatsize>"
+            + "<encryptionmode>enable</encryptionmode></default>";
+
+    private SchemaFixtures() {
+    }
+
+    /**
+     * @return the Clinidata schema of the test resources (q_engine.xml)
+     */
+    static String readSchema() {
+        InputStream in = SchemaFixtures.class.getResourceAsStream("/q_engine.xml");
+        Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+        try {
+            return scanner.next();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * @return a schema document with DEFAULTS and the given <table> elements
+     */
+    static String schema(String tables) {
+        return "<schema>" + DEFAULTS + tables + "</schema>";
+    }
+
+    /**
+     * write(file : File, content : String) method : write content to a file, encoded in UTF-8
+     *
+     * @return the file
+     */
+    static File write(File file, String content) throws IOException {
+        return write(file, content, UTF8);
+    }
+
+    static File write(File file, String content, Charset charset) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(charset));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * write(directory : File, name : String, content : String) method : write content to a file of a directory,
+     * encoded in UTF-8
+     *
+     * @return the file
+     */
+    static File write(File directory, String name, String content) throws IOException {
+        return write(new File(directory, name), content);
+    }
+
+}
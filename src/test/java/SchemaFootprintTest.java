@@ -0,0 +1,92 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.SchemaFootprint;
+import pt.uminho.haslab.safemapper.SchemaSnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaFootprintTest {
+
+    private String table(String name, int qualifiers) {
+        StringBuilder sb = new StringBuilder("<table><name>" + name + "</name><columns><family><name>f</name>");
+        for (int i = 0; i < qualifiers; i++) {
+            sb.append("<qualifier><name>q").append(i).append("</name><cryptotechnique>OPE</cryptotechnique>")
+                    .append("<misc><property>type</property><type>Integer</type></misc></qualifier>");
+        }
+        return sb.append("</family></columns></table>").toString();
+    }
+
+    private DatabaseSchema load() {
+        String xml = "<schema>" + SchemaFixtures.DEFAULTS + table("a", 50) + table("b", 50) + table("c", 500) + "</schema>";
+        return new DatabaseSchema(new ByteArrayInputStream(xml.getBytes(SchemaFixtures.UTF8)));
+    }
+
+    private Qualifier qualifier(DatabaseSchema schema, String table, String name) {
+        return schema.getSchema(table).getFamily("f").getQualifier(name);
+    }
+
+    private void assertShared(DatabaseSchema schema) {
+        Qualifier a = qualifier(schema, "a", "q1");
+        Qualifier b = qualifier(schema, "b", "q1");
+        assertNotSame(a, b);
+        assertSame(a.getName(), b.getName());
+        assertSame(a.getProperties(), b.getProperties());
+        assertSame(a.getProperties(), qualifier(schema, "a", "q2").getProperties());
+        assertSame(a.getProperties(), qualifier(schema, "a", "q1_STD").getProperties());
+        assertSame(schema.getSchema("a").getFamily(0).getFamilyName(), schema.getSchema("b").getFamily(0).getFamilyName());
+        assertTrue(schema.getSchema("a").isIntegerColumn("f", "q1"));
+    }
+
+    @Test
+    public void identicalConfigurationsAreShared() throws IOException {
+        DatabaseSchema schema = load();
+        assertShared(schema);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SchemaSnapshot.write(schema, out);
+        assertShared(SchemaSnapshot.read(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    public void sharedPropertiesAreCopiedOnWrite() {
+        DatabaseSchema schema = load();
+        qualifier(schema, "a", "q1").setProperty("type", "String");
+
+        assertEquals("String", qualifier(schema, "a", "q1").getProperty("type"));
+        assertEquals("Integer", qualifier(schema, "b", "q1").getProperty("type"));
+        assertTrue(schema.getSchema("b").isIntegerColumn("f", "q1"));
+        assertTrue(!schema.getSchema("a").isIntegerColumn("f", "q1"));
+    }
+
+    @Test
+    public void footprintIsReportedPerTable() {
+        SchemaFootprint footprint = load().getFootprint();
+        long a = footprint.getTableBytes("a");
+        long b = footprint.getTableBytes("b");
+        long c = footprint.getTableBytes("c");
+
+        assertEquals(3, footprint.getTableBytes().size());
+        assertTrue(a > 0);
+        assertTrue(c > 5 * a);
+        assertTrue(footprint.getSharedBytes() > 0);
+        assertEquals(a + b + c - footprint.getSharedBytes(), footprint.getTotalBytes());
+        assertTrue(footprint.toString().startsWith("Schema Footprint\n"));
+        assertTrue(footprint.toString().indexOf("> c: " + c) < footprint.toString().indexOf("> a: " + a));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void unknownTablesAreRejected() {
+        load().getFootprint().getTableBytes("missing");
+    }
+
+}
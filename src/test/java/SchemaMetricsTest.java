@@ -0,0 +1,130 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.SchemaMetrics;
+import pt.uminho.haslab.safemapper.TableMetrics;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaMetricsTest {
+
+    private static final String PATIENT = "R-maxdata-CLINIDATA_NEW-DTW_PATIENT";
+
+    private DatabaseSchema load() {
+        return new DatabaseSchema(getClass().getResourceAsStream("/q_engine.xml"));
+    }
+
+    @Test
+    public void lookupsAreCountedPerTable() {
+        DatabaseSchema schema = load();
+        TableSchema patient = schema.getSchema(PATIENT);
+        TableMetrics metrics = schema.getMetrics().getTableMetrics(PATIENT);
+        assertSame(metrics, patient.getMetrics());
+
+        patient.getCryptoTypeFromQualifier("DQE", "1");
+        patient.getCryptoTypeFromQualifier("DQE", "missing");
+        patient.getCryptoTypeFromQualifier("DQE", "missing");
+        byte[] cell = "DQEother".getBytes();
+        DatabaseSchema.isProtectedColumn(patient, cell, 0, 3, cell, 3, 5);
+
+        assertEquals(4, metrics.getLookups());
+        assertEquals(1, metrics.getHits());
+        assertEquals(3, metrics.getDefaultFallbacks());
+        Map<String, Long> top = metrics.getTopUndefinedColumns(1);
+        assertEquals(1, top.size());
+        assertEquals(Long.valueOf(2), top.get("DQE:missing"));
+        assertEquals(Long.valueOf(1), metrics.getUndefinedColumns().get("DQE:other"));
+        assertEquals(4, schema.getMetrics().getLookups());
+
+        metrics.reset();
+        assertEquals(0, metrics.getLookups());
+        assertTrue(metrics.getUndefinedColumns().isEmpty());
+    }
+
+    @Test
+    public void trackedColumnsAreCapped() {
+        TableSchema patient = load().getSchema(PATIENT);
+        TableMetrics metrics = patient.getMetrics();
+        byte[] family = "DQE".getBytes();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                byte[] qualifier = ("missing" + i).getBytes();
+                DatabaseSchema.isProtectedColumn(patient, family, 0, family.length, qualifier, 0, qualifier.length);
+            }
+        }
+
+        assertEquals(300, metrics.getDefaultFallbacks());
+        Map<String, Long> tracked = metrics.getUndefinedColumns();
+        assertEquals(64, tracked.size());
+        long sum = 0;
+        for (Long count : tracked.values()) {
+            assertEquals(Long.valueOf(3), count);
+            sum += count;
+        }
+        assertEquals(300 - sum, metrics.getOtherUndefinedColumns());
+
+        metrics.reset();
+        patient.getCryptoTypeFromQualifier("DQE", "missing99");
+        assertEquals(Long.valueOf(1), metrics.getUndefinedColumns().get("DQE:missing99"));
+    }
+
+    @Test
+    public void stringAndByteFallbacksShareTheirColumn() {
+        TableSchema patient = load().getSchema(PATIENT);
+        TableMetrics metrics = patient.getMetrics();
+        String[] qualifiers = {"caf\u00e9", "\u20ac\ud83d\ude00", "x\ud800", "\u0000"};
+        for (String qualifier : qualifiers) {
+            byte[] family = "DQE".getBytes(Charset.forName("UTF-8"));
+            byte[] bytes = qualifier.getBytes(Charset.forName("UTF-8"));
+            patient.getCryptoTypeFromQualifier("DQE", qualifier);
+            patient.getCryptoTypeFromQualifier(family, 0, family.length, bytes, 0, bytes.length);
+        }
+
+        Map<String, Long> tracked = metrics.getUndefinedColumns();
+        assertEquals(qualifiers.length, tracked.size());
+        for (String qualifier : qualifiers) {
+            String column = "DQE:" + new String(qualifier.getBytes(Charset.forName("UTF-8")), Charset.forName("UTF-8"));
+            assertEquals(Long.valueOf(2), tracked.get(column));
+        }
+    }
+
+    @Test
+    public void parseIsTimed() {
+        SchemaMetrics metrics = load().getMetrics();
+        assertEquals(1, metrics.getParseCount());
+        assertTrue(metrics.getLastParseNanos() > 0);
+        assertEquals(metrics.getLastParseNanos(), metrics.getTotalParseNanos());
+        assertEquals(0, metrics.getReloadCount());
+    }
+
+    @Test
+    public void metricsAreExposedAsMBeans() throws Exception {
+        DatabaseSchema schema = load();
+        schema.getSchema(PATIENT).getCryptoTypeFromQualifier("DQE", "missing");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName database = new ObjectName("pt.uminho.haslab.safemapper:type=DatabaseSchema,name=\"metrics-test\"");
+        ObjectName table = new ObjectName("pt.uminho.haslab.safemapper:type=TableSchema,schema=\"metrics-test\",table="
+                + ObjectName.quote(PATIENT));
+
+        schema.getMetrics().registerMBeans("metrics-test");
+        try {
+            assertEquals(1L, server.getAttribute(database, "ParseCount"));
+            assertEquals(1L, server.getAttribute(table, "DefaultFallbacks"));
+        } finally {
+            schema.getMetrics().unregisterMBeans();
+        }
+        assertFalse(server.isRegistered(database));
+        assertFalse(server.isRegistered(table));
+    }
+
+}
@@ -0,0 +1,64 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.KeyFPE;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaParserTest {
+
+    private static final String TABLE = "<table><columns><family><qualifier><name>q</name><misc><property>type</property>"
+            + "<type>Integer</type></misc></qualifier><name>f</name></family></columns>"
+            + "<key><cryptotechnique>FPE</cryptotechnique><instance>FF1</instance><radix>10</radix><tweak>t</tweak></key>"
+            + "<name>t1</name></table>";
+
+    private DatabaseSchema parse(String xml) {
+        return new DatabaseSchema(new ByteArrayInputStream(xml.getBytes(SchemaFixtures.UTF8)));
+    }
+
+    @Test
+    public void streamAndBufferMatchFile() {
+        String xml = SchemaFixtures.readSchema();
+        DatabaseSchema fromFile = new DatabaseSchema(getClass().getResource("/q_engine.xml").getFile());
+        DatabaseSchema fromStream = parse(xml);
+        ByteBuffer buffer = ByteBuffer.wrap(xml.getBytes(SchemaFixtures.UTF8));
+        DatabaseSchema fromBuffer = new DatabaseSchema(buffer);
+
+        assertEquals(fromFile.getSchemas(), fromStream.getSchemas());
+        assertEquals(fromFile.getSchemas(), fromBuffer.getSchemas());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void elementOrderDoesNotMatter() {
+        TableSchema table = parse("<schema>" + TABLE + SchemaFixtures.DEFAULTS + "</schema>").getSchema("t1");
+
+        assertEquals(DatabaseSchema.CryptoType.DET, table.getCryptoTypeFromQualifier("f", "q"));
+        assertEquals(Integer.valueOf(12), table.getFormatSizeFromQualifier("f", "q"));
+        assertTrue(table.getColumnPadding("f", "q"));
+        assertTrue(table.isIntegerColumn("f", "q"));
+        assertTrue(table.getKey() instanceof KeyFPE);
+        assertEquals(8, table.getKey().getFormatSize());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void missingDefaultsAreRejected() {
+        parse("<schema>" + TABLE + "</schema>");
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void missingColumnsAreRejected() {
+        parse("<schema>" + SchemaFixtures.DEFAULTS + "<table><name>t1</name></table></schema>");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void malformedDocumentsAreRejected() {
+        parse("<schema>" + SchemaFixtures.DEFAULTS + "<table>");
+    }
+
+}
@@ -0,0 +1,275 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.SchemaChangeListener;
+import pt.uminho.haslab.safemapper.SchemaDiff;
+import pt.uminho.haslab.safemapper.SchemaRegistry;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaRegistryTest {
+
+    private static final String PATIENT = "R-maxdata-CLINIDATA_NEW-DTW_PATIENT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameSourceIsSharedUntilReleased() throws IOException {
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        SchemaRegistry registry = new SchemaRegistry();
+
+        DatabaseSchema first = registry.acquire(file.getPath());
+        DatabaseSchema second = registry.acquire(file.getParent() + File.separator + "." + File.separator + "schema.xml");
+        assertSame(first, second);
+        assertEquals(2, registry.getReferenceCount(first));
+        assertEquals(1, registry.size());
+        assertTrue(first.containsKey(PATIENT));
+
+        assertFalse(registry.release(first));
+        assertEquals(1, registry.getReferenceCount(first));
+        assertTrue(registry.release(second));
+        assertEquals(0, registry.getReferenceCount(first));
+        assertEquals(0, registry.size());
+
+        DatabaseSchema third = registry.acquire(file.getPath());
+        assertNotSame(first, third);
+        assertTrue(registry.release(third));
+    }
+
+    @Test
+    public void changedContentIsLoadedAgain() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, xml);
+        SchemaRegistry registry = new SchemaRegistry();
+
+        DatabaseSchema before = registry.acquire(file.getPath());
+        SchemaFixtures.write(file, xml.replace("<keyformatsize>10</keyformatsize>", "<keyformatsize>12</keyformatsize>"));
+        DatabaseSchema after = registry.acquire(file.getPath());
+        assertNotSame(before, after);
+        assertEquals(10, before.getSchema(PATIENT).getDefaultKeyFormatSize());
+        assertEquals(12, after.getSchema(PATIENT).getDefaultKeyFormatSize());
+        assertEquals(2, registry.size());
+
+        //  Rewriting the same content does not load it again
+        SchemaFixtures.write(file, xml.replace("<keyformatsize>10</keyformatsize>", "<keyformatsize>12</keyformatsize>"));
+        assertSame(after, registry.acquire(file.getPath()));
+        assertEquals(2, registry.getReferenceCount(after));
+
+        assertTrue(registry.release(before));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void loadModesAreNotShared() throws IOException {
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        SchemaRegistry registry = new SchemaRegistry();
+
+        DatabaseSchema eager = registry.acquire(file.getPath());
+        DatabaseSchema lazy = registry.acquire(file.getPath(), DatabaseSchema.LoadMode.LAZY);
+        assertNotSame(eager, lazy);
+        assertEquals(DatabaseSchema.LoadMode.LAZY, lazy.getLoadMode());
+        assertSame(eager, registry.acquire(file.getPath(), DatabaseSchema.LoadMode.EAGER));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void releasingAnUnknownSchemaFails() throws IOException {
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        SchemaRegistry registry = new SchemaRegistry();
+
+        DatabaseSchema schema = registry.acquire(file.getPath());
+        registry.release(schema);
+        try {
+            registry.release(schema);
+            fail("Schema was released twice.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            registry.release(new DatabaseSchema(file.getPath()));
+            fail("Schema was not acquired from the registry.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failedLoadsAreNotKept() throws IOException {
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema().replace("<name>DQE</name>", "<name></name>"));
+        SchemaRegistry registry = new SchemaRegistry();
+
+        try {
+            registry.acquire(file.getPath());
+            fail("Invalid schema was loaded.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(0, registry.size());
+
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        DatabaseSchema schema = registry.acquire(file.getPath());
+        assertEquals(1, registry.getReferenceCount(schema));
+    }
+
+    @Test
+    public void concurrentAcquiresShareOneLoad() throws Exception {
+        final File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        final SchemaRegistry registry = new SchemaRegistry();
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<DatabaseSchema>> futures = new ArrayList<Future<DatabaseSchema>>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(pool.submit(new Callable<DatabaseSchema>() {
+                    @Override
+                    public DatabaseSchema call() {
+                        return registry.acquire(file.getPath());
+                    }
+                }));
+            }
+            DatabaseSchema schema = futures.get(0).get();
+            for (Future<DatabaseSchema> future : futures) {
+                assertSame(schema, future.get());
+            }
+            assertEquals(32, registry.getReferenceCount(schema));
+            assertEquals(1, registry.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void directoriesAreKeyedByTheirDocuments() throws IOException {
+        File directory = folder.newFolder("schemas");
+        String xml = SchemaFixtures.readSchema();
+        SchemaFixtures.write(new File(directory, "a.xml"), xml);
+        SchemaRegistry registry = new SchemaRegistry();
+
+        DatabaseSchema first = registry.acquire(directory.getPath());
+        assertSame(first, registry.acquire(directory.getPath()));
+
+        SchemaFixtures.write(new File(directory, "notes.txt"), "not a schema document");
+        assertSame(first, registry.acquire(directory.getPath()));
+
+        SchemaFixtures.write(new File(directory, "a.xml"), xml.replace("<keyformatsize>10</keyformatsize>", "<keyformatsize>12</keyformatsize>"));
+        assertNotSame(first, registry.acquire(directory.getPath()));
+    }
+
+    private void assertReadOnly(String message, Runnable change) {
+        try {
+            change.run();
+            fail(message + " changed a shared schema.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sharedSchemasAreReadOnly() throws IOException {
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        SchemaRegistry registry = new SchemaRegistry();
+
+        for (DatabaseSchema.LoadMode mode : DatabaseSchema.LoadMode.values()) {
+            final DatabaseSchema schema = registry.acquire(file.getPath(), mode);
+            assertTrue(schema.isShared());
+            final TableSchema table = schema.getSchema(PATIENT);
+            final Family family = table.getFamily(0);
+            final Qualifier qualifier = family.getQualifier(0);
+
+            assertReadOnly("reload", new Runnable() {
+                public void run() {
+                    schema.reload();
+                }
+            });
+            assertReadOnly("addChangeListener", new Runnable() {
+                public void run() {
+                    schema.addChangeListener(new SchemaChangeListener() {
+                        public void schemaChanged(DatabaseSchema changed, SchemaDiff diff) {
+                        }
+                    });
+                }
+            });
+            assertReadOnly("setTablename", new Runnable() {
+                public void run() {
+                    table.setTablename("other");
+                }
+            });
+            assertReadOnly("addFamily", new Runnable() {
+                public void run() {
+                    table.addFamily(new Family("extra", DatabaseSchema.CryptoType.DET, 4, false));
+                }
+            });
+            assertReadOnly("Family.setCryptoType", new Runnable() {
+                public void run() {
+                    family.setCryptoType(DatabaseSchema.CryptoType.OPE);
+                }
+            });
+            assertReadOnly("Qualifier.setProperty", new Runnable() {
+                public void run() {
+                    qualifier.setProperty("type", "Integer");
+                }
+            });
+            assertReadOnly("Key.setFormatSize", new Runnable() {
+                public void run() {
+                    table.getKey().setFormatSize(1);
+                }
+            });
+            assertEquals(PATIENT, table.getTablename());
+            assertEquals(10, table.getDefaultKeyFormatSize());
+        }
+
+        DatabaseSchema own = new DatabaseSchema(file.getPath());
+        assertFalse(own.isShared());
+        own.getSchema(PATIENT).setTablename("other");
+        own.reload();
+    }
+
+    @Test
+    public void mbeansAreUnregisteredOnLastRelease() throws Exception {
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, SchemaFixtures.readSchema());
+        SchemaRegistry registry = new SchemaRegistry();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("pt.uminho.haslab.safemapper:type=DatabaseSchema,name=\"registry-test\"");
+
+        DatabaseSchema schema = registry.acquire(file.getPath());
+        registry.acquire(file.getPath());
+        schema.getMetrics().registerMBeans("registry-test");
+        assertTrue(server.isRegistered(name));
+
+        assertFalse(registry.release(schema));
+        assertTrue(server.isRegistered(name));
+        assertTrue(registry.release(schema));
+        assertFalse(server.isRegistered(name));
+    }
+
+}
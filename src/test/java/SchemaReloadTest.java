@@ -0,0 +1,147 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.QualifierFPE;
+import pt.uminho.haslab.safemapper.SchemaReloader;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaReloadTest {
+
+    private static final String PATIENT = "R-maxdata-CLINIDATA_NEW-DTW_PATIENT";
+    private static final String RESULT = "R-maxdata-CLINIDATA_NEW-DTW_TEST_RESULT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reloadReparsesOnlyChangedTables() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, xml);
+
+        DatabaseSchema schema = new DatabaseSchema(file.getPath());
+        TableSchema patient = schema.getSchema(PATIENT);
+        TableSchema result = schema.getSchema(RESULT);
+
+        assertFalse(schema.reload());
+        assertSame(patient, schema.getSchema(PATIENT));
+
+        SchemaFixtures.write(file, xml.replace("<colformatsize>4000</colformatsize>", "<colformatsize>2000</colformatsize>"));
+        assertTrue(schema.reload());
+        assertSame(patient, schema.getSchema(PATIENT));
+        assertNotSame(result, schema.getSchema(RESULT));
+        assertEquals(Integer.valueOf(2000), schema.getSchema(RESULT).getFormatSizeFromQualifier("DQE", "3"));
+
+        SchemaFixtures.write(file, xml.replace("<keyformatsize>10</keyformatsize>", "<keyformatsize>12</keyformatsize>"));
+        assertTrue(schema.reload());
+        assertNotSame(patient, schema.getSchema(PATIENT));
+        assertEquals(12, schema.getSchema(PATIENT).getDefaultKeyFormatSize());
+    }
+
+    @Test
+    public void invalidReloadKeepsPreviousTables() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, xml);
+
+        DatabaseSchema schema = new DatabaseSchema(file.getPath());
+        TableSchema patient = schema.getSchema(PATIENT);
+
+        SchemaFixtures.write(file, xml.replace("<name>DQE</name>", "<name></name>"));
+        try {
+            schema.reload();
+            fail("An empty family name must be rejected.");
+        } catch (NullPointerException e) {
+            // expected, the family name is empty
+        }
+        assertSame(patient, schema.getSchema(PATIENT));
+        assertNull(schema.getSchema("missing"));
+        assertEquals(1, schema.getMetrics().getFailedReloadCount());
+        assertEquals(1, schema.getMetrics().getReloadCount());
+    }
+
+    private static String tweak(TableSchema table) {
+        return ((QualifierFPE) table.getFamily("f").getQualifier("c")).getTweak();
+    }
+
+    @Test
+    public void whitespaceValuesAndAttributesAreFingerprinted() throws IOException {
+        String xml = "<schema><default><key>PLT</key><columns>PLT</columns><keypadding>false</keypadding>"
+                + "<colpadding>false</colpadding><keyformatsize>8</keyformatsize><colformatsize>12</colformatsize>"
+                + "<encryptionmode>enable</encryptionmode></default><table><name>t</name><columns><family><name>f</name>"
+                + "<qualifier><name>c</name><cryptotechnique>FPE</cryptotechnique><instance>FF1</instance>"
+                + "<radix>10</radix><tweak> </tweak></qualifier></family></columns></table></schema>";
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, xml);
+
+        DatabaseSchema schema = new DatabaseSchema(file.getPath());
+        TableSchema table = schema.getSchema("t");
+        assertEquals(" ", tweak(table));
+
+        SchemaFixtures.write(file, xml.replace("<tweak> </tweak>", "<tweak>  </tweak>"));
+        assertTrue(schema.reload());
+        assertNotSame(table, schema.getSchema("t"));
+        assertEquals("  ", tweak(schema.getSchema("t")));
+
+        table = schema.getSchema("t");
+        SchemaFixtures.write(file, xml.replace("<tweak> </tweak>", "<tweak>  </tweak>").replace("<table>", "<table id=\"1\">"));
+        assertTrue(schema.reload());
+        assertNotSame(table, schema.getSchema("t"));
+    }
+
+    @Test
+    public void tablesChangedInMemoryAreParsedAgain() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, xml);
+
+        DatabaseSchema schema = new DatabaseSchema(file.getPath());
+        TableSchema patient = schema.getSchema(PATIENT);
+        TableSchema result = schema.getSchema(RESULT);
+        patient.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.OPE);
+
+        //  The file did not change, but the edited table no longer matches it
+        assertTrue(schema.reload());
+        assertNotSame(patient, schema.getSchema(PATIENT));
+        assertEquals(DatabaseSchema.CryptoType.PLT, schema.getSchema(PATIENT).getDefaultColumnsCryptoType());
+        assertSame(result, schema.getSchema(RESULT));
+        assertFalse(schema.reload());
+        assertSame(result, schema.getSchema(RESULT));
+    }
+
+    @Test
+    public void reloaderComparesTheContent() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = folder.newFile("schema.xml");
+        SchemaFixtures.write(file, xml);
+        long modified = file.lastModified();
+
+        DatabaseSchema schema = new DatabaseSchema(file.getPath());
+        SchemaReloader reloader = new SchemaReloader(schema, 60000);
+        try {
+            assertFalse(reloader.check());
+
+            //  Same size and modification time, different content
+            SchemaFixtures.write(file, xml.replace("<keyformatsize>10</keyformatsize>", "<keyformatsize>12</keyformatsize>"));
+            assertTrue(file.setLastModified(modified));
+            assertTrue(reloader.check());
+            assertEquals(12, schema.getSchema(PATIENT).getDefaultKeyFormatSize());
+            assertFalse(reloader.check());
+        } finally {
+            reloader.close();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.SchemaSnapshot;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaSnapshotTest {
+
+    private static final String RESULT = "R-maxdata-CLINIDATA_NEW-DTW_TEST_RESULT";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        DatabaseSchema schema = new DatabaseSchema(getClass().getResource("/q_engine.xml").getFile());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SchemaSnapshot.write(schema, out);
+        DatabaseSchema decoded = SchemaSnapshot.read(ByteBuffer.wrap(out.toByteArray()));
+
+        assertEquals(schema.getSchemas(), decoded.getSchemas());
+        assertEquals(schema.getDatabaseDefaultProperties(), decoded.getDatabaseDefaultProperties());
+        for (TableSchema table : schema.getSchemas().values()) {
+            assertEquals(table.getEnabledCryptoTypes(), decoded.getSchema(table.getTablename()).getEnabledCryptoTypes());
+        }
+    }
+
+    @Test
+    public void warmStartUsesSnapshotUntilSourceChanges() throws IOException {
+        String xml = SchemaFixtures.readSchema();
+        File file = folder.newFile("schema.xml");
+        File snapshot = new File(folder.getRoot(), "schema.bin");
+        SchemaFixtures.write(file, xml);
+
+        DatabaseSchema cold = SchemaSnapshot.load(file.getPath(), snapshot.getPath());
+        assertTrue(snapshot.isFile());
+        DatabaseSchema warm = SchemaSnapshot.load(file.getPath(), snapshot.getPath());
+        assertEquals(cold.getSchemas(), warm.getSchemas());
+        assertFalse(warm.reload());
+
+        SchemaFixtures.write(file, xml.replace("<colformatsize>4000</colformatsize>", "<colformatsize>2000</colformatsize>"));
+        DatabaseSchema changed = SchemaSnapshot.load(file.getPath(), snapshot.getPath());
+        assertEquals(Integer.valueOf(2000), changed.getSchema(RESULT).getFormatSizeFromQualifier("DQE", "3"));
+        assertEquals(changed.getSchemas(), SchemaSnapshot.read(snapshot).getSchemas());
+    }
+
+}
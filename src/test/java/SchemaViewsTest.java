@@ -0,0 +1,153 @@
+import org.junit.Test;
+import pt.uminho.haslab.safemapper.DatabaseSchema;
+import pt.uminho.haslab.safemapper.Family;
+import pt.uminho.haslab.safemapper.Qualifier;
+import pt.uminho.haslab.safemapper.TableSchema;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaViewsTest {
+
+    private TableSchema defineTable() {
+        TableSchema schema = new TableSchema();
+        schema.setTablename("views");
+        schema.setDefaultColumnsCryptoType(DatabaseSchema.CryptoType.PLT);
+        schema.addFamily(new Family("cf", DatabaseSchema.CryptoType.DET, 10, true));
+        schema.addQualifier("cf", new Qualifier("age", DatabaseSchema.CryptoType.OPE, 4, false, new HashMap<String, String>()));
+        return schema;
+    }
+
+    @Test
+    public void viewsAreReadOnly() {
+        TableSchema schema = defineTable();
+        Family family = schema.getFamily(0);
+        Qualifier age = family.getQualifier(0);
+
+        try {
+            schema.getColumnFamilies().add(new Family());
+            fail("The families view must be read-only.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            family.getQualifiers().remove(0);
+            fail("The qualifiers view must be read-only.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            age.getProperties().put("type", "integer");
+            fail("The properties view must be read-only.");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertTrue(new Qualifier().getProperties().isEmpty());
+    }
+
+    @Test
+    public void viewsAreSnapshotsOfTheirTime() {
+        TableSchema schema = defineTable();
+        List<Family> families = schema.getColumnFamilies();
+        List<Qualifier> qualifiers = schema.getFamily(0).getQualifiers();
+        assertSame(families, schema.getColumnFamilies());
+
+        schema.addQualifier("cf", new Qualifier("name", DatabaseSchema.CryptoType.STD, 0, false, new HashMap<String, String>()));
+        schema.addFamily(new Family("other", DatabaseSchema.CryptoType.PLT, 0, false));
+
+        assertEquals(1, families.size());
+        assertEquals(1, qualifiers.size());
+        assertEquals(2, schema.getColumnFamilies().size());
+        assertEquals(2, schema.getFamilyCount());
+        assertEquals("other", schema.getFamily(1).getFamilyName());
+        assertEquals(2, schema.getFamily(0).getQualifiers().size());
+        assertEquals(2, schema.getFamily(0).getQualifierCount());
+        assertEquals("name", schema.getFamily(0).getQualifier(1).getName());
+    }
+
+    @Test
+    public void viewsCanBeIteratedWhileTheSchemaChanges() throws InterruptedException {
+        final TableSchema schema = defineTable();
+        final Family family = schema.getFamily(0);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        for (Family f : schema.getColumnFamilies()) {
+                            f.getFamilyName();
+                        }
+                        for (Qualifier q : family.getQualifiers()) {
+                            q.getName();
+                        }
+                        for (Qualifier q : family.getQualifierPatterns()) {
+                            q.getName();
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                schema.addQualifier("cf", new Qualifier("q" + i, DatabaseSchema.CryptoType.STD, 0, false, new HashMap<String, String>()));
+                schema.addQualifierPattern("cf", new Qualifier("p" + i + "_*", DatabaseSchema.CryptoType.STD, 0, false, new HashMap<String, String>()));
+                schema.addFamily(new Family("f" + i, DatabaseSchema.CryptoType.PLT, 0, false));
+                if (i % 100 == 0) {
+                    Thread.yield();
+                }
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(error.get());
+        assertEquals(2001, schema.getFamilyCount());
+        assertEquals(2001, family.getQualifierCount());
+    }
+
+    @Test
+    public void setColumnPropertyUpdatesTheColumn() {
+        TableSchema schema = defineTable();
+        assertFalse(schema.isIntegerColumn("cf", "age"));
+        byte[] cf = "cf".getBytes();
+        byte[] age = "age".getBytes();
+        assertFalse(schema.isIntegerColumn(cf, 0, cf.length, age, 0, age.length));
+
+        schema.setColumnProperty("cf", "age", "type", "Integer");
+        assertEquals("Integer", schema.getFamily(0).getQualifier("age").getProperty("type"));
+        assertTrue(schema.isIntegerColumn("cf", "age"));
+        assertTrue(schema.isIntegerColumn(cf, 0, cf.length, age, 0, age.length));
+
+        schema.setColumnProperty("cf", "missing", "type", "integer");
+        assertNull(schema.getFamily(0).getQualifier("missing"));
+    }
+
+    @Test
+    public void setPropertyDoesNotLeakToSharedMaps() {
+        Map<String, String> shared = new HashMap<String, String>();
+        shared.put("type", "integer");
+        Qualifier ope = new Qualifier("age", DatabaseSchema.CryptoType.OPE, 4, false, shared);
+        Qualifier std = new Qualifier("age_STD", DatabaseSchema.CryptoType.STD, 4, false, shared);
+
+        ope.setProperty("type", "string");
+        assertEquals("string", ope.getProperty("type"));
+        assertEquals("integer", std.getProperty("type"));
+        assertEquals("integer", shared.get("type"));
+    }
+
+}